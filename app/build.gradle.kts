@@ -38,10 +38,15 @@ dependencies {
     implementation(libs.activity)
     implementation(libs.constraintlayout)
     implementation(libs.media3.exoplayer)
+    implementation(libs.media3.exoplayer.hls)
+    implementation(libs.media3.exoplayer.dash)
     implementation(libs.media3.ui)
     implementation(libs.room.common)
     implementation(libs.room.runtime)
+    implementation(libs.room.paging)
     implementation(libs.media3.session)
+    implementation(libs.paging.runtime)
+    implementation(libs.paging.guava)
     testImplementation(libs.junit)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
@@ -0,0 +1,226 @@
+package com.example.lab4;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.PlaybackException;
+import androidx.media3.common.Player;
+import androidx.media3.common.util.NetworkTypeObserver;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.analytics.AnalyticsListener;
+import androidx.media3.exoplayer.source.LoadEventInfo;
+import androidx.media3.exoplayer.source.MediaLoadData;
+import androidx.media3.exoplayer.trackselection.AdaptiveTrackSelection;
+import androidx.media3.exoplayer.trackselection.DefaultTrackSelector;
+import androidx.media3.exoplayer.upstream.DefaultAllocator;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@UnstableApi
+@RunWith(AndroidJUnit4.class)
+public class AdaptiveStreamingTest {
+
+    private static final String TAG = "AdaptiveStreamingTest";
+    private static final int[][] VIDEO_LADDER = {
+            {426, 240, 300_000},
+            {854, 480, 1_000_000},
+            {1280, 720, 2_500_000},
+            {1920, 1080, 5_000_000},
+    };
+    private static final int[] AUDIO_LADDER_KBPS = {64, 128, 320};
+    private static final int SEGMENT_FRAMES = 230;
+    private static final int SEGMENTS = 4;
+    private static final long THROTTLE_BYTES_PER_SECOND = 12 * 1024;
+
+    private Instrumentation instrumentation;
+    private Context context;
+    private LocalHttpServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = instrumentation.getTargetContext();
+        clearPersistedEstimates();
+        server = new LocalHttpServer(new byte[64], "application/octet-stream");
+        long deadline = SystemClock.elapsedRealtime() + 5_000;
+        while (NetworkTypeObserver.getInstance(context).getNetworkType() == C.NETWORK_TYPE_UNKNOWN
+                && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(50);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        for (String url : server.routeUrls()) {
+            MediaCache.getCache(context).removeResource(url);
+        }
+        clearPersistedEstimates();
+    }
+
+    @Test
+    public void startupFollowsThePersistedEstimate() throws Exception {
+        long estimate = 2_000_000;
+        new AdaptiveStreamingPolicy(context).saveBitrateEstimate(estimate);
+        String url = serveDash("/estimate");
+
+        Session session = play(url, false);
+        Format startup = session.startupFormat.get();
+        int[] expected = expectedRendition(session.parameters, estimate);
+        Log.i(TAG, "Persisted estimate " + estimate + " bps started at " + startup.bitrate + " bps, "
+                + startup.height + "p");
+        assertEquals(expected[2], startup.bitrate);
+        assertTrue(startup.bitrate < estimate);
+    }
+
+    @Test
+    public void fastNetworksAreStillCappedByNetworkTypeAndScreen() throws Exception {
+        long estimate = 50_000_000;
+        new AdaptiveStreamingPolicy(context).saveBitrateEstimate(estimate);
+        String url = serveDash("/capped");
+
+        Session session = play(url, false);
+        Format startup = session.startupFormat.get();
+        int[] expected = expectedRendition(session.parameters, estimate);
+        Log.i(TAG, "Network type " + NetworkTypeObserver.getInstance(context).getNetworkType() + " caps "
+                + session.parameters.maxVideoBitrate + " bps / " + session.parameters.maxVideoWidth + "x"
+                + session.parameters.maxVideoHeight + ", started at " + startup.width + "x" + startup.height);
+        assertEquals(expected[2], startup.bitrate);
+        assertTrue(startup.height <= session.parameters.maxVideoHeight || startup.bitrate == VIDEO_LADDER[0][2]);
+    }
+
+    @Test
+    public void persistedEstimateAvoidsRebufferingOnAThrottledServer() throws Exception {
+        server.bytesPerSecondPerConnection = THROTTLE_BYTES_PER_SECOND;
+
+        Session first = play(server.serveHlsAudio("/first", AUDIO_LADDER_KBPS, SEGMENT_FRAMES, SEGMENTS), true);
+        Session second = play(server.serveHlsAudio("/second", AUDIO_LADDER_KBPS, SEGMENT_FRAMES, SEGMENTS), true);
+
+        long throttleBps = THROTTLE_BYTES_PER_SECOND * 8;
+        Log.i(TAG, String.format(Locale.US, "Throttled to %d bps: first session started at %d bps with %d rebuffers, "
+                        + "second at %d bps with %d rebuffers", throttleBps,
+                first.startupFormat.get().bitrate, first.monitor.getRebuffers(),
+                second.startupFormat.get().bitrate, second.monitor.getRebuffers()));
+        assertTrue(second.startupFormat.get().bitrate < throttleBps);
+        assertTrue("Rebuffers did not drop: " + first.monitor.getRebuffers() + " -> " + second.monitor.getRebuffers(),
+                second.monitor.getRebuffers() < first.monitor.getRebuffers());
+    }
+
+    private Session play(String url, boolean toEnd) throws Exception {
+        Session session = new Session();
+        AtomicReference<ExoPlayer> playerRef = new AtomicReference<>();
+        instrumentation.runOnMainSync(() -> {
+            ExoPlayer player = PlaybackProfile.GAPLESS_MUSIC.buildPlayer(context);
+            player.setVolume(0f);
+            player.addAnalyticsListener(session);
+            player.addAnalyticsListener(session.monitor);
+            session.parameters = (DefaultTrackSelector.Parameters) player.getTrackSelectionParameters();
+            player.setMediaItem(MediaItem.fromUri(url));
+            player.prepare();
+            player.play();
+            playerRef.set(player);
+        });
+        try {
+            if (toEnd) {
+                assertTrue("Playback did not finish", session.ended.await(120, TimeUnit.SECONDS));
+                assertNull(session.error.get());
+            } else {
+                assertTrue("No media was requested", session.started.await(20, TimeUnit.SECONDS));
+            }
+        } finally {
+            instrumentation.runOnMainSync(() -> playerRef.get().release());
+        }
+        assertNotNull(session.startupFormat.get());
+        return session;
+    }
+
+    private String serveDash(String prefix) {
+        StringBuilder mpd = new StringBuilder()
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\" minBufferTime=\"PT2S\"")
+                .append(" mediaPresentationDuration=\"PT8S\" profiles=\"urn:mpeg:dash:profile:isoff-live:2011\">\n")
+                .append("<Period><AdaptationSet mimeType=\"video/mp4\" codecs=\"avc1.4d401f\" segmentAlignment=\"true\">\n")
+                .append("<SegmentTemplate timescale=\"1000\" duration=\"2000\" startNumber=\"1\"")
+                .append(" initialization=\"$RepresentationID$/init.mp4\" media=\"$RepresentationID$/$Number$.m4s\"/>\n");
+        for (int[] rendition : VIDEO_LADDER) {
+            mpd.append(String.format(Locale.US, "<Representation id=\"%dp\" width=\"%d\" height=\"%d\" bandwidth=\"%d\"/>\n",
+                    rendition[1], rendition[0], rendition[1], rendition[2]));
+        }
+        mpd.append("</AdaptationSet></Period></MPD>\n");
+        server.serve(prefix + "/manifest.mpd", mpd.toString().getBytes(StandardCharsets.UTF_8), "application/dash+xml");
+        return server.url(prefix + "/manifest.mpd");
+    }
+
+    private static int[] expectedRendition(DefaultTrackSelector.Parameters parameters, long estimate) {
+        long allocated = (long) (estimate * AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION);
+        int[] best = VIDEO_LADDER[0];
+        for (int[] rendition : VIDEO_LADDER) {
+            if (rendition[0] <= parameters.maxVideoWidth && rendition[1] <= parameters.maxVideoHeight
+                    && rendition[2] <= parameters.maxVideoBitrate && rendition[2] <= allocated) {
+                best = rendition;
+            }
+        }
+        return best;
+    }
+
+    private void clearPersistedEstimates() {
+        context.getSharedPreferences(AdaptiveStreamingPolicy.PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    private static final class Session implements AnalyticsListener {
+        final PlaybackGapMonitor monitor =
+                new PlaybackGapMonitor(TAG, new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE));
+        final AtomicReference<Format> startupFormat = new AtomicReference<>();
+        final AtomicReference<PlaybackException> error = new AtomicReference<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch ended = new CountDownLatch(1);
+        DefaultTrackSelector.Parameters parameters;
+
+        @Override
+        public void onLoadStarted(@NonNull EventTime eventTime, @NonNull LoadEventInfo loadEventInfo,
+                                  @NonNull MediaLoadData mediaLoadData) {
+            boolean mediaLoad = mediaLoadData.dataType == C.DATA_TYPE_MEDIA
+                    || mediaLoadData.dataType == C.DATA_TYPE_MEDIA_INITIALIZATION;
+            if (mediaLoad && mediaLoadData.trackFormat != null
+                    && startupFormat.compareAndSet(null, mediaLoadData.trackFormat)) {
+                started.countDown();
+            }
+        }
+
+        @Override
+        public void onPlaybackStateChanged(@NonNull EventTime eventTime, int state) {
+            if (state == Player.STATE_ENDED) {
+                ended.countDown();
+            }
+        }
+
+        @Override
+        public void onPlayerError(@NonNull EventTime eventTime, @NonNull PlaybackException playbackError) {
+            error.set(playbackError);
+            ended.countDown();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.database.StandaloneDatabaseProvider;
+import androidx.media3.datasource.ByteArrayDataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.CacheWriter;
+import androidx.media3.datasource.cache.ContentMetadataMutations;
+import androidx.media3.datasource.cache.SimpleCache;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.Download;
+import com.example.lab4.db.MediaDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@UnstableApi
+@RunWith(AndroidJUnit4.class)
+public class CachePromotionTest {
+
+    private static final String TAG = "CachePromotionTest";
+    private static final int PAYLOAD_BYTES = 8 * 1024 * 1024;
+    private static final int MIB = 1024 * 1024;
+
+    private Context context;
+    private AppDatabase db;
+    private MediaDao dao;
+    private LocalHttpServer server;
+    private SegmentedDownloader downloader;
+    private String url;
+    private File storedFile;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+        byte[] payload = new byte[PAYLOAD_BYTES];
+        new Random(23).nextBytes(payload);
+        server = new LocalHttpServer(payload, "audio/mpeg");
+        url = server.url("/stream_" + System.nanoTime() + ".mp3");
+        downloader = new SegmentedDownloader(context, db, SegmentedDownloader.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        downloader.shutdownNow();
+        MediaCache.getCache(context).removeResource(url);
+        server.close();
+        db.close();
+        if (storedFile != null) {
+            storedFile.delete();
+        }
+    }
+
+    @Test
+    public void promotingAPartlyPlayedStreamFetchesOnlyTheMissingRanges() throws Exception {
+        Cache cache = MediaCache.getCache(context);
+        cacheRange(0, 3 * MIB);
+        cacheRange(5 * MIB, MIB);
+        ContentMetadataMutations mutations = new ContentMetadataMutations();
+        ContentMetadataMutations.setContentLength(mutations, PAYLOAD_BYTES);
+        cache.applyContentMetadataMutations(url, mutations);
+        long servedByPlayback = server.bytesServed.get();
+
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean succeeded = new AtomicBoolean();
+        downloader.addListener((id, success) -> {
+            succeeded.set(success);
+            done.countDown();
+        });
+        long downloadId = downloader.enqueue(url, null, "Promoted").get(5, TimeUnit.SECONDS);
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertTrue(succeeded.get());
+
+        long servedByDownload = server.bytesServed.get() - servedByPlayback;
+        Download download = dao.getDownload(downloadId);
+        Log.i(TAG, "Promotion reused " + download.reusedBytes + " cached bytes and fetched " + servedByDownload);
+        assertEquals(4L * MIB, download.reusedBytes);
+        assertEquals(4L * MIB, dao.getReusedDownloadBytes());
+        assertTrue("Fetched " + servedByDownload + " bytes", servedByDownload <= PAYLOAD_BYTES - 4L * MIB + 1);
+
+        storedFile = new File(download.filePath);
+        byte[] expected = new byte[PAYLOAD_BYTES];
+        new Random(23).nextBytes(expected);
+        assertEquals(sha256(expected), MediaBlobStore.adopt(storedFile, null).digest);
+    }
+
+    @Test
+    public void pinnedResourcesAreNotEvicted() throws Exception {
+        File cacheDir = new File(context.getCacheDir(), "pin_test_" + System.nanoTime());
+        PinnableCacheEvictor evictor = new PinnableCacheEvictor(MIB);
+        SimpleCache cache = new SimpleCache(cacheDir, evictor, new StandaloneDatabaseProvider(context));
+        try {
+            String pinned = "test://pinned";
+            writeResource(cache, pinned, 768 * 1024);
+            evictor.pin(pinned);
+            writeResource(cache, "test://other_1", 768 * 1024);
+            assertTrue(cache.isCached(pinned, 0, 768 * 1024));
+
+            evictor.unpin(pinned);
+            writeResource(cache, "test://other_2", 768 * 1024);
+            assertFalse(cache.isCached(pinned, 0, 768 * 1024));
+        } finally {
+            cache.release();
+            SimpleCache.delete(cacheDir, new StandaloneDatabaseProvider(context));
+        }
+    }
+
+    private void cacheRange(long position, long length) throws Exception {
+        DataSpec dataSpec = new DataSpec.Builder()
+                .setUri(Uri.parse(url))
+                .setPosition(position)
+                .setLength(length)
+                .build();
+        new CacheWriter(MediaCache.getCacheDataSourceFactory(context).createDataSource(), dataSpec, null, null).cache();
+    }
+
+    private static void writeResource(Cache cache, String key, int size) throws Exception {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        CacheDataSource dataSource = new CacheDataSource(cache, new ByteArrayDataSource(data));
+        new CacheWriter(dataSource, new DataSpec(Uri.parse(key)), null, null).cache();
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.Download;
+import com.example.lab4.db.DownloadSegment;
+import com.example.lab4.db.MediaDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DownloadFaultInjectionTest {
+
+    private static final String TAG = "DownloadFaultInjection";
+    private static final int PAYLOAD_BYTES = 8 * 1024 * 1024;
+    private static final int DROPPED_CONNECTIONS = 25;
+    private static final long RETRY_BASE_DELAY_MS = 20;
+
+    private Context context;
+    private AppDatabase db;
+    private MediaDao dao;
+    private LocalHttpServer server;
+    private final List<SegmentedDownloader> downloaders = new ArrayList<>();
+    private final List<File> storedFiles = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (SegmentedDownloader downloader : downloaders) {
+            downloader.shutdownNow();
+        }
+        if (server != null) {
+            server.close();
+        }
+        db.close();
+        for (File file : storedFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void randomDropsStayWithinFivePercentOfTheFileSize() throws Exception {
+        byte[] payload = payload(PAYLOAD_BYTES, 1);
+        server = new LocalHttpServer(payload, "audio/mpeg");
+        server.replaceBody(payload, "\"v1\"");
+        server.dropsToServe.set(DROPPED_CONNECTIONS);
+
+        SegmentedDownloader downloader = newDownloader();
+        long downloadId = downloader.enqueue(server.url("/drops.mp3"), null, "Drops", sha256(payload))
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(awaitFinished(downloader, downloadId, 120));
+
+        long served = server.bytesServed.get();
+        Log.i(TAG, DROPPED_CONNECTIONS + " dropped connections: " + served + " bytes served for a " + PAYLOAD_BYTES
+                + " byte file over " + server.requests.get() + " requests, " + dao.getDownload(downloadId).attempts
+                + " job retries");
+        assertEquals(DROPPED_CONNECTIONS, server.faultsServed.get());
+        assertStored(downloadId, payload);
+        assertTrue("Transferred " + served + " bytes", served <= PAYLOAD_BYTES * 105L / 100);
+    }
+
+    @Test
+    public void changedRemoteFileRestartsInsteadOfSplicing() throws Exception {
+        byte[] original = payload(PAYLOAD_BYTES, 2);
+        byte[] replacement = payload(PAYLOAD_BYTES, 3);
+        server = new LocalHttpServer(original, "audio/mpeg");
+        server.replaceBody(original, "\"v1\"");
+        server.bytesPerSecondPerConnection = 2 * 1024 * 1024;
+
+        SegmentedDownloader first = newDownloader();
+        long downloadId = first.enqueue(server.url("/changing.mp3"), null, "Changing").get(5, TimeUnit.SECONDS);
+        long deadline = SystemClock.elapsedRealtime() + 20_000;
+        while (checkpointedBytes(downloadId) < PAYLOAD_BYTES / 4 && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(50);
+        }
+        first.shutdownNow();
+        assertEquals("\"v1\"", dao.getDownload(downloadId).etag);
+
+        server.replaceBody(replacement, "\"v2\"");
+        server.bytesPerSecondPerConnection = 0;
+        SegmentedDownloader second = newDownloader();
+        second.resumePending();
+        assertTrue(awaitFinished(second, downloadId, 60));
+
+        Download download = dao.getDownload(downloadId);
+        assertEquals(1, download.attempts);
+        assertEquals("\"v2\"", download.etag);
+        assertStored(downloadId, replacement);
+    }
+
+    @Test
+    public void checksumMismatchFailsAfterBoundedRetries() throws Exception {
+        byte[] payload = payload(1024 * 1024, 4);
+        server = new LocalHttpServer(payload, "audio/mpeg");
+        String wrongDigest = sha256(payload(1024 * 1024, 5));
+
+        SegmentedDownloader downloader = newDownloader();
+        long downloadId = downloader.enqueue(server.url("/corrupt.mp3"), null, "Corrupt", wrongDigest)
+                .get(5, TimeUnit.SECONDS);
+        assertFalse(awaitFinished(downloader, downloadId, 60));
+
+        Download download = dao.getDownload(downloadId);
+        assertEquals(Download.STATE_FAILED, download.state);
+        assertEquals(SegmentedDownloader.MAX_JOB_ATTEMPTS, download.attempts);
+        assertTrue(download.lastError, download.lastError.contains("Checksum mismatch"));
+        assertTrue(dao.getDownloadSegments(downloadId).isEmpty());
+        assertNull(download.filePath);
+        assertEquals(SegmentedDownloader.MAX_JOB_ATTEMPTS, server.requests.get() / 2);
+    }
+
+    @Test
+    public void queuedJobsSurviveARestartAndHonourTheirBackoff() throws Exception {
+        byte[] payload = payload(1024 * 1024, 6);
+        server = new LocalHttpServer(payload, "audio/mpeg");
+        Download queued = new Download(server.url("/queued.mp3"), null, "Queued");
+        queued.attempts = 1;
+        queued.createdAt = System.currentTimeMillis();
+        queued.updatedAt = queued.createdAt;
+        queued.nextAttemptAt = queued.createdAt + 1_500;
+        long downloadId = dao.insertDownload(queued);
+
+        SegmentedDownloader downloader = newDownloader();
+        CountDownLatch done = new CountDownLatch(1);
+        downloader.addListener((id, success) -> done.countDown());
+        downloader.resumePending();
+        assertFalse("Job ran before its backoff expired", done.await(1_000, TimeUnit.MILLISECONDS));
+        assertEquals(0, server.requests.get());
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() >= queued.nextAttemptAt);
+        assertStored(downloadId, payload);
+    }
+
+    private SegmentedDownloader newDownloader() {
+        SegmentedDownloader downloader = new SegmentedDownloader(context, db,
+                SegmentedDownloader.DEFAULT_MAX_CONNECTIONS, RETRY_BASE_DELAY_MS);
+        downloaders.add(downloader);
+        return downloader;
+    }
+
+    private boolean awaitFinished(SegmentedDownloader downloader, long downloadId, int timeoutSeconds) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean succeeded = new AtomicBoolean();
+        downloader.addListener((id, success) -> {
+            if (id == downloadId) {
+                succeeded.set(success);
+                done.countDown();
+            }
+        });
+        Download current = dao.getDownload(downloadId);
+        if (current.state == Download.STATE_COMPLETED || current.state == Download.STATE_FAILED) {
+            return current.state == Download.STATE_COMPLETED;
+        }
+        assertTrue("Download did not finish", done.await(timeoutSeconds, TimeUnit.SECONDS));
+        return succeeded.get();
+    }
+
+    private long checkpointedBytes(long downloadId) {
+        long total = 0;
+        for (DownloadSegment segment : dao.getDownloadSegments(downloadId)) {
+            total += segment.bytesWritten;
+        }
+        return total;
+    }
+
+    private void assertStored(long downloadId, byte[] expected) throws Exception {
+        Download download = dao.getDownload(downloadId);
+        assertEquals(Download.STATE_COMPLETED, download.state);
+        File stored = new File(download.filePath);
+        storedFiles.add(stored);
+        assertEquals(expected.length, stored.length());
+        assertEquals(sha256(expected), MediaBlobStore.adopt(stored, null).digest);
+    }
+
+    private static byte[] payload(int size, long seed) {
+        byte[] payload = new byte[size];
+        new Random(seed).nextBytes(payload);
+        return payload;
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
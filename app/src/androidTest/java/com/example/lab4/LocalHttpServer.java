@@ -0,0 +1,255 @@
+package com.example.lab4;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class LocalHttpServer implements Closeable {
+
+    private static final String TAG = "LocalHttpServer";
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final String contentType;
+    private final Random dropOffsets = new Random(22);
+    private volatile byte[] body;
+    private volatile String etag;
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+
+    volatile boolean rangesSupported = true;
+    volatile long bytesPerSecondPerConnection;
+    final AtomicInteger badContentRangesToServe = new AtomicInteger();
+    final AtomicInteger truncationsToServe = new AtomicInteger();
+    final AtomicInteger dropsToServe = new AtomicInteger();
+    final AtomicInteger faultsServed = new AtomicInteger();
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger peakConnections = new AtomicInteger();
+
+    LocalHttpServer(byte[] body, String contentType) throws IOException {
+        this.body = body;
+        this.contentType = contentType;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        workers.execute(this::acceptLoop);
+    }
+
+    void replaceBody(byte[] body, String etag) {
+        this.body = body;
+        this.etag = etag;
+    }
+
+    void serve(String path, byte[] body, String contentType) {
+        routes.put(path, new Route(body, contentType));
+    }
+
+    String serveHlsAudio(String prefix, int[] ladderKbps, int segmentFrames, int segments) {
+        double segmentSeconds = (double) segmentFrames * TestMediaFiles.MP3_SAMPLES_PER_FRAME / 44_100;
+        StringBuilder master = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n");
+        for (int kbps : ladderKbps) {
+            master.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(kbps * 1000).append(",CODECS=\"mp4a.40.34\"\n")
+                    .append(kbps).append("k/index.m3u8\n");
+            StringBuilder media = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-PLAYLIST-TYPE:VOD\n")
+                    .append("#EXT-X-TARGETDURATION:").append((int) Math.ceil(segmentSeconds)).append('\n')
+                    .append("#EXT-X-MEDIA-SEQUENCE:0\n");
+            byte[] segment = TestMediaFiles.silentMp3(kbps, segmentFrames);
+            for (int i = 0; i < segments; i++) {
+                media.append(String.format(Locale.US, "#EXTINF:%.3f,\n", segmentSeconds)).append(i).append(".mp3\n");
+                serve(prefix + "/" + kbps + "k/" + i + ".mp3", segment, "audio/mpeg");
+            }
+            media.append("#EXT-X-ENDLIST\n");
+            serve(prefix + "/" + kbps + "k/index.m3u8", media.toString().getBytes(StandardCharsets.UTF_8),
+                    "application/vnd.apple.mpegurl");
+        }
+        serve(prefix + "/master.m3u8", master.toString().getBytes(StandardCharsets.UTF_8),
+                "application/vnd.apple.mpegurl");
+        return url(prefix + "/master.m3u8");
+    }
+
+    List<String> routeUrls() {
+        List<String> urls = new ArrayList<>();
+        for (String path : routes.keySet()) {
+            urls.add(url(path));
+        }
+        return urls;
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    int peakConnections() {
+        return peakConnections.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        workers.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                workers.execute(() -> handle(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.w(TAG, "Accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        int active = activeConnections.incrementAndGet();
+        peakConnections.accumulateAndGet(active, Math::max);
+        requests.incrementAndGet();
+        boolean counted = true;
+        byte[] body = this.body;
+        String contentType = this.contentType;
+        String etag = this.etag;
+        try (Socket s = socket) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+            String requestLine = reader.readLine();
+            if (requestLine == null) return;
+            String[] requestParts = requestLine.split(" ");
+            Route route = requestParts.length > 1 ? routes.get(requestParts[1].split("\\?")[0]) : null;
+            if (route != null) {
+                body = route.body;
+                contentType = route.contentType;
+                etag = null;
+            }
+            String rangeHeader = null;
+            String ifRange = null;
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                String lower = line.toLowerCase(Locale.US);
+                if (lower.startsWith("range:")) {
+                    rangeHeader = line.substring(6).trim();
+                } else if (lower.startsWith("if-range:")) {
+                    ifRange = line.substring(9).trim();
+                }
+            }
+            boolean head = requestLine.startsWith("HEAD ");
+
+            long start = 0;
+            long end = body.length - 1;
+            boolean partial = false;
+            boolean validatorMatches = ifRange == null || ifRange.equals(etag);
+            if (rangeHeader != null && rangesSupported && validatorMatches && rangeHeader.startsWith("bytes=")) {
+                String[] bounds = rangeHeader.substring(6).split("-", -1);
+                start = Long.parseLong(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Long.parseLong(bounds[1]));
+                }
+                partial = true;
+            }
+            long length = end - start + 1;
+            boolean injectFaults = partial && length > 1;
+            long advertisedStart = start;
+            if (injectFaults && take(badContentRangesToServe)) {
+                advertisedStart = start + 1;
+                faultsServed.incrementAndGet();
+            }
+            long sendLength = length;
+            if (injectFaults && take(truncationsToServe)) {
+                sendLength = length / 2;
+                faultsServed.incrementAndGet();
+            } else if (length > 1 && take(dropsToServe)) {
+                synchronized (dropOffsets) {
+                    sendLength = (long) (dropOffsets.nextDouble() * length);
+                }
+                faultsServed.incrementAndGet();
+            }
+
+            StringBuilder headers = new StringBuilder();
+            headers.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+            headers.append("Content-Type: ").append(contentType).append("\r\n");
+            headers.append("Content-Length: ").append(length).append("\r\n");
+            if (rangesSupported) {
+                headers.append("Accept-Ranges: bytes\r\n");
+            }
+            if (etag != null) {
+                headers.append("ETag: ").append(etag).append("\r\n");
+            }
+            if (partial) {
+                headers.append("Content-Range: bytes ").append(advertisedStart).append('-').append(end)
+                        .append('/').append(body.length).append("\r\n");
+            }
+            headers.append("Connection: close\r\n\r\n");
+            OutputStream out = s.getOutputStream();
+            out.write(headers.toString().getBytes(StandardCharsets.ISO_8859_1));
+            if (!head) {
+                writeThrottled(out, body, (int) start, sendLength);
+            }
+            activeConnections.decrementAndGet();
+            counted = false;
+            out.flush();
+        } catch (IOException e) {
+            Log.d(TAG, "Connection ended early: " + e.getMessage());
+        } finally {
+            if (counted) {
+                activeConnections.decrementAndGet();
+            }
+        }
+    }
+
+    private void writeThrottled(OutputStream out, byte[] body, int offset, long length) throws IOException {
+        long written = 0;
+        long startedAtMs = SystemClock.elapsedRealtime();
+        while (written < length) {
+            int chunk = (int) Math.min(CHUNK_SIZE, length - written);
+            out.write(body, offset + (int) written, chunk);
+            written += chunk;
+            bytesServed.addAndGet(chunk);
+            long rate = bytesPerSecondPerConnection;
+            if (rate > 0) {
+                long dueAtMs = startedAtMs + written * 1000 / rate;
+                long waitMs = dueAtMs - SystemClock.elapsedRealtime();
+                if (waitMs > 0) {
+                    SystemClock.sleep(waitMs);
+                }
+            }
+        }
+    }
+
+    private static boolean take(AtomicInteger budget) {
+        int remaining;
+        do {
+            remaining = budget.get();
+            if (remaining <= 0) return false;
+        } while (!budget.compareAndSet(remaining, remaining - 1));
+        return true;
+    }
+
+    private static final class Route {
+        final byte[] body;
+        final String contentType;
+
+        Route(byte[] body, String contentType) {
+            this.body = body;
+            this.contentType = contentType;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.MediaBlob;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.MediaItem;
+import com.example.lab4.db.Playlist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class MediaBlobDedupTest {
+
+    private static final String TAG = "MediaBlobDedupTest";
+    private static final int DOWNLOADS = 50;
+    private static final int FILE_SIZE = 256 * 1024;
+
+    private Context context;
+    private AppDatabase db;
+    private MediaDao dao;
+    private File blobDir;
+    private final Set<File> blobFiles = new HashSet<>();
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+        blobDir = MediaBlobStore.getBlobDir(context);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : blobFiles) {
+            file.delete();
+        }
+        db.close();
+    }
+
+    @Test
+    public void fiftyDuplicateDownloadsEndUpAsOneFile() throws IOException {
+        byte[] content = new byte[FILE_SIZE];
+        new Random(System.nanoTime()).nextBytes(content);
+        long playlistId = dao.insertPlaylist(new Playlist("Downloads"));
+        File[] before = blobDir.listFiles();
+        int filesBefore = before != null ? before.length : 0;
+
+        for (int i = 0; i < DOWNLOADS; i++) {
+            File partFile = new File(blobDir, "download_dedup_" + i + ".part");
+            try (FileOutputStream out = new FileOutputStream(partFile)) {
+                out.write(content);
+            }
+            MediaBlobStore.PendingBlob pending = MediaBlobStore.adopt(partFile, "mp3");
+            int download = i;
+            File blobFile = db.runInTransaction(() -> {
+                File committed = MediaBlobStore.commit(context, dao, pending);
+                MediaItem item = new MediaItem(Uri.fromFile(committed).toString(), "Download " + download, playlistId);
+                item.blobDigest = pending.digest;
+                dao.insertMediaItem(item);
+                return committed;
+            });
+            blobFiles.add(blobFile);
+            assertFalse(partFile.exists());
+        }
+
+        File[] after = blobDir.listFiles();
+        assertNotNull(after);
+        Log.i(TAG, DOWNLOADS + " downloads of " + FILE_SIZE + " bytes: " + blobFiles.size() + " blob files, "
+                + dao.getStoredBlobBytes() + " bytes stored instead of " + (long) DOWNLOADS * FILE_SIZE);
+        assertEquals(1, blobFiles.size());
+        assertEquals(filesBefore + 1, after.length);
+        assertEquals(1, dao.getMediaBlobCount());
+        assertEquals(FILE_SIZE, dao.getStoredBlobBytes());
+
+        File blobFile = blobFiles.iterator().next();
+        assertEquals(FILE_SIZE, blobFile.length());
+        assertArrayEquals(content, readAll(blobFile));
+        List<MediaItem> items = dao.getMediaItemsForPlaylistSync(playlistId);
+        assertEquals(DOWNLOADS, items.size());
+        Set<Long> mediaIds = new HashSet<>();
+        for (MediaItem item : items) {
+            assertEquals(Uri.fromFile(blobFile).toString(), item.mediaUri);
+            mediaIds.add(item.mediaId);
+        }
+        assertEquals(1, mediaIds.size());
+        MediaBlob blob = dao.getMediaBlob(items.get(0).blobDigest);
+        assertNotNull(blob);
+        assertTrue(blob.refCount > 0);
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(bytes);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.lab4;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.PlaybackException;
+import androidx.media3.common.Player;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@UnstableApi
+@RunWith(AndroidJUnit4.class)
+public class MediaCacheTest {
+
+    private static final String TAG = "MediaCacheTest";
+    private static final int MP3_FRAMES = 230;
+
+    private Instrumentation instrumentation;
+    private Context context;
+    private LocalHttpServer server;
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = instrumentation.getTargetContext();
+        server = new LocalHttpServer(TestMediaFiles.silentMp3(128, MP3_FRAMES), "audio/mpeg");
+        url = server.url("/replay_" + System.nanoTime() + ".mp3");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        MediaCache.getCache(context).removeResource(url);
+    }
+
+    @Test
+    public void secondPlayOfTheSameUrlIsServedFromTheCache() throws Exception {
+        playToEnd();
+        int requestsAfterFirstPlay = server.requests.get();
+        long bytesAfterFirstPlay = server.bytesServed.get();
+        long hitsAfterFirstPlay = MediaCache.getCacheHits();
+        long cachedBytesAfterFirstPlay = MediaCache.getCachedBytesRead();
+        assertTrue("First play never reached the server", requestsAfterFirstPlay > 0);
+
+        playToEnd();
+        Log.i(TAG, "First play: " + requestsAfterFirstPlay + " requests, " + bytesAfterFirstPlay + " bytes; second play: "
+                + (server.requests.get() - requestsAfterFirstPlay) + " requests, "
+                + (MediaCache.getCachedBytesRead() - cachedBytesAfterFirstPlay) + " bytes from cache");
+        assertEquals(requestsAfterFirstPlay, server.requests.get());
+        assertEquals(bytesAfterFirstPlay, server.bytesServed.get());
+        assertTrue(MediaCache.getCacheHits() > hitsAfterFirstPlay);
+        assertTrue(MediaCache.getCachedBytesRead() > cachedBytesAfterFirstPlay);
+    }
+
+    private void playToEnd() throws Exception {
+        CountDownLatch ended = new CountDownLatch(1);
+        AtomicReference<PlaybackException> error = new AtomicReference<>();
+        AtomicReference<ExoPlayer> playerRef = new AtomicReference<>();
+        instrumentation.runOnMainSync(() -> {
+            ExoPlayer player = PlaybackProfile.GAPLESS_MUSIC.buildPlayer(context);
+            player.setVolume(0f);
+            player.addListener(new Player.Listener() {
+                @Override
+                public void onPlaybackStateChanged(int playbackState) {
+                    if (playbackState == Player.STATE_ENDED) {
+                        ended.countDown();
+                    }
+                }
+
+                @Override
+                public void onPlayerError(@NonNull PlaybackException playbackError) {
+                    error.set(playbackError);
+                    ended.countDown();
+                }
+            });
+            player.setMediaItem(MediaItem.fromUri(url));
+            player.prepare();
+            player.play();
+            playerRef.set(player);
+        });
+        try {
+            assertTrue("Playback did not finish", ended.await(30, TimeUnit.SECONDS));
+            assertNull(error.get());
+        } finally {
+            instrumentation.runOnMainSync(() -> playerRef.get().release());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class MediaIngestorTest {
+
+    private static final String TAG = "MediaIngestorTest";
+    private static final long SPARSE_SIZE = 1024L * 1024 * 1024;
+    private static final int LEGACY_BUFFER_SIZE = 8 * 1024;
+
+    private Context context;
+    private File source;
+    private File destination;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        assumeTrue("Not enough free space for a 1 GB copy", context.getCacheDir().getUsableSpace() > 2 * SPARSE_SIZE);
+        source = new File(context.getCacheDir(), "sparse_" + System.nanoTime() + ".bin");
+        destination = new File(context.getCacheDir(), "ingested_" + System.nanoTime() + ".bin");
+        try (RandomAccessFile file = new RandomAccessFile(source, "rw")) {
+            file.setLength(SPARSE_SIZE - 1);
+            file.seek(SPARSE_SIZE - 1);
+            file.write(1);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (source != null) {
+            source.delete();
+        }
+        if (destination != null) {
+            destination.delete();
+        }
+    }
+
+    @Test
+    public void sparseGigabyteIngestsFasterThanTheLegacyCopyLoop() throws IOException {
+        Uri sourceUri = Uri.fromFile(source);
+
+        MediaIngestor.Result legacy = ingestWith(new LegacyCopyStrategy(), sourceUri);
+        MediaIngestor.Result buffered = ingestWith(new MediaIngestor.BufferedCopyStrategy(), sourceUri);
+        MediaIngestor.Result channel = ingestWith(new MediaIngestor.ChannelTransferStrategy(), sourceUri);
+        MediaIngestor.Result link = ingestWith(new MediaIngestor.LinkStrategy(), sourceUri);
+
+        Log.i(TAG, String.format(Locale.US, "1 GB sparse file: 8 KB loop %.1f MB/s, %s %.1f MB/s, %s %.1f MB/s, %s %d ms",
+                legacy.getThroughputMbPerSecond(), buffered.mode, buffered.getThroughputMbPerSecond(),
+                channel.mode, channel.getThroughputMbPerSecond(), link.mode, link.elapsedMs));
+        assertEquals(MediaIngestor.Mode.LINK, link.mode);
+        assertTrue("Channel " + channel.elapsedMs + " ms vs 8 KB loop " + legacy.elapsedMs + " ms",
+                channel.elapsedMs < legacy.elapsedMs);
+        assertTrue("Link " + link.elapsedMs + " ms vs channel " + channel.elapsedMs + " ms",
+                link.elapsedMs < channel.elapsedMs);
+    }
+
+    @Test
+    public void everyModeProducesTheSameDigest() throws Exception {
+        Uri sourceUri = Uri.fromFile(source);
+        String buffered = digestWith(new MediaIngestor.BufferedCopyStrategy(), sourceUri);
+        String channel = digestWith(new MediaIngestor.ChannelTransferStrategy(), sourceUri);
+        String link = digestWith(new MediaIngestor.LinkStrategy(), sourceUri);
+        assertEquals(buffered, channel);
+        assertEquals(buffered, link);
+    }
+
+    private MediaIngestor.Result ingestWith(MediaIngestor.Strategy strategy, Uri sourceUri) throws IOException {
+        MediaIngestor.Result result = new MediaIngestor(Collections.singletonList(strategy))
+                .ingest(context, sourceUri, destination);
+        assertEquals(SPARSE_SIZE, result.bytes);
+        assertEquals(SPARSE_SIZE, destination.length());
+        if (result.mode == MediaIngestor.Mode.LINK) {
+            assertTrue(destination.renameTo(source));
+        } else {
+            assertTrue(destination.delete());
+        }
+        return result;
+    }
+
+    private String digestWith(MediaIngestor.Strategy strategy, Uri sourceUri) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        new MediaIngestor(Collections.singletonList(strategy)).ingest(context, sourceUri, destination, digest);
+        if (strategy.getMode() == MediaIngestor.Mode.LINK) {
+            assertTrue(destination.renameTo(source));
+        } else {
+            assertTrue(destination.delete());
+        }
+        return MediaBlobStore.toHex(digest.digest());
+    }
+
+    private static class LegacyCopyStrategy implements MediaIngestor.Strategy {
+        @Override
+        public MediaIngestor.Mode getMode() {
+            return MediaIngestor.Mode.BUFFERED_COPY;
+        }
+
+        @Override
+        public long ingest(Context context, Uri source, File destination, @Nullable MessageDigest digest) throws IOException {
+            try (InputStream in = context.getContentResolver().openInputStream(source);
+                 OutputStream out = new FileOutputStream(destination)) {
+                assertNotNull(in);
+                byte[] buffer = new byte[LEGACY_BUFFER_SIZE];
+                long total = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    total += read;
+                }
+                return total;
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.MediaItem;
+import com.example.lab4.db.MediaMetadataEntry;
+import com.example.lab4.db.Playlist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class MetadataExtractionTest {
+
+    private static final String TAG = "MetadataExtractionTest";
+    private static final int SAMPLE_FILES = 64;
+    private static final int ARTWORK_DIMENSION = 1_600;
+    private static final int MP3_FRAMES = 40;
+    private static final long PEAK_MEMORY_BUDGET_BYTES = 48L * 1024 * 1024;
+
+    private Context context;
+    private AppDatabase db;
+    private MediaDao dao;
+    private MetadataExtractionWorker worker;
+    private final List<File> files = new ArrayList<>();
+    private final List<String> uris = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+        worker = new MetadataExtractionWorker(context, db);
+
+        File dir = new File(context.getCacheDir(), "metadata_samples");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        List<MediaItem> items = new ArrayList<>(SAMPLE_FILES);
+        for (int i = 0; i < SAMPLE_FILES; i++) {
+            File file = new File(dir, "sample_" + i + ".mp3");
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(id3WithArtwork("Artist " + i, artworkJpeg(i)));
+                out.write(TestMediaFiles.silentMp3(128, MP3_FRAMES));
+            }
+            files.add(file);
+            uris.add(Uri.fromFile(file).toString());
+            items.add(new MediaItem(uris.get(i), "Sample " + i, 0));
+        }
+        long playlistId = dao.insertPlaylist(new Playlist("Samples"));
+        dao.importMediaItems(playlistId, items);
+    }
+
+    @After
+    public void tearDown() {
+        worker.release();
+        for (MediaMetadataEntry entry : dao.getMediaMetadata(uris)) {
+            if (entry.artworkPath != null) {
+                new File(entry.artworkPath).delete();
+            }
+        }
+        for (File file : files) {
+            file.delete();
+        }
+        db.close();
+    }
+
+    @Test
+    public void extractsGeneratedSamplesWithinAMemoryBudget() throws Exception {
+        Runtime.getRuntime().gc();
+        long baseline = usedMemory();
+        AtomicLong peak = new AtomicLong(baseline);
+        AtomicBoolean sampling = new AtomicBoolean(true);
+        Thread sampler = new Thread(() -> {
+            while (sampling.get()) {
+                long used = usedMemory();
+                peak.accumulateAndGet(used, Math::max);
+                SystemClock.sleep(5);
+            }
+        }, "memory-sampler");
+        sampler.start();
+
+        long startMs = SystemClock.elapsedRealtime();
+        int processed = worker.runPass();
+        long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - startMs);
+        sampling.set(false);
+        sampler.join();
+
+        long peakDelta = peak.get() - baseline;
+        Log.i(TAG, String.format(Locale.US, "Extracted %d files in %d ms (%.1f files/s), peak memory +%.1f MB",
+                processed, elapsedMs, processed * 1000f / elapsedMs, peakDelta / (1024f * 1024f)));
+        assertEquals(SAMPLE_FILES, processed);
+        assertTrue(dao.getUrisPendingMetadataExtraction(1).isEmpty());
+        assertTrue("Peak memory grew by " + peakDelta + " bytes", peakDelta < PEAK_MEMORY_BUDGET_BYTES);
+
+        List<MediaMetadataEntry> entries = dao.getMediaMetadata(uris);
+        assertEquals(SAMPLE_FILES, entries.size());
+        Set<String> artworkPaths = new HashSet<>();
+        for (MediaMetadataEntry entry : entries) {
+            assertTrue(entry.metadataExtracted);
+            assertNotNull(entry.mediaUri, entry.artworkPath);
+            assertTrue(new File(entry.artworkPath).isFile());
+            artworkPaths.add(entry.artworkPath);
+        }
+        assertEquals("Artwork file names collided", SAMPLE_FILES, artworkPaths.size());
+    }
+
+    @Test
+    public void storeFailureEndsThePassInsteadOfSpinning() throws Exception {
+        db.getOpenHelper().getWritableDatabase().execSQL("CREATE TRIGGER `fail_metadata_insert` BEFORE INSERT ON "
+                + "`media_metadata` BEGIN SELECT RAISE(ABORT, 'injected failure'); END");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> pass = executor.submit(worker::runPass);
+            assertEquals(0, pass.get(60, TimeUnit.SECONDS).intValue());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(SAMPLE_FILES, dao.getUrisPendingMetadataExtraction(SAMPLE_FILES + 1).size());
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+
+    private static byte[] artworkJpeg(int seed) {
+        Bitmap bitmap = Bitmap.createBitmap(ARTWORK_DIMENSION, ARTWORK_DIMENSION, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawColor(Color.rgb(seed * 37 % 256, seed * 91 % 256, seed * 13 % 256));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 80, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private static byte[] id3WithArtwork(String artist, byte[] jpeg) throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        byte[] artistText = artist.getBytes(StandardCharsets.ISO_8859_1);
+        writeFrame(frames, "TPE1", concat(new byte[]{0}, artistText));
+        ByteArrayOutputStream picture = new ByteArrayOutputStream();
+        picture.write(0);
+        picture.write("image/jpeg".getBytes(StandardCharsets.ISO_8859_1));
+        picture.write(0);
+        picture.write(3);
+        picture.write(0);
+        picture.write(jpeg);
+        writeFrame(frames, "APIC", picture.toByteArray());
+
+        int size = frames.size();
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        tag.write("ID3".getBytes(StandardCharsets.ISO_8859_1));
+        tag.write(new byte[]{3, 0, 0});
+        tag.write(new byte[]{(byte) ((size >> 21) & 0x7F), (byte) ((size >> 14) & 0x7F),
+                (byte) ((size >> 7) & 0x7F), (byte) (size & 0x7F)});
+        frames.writeTo(tag);
+        return tag.toByteArray();
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, String id, byte[] body) throws IOException {
+        out.write(id.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(new byte[]{(byte) (body.length >> 24), (byte) (body.length >> 16), (byte) (body.length >> 8),
+                (byte) body.length});
+        out.write(new byte[]{0, 0});
+        out.write(body);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
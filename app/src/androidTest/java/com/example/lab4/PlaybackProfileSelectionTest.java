@@ -0,0 +1,44 @@
+package com.example.lab4;
+
+import android.content.Context;
+
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.UnstableApi;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+@UnstableApi
+@RunWith(AndroidJUnit4.class)
+public class PlaybackProfileSelectionTest {
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @Test
+    public void audioFilesUseTheGaplessMusicProfile() {
+        assertEquals(PlaybackProfile.GAPLESS_MUSIC, profileOf(MediaItem.fromUri("file:///sdcard/Music/track.mp3")));
+        assertEquals(PlaybackProfile.GAPLESS_MUSIC, profileOf(MediaItem.fromUri("https://example.com/a/track.flac")));
+        assertEquals(PlaybackProfile.GAPLESS_MUSIC, profileOf(new MediaItem.Builder().setMediaId("42").build()));
+        assertEquals(PlaybackProfile.GAPLESS_MUSIC, profileOf(null));
+    }
+
+    @Test
+    public void videoAndAdaptiveStreamsUseTheVideoStreamingProfile() {
+        assertEquals(PlaybackProfile.VIDEO_STREAMING, profileOf(MediaItem.fromUri("file:///sdcard/Movies/clip.mp4")));
+        assertEquals(PlaybackProfile.VIDEO_STREAMING, profileOf(MediaItem.fromUri("https://example.com/live/master.m3u8")));
+        assertEquals(PlaybackProfile.VIDEO_STREAMING, profileOf(MediaItem.fromUri("https://example.com/vod/manifest.mpd")));
+        assertEquals(PlaybackProfile.VIDEO_STREAMING, profileOf(new MediaItem.Builder()
+                .setUri("https://example.com/stream?id=7")
+                .setMimeType(MimeTypes.VIDEO_MP4)
+                .build()));
+    }
+
+    private PlaybackProfile profileOf(MediaItem mediaItem) {
+        return PlaybackProfile.forMediaItem(context, mediaItem);
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.lab4;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.session.MediaSession;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.NowPlayingState;
+import com.example.lab4.db.Playlist;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@UnstableApi
+@RunWith(AndroidJUnit4.class)
+public class PlaybackStateRestoreTest {
+
+    private static final int PLAYLIST_SIZE = 1_000;
+    private static final int START_ORDINAL = 600;
+
+    private Instrumentation instrumentation;
+    private Context context;
+    private AppDatabase db;
+    private MediaDao dao;
+    private long playlistId;
+    private List<Long> entryIds;
+
+    @Before
+    public void setUp() throws IOException {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = instrumentation.getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+
+        File file = TestMediaFiles.silentWav(context, "restore", 2);
+        playlistId = dao.insertPlaylist(new Playlist("Restore"));
+        List<com.example.lab4.db.MediaItem> items = new ArrayList<>(PLAYLIST_SIZE);
+        for (int i = 0; i < PLAYLIST_SIZE; i++) {
+            items.add(new com.example.lab4.db.MediaItem(Uri.fromFile(file).toString(), null, playlistId));
+        }
+        dao.importMediaItems(playlistId, items);
+        entryIds = dao.getOrderedEntryIds(playlistId);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void restoreReloadsThePlaylistAroundTheSavedEntry() throws Exception {
+        long startEntryId = entryIds.get(START_ORDINAL);
+        long nextEntryId = entryIds.get(START_ORDINAL + 1);
+        AtomicReference<ExoPlayer> playerRef = new AtomicReference<>();
+        AtomicReference<PlaylistWindowLoader> loaderRef = new AtomicReference<>();
+        AtomicReference<PlaybackStateStore> storeRef = new AtomicReference<>();
+        AtomicReference<ListenableFuture<MediaSession.MediaItemsWithStartPosition>> loaded = new AtomicReference<>();
+        instrumentation.runOnMainSync(() -> {
+            ExoPlayer player = new ExoPlayer.Builder(context).build();
+            player.setVolume(0f);
+            PlaylistWindowLoader loader = new PlaylistWindowLoader(db, player);
+            PlaybackStateStore store = new PlaybackStateStore(db, loader);
+            store.attach(player);
+            loaded.set(loader.load(PlaylistWindowLoader.createRequest(playlistId, startEntryId), 0));
+            playerRef.set(player);
+            loaderRef.set(loader);
+            storeRef.set(store);
+        });
+        MediaSession.MediaItemsWithStartPosition window = loaded.get().get(10, TimeUnit.SECONDS);
+        instrumentation.runOnMainSync(() -> {
+            ExoPlayer player = playerRef.get();
+            player.setMediaItems(window.mediaItems, window.startIndex, window.startPositionMs);
+            player.prepare();
+            player.play();
+        });
+        waitOnMain(() -> loaderRef.get().getPlaylistId() == playlistId);
+        instrumentation.runOnMainSync(() -> {
+            storeRef.get().detach();
+            loaderRef.get().release();
+            playerRef.get().release();
+        });
+
+        NowPlayingState saved = waitForSavedState(startEntryId);
+        assertEquals(playlistId, saved.playlistId);
+        dao.deletePlaylistEntry(nextEntryId);
+
+        CountDownLatch restored = new CountDownLatch(1);
+        AtomicInteger restoredCount = new AtomicInteger();
+        instrumentation.runOnMainSync(() -> {
+            ExoPlayer player = new ExoPlayer.Builder(context).build();
+            player.setVolume(0f);
+            PlaylistWindowLoader loader = new PlaylistWindowLoader(db, player);
+            PlaybackStateStore store = new PlaybackStateStore(db, loader);
+            store.attach(player);
+            store.restoreInto(player, itemCount -> {
+                restoredCount.set(itemCount);
+                restored.countDown();
+            });
+            playerRef.set(player);
+            loaderRef.set(loader);
+            storeRef.set(store);
+        });
+        assertTrue("Queue was not restored", restored.await(10, TimeUnit.SECONDS));
+        assertTrue(restoredCount.get() > 0);
+
+        AtomicReference<MediaItem> current = new AtomicReference<>();
+        AtomicBoolean containsDeleted = new AtomicBoolean();
+        instrumentation.runOnMainSync(() -> {
+            ExoPlayer player = playerRef.get();
+            current.set(player.getCurrentMediaItem());
+            for (int i = 0; i < player.getMediaItemCount(); i++) {
+                if (player.getMediaItemAt(i).mediaId.equals(String.valueOf(nextEntryId))) {
+                    containsDeleted.set(true);
+                }
+            }
+            storeRef.get().detach();
+            loaderRef.get().release();
+            player.release();
+        });
+        assertNotNull(current.get());
+        assertEquals(String.valueOf(startEntryId), current.get().mediaId);
+        assertEquals(Integer.valueOf(START_ORDINAL + 1), current.get().mediaMetadata.trackNumber);
+        assertEquals(Integer.valueOf(PLAYLIST_SIZE - 1), current.get().mediaMetadata.totalTrackCount);
+        assertFalse("Restore used the stale queue fragment", containsDeleted.get());
+    }
+
+    private NowPlayingState waitForSavedState(long expectedEntryId) {
+        long deadline = SystemClock.elapsedRealtime() + 5_000;
+        NowPlayingState state = dao.getNowPlayingState();
+        while ((state == null || state.currentEntryId != expectedEntryId) && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(20);
+            state = dao.getNowPlayingState();
+        }
+        assertNotNull(state);
+        assertEquals(expectedEntryId, state.currentEntryId);
+        return state;
+    }
+
+    private void waitOnMain(Condition condition) {
+        long deadline = SystemClock.elapsedRealtime() + 10_000;
+        AtomicBoolean met = new AtomicBoolean();
+        while (SystemClock.elapsedRealtime() < deadline) {
+            instrumentation.runOnMainSync(() -> met.set(condition.isMet()));
+            if (met.get()) return;
+            SystemClock.sleep(20);
+        }
+        assertTrue("Condition not met in time", met.get());
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.lab4;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.Player;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.session.MediaSession;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.Playlist;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@UnstableApi
+@RunWith(AndroidJUnit4.class)
+public class PlaylistHandoffBenchmarkTest {
+
+    private static final String TAG = "PlaylistHandoffBench";
+    private static final int PLAYLIST_SIZE = 10_000;
+    private static final int DISTINCT_FILES = 20;
+
+    private Instrumentation instrumentation;
+    private Context context;
+    private AppDatabase db;
+    private MediaDao dao;
+    private long playlistId;
+    private long middleEntryId;
+
+    @Before
+    public void setUp() throws IOException {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = instrumentation.getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+
+        List<String> uris = new ArrayList<>(DISTINCT_FILES);
+        for (int i = 0; i < DISTINCT_FILES; i++) {
+            File file = TestMediaFiles.silentWav(context, "bench_" + i, 2);
+            uris.add(Uri.fromFile(file).toString());
+        }
+        playlistId = dao.insertPlaylist(new Playlist("Benchmark"));
+        List<com.example.lab4.db.MediaItem> items = new ArrayList<>(PLAYLIST_SIZE);
+        for (int i = 0; i < PLAYLIST_SIZE; i++) {
+            items.add(new com.example.lab4.db.MediaItem(uris.get(i % DISTINCT_FILES), null, playlistId));
+        }
+        dao.importMediaItems(playlistId, items);
+        middleEntryId = dao.getMediaItemsForPlaylistSync(playlistId).get(PLAYLIST_SIZE / 2).entryId;
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void tapToFirstFrameWithIdHandoff() throws Exception {
+        long fullListMs = measureTapToReady(false);
+        long windowedMs = measureTapToReady(true);
+        Log.i(TAG, "Tap to first frame at " + PLAYLIST_SIZE + " items: full list " + fullListMs + " ms, ID handoff "
+                + windowedMs + " ms");
+        assertTrue("Windowed handoff should not be slower than loading the whole playlist", windowedMs <= fullListMs);
+    }
+
+    private long measureTapToReady(boolean windowed) throws Exception {
+        AtomicReference<ExoPlayer> playerRef = new AtomicReference<>();
+        AtomicLong readyAtMs = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(1);
+        instrumentation.runOnMainSync(() -> {
+            ExoPlayer player = new ExoPlayer.Builder(context).build();
+            player.setVolume(0f);
+            player.addListener(new Player.Listener() {
+                @Override
+                public void onIsPlayingChanged(boolean isPlaying) {
+                    if (isPlaying && ready.getCount() > 0) {
+                        readyAtMs.set(SystemClock.elapsedRealtime());
+                        ready.countDown();
+                    }
+                }
+            });
+            playerRef.set(player);
+        });
+        ExoPlayer player = playerRef.get();
+        AtomicReference<PlaylistWindowLoader> loaderRef = new AtomicReference<>();
+        try {
+            return tapToReady(player, loaderRef, windowed, ready, readyAtMs);
+        } finally {
+            instrumentation.runOnMainSync(() -> {
+                if (loaderRef.get() != null) {
+                    loaderRef.get().release();
+                }
+                player.release();
+            });
+        }
+    }
+
+    private long tapToReady(ExoPlayer player, AtomicReference<PlaylistWindowLoader> loaderRef, boolean windowed,
+                            CountDownLatch ready, AtomicLong readyAtMs) throws Exception {
+        long tapMs = SystemClock.elapsedRealtime();
+        if (windowed) {
+            AtomicReference<ListenableFuture<MediaSession.MediaItemsWithStartPosition>> futureRef = new AtomicReference<>();
+            instrumentation.runOnMainSync(() -> {
+                loaderRef.set(new PlaylistWindowLoader(db, player));
+                futureRef.set(loaderRef.get().load(PlaylistWindowLoader.createRequest(playlistId, middleEntryId), 0));
+            });
+            MediaSession.MediaItemsWithStartPosition window = futureRef.get().get(10, TimeUnit.SECONDS);
+            instrumentation.runOnMainSync(() -> {
+                player.setMediaItems(window.mediaItems, window.startIndex, window.startPositionMs);
+                player.prepare();
+                player.play();
+            });
+        } else {
+            List<com.example.lab4.db.MediaItem> all = dao.getMediaItemsForPlaylistSync(playlistId);
+            List<MediaItem> items = new ArrayList<>(all.size());
+            int startIndex = 0;
+            for (int i = 0; i < all.size(); i++) {
+                items.add(PlaylistWindowLoader.toPlayerItem(all.get(i)));
+                if (all.get(i).entryId == middleEntryId) {
+                    startIndex = i;
+                }
+            }
+            int finalStartIndex = startIndex;
+            instrumentation.runOnMainSync(() -> {
+                player.setMediaItems(items, finalStartIndex, 0);
+                player.prepare();
+                player.play();
+            });
+        }
+
+        assertTrue("Playback did not start", ready.await(20, TimeUnit.SECONDS));
+        AtomicReference<String> currentId = new AtomicReference<>();
+        instrumentation.runOnMainSync(() ->
+                currentId.set(player.getCurrentMediaItem() != null ? player.getCurrentMediaItem().mediaId : null));
+        assertEquals(String.valueOf(middleEntryId), currentId.get());
+        return readyAtMs.get() - tapMs;
+    }
+}
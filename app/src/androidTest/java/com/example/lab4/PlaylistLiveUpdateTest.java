@@ -0,0 +1,217 @@
+package com.example.lab4;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.Player;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.session.MediaSession;
+import androidx.room.InvalidationTracker;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.Playlist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@UnstableApi
+@RunWith(AndroidJUnit4.class)
+public class PlaylistLiveUpdateTest {
+
+    private static final int INITIAL_ITEMS = 10;
+    private static final int INSERTED_ITEMS = 100;
+
+    private Instrumentation instrumentation;
+    private AppDatabase db;
+    private MediaDao dao;
+    private ExoPlayer player;
+    private PlaylistWindowLoader loader;
+    private final AtomicInteger restarts = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = instrumentation.getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+        instrumentation.runOnMainSync(() -> {
+            player = new ExoPlayer.Builder(context).build();
+            player.setVolume(0f);
+            player.addListener(new Player.Listener() {
+                @Override
+                public void onMediaItemTransition(@Nullable MediaItem mediaItem, int reason) {
+                    if (reason == Player.MEDIA_ITEM_TRANSITION_REASON_PLAYLIST_CHANGED) {
+                        restarts.incrementAndGet();
+                    }
+                }
+
+                @Override
+                public void onPositionDiscontinuity(@NonNull Player.PositionInfo oldPosition,
+                                                    @NonNull Player.PositionInfo newPosition, int reason) {
+                    if (reason == Player.DISCONTINUITY_REASON_SEEK || reason == Player.DISCONTINUITY_REASON_REMOVE) {
+                        restarts.incrementAndGet();
+                    }
+                }
+            });
+            loader = new PlaylistWindowLoader(db, player);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        instrumentation.runOnMainSync(() -> {
+            loader.release();
+            player.release();
+        });
+        db.close();
+    }
+
+    @Test
+    public void insertsDuringPlaybackExtendTheQueueWithoutRestarting() throws Exception {
+        Context context = instrumentation.getTargetContext();
+        String uri = Uri.fromFile(TestMediaFiles.silentWav(context, "live_update", 30)).toString();
+        long playlistId = dao.insertPlaylist(new Playlist("Live"));
+        List<com.example.lab4.db.MediaItem> initial = new ArrayList<>(INITIAL_ITEMS);
+        for (int i = 0; i < INITIAL_ITEMS; i++) {
+            initial.add(new com.example.lab4.db.MediaItem(uri, "Initial " + i, playlistId));
+        }
+        dao.importMediaItems(playlistId, initial);
+        int observersBefore = trackerObserverCount();
+        assertEquals(1, loaderObserverCount());
+
+        CountDownLatch playing = new CountDownLatch(1);
+        instrumentation.runOnMainSync(() -> {
+            player.addListener(new Player.Listener() {
+                @Override
+                public void onIsPlayingChanged(boolean isPlaying) {
+                    if (isPlaying) playing.countDown();
+                }
+            });
+        });
+        MediaSession.MediaItemsWithStartPosition window =
+                onMain(() -> loader.load(PlaylistWindowLoader.createRequest(playlistId, -1), 0))
+                        .get(20, TimeUnit.SECONDS);
+        instrumentation.runOnMainSync(() -> {
+            player.setMediaItems(window.mediaItems, window.startIndex, window.startPositionMs);
+            player.prepare();
+            player.play();
+        });
+        assertTrue("Playback did not start", playing.await(20, TimeUnit.SECONDS));
+        String startEntry = onMain(() -> player.getCurrentMediaItem().mediaId);
+        restarts.set(0);
+
+        for (int i = 0; i < INSERTED_ITEMS; i++) {
+            dao.insertMediaItem(new com.example.lab4.db.MediaItem(uri, "Added " + i, playlistId));
+            SystemClock.sleep(5);
+        }
+        int expectedWindow = 1 + PlaylistWindowLoader.WINDOW_AHEAD;
+        awaitQueueSize(expectedWindow);
+
+        assertEquals(0, restarts.get());
+        assertEquals(startEntry, onMain(() -> player.getCurrentMediaItem().mediaId));
+        assertTrue(onMain(() -> player.isPlaying()));
+        assertEquals(observersBefore, trackerObserverCount());
+        assertEquals(1, loaderObserverCount());
+        assertEquals("Added " + (PlaylistWindowLoader.WINDOW_AHEAD - INITIAL_ITEMS),
+                onMain(() -> String.valueOf(player.getMediaItemAt(expectedWindow - 1).mediaMetadata.title)));
+
+        String removedEntry = onMain(() -> player.getMediaItemAt(2).mediaId);
+        dao.deletePlaylistEntry(Long.parseLong(removedEntry));
+        long deadline = SystemClock.elapsedRealtime() + 10_000;
+        while (onMain(() -> containsEntry(removedEntry)) && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(50);
+        }
+        assertFalse(onMain(() -> containsEntry(removedEntry)));
+        awaitQueueSize(expectedWindow);
+        assertEquals(0, restarts.get());
+        assertEquals(startEntry, onMain(() -> player.getCurrentMediaItem().mediaId));
+        assertEquals(observersBefore, trackerObserverCount());
+        assertEquals(1, loaderObserverCount());
+
+        instrumentation.runOnMainSync(() -> loader.release());
+        assertEquals(observersBefore - 1, trackerObserverCount());
+        assertEquals(0, loaderObserverCount());
+    }
+
+    private int trackerObserverCount() throws Exception {
+        return trackerObservers().size();
+    }
+
+    private int loaderObserverCount() throws Exception {
+        int count = 0;
+        for (InvalidationTracker.Observer observer : trackerObservers()) {
+            if (observer.getClass().getEnclosingClass() == PlaylistWindowLoader.class) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private List<InvalidationTracker.Observer> trackerObservers() throws Exception {
+        InvalidationTracker tracker = db.getInvalidationTracker();
+        Field field;
+        try {
+            field = InvalidationTracker.class.getDeclaredField("observerMap");
+        } catch (NoSuchFieldException e) {
+            field = InvalidationTracker.class.getDeclaredField("mObserverMap");
+        }
+        field.setAccessible(true);
+        List<InvalidationTracker.Observer> observers = new ArrayList<>();
+        synchronized (field.get(tracker)) {
+            for (Object entry : (Iterable<?>) field.get(tracker)) {
+                observers.add((InvalidationTracker.Observer) ((Map.Entry<?, ?>) entry).getKey());
+            }
+        }
+        return observers;
+    }
+
+    private boolean containsEntry(String mediaId) {
+        for (int i = 0; i < player.getMediaItemCount(); i++) {
+            if (player.getMediaItemAt(i).mediaId.equals(mediaId)) return true;
+        }
+        return false;
+    }
+
+    private void awaitQueueSize(int expected) {
+        long deadline = SystemClock.elapsedRealtime() + 10_000;
+        while (onMain(() -> player.getMediaItemCount()) != expected && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(50);
+        }
+        assertEquals(expected, (int) onMain(() -> player.getMediaItemCount()));
+    }
+
+    private <T> T onMain(Supplier<T> supplier) {
+        AtomicReference<T> result = new AtomicReference<>();
+        instrumentation.runOnMainSync(() -> result.set(supplier.get()));
+        return result.get();
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.lab4;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@UnstableApi
+@RunWith(AndroidJUnit4.class)
+public class PlaylistPrefetcherTest {
+
+    private static final String TAG = "PlaylistPrefetcherTest";
+    private static final int BODY_SIZE = 3 * 1024 * 1024;
+    private static final long PREFETCH_BYTES = 2L * 1024 * 1024;
+
+    private Instrumentation instrumentation;
+    private Context context;
+    private LocalHttpServer server;
+    private PlaylistPrefetcher prefetcher;
+    private ExoPlayer player;
+    private String current;
+    private String next;
+    private String afterNext;
+    private String cold;
+
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = instrumentation.getTargetContext();
+        byte[] body = new byte[BODY_SIZE];
+        new Random(2).nextBytes(body);
+        server = new LocalHttpServer(body, "audio/mpeg");
+        long id = System.nanoTime();
+        current = server.url("/current_" + id + ".mp3");
+        next = server.url("/next_" + id + ".mp3");
+        afterNext = server.url("/after_next_" + id + ".mp3");
+        cold = server.url("/cold_" + id + ".mp3");
+        prefetcher = new PlaylistPrefetcher(context);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        prefetcher.release();
+        instrumentation.runOnMainSync(() -> {
+            if (player != null) {
+                player.release();
+            }
+        });
+        server.close();
+        Cache cache = MediaCache.getCache(context);
+        for (String url : Arrays.asList(current, next, afterNext, cold)) {
+            cache.removeResource(url);
+        }
+    }
+
+    @Test
+    public void upcomingItemsArePrefetchedWithoutCountingAsPlaybackTraffic() {
+        long hitsBefore = MediaCache.getCacheHits();
+        long missesBefore = MediaCache.getCacheMisses();
+        long networkBytesBefore = MediaCache.getNetworkBytesRead();
+
+        instrumentation.runOnMainSync(() -> {
+            player = new ExoPlayer.Builder(context).build();
+            player.setMediaItems(Arrays.asList(
+                    MediaItem.fromUri(current), MediaItem.fromUri(next), MediaItem.fromUri(afterNext)));
+            prefetcher.onMediaItemTransition(player);
+        });
+        awaitPrefetched(next);
+        awaitPrefetched(afterNext);
+
+        Cache cache = MediaCache.getCache(context);
+        assertTrue(cache.isCached(next, 0, PREFETCH_BYTES));
+        assertTrue(cache.isCached(afterNext, 0, PREFETCH_BYTES));
+        assertFalse(prefetcher.isPrefetched(current));
+        assertTrue("Prefetch never reached the server", server.bytesServed.get() >= 2 * PREFETCH_BYTES);
+        assertEquals("Prefetch counted as cache hits", hitsBefore, MediaCache.getCacheHits());
+        assertEquals("Prefetch counted as cache misses", missesBefore, MediaCache.getCacheMisses());
+        assertEquals("Prefetch counted as playback network bytes", networkBytesBefore, MediaCache.getNetworkBytesRead());
+
+        prefetcher.markTransitionStart(MediaItem.fromUri(next));
+        prefetcher.markFirstFrame();
+        prefetcher.markTransitionStart(MediaItem.fromUri(cold));
+        prefetcher.markFirstFrame();
+        Log.i(TAG, server.requests.get() + " prefetch requests, " + server.bytesServed.get() + " bytes served, "
+                + prefetcher.getPrefetchedTransitions() + " prefetched and " + prefetcher.getColdTransitions()
+                + " cold transitions");
+        assertEquals(1, prefetcher.getPrefetchedTransitions());
+        assertEquals(1, prefetcher.getColdTransitions());
+    }
+
+    private void awaitPrefetched(String url) {
+        long deadline = SystemClock.elapsedRealtime() + 20_000;
+        while (!prefetcher.isPrefetched(url) && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(20);
+        }
+        assertTrue("Prefetch of " + url + " did not finish", prefetcher.isPrefetched(url));
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.Download;
+import com.example.lab4.db.DownloadSegment;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.Playlist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SegmentedDownloaderTest {
+
+    private static final String TAG = "SegmentedDownloaderTest";
+    private static final int PAYLOAD_BYTES = 8 * 1024 * 1024;
+    private static final long THROTTLE_BYTES_PER_SECOND = 2 * 1024 * 1024;
+
+    private Context context;
+    private AppDatabase db;
+    private MediaDao dao;
+    private LocalHttpServer server;
+    private byte[] payload;
+    private final List<SegmentedDownloader> downloaders = new ArrayList<>();
+    private final List<File> storedFiles = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+        payload = new byte[PAYLOAD_BYTES];
+        new Random(21).nextBytes(payload);
+        server = new LocalHttpServer(payload, "audio/mpeg");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (SegmentedDownloader downloader : downloaders) {
+            downloader.shutdownNow();
+        }
+        server.close();
+        db.close();
+        for (File file : storedFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void segmentedDownloadBeatsASingleConnection() throws Exception {
+        server.bytesPerSecondPerConnection = THROTTLE_BYTES_PER_SECOND;
+        long playlistId = dao.insertPlaylist(new Playlist("Offline"));
+
+        long singleStartMs = SystemClock.elapsedRealtime();
+        long single = downloadAndWait(newDownloader(1), server.url("/single.mp3"), playlistId);
+        long singleMs = SystemClock.elapsedRealtime() - singleStartMs;
+
+        long segmentedStartMs = SystemClock.elapsedRealtime();
+        long segmented = downloadAndWait(newDownloader(SegmentedDownloader.DEFAULT_MAX_CONNECTIONS),
+                server.url("/segmented.mp3"), playlistId);
+        long segmentedMs = SystemClock.elapsedRealtime() - segmentedStartMs;
+
+        Log.i(TAG, PAYLOAD_BYTES + " bytes at " + THROTTLE_BYTES_PER_SECOND + " B/s per connection: single connection "
+                + singleMs + " ms, segmented " + segmentedMs + " ms");
+        assertStored(single, playlistId);
+        assertStored(segmented, playlistId);
+        assertTrue("Segmented download should be at least twice as fast", segmentedMs * 2 < singleMs);
+    }
+
+    @Test
+    public void concurrentDownloadsShareTheConnectionCap() throws Exception {
+        SegmentedDownloader downloader = newDownloader(3);
+        server.bytesPerSecondPerConnection = THROTTLE_BYTES_PER_SECOND * 4;
+        CountDownLatch done = new CountDownLatch(3);
+        AtomicBoolean allSucceeded = new AtomicBoolean(true);
+        downloader.addListener((downloadId, success) -> {
+            if (!success) allSucceeded.set(false);
+            done.countDown();
+        });
+        for (int i = 0; i < 3; i++) {
+            downloader.enqueue(server.url("/cap_" + i + ".mp3"), null, "Cap " + i).get(5, TimeUnit.SECONDS);
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertTrue(allSucceeded.get());
+        assertTrue("Peak connections " + server.peakConnections(), server.peakConnections() <= 3);
+    }
+
+    @Test
+    public void resumesFromCheckpointsAfterTheProcessDies() throws Exception {
+        server.bytesPerSecondPerConnection = THROTTLE_BYTES_PER_SECOND;
+        SegmentedDownloader first = newDownloader(SegmentedDownloader.DEFAULT_MAX_CONNECTIONS);
+        long downloadId = first.enqueue(server.url("/resume.mp3"), null, "Resume").get(5, TimeUnit.SECONDS);
+
+        long deadline = SystemClock.elapsedRealtime() + 20_000;
+        while (checkpointedBytes(downloadId) < PAYLOAD_BYTES / 2 && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(50);
+        }
+        first.shutdownNow();
+        SystemClock.sleep(500);
+        long checkpointed = checkpointedBytes(downloadId);
+        assertTrue("Nothing was checkpointed before the kill", checkpointed > 0);
+        assertTrue(checkpointed < PAYLOAD_BYTES);
+        assertEquals(Download.STATE_RUNNING, dao.getDownload(downloadId).state);
+
+        long servedBeforeResume = server.bytesServed.get();
+        SegmentedDownloader second = newDownloader(SegmentedDownloader.DEFAULT_MAX_CONNECTIONS);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean succeeded = new AtomicBoolean();
+        second.addListener((id, success) -> {
+            succeeded.set(success);
+            done.countDown();
+        });
+        second.resumePending();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(succeeded.get());
+
+        long servedAfterResume = server.bytesServed.get() - servedBeforeResume;
+        Log.i(TAG, "Resumed with " + checkpointed + " bytes checkpointed, fetched " + servedAfterResume + " more");
+        assertTrue("Resume refetched " + servedAfterResume + " bytes",
+                servedAfterResume <= PAYLOAD_BYTES - checkpointed + 1);
+        assertStored(downloadId, dao.getPlaylistByName("Downloads").playlistId);
+    }
+
+    @Test
+    public void corruptedSegmentsAreRetried() throws Exception {
+        server.badContentRangesToServe.set(2);
+        server.truncationsToServe.set(2);
+        long downloadId = downloadAndWait(newDownloader(SegmentedDownloader.DEFAULT_MAX_CONNECTIONS),
+                server.url("/faulty.mp3"), null);
+
+        assertEquals(4, server.faultsServed.get());
+        assertStored(downloadId, dao.getPlaylistByName("Downloads").playlistId);
+    }
+
+    @Test
+    public void idleCallbackWaitsUntilNoDownloadIsDue() throws Exception {
+        server.bytesPerSecondPerConnection = THROTTLE_BYTES_PER_SECOND;
+        SegmentedDownloader downloader = newDownloader(SegmentedDownloader.DEFAULT_MAX_CONNECTIONS);
+        CountDownLatch finished = new CountDownLatch(1);
+        downloader.addListener((id, success) -> finished.countDown());
+        long downloadId = downloader.enqueue(server.url("/idle.mp3"), null, "Idle").get(5, TimeUnit.SECONDS);
+
+        CountDownLatch idle = new CountDownLatch(1);
+        AtomicBoolean finishedFirst = new AtomicBoolean();
+        downloader.runWhenIdle(() -> {
+            finishedFirst.set(finished.getCount() == 0);
+            idle.countDown();
+        });
+        assertTrue(idle.await(60, TimeUnit.SECONDS));
+        assertTrue("Idle callback ran while the download was still due", finishedFirst.get());
+        assertStored(downloadId, dao.getPlaylistByName("Downloads").playlistId);
+    }
+
+    private SegmentedDownloader newDownloader(int maxConnections) {
+        SegmentedDownloader downloader = new SegmentedDownloader(context, db, maxConnections);
+        downloaders.add(downloader);
+        return downloader;
+    }
+
+    private long downloadAndWait(SegmentedDownloader downloader, String url, Long playlistId) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean succeeded = new AtomicBoolean();
+        downloader.addListener((id, success) -> {
+            succeeded.set(success);
+            done.countDown();
+        });
+        long downloadId = downloader.enqueue(url, playlistId, Uri.parse(url).getLastPathSegment()).get(5, TimeUnit.SECONDS);
+        assertTrue("Download did not finish", done.await(60, TimeUnit.SECONDS));
+        assertTrue("Download failed", succeeded.get());
+        return downloadId;
+    }
+
+    private long checkpointedBytes(long downloadId) {
+        long total = 0;
+        for (DownloadSegment segment : dao.getDownloadSegments(downloadId)) {
+            total += segment.bytesWritten;
+        }
+        return total;
+    }
+
+    private void assertStored(long downloadId, long playlistId) throws Exception {
+        Download download = dao.getDownload(downloadId);
+        assertEquals(Download.STATE_COMPLETED, download.state);
+        assertTrue(dao.getDownloadSegments(downloadId).isEmpty());
+        File stored = new File(download.filePath);
+        storedFiles.add(stored);
+        String digest = toHex(MessageDigest.getInstance("SHA-256").digest(payload));
+        assertEquals(PAYLOAD_BYTES, stored.length());
+        assertEquals(digest, MediaBlobStore.adopt(stored, null).digest);
+
+        com.example.lab4.db.MediaItem match = null;
+        for (com.example.lab4.db.MediaItem item : dao.getMediaItemsForPlaylistSync(playlistId)) {
+            if (digest.equals(item.blobDigest)) {
+                match = item;
+            }
+        }
+        assertNotNull("No playlist entry for download " + downloadId, match);
+        assertEquals(Uri.fromFile(stored).toString(), match.mediaUri);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
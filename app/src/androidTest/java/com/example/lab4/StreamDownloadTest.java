@@ -0,0 +1,168 @@
+package com.example.lab4;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.PlaybackException;
+import androidx.media3.common.Player;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.offline.Download;
+import androidx.media3.exoplayer.offline.DownloadManager;
+import androidx.media3.exoplayer.offline.DownloadRequest;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.Playlist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@UnstableApi
+@RunWith(AndroidJUnit4.class)
+public class StreamDownloadTest {
+
+    private static final String TAG = "StreamDownloadTest";
+    private static final int[] AUDIO_LADDER_KBPS = {64, 128, 320};
+    private static final int SEGMENT_FRAMES = 77;
+    private static final int SEGMENTS = 3;
+
+    private Instrumentation instrumentation;
+    private Context context;
+    private AppDatabase db;
+    private MediaDao dao;
+    private LocalHttpServer server;
+    private StreamDownloader downloader;
+    private String prefix;
+    private String manifestUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = instrumentation.getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+        server = new LocalHttpServer(new byte[64], "application/octet-stream");
+        prefix = "/offline_" + System.nanoTime();
+        manifestUrl = server.serveHlsAudio(prefix, AUDIO_LADDER_KBPS, SEGMENT_FRAMES, SEGMENTS);
+        instrumentation.runOnMainSync(() -> downloader = new StreamDownloader(context, db));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CountDownLatch removed = new CountDownLatch(1);
+        instrumentation.runOnMainSync(() -> {
+            DownloadManager manager = downloader.getDownloadManager();
+            manager.addListener(new DownloadManager.Listener() {
+                @Override
+                public void onDownloadRemoved(@NonNull DownloadManager downloadManager, @NonNull Download download) {
+                    removed.countDown();
+                }
+            });
+            manager.removeDownload(manifestUrl);
+        });
+        removed.await(10, TimeUnit.SECONDS);
+        instrumentation.runOnMainSync(() -> downloader.release());
+        server.close();
+        for (String url : server.routeUrls()) {
+            MediaCache.getCache(context).removeResource(url);
+        }
+        db.close();
+    }
+
+    @Test
+    public void downloadedHlsStreamPlaysWithTheServerDown() throws Exception {
+        long playlistId = dao.insertPlaylist(new Playlist("Offline streams"));
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean succeeded = new AtomicBoolean();
+        downloader.addListener((id, success) -> {
+            if (id.equals(manifestUrl)) {
+                succeeded.set(success);
+                done.countDown();
+            }
+        });
+
+        DownloadRequest request = downloader.prepareRequest(Uri.parse(manifestUrl), playlistId, "Offline HLS")
+                .get(20, TimeUnit.SECONDS);
+        assertEquals("Only the chosen rendition should be downloaded", 1, request.streamKeys.size());
+        instrumentation.runOnMainSync(() -> downloader.getDownloadManager().addDownload(request));
+        assertTrue("Download did not finish", done.await(60, TimeUnit.SECONDS));
+        assertTrue("Download failed", succeeded.get());
+
+        Cache downloadCache = MediaCache.getDownloadCache(context);
+        Cache playbackCache = MediaCache.getCache(context);
+        for (int i = 0; i < SEGMENTS; i++) {
+            String segmentUrl = server.url(prefix + "/320k/" + i + ".mp3");
+            assertTrue(downloadCache.getKeys().contains(segmentUrl));
+            assertFalse(playbackCache.getKeys().contains(segmentUrl));
+            assertFalse(downloadCache.getKeys().contains(server.url(prefix + "/64k/" + i + ".mp3")));
+        }
+        assertNotNull(DownloadedStreams.get(manifestUrl));
+        List<com.example.lab4.db.MediaItem> items = dao.getMediaItemsForPlaylistSync(playlistId);
+        assertEquals(1, items.size());
+        assertEquals(manifestUrl, items.get(0).mediaUri);
+        assertEquals("Offline HLS", items.get(0).mediaTitle);
+
+        int requestsBeforePlayback = server.requests.get();
+        server.close();
+        Log.i(TAG, "Downloaded " + manifestUrl + " in " + requestsBeforePlayback + " requests; server is down");
+
+        CountDownLatch ended = new CountDownLatch(1);
+        AtomicReference<PlaybackException> error = new AtomicReference<>();
+        AtomicReference<ExoPlayer> playerRef = new AtomicReference<>();
+        MediaItem playerItem = PlaylistWindowLoader.toPlayerItem(items.get(0));
+        instrumentation.runOnMainSync(() -> {
+            ExoPlayer player = PlaybackProfile.GAPLESS_MUSIC.buildPlayer(context);
+            player.setVolume(0f);
+            player.addListener(new Player.Listener() {
+                @Override
+                public void onPlaybackStateChanged(int playbackState) {
+                    if (playbackState == Player.STATE_ENDED) {
+                        ended.countDown();
+                    }
+                }
+
+                @Override
+                public void onPlayerError(@NonNull PlaybackException playbackError) {
+                    error.set(playbackError);
+                    ended.countDown();
+                }
+            });
+            player.setMediaItem(playerItem);
+            player.prepare();
+            player.play();
+            playerRef.set(player);
+        });
+        try {
+            assertTrue("Offline playback did not finish", ended.await(30, TimeUnit.SECONDS));
+            assertNull(error.get());
+            assertEquals(requestsBeforePlayback, server.requests.get());
+        } finally {
+            instrumentation.runOnMainSync(() -> playerRef.get().release());
+        }
+    }
+}
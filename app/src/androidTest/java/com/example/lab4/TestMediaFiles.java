@@ -0,0 +1,56 @@
+package com.example.lab4;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+final class TestMediaFiles {
+
+    private static final int SAMPLE_RATE = 44_100;
+    static final int MP3_SAMPLES_PER_FRAME = 1152;
+    private static final int[] MP3_BITRATES_KBPS = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+
+    private TestMediaFiles() {
+    }
+
+    static File silentWav(Context context, String name, int seconds) throws IOException {
+        File file = new File(context.getCacheDir(), name + ".wav");
+        int dataBytes = SAMPLE_RATE * 2 * seconds;
+        ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes()).putInt(36 + dataBytes).put("WAVE".getBytes());
+        header.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2).putShort((short) 2).putShort((short) 16);
+        header.put("data".getBytes()).putInt(dataBytes);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(header.array());
+            out.write(new byte[dataBytes]);
+        }
+        return file;
+    }
+
+    static byte[] silentMp3(int bitrateKbps, int frames) {
+        int bitrateIndex = -1;
+        for (int i = 1; i < MP3_BITRATES_KBPS.length; i++) {
+            if (MP3_BITRATES_KBPS[i] == bitrateKbps) {
+                bitrateIndex = i;
+            }
+        }
+        if (bitrateIndex < 0) {
+            throw new IllegalArgumentException("Unsupported MPEG-1 Layer III bitrate: " + bitrateKbps);
+        }
+        int frameBytes = 144 * bitrateKbps * 1000 / SAMPLE_RATE;
+        byte[] data = new byte[frameBytes * frames];
+        for (int i = 0; i < frames; i++) {
+            int offset = i * frameBytes;
+            data[offset] = (byte) 0xFF;
+            data[offset + 1] = (byte) 0xFB;
+            data[offset + 2] = (byte) (bitrateIndex << 4);
+            data[offset + 3] = (byte) 0xC4;
+        }
+        return data;
+    }
+}
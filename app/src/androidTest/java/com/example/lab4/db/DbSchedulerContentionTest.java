@@ -0,0 +1,222 @@
+package com.example.lab4.db;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DbSchedulerContentionTest {
+
+    private static final String TAG = "DbSchedulerContention";
+    private static final int FILE_COPIES = 6;
+    private static final int FILE_COPY_BYTES = 16 * 1024 * 1024;
+    private static final int BACKGROUND_WRITES = 300;
+    private static final int USER_READS = 20;
+
+    private interface Lanes {
+        void write(DbScheduler.Priority priority, Runnable task);
+
+        void read(DbScheduler.Priority priority, Runnable task);
+
+        void io(DbScheduler.Priority priority, Runnable task);
+    }
+
+    private Context context;
+    private String dbName;
+    private AppDatabase db;
+    private MediaDao dao;
+    private long playlistId;
+    private final List<File> copies = new ArrayList<>();
+
+    @Before
+    public void createDb() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbName = "contention_" + System.nanoTime() + ".db";
+        db = Room.databaseBuilder(context, AppDatabase.class, dbName)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+        playlistId = dao.insertPlaylist(new Playlist("Ingest"));
+    }
+
+    @After
+    public void closeDb() {
+        for (File copy : copies) {
+            copy.delete();
+        }
+        db.close();
+        context.deleteDatabase(dbName);
+    }
+
+    @Test
+    public void userVisibleReadsSkipBackgroundIngestion() throws Exception {
+        ExecutorService legacyPool = Executors.newFixedThreadPool(4);
+        Lanes legacy = new Lanes() {
+            @Override
+            public void write(DbScheduler.Priority priority, Runnable task) {
+                legacyPool.execute(task);
+            }
+
+            @Override
+            public void read(DbScheduler.Priority priority, Runnable task) {
+                legacyPool.execute(task);
+            }
+
+            @Override
+            public void io(DbScheduler.Priority priority, Runnable task) {
+                legacyPool.execute(task);
+            }
+        };
+        Lanes scheduler = new Lanes() {
+            @Override
+            public void write(DbScheduler.Priority priority, Runnable task) {
+                DbScheduler.write(priority, task);
+            }
+
+            @Override
+            public void read(DbScheduler.Priority priority, Runnable task) {
+                DbScheduler.read(priority, task);
+            }
+
+            @Override
+            public void io(DbScheduler.Priority priority, Runnable task) {
+                DbScheduler.io(priority, task);
+            }
+        };
+
+        List<Long> legacyLatencies;
+        try {
+            legacyLatencies = runMix(legacy, "legacy");
+        } finally {
+            legacyPool.shutdown();
+            assertTrue(legacyPool.awaitTermination(60, TimeUnit.SECONDS));
+        }
+        List<Long> schedulerLatencies = runMix(scheduler, "scheduler");
+        DbScheduler.logStats();
+
+        long legacyMedian = median(legacyLatencies);
+        long schedulerMedian = median(schedulerLatencies);
+        Log.i(TAG, String.format(Locale.US, "%d user-visible reads behind %d file copies and %d writes: "
+                        + "fixed pool median %d ms (max %d), scheduler median %d ms (max %d)",
+                USER_READS, FILE_COPIES, BACKGROUND_WRITES, legacyMedian, Collections.max(legacyLatencies),
+                schedulerMedian, Collections.max(schedulerLatencies)));
+        assertTrue("Scheduler median " + schedulerMedian + " ms vs fixed pool " + legacyMedian + " ms",
+                schedulerMedian < legacyMedian);
+    }
+
+    @Test
+    public void userVisibleWriteJumpsQueuedBackgroundWrites() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(BACKGROUND_WRITES + 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        DbScheduler.write(DbScheduler.Priority.BACKGROUND, () -> awaitQuietly(gate));
+        for (int i = 0; i < BACKGROUND_WRITES; i++) {
+            int index = i;
+            DbScheduler.write(DbScheduler.Priority.BACKGROUND, () -> {
+                dao.insertMediaItem(new MediaItem("file:///ingest/track_" + index + ".mp3", "Track " + index, playlistId));
+                order.add("background");
+                done.countDown();
+            });
+        }
+        DbScheduler.write(DbScheduler.Priority.USER_VISIBLE, () -> {
+            dao.insertPlaylist(new Playlist("Created by user"));
+            order.add("user");
+            done.countDown();
+        });
+        gate.countDown();
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals("user", order.get(0));
+        assertEquals(BACKGROUND_WRITES + 1, order.size());
+    }
+
+    private List<Long> runMix(Lanes lanes, String label) throws Exception {
+        CountDownLatch background = new CountDownLatch(FILE_COPIES + BACKGROUND_WRITES);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < FILE_COPIES; i++) {
+            File copy = new File(context.getCacheDir(), label + "_copy_" + i + ".bin");
+            copies.add(copy);
+            lanes.io(DbScheduler.Priority.BACKGROUND, () -> {
+                try {
+                    writeFile(copy);
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+                background.countDown();
+            });
+        }
+        for (int i = 0; i < BACKGROUND_WRITES; i++) {
+            String uri = "file:///" + label + "/track_" + i + ".mp3";
+            lanes.write(DbScheduler.Priority.BACKGROUND, () -> {
+                dao.insertMediaItem(new MediaItem(uri, "Track", playlistId));
+                background.countDown();
+            });
+        }
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch reads = new CountDownLatch(USER_READS);
+        for (int i = 0; i < USER_READS; i++) {
+            long submittedMs = SystemClock.elapsedRealtime();
+            lanes.read(DbScheduler.Priority.USER_VISIBLE, () -> {
+                dao.getAllPlaylistsSync();
+                latencies.add(SystemClock.elapsedRealtime() - submittedMs);
+                reads.countDown();
+            });
+            SystemClock.sleep(10);
+        }
+        assertTrue(reads.await(120, TimeUnit.SECONDS));
+        assertTrue(background.await(120, TimeUnit.SECONDS));
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return new ArrayList<>(latencies);
+    }
+
+    private static void writeFile(File file) throws IOException {
+        byte[] chunk = new byte[8 * 1024];
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int written = 0; written < FILE_COPY_BYTES; written += chunk.length) {
+                out.write(chunk);
+            }
+            out.getFD().sync();
+        }
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
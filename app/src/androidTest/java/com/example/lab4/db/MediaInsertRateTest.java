@@ -0,0 +1,82 @@
+package com.example.lab4.db;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class MediaInsertRateTest {
+
+    private static final String TAG = "MediaInsertRateTest";
+    private static final int ITEMS = 1_000;
+
+    private Context context;
+    private String dbName;
+    private AppDatabase db;
+    private MediaDao dao;
+
+    @Before
+    public void createDb() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbName = "insert_rate_" + System.nanoTime() + ".db";
+        db = Room.databaseBuilder(context, AppDatabase.class, dbName)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+    }
+
+    @After
+    public void closeDb() {
+        db.close();
+        context.deleteDatabase(dbName);
+    }
+
+    @Test
+    public void batchedImportOutpacesOneTransactionPerRow() {
+        long singlePlaylist = dao.insertPlaylist(new Playlist("One by one"));
+        long batchPlaylist = dao.insertPlaylist(new Playlist("Batched"));
+
+        long singleStartNs = SystemClock.elapsedRealtimeNanos();
+        for (MediaItem item : items("single", singlePlaylist)) {
+            dao.insertMediaItem(item);
+        }
+        long singleNs = SystemClock.elapsedRealtimeNanos() - singleStartNs;
+
+        List<MediaItem> batch = items("batch", batchPlaylist);
+        long batchStartNs = SystemClock.elapsedRealtimeNanos();
+        assertEquals(ITEMS, dao.importMediaItems(batchPlaylist, batch));
+        long batchNs = SystemClock.elapsedRealtimeNanos() - batchStartNs;
+
+        assertEquals(ITEMS, dao.getPlaylistLength(singlePlaylist));
+        assertEquals(ITEMS, dao.getPlaylistLength(batchPlaylist));
+        double singleRate = ITEMS * 1e9 / singleNs;
+        double batchRate = ITEMS * 1e9 / batchNs;
+        Log.i(TAG, String.format(Locale.US, "%d inserts: one by one %.0f/s (%.1f ms), batched %.0f/s (%.1f ms), %.1fx",
+                ITEMS, singleRate, singleNs / 1e6, batchRate, batchNs / 1e6, batchRate / singleRate));
+        assertTrue("Batched " + batchRate + "/s vs one by one " + singleRate + "/s", batchRate > singleRate * 2);
+    }
+
+    private static List<MediaItem> items(String prefix, long playlistId) {
+        List<MediaItem> items = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            items.add(new MediaItem("file:///" + prefix + "/track_" + i + ".mp3", "Track " + i, playlistId));
+        }
+        return items;
+    }
+}
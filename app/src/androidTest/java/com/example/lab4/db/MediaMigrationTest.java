@@ -0,0 +1,151 @@
+package com.example.lab4.db;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class MediaMigrationTest {
+
+    private static final String TEST_DB = "media-migration-test";
+
+    private Context context;
+    private AppDatabase db;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+        }
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void migratingFromVersion1DeduplicatesMediaAndKeepsPlaylists() {
+        try (SQLiteDatabase legacy = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(TEST_DB), null)) {
+            legacy.execSQL("CREATE TABLE IF NOT EXISTS `playlists` (`playlist_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`playlist_name` TEXT NOT NULL)");
+            legacy.execSQL("CREATE TABLE IF NOT EXISTS `media_items` (`media_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`media_uri` TEXT NOT NULL, `media_title` TEXT, `playlist_creator_id` INTEGER NOT NULL, "
+                    + "FOREIGN KEY(`playlist_creator_id`) REFERENCES `playlists`(`playlist_id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            legacy.execSQL("CREATE INDEX IF NOT EXISTS `index_media_items_playlist_creator_id` ON `media_items` (`playlist_creator_id`)");
+            legacy.execSQL("INSERT INTO `playlists` (`playlist_id`, `playlist_name`) VALUES (1, 'Road Trip'), (2, 'Workout')");
+            legacy.execSQL("INSERT INTO `media_items` (`media_id`, `media_uri`, `media_title`, `playlist_creator_id`) VALUES "
+                    + "(1, 'file:///music/anthem.mp3', 'Anthem', 1), "
+                    + "(2, 'file:///music/ballad.mp3', 'Ballad', 1), "
+                    + "(3, 'file:///music/anthem.mp3', NULL, 2), "
+                    + "(4, ' file:///music/anthem.mp3', 'Anthem (copy)', 2), "
+                    + "(5, 'file:///music/cadence.mp3', 'Cadence', 2)");
+            legacy.setVersion(1);
+        }
+
+        db = Room.databaseBuilder(context, AppDatabase.class, TEST_DB)
+                .addMigrations(AppDatabase.ALL_MIGRATIONS)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .allowMainThreadQueries()
+                .build();
+        MediaDao dao = db.mediaDao();
+
+        assertEquals(3, dao.getMediaCount());
+        assertEquals(5, dao.getPlaylistEntryCount());
+
+        PlaylistWithMedia roadTrip = dao.getPlaylistWithMedia(1);
+        assertNotNull(roadTrip);
+        assertEquals("Road Trip", roadTrip.playlist.playlistName);
+        assertEquals(2, roadTrip.items.size());
+
+        List<MediaItem> workout = dao.getMediaItemsForPlaylistSync(2);
+        assertEquals(3, workout.size());
+        assertEquals(3, workout.get(0).entryId);
+        assertEquals(4, workout.get(1).entryId);
+        assertEquals(5, workout.get(2).entryId);
+        assertEquals(workout.get(0).mediaId, workout.get(1).mediaId);
+        assertEquals("Anthem", workout.get(0).mediaTitle);
+        assertEquals(dao.getMediaItemById(1).mediaId, workout.get(0).mediaId);
+
+        assertEquals(2, dao.getPlaylistStats(1).itemCount);
+        assertEquals(3, dao.getPlaylistStats(2).itemCount);
+        assertEquals(1, dao.countTitleMatches(MediaSearchQuery.toMatchExpression("anth")));
+
+        dao.insertMediaItem(new MediaItem("file:///music/ballad.mp3", "Ballad", 2));
+        assertEquals(3, dao.getMediaCount());
+        assertEquals(4, dao.getPlaylistStats(2).itemCount);
+
+        dao.insertMediaMetadata(Collections.singletonList(metadata("file:///music/anthem.mp3", 1_000)));
+        dao.insertMediaMetadata(Collections.singletonList(metadata("file:///music/cadence.mp3", 0)));
+        assertEquals(1_000, dao.getPlaylistStats(1).totalDurationMs);
+        assertEquals(2_000, dao.getPlaylistStats(2).totalDurationMs);
+
+        dao.deletePlaylist(dao.getPlaylistById(2));
+        assertEquals(2, dao.getMediaCount());
+        assertNull(dao.getMediaIdByUri("file:///music/cadence.mp3"));
+        assertTrue(dao.getMediaMetadata(Collections.singletonList("file:///music/cadence.mp3")).isEmpty());
+        assertEquals(1, dao.getMediaMetadata(Collections.singletonList("file:///music/anthem.mp3")).size());
+        assertEquals(2, dao.getMediaItemsForPlaylistSync(1).size());
+    }
+
+    @Test
+    public void migrationMergesUrisThatUpsertMediaWouldTreatAsOne() {
+        try (SQLiteDatabase legacy = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(TEST_DB), null)) {
+            legacy.execSQL("CREATE TABLE IF NOT EXISTS `playlists` (`playlist_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`playlist_name` TEXT NOT NULL)");
+            legacy.execSQL("CREATE TABLE IF NOT EXISTS `media_items` (`media_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`media_uri` TEXT NOT NULL, `media_title` TEXT, `playlist_creator_id` INTEGER NOT NULL, "
+                    + "FOREIGN KEY(`playlist_creator_id`) REFERENCES `playlists`(`playlist_id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            legacy.execSQL("CREATE INDEX IF NOT EXISTS `index_media_items_playlist_creator_id` ON `media_items` (`playlist_creator_id`)");
+            legacy.execSQL("INSERT INTO `playlists` (`playlist_id`, `playlist_name`) VALUES (1, 'Mixed')");
+            legacy.execSQL("INSERT INTO `media_items` (`media_id`, `media_uri`, `media_title`, `playlist_creator_id`) VALUES "
+                    + "(1, 'FILE:///music/anthem.mp3', 'Anthem', 1), "
+                    + "(2, ' File:///music/anthem.mp3 ', NULL, 1), "
+                    + "(3, 'file:///music/anthem.mp3', NULL, 1), "
+                    + "(4, 'HTTPS://example.com/Stream.mp3', 'Stream', 1), "
+                    + "(5, 'https://example.com/Stream.mp3', NULL, 1)");
+            legacy.setVersion(1);
+        }
+
+        db = Room.databaseBuilder(context, AppDatabase.class, TEST_DB)
+                .addMigrations(AppDatabase.ALL_MIGRATIONS)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .allowMainThreadQueries()
+                .build();
+        MediaDao dao = db.mediaDao();
+
+        assertEquals(2, dao.getMediaCount());
+        assertEquals(5, dao.getPlaylistEntryCount());
+        assertNotNull(dao.getMediaIdByUri("file:///music/anthem.mp3"));
+        assertNotNull(dao.getMediaIdByUri("https://example.com/Stream.mp3"));
+
+        dao.insertMediaItem(new MediaItem("FILE:///music/anthem.mp3", "Anthem", 1));
+        dao.insertMediaItem(new MediaItem("https://example.com/Stream.mp3", "Stream", 1));
+        assertEquals(2, dao.getMediaCount());
+        assertEquals("Anthem", dao.getMediaItemsForPlaylistSync(1).get(0).mediaTitle);
+    }
+
+    private static MediaMetadataEntry metadata(String uri, long durationMs) {
+        MediaMetadataEntry entry = new MediaMetadataEntry(uri);
+        entry.durationMs = durationMs;
+        return entry;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.lab4.db;
+
+import android.content.Context;
+
+import androidx.paging.PagingSource;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import kotlin.coroutines.EmptyCoroutineContext;
+import kotlinx.coroutines.BuildersKt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class MediaSearchTest {
+
+    private static final int PAGE_SIZE = 50;
+
+    private AppDatabase db;
+    private MediaDao dao;
+
+    @Before
+    public void createDb() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+        long mix = dao.insertPlaylist(new Playlist("River Mix"));
+        long misc = dao.insertPlaylist(new Playlist("Misc"));
+        dao.insertMediaItem(new MediaItem("file:///music/cold_water.mp3", "Cold Water", mix));
+        dao.insertMediaItem(new MediaItem("file:///music/down_by_the_river.mp3", "Down by the River", misc));
+        dao.insertMediaItem(new MediaItem("file:///music/river_song_extended.mp3", "River Song Extended", misc));
+        dao.insertMediaItem(new MediaItem("file:///music/unrelated.mp3", "Unrelated", misc));
+        dao.insertMediaItem(new MediaItem("file:///music/river.mp3", "River", misc));
+        dao.insertMediaItem(new MediaItem("file:///music/rock_n_roll.mp3", "Rock-n-Roll", misc));
+    }
+
+    @After
+    public void closeDb() {
+        db.close();
+    }
+
+    @Test
+    public void titleMatchesRankAbovePlaylistMatchesWithPrefixesAndShortTitlesFirst() throws Exception {
+        assertEquals(Arrays.asList("River", "River Song Extended", "Down by the River", "Cold Water"), search("river"));
+        assertEquals(Arrays.asList("River", "River Song Extended", "Down by the River", "Cold Water"), search("Riv"));
+        assertEquals(Collections.singletonList("Cold Water"), search("mix"));
+    }
+
+    @Test
+    public void quotesStarsAndDashesAreNotPassedToMatch() throws Exception {
+        assertEquals("river*", MediaSearchQuery.toMatchExpression("\"river\""));
+        assertEquals("river*", MediaSearchQuery.toMatchExpression("\"river"));
+        assertEquals("riv*", MediaSearchQuery.toMatchExpression("riv*"));
+        assertEquals("river*", MediaSearchQuery.toMatchExpression("-river"));
+        assertEquals("rock* n* roll*", MediaSearchQuery.toMatchExpression("Rock-n-Roll"));
+        assertNull(MediaSearchQuery.toMatchExpression("\"*-\""));
+        assertNull(MediaSearchQuery.toMatchExpression("   "));
+
+        List<String> plain = search("river");
+        assertEquals(plain, search("\"river"));
+        assertEquals(plain, search("\"river\""));
+        assertEquals(plain, search("riv*"));
+        assertEquals(plain, search("-river"));
+        assertEquals(Collections.singletonList("Rock-n-Roll"), search("rock-n-roll"));
+        assertEquals(Collections.emptyList(), search("\"*-\""));
+    }
+
+    private List<String> search(String query) throws InterruptedException {
+        PagingSource<Integer, MediaItem> source = dao.searchMedia(query);
+        PagingSource.LoadResult<Integer, MediaItem> result = BuildersKt.<PagingSource.LoadResult<Integer, MediaItem>>runBlocking(
+                EmptyCoroutineContext.INSTANCE,
+                (scope, continuation) -> source.load(new PagingSource.LoadParams.Refresh<>(null, PAGE_SIZE, false), continuation));
+        if (result instanceof PagingSource.LoadResult.Error) {
+            throw new AssertionError("Search for " + query + " failed",
+                    ((PagingSource.LoadResult.Error<Integer, MediaItem>) result).getThrowable());
+        }
+        List<String> titles = new ArrayList<>();
+        for (MediaItem item : ((PagingSource.LoadResult.Page<Integer, MediaItem>) result).getData()) {
+            titles.add(item.mediaTitle);
+        }
+        return titles;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.lab4.db;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class NowPlayingQueueTest {
+
+    private static final String TAG = "NowPlayingQueueTest";
+    private static final int QUEUE_SIZE = 10_000;
+
+    private AppDatabase db;
+    private MediaDao dao;
+
+    @Before
+    public void createDb() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .allowMainThreadQueries()
+                .build();
+        dao = db.mediaDao();
+    }
+
+    @After
+    public void closeDb() {
+        db.close();
+    }
+
+    @Test
+    public void largeQueueRoundTripsInOneSnapshot() {
+        assertNull(dao.getNowPlayingSnapshot());
+
+        List<NowPlayingItem> queue = new ArrayList<>(QUEUE_SIZE);
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            queue.add(new NowPlayingItem(i, String.valueOf(i), "file:///music/track_" + i + ".mp3", "Track " + i));
+        }
+        NowPlayingState state = new NowPlayingState();
+        state.currentIndex = 4_321;
+        state.positionMs = 65_000;
+        state.shuffleEnabled = true;
+
+        long writeStartMs = SystemClock.elapsedRealtime();
+        db.runInTransaction(() -> {
+            dao.replaceNowPlayingQueue(queue);
+            dao.upsertNowPlayingState(state);
+        });
+        long writeMs = SystemClock.elapsedRealtime() - writeStartMs;
+
+        long readStartMs = SystemClock.elapsedRealtime();
+        NowPlayingSnapshot snapshot = dao.getNowPlayingSnapshot();
+        long readMs = SystemClock.elapsedRealtime() - readStartMs;
+        Log.i(TAG, "Persisted " + QUEUE_SIZE + " queue items in " + writeMs + " ms, restored in " + readMs + " ms");
+
+        assertNotNull(snapshot);
+        assertEquals(QUEUE_SIZE, snapshot.queue.size());
+        assertEquals(4_321, snapshot.state.currentIndex);
+        assertEquals(65_000, snapshot.state.positionMs);
+        assertEquals("file:///music/track_9999.mp3", snapshot.queue.get(QUEUE_SIZE - 1).mediaUri);
+
+        dao.replaceNowPlayingQueue(queue.subList(0, 3));
+        assertEquals(3, dao.getNowPlayingQueue().size());
+
+        dao.upsertResumePositions(Collections.singletonList(new ResumePosition("file:///music/track_1.mp3", 30_000, 600_000, 100)));
+        dao.upsertResumePositions(Collections.singletonList(new ResumePosition("file:///music/track_1.mp3", 45_000, 600_000, 200)));
+        assertEquals(45_000, dao.getResumePosition("file:///music/track_1.mp3").positionMs);
+        assertEquals(1, dao.deleteResumePositionsOlderThan(300));
+    }
+}
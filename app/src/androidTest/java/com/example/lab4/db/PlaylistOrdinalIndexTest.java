@@ -0,0 +1,152 @@
+package com.example.lab4.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PlaylistOrdinalIndexTest {
+
+    private static final String TAG = "PlaylistOrdinalIndexTest";
+    private static final int SMALL_PLAYLIST = 100;
+    private static final int LARGE_PLAYLIST = 100_000;
+    private static final int LOOKUPS = 2_000;
+    private static final int WINDOW_RUN = 3;
+
+    private AppDatabase db;
+    private MediaDao dao;
+
+    @Before
+    public void createDb() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .allowMainThreadQueries()
+                .build();
+        dao = db.mediaDao();
+    }
+
+    @After
+    public void closeDb() {
+        db.close();
+    }
+
+    @Test
+    public void ordinalLookupsUseTheIndexInsteadOfScanning() {
+        long playlistId = dao.insertPlaylist(new Playlist("Plan"));
+        dao.importMediaItems(playlistId, items("plan", SMALL_PLAYLIST));
+
+        String plan = explain("SELECT * FROM playlist_media WHERE playlist_id = " + playlistId
+                + " AND ordinal >= 50 ORDER BY ordinal ASC LIMIT 3");
+        Log.i(TAG, "Ordinal window plan: " + plan);
+        assertTrue(plan, plan.contains("index_playlist_entries_playlist_id_ordinal"));
+        assertFalse(plan, plan.contains("SCAN"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+
+        String lengthPlan = explain("SELECT IFNULL(MAX(ordinal) + 1, 0) FROM playlist_entries WHERE playlist_id = "
+                + playlistId);
+        assertTrue(lengthPlan, lengthPlan.contains("index_playlist_entries_playlist_id_ordinal"));
+        assertFalse(lengthPlan, lengthPlan.contains("SCAN"));
+    }
+
+    @Test
+    public void randomOrdinalLookupCostDoesNotGrowWithPlaylistLength() {
+        long small = dao.insertPlaylist(new Playlist("Small"));
+        long large = dao.insertPlaylist(new Playlist("Large"));
+        dao.importMediaItems(small, items("small", SMALL_PLAYLIST));
+        dao.importMediaItems(large, items("large", LARGE_PLAYLIST));
+        assertEquals(SMALL_PLAYLIST, dao.getPlaylistLength(small));
+        assertEquals(LARGE_PLAYLIST, dao.getPlaylistLength(large));
+
+        lookUpRandomOrdinals(small, SMALL_PLAYLIST);
+        long smallNs = lookUpRandomOrdinals(small, SMALL_PLAYLIST);
+        long largeNs = lookUpRandomOrdinals(large, LARGE_PLAYLIST);
+        Log.i(TAG, LOOKUPS + " random window lookups: " + SMALL_PLAYLIST + " entries in " + smallNs / 1_000_000
+                + " ms, " + LARGE_PLAYLIST + " entries in " + largeNs / 1_000_000 + " ms");
+        assertTrue("Lookups at " + LARGE_PLAYLIST + " entries took " + largeNs / 1_000_000 + " ms vs "
+                        + smallNs / 1_000_000 + " ms at " + SMALL_PLAYLIST,
+                largeNs < smallNs * 4 + 200_000_000L);
+    }
+
+    @Test
+    public void ordinalsStayDenseAcrossMovesAndDeletes() {
+        long playlistId = dao.insertPlaylist(new Playlist("Edits"));
+        dao.importMediaItems(playlistId, items("edit", 20));
+        List<Long> ids = dao.getOrderedEntryIds(playlistId);
+
+        dao.moveMediaItem(ids.get(15), ids.get(2), ids.get(3));
+        dao.moveMediaItem(ids.get(1), ids.get(18), ids.get(19));
+        dao.moveMediaItem(ids.get(7), 0, ids.get(0));
+        dao.moveMediaItem(ids.get(4), ids.get(19), 0);
+        dao.deletePlaylistEntry(ids.get(10));
+        dao.deletePlaylistEntry(ids.get(7));
+        dao.insertMediaItem(new MediaItem("file:///edit/late.mp3", "Late", playlistId));
+        assertOrdinalsMatchPositions(playlistId, 19);
+
+        for (int i = 0; i < 30; i++) {
+            dao.moveMediaItem(ids.get(5), 0, dao.getOrderedEntryIds(playlistId).get(0));
+            dao.moveMediaItem(ids.get(6), ids.get(5), dao.getOrderedEntryIds(playlistId).get(1));
+        }
+        assertOrdinalsMatchPositions(playlistId, 19);
+    }
+
+    private long lookUpRandomOrdinals(long playlistId, int length) {
+        Random random = new Random(length);
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < LOOKUPS; i++) {
+            int ordinal = random.nextInt(length - WINDOW_RUN);
+            List<MediaItem> rows = dao.getMediaItemsAtOrdinal(playlistId, ordinal, WINDOW_RUN);
+            assertEquals(WINDOW_RUN, rows.size());
+            assertEquals(ordinal, rows.get(0).ordinal);
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private void assertOrdinalsMatchPositions(long playlistId, int expectedLength) {
+        List<Long> ordered = dao.getOrderedEntryIds(playlistId);
+        assertEquals(expectedLength, ordered.size());
+        assertEquals(expectedLength, dao.getPlaylistLength(playlistId));
+        for (int i = 0; i < ordered.size(); i++) {
+            List<MediaItem> rows = dao.getMediaItemsAtOrdinal(playlistId, i, 1);
+            assertEquals("Ordinal " + i, ordered.get(i).longValue(), rows.get(0).entryId);
+            assertEquals(i, rows.get(0).ordinal);
+        }
+    }
+
+    private String explain(String sql) {
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.getOpenHelper().getReadableDatabase().query("EXPLAIN QUERY PLAN " + sql)) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append("; ");
+            }
+        }
+        return plan.toString();
+    }
+
+    private static List<MediaItem> items(String prefix, int count) {
+        List<MediaItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new MediaItem("file:///" + prefix + "/" + i + ".mp3", "Track " + i, 0));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.lab4.db;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.paging.PagingSource;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.lab4.MediaItemAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PlaylistPagingBenchmarkTest {
+
+    private static final String TAG = "PlaylistPagingBench";
+    private static final int PLAYLIST_SIZE = 10_000;
+    private static final int PAGE_SIZE = 50;
+
+    private AppDatabase db;
+    private MediaDao dao;
+    private long playlistId;
+
+    @Before
+    public void createDb() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .build();
+        dao = db.mediaDao();
+        playlistId = dao.insertPlaylist(new Playlist("Downloads"));
+        List<MediaItem> items = new ArrayList<>(PLAYLIST_SIZE);
+        for (int i = 0; i < PLAYLIST_SIZE; i++) {
+            items.add(new MediaItem("file:///downloads/track_" + i + ".mp3", "Track " + i, playlistId));
+        }
+        dao.importMediaItems(playlistId, items);
+    }
+
+    @After
+    public void closeDb() {
+        db.close();
+    }
+
+    @Test
+    public void pagedPathKeepsHeapAndDiffTimeFlatAt10kItems() throws Exception {
+        long baseline = retainedHeap();
+        List<MediaItem> fullBefore = dao.getMediaItemsForPlaylistSync(playlistId);
+        long fullHeap = retainedHeap() - baseline;
+        dao.insertMediaItem(new MediaItem("file:///downloads/late.mp3", "Late", playlistId));
+        List<MediaItem> fullAfter = dao.getMediaItemsForPlaylistSync(playlistId);
+        long fullDiffNs = timeDiff(fullBefore, fullAfter);
+        assertEquals(PLAYLIST_SIZE + 1, fullAfter.size());
+        fullBefore = null;
+        fullAfter = null;
+
+        baseline = retainedHeap();
+        List<MediaItem> pageBefore = firstPage();
+        long pagedHeap = retainedHeap() - baseline;
+        dao.insertMediaItem(new MediaItem("file:///downloads/later.mp3", "Later", playlistId));
+        List<MediaItem> pageAfter = firstPage();
+        long pagedDiffNs = timeDiff(pageBefore, pageAfter);
+        assertEquals(PAGE_SIZE, pageAfter.size());
+
+        Log.i(TAG, String.format(Locale.US, "%d items: full list %.1f KB retained, diff %.2f ms; "
+                        + "paged %.1f KB retained, diff %.2f ms", PLAYLIST_SIZE,
+                fullHeap / 1024f, fullDiffNs / 1e6, pagedHeap / 1024f, pagedDiffNs / 1e6));
+        assertTrue("Paged heap " + pagedHeap + " vs full " + fullHeap, pagedHeap * 10 < fullHeap);
+        assertTrue("Paged diff " + pagedDiffNs + " ns vs full " + fullDiffNs + " ns", pagedDiffNs < fullDiffNs);
+    }
+
+    private List<MediaItem> firstPage() throws Exception {
+        MediaItemPagingSource source = new MediaItemPagingSource(db, playlistId);
+        try {
+            PagingSource.LoadResult<Long, MediaItem> result = source.loadFuture(
+                    new PagingSource.LoadParams.Refresh<>(null, PAGE_SIZE, false)).get(10, TimeUnit.SECONDS);
+            return ((PagingSource.LoadResult.Page<Long, MediaItem>) result).getData();
+        } finally {
+            source.invalidate();
+        }
+    }
+
+    private static long timeDiff(List<MediaItem> before, List<MediaItem> after) {
+        MediaItemAdapter.MediaItemDiff itemDiff = new MediaItemAdapter.MediaItemDiff();
+        long start = SystemClock.elapsedRealtimeNanos();
+        DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return before.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return after.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return itemDiff.areItemsTheSame(before.get(oldItemPosition), after.get(newItemPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return itemDiff.areContentsTheSame(before.get(oldItemPosition), after.get(newItemPosition));
+            }
+        });
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private static long retainedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.lab4.db;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class PlaylistStatsTest {
+
+    private AppDatabase db;
+    private MediaDao dao;
+
+    @Before
+    public void createDb() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .addCallback(AppDatabase.CREATE_CALLBACK)
+                .allowMainThreadQueries()
+                .build();
+        dao = db.mediaDao();
+    }
+
+    @After
+    public void closeDb() {
+        db.close();
+    }
+
+    @Test
+    public void countersStayExactAcrossBulkInsertsDeletesAndCascades() {
+        long first = dao.insertPlaylist(new Playlist("First"));
+        long second = dao.insertPlaylist(new Playlist("Second"));
+        assertStats(first, 0, 0);
+
+        dao.insertMediaMetadata(Collections.singletonList(metadata("file:///a.mp3", 1_000)));
+        dao.importMediaItems(first, items("file:///a.mp3", 300));
+        dao.importMediaItems(first, items("file:///b.mp3", 200));
+        dao.importMediaItems(second, items("file:///a.mp3", 50));
+        assertStats(first, 500, 300_000);
+        assertStats(second, 50, 50_000);
+
+        dao.insertMediaMetadata(Collections.singletonList(metadata("file:///b.mp3", 2_000)));
+        dao.insertMediaMetadata(Collections.singletonList(metadata("file:///a.mp3", 1_500)));
+        assertStats(first, 500, 300 * 1_500 + 200 * 2_000);
+        assertStats(second, 50, 50 * 1_500);
+
+        List<MediaItem> firstItems = dao.getMediaItemsForPlaylistSync(first);
+        int deletedA = 0;
+        int deletedB = 0;
+        for (int i = 0; i < firstItems.size(); i += 3) {
+            MediaItem item = firstItems.get(i);
+            dao.deleteMediaItem(item);
+            if (item.mediaUri.equals("file:///a.mp3")) deletedA++; else deletedB++;
+        }
+        assertStats(first, 500 - deletedA - deletedB, (300 - deletedA) * 1_500L + (200 - deletedB) * 2_000L);
+
+        Playlist secondPlaylist = dao.getPlaylistById(second);
+        dao.deletePlaylist(secondPlaylist);
+        assertNull(dao.getPlaylistStats(second));
+        assertStats(first, 500 - deletedA - deletedB, (300 - deletedA) * 1_500L + (200 - deletedB) * 2_000L);
+
+        dao.deletePlaylist(dao.getPlaylistById(first));
+        assertNull(dao.getPlaylistStats(first));
+    }
+
+    private void assertStats(long playlistId, long expectedCount, long expectedDurationMs) {
+        PlaylistStats stats = dao.getPlaylistStats(playlistId);
+        assertEquals(expectedCount, stats.itemCount);
+        assertEquals(expectedDurationMs, stats.totalDurationMs);
+        assertEquals(dao.getMediaItemsForPlaylistSync(playlistId).size(), stats.itemCount);
+    }
+
+    private static MediaMetadataEntry metadata(String uri, long durationMs) {
+        MediaMetadataEntry entry = new MediaMetadataEntry(uri);
+        entry.durationMs = durationMs;
+        return entry;
+    }
+
+    private static List<MediaItem> items(String uri, int count) {
+        List<MediaItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new MediaItem(uri, "Track " + i, 0));
+        }
+        return items;
+    }
+}
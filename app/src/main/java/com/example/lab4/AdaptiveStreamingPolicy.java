@@ -0,0 +1,153 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.C;
+import androidx.media3.common.util.NetworkTypeObserver;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.analytics.AnalyticsListener;
+import androidx.media3.exoplayer.trackselection.DefaultTrackSelector;
+import androidx.media3.exoplayer.upstream.BandwidthMeter;
+import androidx.media3.exoplayer.upstream.DefaultBandwidthMeter;
+
+import java.util.Map;
+
+@UnstableApi
+public final class AdaptiveStreamingPolicy implements AnalyticsListener, BandwidthMeter.EventListener,
+        NetworkTypeObserver.Listener {
+
+    private static final String TAG = "AdaptiveStreamingPolicy";
+    static final String PREFS_NAME = "bandwidth_estimates";
+    private static final String KEY_BITRATE_PREFIX = "bitrate_";
+    private static final long MIN_SAVE_INTERVAL_MS = 10_000;
+
+    static final int SLOW_CELLULAR_MAX_VIDEO_BITRATE = 400_000;
+    static final int SLOW_CELLULAR_MAX_VIDEO_HEIGHT = 240;
+    static final int THIRD_GEN_MAX_VIDEO_BITRATE = 1_000_000;
+    static final int THIRD_GEN_MAX_VIDEO_HEIGHT = 480;
+    static final int CELLULAR_MAX_VIDEO_BITRATE = 2_500_000;
+    static final int CELLULAR_MAX_VIDEO_HEIGHT = 720;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final DefaultTrackSelector trackSelector;
+    private final DefaultBandwidthMeter bandwidthMeter;
+
+    private int networkType;
+    private long lastSavedAtMs = C.TIME_UNSET;
+    private boolean sampledThisSession;
+    private boolean released;
+
+    public AdaptiveStreamingPolicy(Context context) {
+        this.context = context.getApplicationContext();
+        prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        NetworkTypeObserver networkTypeObserver = NetworkTypeObserver.getInstance(this.context);
+        networkType = networkTypeObserver.getNetworkType();
+
+        DefaultBandwidthMeter.Builder meterBuilder = new DefaultBandwidthMeter.Builder(this.context);
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getKey().startsWith(KEY_BITRATE_PREFIX) && entry.getValue() instanceof Long) {
+                int savedNetworkType = Integer.parseInt(entry.getKey().substring(KEY_BITRATE_PREFIX.length()));
+                meterBuilder.setInitialBitrateEstimate(savedNetworkType, (Long) entry.getValue());
+            }
+        }
+        bandwidthMeter = meterBuilder.build();
+        bandwidthMeter.addEventListener(new Handler(Looper.getMainLooper()), this);
+
+        trackSelector = new DefaultTrackSelector(this.context,
+                applyCaps(new DefaultTrackSelector.Parameters.Builder(this.context), networkType)
+                        .setExceedVideoConstraintsIfNecessary(true)
+                        .setAllowAudioMixedChannelCountAdaptiveness(true)
+                        .setAllowAudioMixedSampleRateAdaptiveness(true)
+                        .build());
+        networkTypeObserver.register(this);
+        Log.d(TAG, "Startup estimate for network type " + networkType + ": " + bandwidthMeter.getBitrateEstimate()
+                + " bps" + (prefs.contains(KEY_BITRATE_PREFIX + networkType) ? " (persisted)" : " (default)"));
+    }
+
+    public DefaultTrackSelector getTrackSelector() {
+        return trackSelector;
+    }
+
+    public DefaultBandwidthMeter getBandwidthMeter() {
+        return bandwidthMeter;
+    }
+
+    @Override
+    public void onNetworkTypeChanged(@C.NetworkType int networkType) {
+        if (released || networkType == C.NETWORK_TYPE_OFFLINE || networkType == this.networkType) return;
+        this.networkType = networkType;
+        trackSelector.setParameters(applyCaps(trackSelector.buildUponParameters(), networkType));
+        Log.d(TAG, "Network type " + networkType + ": max video bitrate "
+                + trackSelector.getParameters().maxVideoBitrate + " bps, max height "
+                + trackSelector.getParameters().maxVideoHeight);
+    }
+
+    @Override
+    public void onBandwidthSample(int elapsedMs, long bytesTransferred, long bitrateEstimate) {
+        sampledThisSession = true;
+        long nowMs = SystemClock.elapsedRealtime();
+        if (lastSavedAtMs == C.TIME_UNSET || nowMs - lastSavedAtMs >= MIN_SAVE_INTERVAL_MS) {
+            saveBitrateEstimate(bitrateEstimate);
+            lastSavedAtMs = nowMs;
+        }
+    }
+
+    @Override
+    public void onPlayerReleased(@NonNull EventTime eventTime) {
+        released = true;
+        bandwidthMeter.removeEventListener(this);
+        if (sampledThisSession) {
+            saveBitrateEstimate(bandwidthMeter.getBitrateEstimate());
+        }
+    }
+
+    void saveBitrateEstimate(long bitrateEstimate) {
+        if (networkType == C.NETWORK_TYPE_OFFLINE || bitrateEstimate <= 0) return;
+        prefs.edit().putLong(KEY_BITRATE_PREFIX + networkType, bitrateEstimate).apply();
+    }
+
+    private DefaultTrackSelector.Parameters.Builder applyCaps(DefaultTrackSelector.Parameters.Builder builder,
+                                                              @C.NetworkType int networkType) {
+        int maxBitrate;
+        int maxHeight;
+        switch (networkType) {
+            case C.NETWORK_TYPE_2G:
+                maxBitrate = SLOW_CELLULAR_MAX_VIDEO_BITRATE;
+                maxHeight = SLOW_CELLULAR_MAX_VIDEO_HEIGHT;
+                break;
+            case C.NETWORK_TYPE_3G:
+                maxBitrate = THIRD_GEN_MAX_VIDEO_BITRATE;
+                maxHeight = THIRD_GEN_MAX_VIDEO_HEIGHT;
+                break;
+            case C.NETWORK_TYPE_4G:
+            case C.NETWORK_TYPE_5G_NSA:
+            case C.NETWORK_TYPE_5G_SA:
+            case C.NETWORK_TYPE_CELLULAR_UNKNOWN:
+                maxBitrate = CELLULAR_MAX_VIDEO_BITRATE;
+                maxHeight = CELLULAR_MAX_VIDEO_HEIGHT;
+                break;
+            default:
+                maxBitrate = Integer.MAX_VALUE;
+                maxHeight = Integer.MAX_VALUE;
+                break;
+        }
+        return capToScreen(context, builder.setMaxVideoBitrate(maxBitrate), maxHeight);
+    }
+
+    static DefaultTrackSelector.Parameters.Builder capToScreen(Context context,
+                                                              DefaultTrackSelector.Parameters.Builder builder,
+                                                              int maxHeight) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int longSide = Math.max(metrics.widthPixels, metrics.heightPixels);
+        int shortSide = Math.min(metrics.widthPixels, metrics.heightPixels);
+        return builder.setMaxVideoSize(longSide, Math.min(shortSide, maxHeight));
+    }
+}
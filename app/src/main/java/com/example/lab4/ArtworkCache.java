@@ -0,0 +1,273 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.lab4.db.MediaMetadataEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ArtworkCache {
+
+    private static final String TAG = "ArtworkCache";
+    private static final String THUMBNAIL_DIR_NAME = "artwork_thumbs";
+    private static final long MAX_DISK_BYTES = 32L * 1024 * 1024;
+    private static final int DECODE_THREADS = 2;
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    public interface Callback {
+        void onArtworkLoaded(@Nullable Bitmap bitmap);
+    }
+
+    private static volatile ArtworkCache INSTANCE;
+
+    private final Context appContext;
+    private final MediaMetadataResolver metadataResolver;
+    private final LruCache<Long, Bitmap> memoryCache;
+    private final Map<Long, List<Callback>> inFlight = new HashMap<>();
+    private final ExecutorService decodeExecutor = Executors.newFixedThreadPool(DECODE_THREADS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean diskTrimmed = new AtomicBoolean(false);
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong sourceDecodes = new AtomicLong();
+    private final AtomicLong totalDecodeMs = new AtomicLong();
+
+    private ArtworkCache(Context context) {
+        this.appContext = context.getApplicationContext();
+        this.metadataResolver = MediaMetadataResolver.getInstance(appContext);
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        this.memoryCache = new LruCache<Long, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    public static ArtworkCache getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (ArtworkCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ArtworkCache(context);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public static long keyFor(@NonNull String mediaUri, int sizePx) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : mediaUri.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= sizePx;
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+
+    @Nullable
+    public Bitmap peek(@Nullable Uri uri, int sizePx) {
+        if (uri == null) return null;
+        Bitmap bitmap = memoryCache.get(keyFor(uri.toString(), sizePx));
+        if (bitmap != null) {
+            memoryHits.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    public void load(@Nullable Uri uri, int sizePx, @NonNull Callback callback) {
+        if (uri == null || sizePx <= 0) {
+            callback.onArtworkLoaded(null);
+            return;
+        }
+        Bitmap cached = peek(uri, sizePx);
+        if (cached != null) {
+            callback.onArtworkLoaded(cached);
+            return;
+        }
+        long key = keyFor(uri.toString(), sizePx);
+        synchronized (inFlight) {
+            List<Callback> waiting = inFlight.get(key);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            inFlight.put(key, waiting);
+        }
+        decodeExecutor.execute(() -> {
+            Bitmap bitmap = null;
+            try {
+                bitmap = loadFromDiskOrSource(uri, sizePx, key);
+                if (bitmap != null) {
+                    memoryCache.put(key, bitmap);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to load artwork for " + uri, e);
+            }
+            Bitmap result = bitmap;
+            List<Callback> callbacks;
+            synchronized (inFlight) {
+                callbacks = inFlight.remove(key);
+            }
+            if (callbacks != null) {
+                mainHandler.post(() -> {
+                    for (Callback waiting : callbacks) {
+                        waiting.onArtworkLoaded(result);
+                    }
+                });
+            }
+        });
+    }
+
+    public void logStats() {
+        long decodes = diskHits.get() + sourceDecodes.get();
+        Log.d(TAG, "Artwork cache: memoryHits=" + memoryHits.get() + ", diskHits=" + diskHits.get()
+                + ", sourceDecodes=" + sourceDecodes.get()
+                + ", avgDecodeMs=" + (decodes == 0 ? 0 : totalDecodeMs.get() / decodes)
+                + ", memoryBytes=" + memoryCache.size() + "/" + memoryCache.maxSize());
+    }
+
+    @Nullable
+    private Bitmap loadFromDiskOrSource(Uri uri, int sizePx, long key) throws IOException {
+        long startMs = SystemClock.elapsedRealtime();
+        File thumbnailFile = new File(getThumbnailDir(), Long.toHexString(key) + ".jpg");
+        if (thumbnailFile.exists()) {
+            Bitmap thumbnail = decodeSampled(thumbnailFile, sizePx);
+            if (thumbnail != null) {
+                diskHits.incrementAndGet();
+                totalDecodeMs.addAndGet(SystemClock.elapsedRealtime() - startMs);
+                return thumbnail;
+            }
+            Log.w(TAG, "Dropping unreadable thumbnail " + thumbnailFile.getName());
+            thumbnailFile.delete();
+        }
+
+        MediaMetadataEntry entry = metadataResolver.resolveAllSync(Collections.singletonList(uri)).get(uri.toString());
+        if (entry == null || entry.artworkPath == null) {
+            return null;
+        }
+        File sourceFile = new File(entry.artworkPath);
+        if (!sourceFile.exists()) {
+            return null;
+        }
+        Bitmap bitmap = decodeSampled(sourceFile, sizePx);
+        if (bitmap == null) {
+            return null;
+        }
+        sourceDecodes.incrementAndGet();
+        totalDecodeMs.addAndGet(SystemClock.elapsedRealtime() - startMs);
+        writeThumbnail(thumbnailFile, bitmap);
+        return bitmap;
+    }
+
+    @Nullable
+    private Bitmap decodeSampled(File file, int sizePx) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = MetadataExtractionWorker.calculateInSampleSize(options.outWidth, options.outHeight, sizePx);
+        int sampledWidth = options.outWidth / sampleSize;
+        int sampledHeight = options.outHeight / sampleSize;
+        int largestSide = Math.max(sampledWidth, sampledHeight);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        if (largestSide > sizePx) {
+            options.inScaled = true;
+            options.inDensity = largestSide;
+            options.inTargetDensity = sizePx;
+        }
+        return withoutDensity(BitmapFactory.decodeFile(file.getAbsolutePath(), options));
+    }
+
+    @Nullable
+    private static Bitmap withoutDensity(@Nullable Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
+        return bitmap;
+    }
+
+    private void writeThumbnail(File thumbnailFile, Bitmap bitmap) {
+        File tempFile = new File(thumbnailFile.getParentFile(), thumbnailFile.getName() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, outputStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write thumbnail " + thumbnailFile.getName(), e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(thumbnailFile)) {
+            Log.w(TAG, "Failed to move thumbnail into place: " + thumbnailFile.getName());
+            tempFile.delete();
+        }
+        if (diskTrimmed.compareAndSet(false, true)) {
+            trimDiskStore();
+        }
+    }
+
+    private void trimDiskStore() {
+        File[] files;
+        try {
+            files = getThumbnailDir().listFiles();
+        } catch (IOException e) {
+            return;
+        }
+        if (files == null) return;
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= MAX_DISK_BYTES) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        int deleted = 0;
+        for (File file : files) {
+            if (totalBytes <= MAX_DISK_BYTES) break;
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+                deleted++;
+            }
+        }
+        Log.i(TAG, "Trimmed " + deleted + " artwork thumbnails, " + totalBytes + " bytes remain on disk.");
+    }
+
+    private File getThumbnailDir() throws IOException {
+        File dir = new File(appContext.getCacheDir(), THUMBNAIL_DIR_NAME);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create thumbnail directory: " + dir.getAbsolutePath());
+        }
+        return dir;
+    }
+}
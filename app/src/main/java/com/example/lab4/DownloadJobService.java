@@ -0,0 +1,68 @@
+package com.example.lab4;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+public class DownloadJobService extends JobService {
+
+    private static final String TAG = "DownloadJobService";
+    private static final int JOB_ID = 2;
+
+    private static volatile boolean running;
+
+    private volatile JobParameters activeJob;
+
+    static void schedule(Context context, long delayMs) {
+        if (running) {
+            return;
+        }
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, DownloadJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(Math.max(0, delayMs))
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(TAG, "Failed to schedule the download job");
+        }
+    }
+
+    static void cancel(Context context) {
+        if (!running) {
+            context.getSystemService(JobScheduler.class).cancel(JOB_ID);
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        running = true;
+        activeJob = params;
+        Log.d(TAG, "Download job started");
+        SegmentedDownloader downloader = SegmentedDownloader.getInstance(this);
+        downloader.resumePending();
+        downloader.runWhenIdle(() -> {
+            if (activeJob != params) {
+                return;
+            }
+            activeJob = null;
+            running = false;
+            Log.d(TAG, "No downloads due, finishing the download job");
+            jobFinished(params, false);
+            downloader.scheduleWakeUp();
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        Log.d(TAG, "Download job stopped by the system, it will be rescheduled");
+        activeJob = null;
+        running = false;
+        return true;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
+import androidx.media3.exoplayer.offline.DefaultDownloadIndex;
+import androidx.media3.exoplayer.offline.Download;
+import androidx.media3.exoplayer.offline.DownloadCursor;
+import androidx.media3.exoplayer.offline.DownloadRequest;
+
+import com.example.lab4.db.DbScheduler;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@UnstableApi
+public final class DownloadedStreams {
+
+    private static final String TAG = "DownloadedStreams";
+    private static final long LOAD_TIMEOUT_MS = 2_000;
+
+    private static final Map<String, DownloadRequest> completed = new ConcurrentHashMap<>();
+    private static final Set<String> changedWhileLoading = new HashSet<>();
+    private static final CountDownLatch loaded = new CountDownLatch(1);
+    private static volatile boolean loadStarted;
+
+    private DownloadedStreams() {
+    }
+
+    public static void load(final Context context) {
+        if (loadStarted) return;
+        synchronized (DownloadedStreams.class) {
+            if (loadStarted) return;
+            loadStarted = true;
+        }
+        Context appContext = context.getApplicationContext();
+        DbScheduler.io(DbScheduler.Priority.USER_VISIBLE, () -> {
+            Map<String, DownloadRequest> found = new HashMap<>();
+            DefaultDownloadIndex downloadIndex = new DefaultDownloadIndex(MediaCache.getDatabaseProvider(appContext));
+            try (DownloadCursor cursor = downloadIndex.getDownloads(Download.STATE_COMPLETED)) {
+                while (cursor.moveToNext()) {
+                    DownloadRequest request = cursor.getDownload().request;
+                    found.put(request.id, request);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read the download index", e);
+            }
+            synchronized (DownloadedStreams.class) {
+                for (Map.Entry<String, DownloadRequest> entry : found.entrySet()) {
+                    if (!changedWhileLoading.contains(entry.getKey())) {
+                        completed.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                changedWhileLoading.clear();
+            }
+            loaded.countDown();
+            Log.d(TAG, "Loaded " + found.size() + " completed stream downloads");
+        });
+    }
+
+    public static synchronized void onCompleted(DownloadRequest request) {
+        changedWhileLoading.add(request.id);
+        completed.put(request.id, request);
+    }
+
+    public static synchronized void onRemoved(String downloadId) {
+        changedWhileLoading.add(downloadId);
+        completed.remove(downloadId);
+    }
+
+    public static MediaItem resolve(MediaItem mediaItem) {
+        if (loadStarted && Looper.myLooper() != Looper.getMainLooper()) {
+            try {
+                if (!loaded.await(LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "Download index not loaded after " + LOAD_TIMEOUT_MS + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return withDownloadedStreams(mediaItem);
+    }
+
+    static MediaItem withDownloadedStreams(MediaItem mediaItem) {
+        MediaItem.LocalConfiguration localConfiguration = mediaItem.localConfiguration;
+        if (localConfiguration == null || !localConfiguration.streamKeys.isEmpty()
+                || Util.inferContentTypeForUriAndMimeType(localConfiguration.uri, localConfiguration.mimeType)
+                == C.CONTENT_TYPE_OTHER) {
+            return mediaItem;
+        }
+        DownloadRequest request = get(localConfiguration.uri.toString());
+        if (request == null) {
+            return mediaItem;
+        }
+        return mediaItem.buildUpon()
+                .setStreamKeys(request.streamKeys)
+                .setCustomCacheKey(request.customCacheKey)
+                .build();
+    }
+
+    @Nullable
+    public static DownloadRequest get(String downloadId) {
+        return completed.get(downloadId);
+    }
+}
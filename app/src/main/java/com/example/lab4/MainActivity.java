@@ -3,19 +3,20 @@ package com.example.lab4;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.media3.exoplayer.offline.DownloadService;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.OpenableColumns;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import java.util.Collections;
+
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
@@ -57,6 +58,13 @@ public class MainActivity extends AppCompatActivity {
             Intent intent = new Intent(MainActivity.this, PlaylistActivity.class);
             playlistActivityLauncher.launch(intent);
         });
+
+        SegmentedDownloader.getInstance(this).resumePending();
+        try {
+            DownloadService.start(this, MediaDownloadService.class);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Could not start the stream download service", e);
+        }
     }
     private void initializeOpenDocumentLauncher() {
         openDocumentLauncher = registerForActivityResult(
@@ -114,62 +122,14 @@ public class MainActivity extends AppCompatActivity {
             Toast.makeText(this, R.string.error_media_uri_not_found, Toast.LENGTH_SHORT).show();
             return;
         }
-        Intent intent = new Intent(this, PlayerActivity.class);
-        intent.putExtra(PlayerActivity.EXTRA_MEDIA_URI, mediaUri);
-        String title = getFileName(mediaUri);
-        intent.putExtra(PlayerActivity.EXTRA_MEDIA_TITLE, title);
-        Log.d(TAG, "Launching PlayerActivity with URI: " + mediaUri + ", Title: " + title);
-        startActivity(intent);
-    }
-
-    private String getFileName(Uri uri) {
-        if (uri == null) return getString(R.string.unknown_media_title);
-        String result = null;
-        String scheme = uri.getScheme();
-
-        if ("content".equalsIgnoreCase(scheme)) {
-            Cursor cursor = null;
-            try {
-                cursor = getContentResolver().query(uri, new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null);
-                if (cursor != null && cursor.moveToFirst()) {
-                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                    if (nameIndex != -1) {
-                        result = cursor.getString(nameIndex);
-                        Log.d(TAG, "Filename from ContentResolver: " + result + " for URI: " + uri);
-                    } else {
-                        Log.w(TAG, "DISPLAY_NAME column not found for content URI: " + uri);
-                    }
-                } else {
-                    Log.w(TAG, "ContentResolver query returned null or empty cursor for URI: " + uri);
-                }
-            } catch (Exception e) {
-                Log.w(TAG, "Error getting filename from ContentResolver for URI: "+ uri, e);
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
-            }
-        }
-
-        if (result == null) {
-            result = uri.getPath();
-            if (result != null) {
-                int cut = result.lastIndexOf('/');
-                if (cut != -1) {
-                    result = result.substring(cut + 1);
-                }
-                try {
-                    result = java.net.URLDecoder.decode(result, "UTF-8");
-                } catch (Exception e) {
-                    Log.w(TAG, "Failed to URL decode path segment: " + result);
-                }
-                int queryParamIndex = result.indexOf('?');
-                if (queryParamIndex > 0) {
-                    result = result.substring(0, queryParamIndex);
-                }
-                Log.d(TAG, "Filename from path: " + result + " for URI: " + uri);
-            }
-        }
-        return (result != null && !result.isEmpty()) ? result : getString(R.string.unknown_media_title);
+        MediaMetadataResolver resolver = MediaMetadataResolver.getInstance(this);
+        resolver.resolveAsync(Collections.singletonList(mediaUri), results -> {
+            Intent intent = new Intent(this, PlayerActivity.class);
+            intent.putExtra(PlayerActivity.EXTRA_MEDIA_URI, mediaUri);
+            String title = resolver.getDisplayNameOrFallback(mediaUri);
+            intent.putExtra(PlayerActivity.EXTRA_MEDIA_TITLE, title);
+            Log.d(TAG, "Launching PlayerActivity with URI: " + mediaUri + ", Title: " + title);
+            startActivity(intent);
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.MediaBlob;
+import com.example.lab4.db.MediaDao;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+public class MediaBlobStore {
+
+    private static final String TAG = "MediaBlobStore";
+    private static final String BLOB_DIR_NAME = "blobs";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String TOMBSTONE_SUFFIX = ".tombstone";
+
+    public static class PendingBlob {
+        public final String digest;
+        public final long size;
+        final File tempFile;
+        @Nullable final String extension;
+
+        PendingBlob(String digest, long size, File tempFile, @Nullable String extension) {
+            this.digest = digest;
+            this.size = size;
+            this.tempFile = tempFile;
+            this.extension = extension;
+        }
+    }
+
+    private MediaBlobStore() {
+    }
+
+    public static File getBlobDir(Context context) throws IOException {
+        File blobDir = new File(context.getFilesDir(), BLOB_DIR_NAME);
+        if (!blobDir.exists() && !blobDir.mkdirs()) {
+            throw new IOException("Failed to create blob directory: " + blobDir.getAbsolutePath());
+        }
+        return blobDir;
+    }
+
+    public static PendingBlob ingest(Context appContext, Uri sourceUri, @Nullable String extension) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        File tempFile = new File(getBlobDir(appContext), "ingest_" + System.nanoTime() + ".tmp");
+        MediaIngestor.Result result = MediaIngestor.createDefault().ingest(appContext, sourceUri, tempFile, digest);
+        return new PendingBlob(toHex(digest.digest()), result.bytes, tempFile, extension);
+    }
+
+    public static PendingBlob adopt(File file, @Nullable String extension) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[256 * 1024];
+        long size = 0;
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                size += read;
+            }
+        }
+        return new PendingBlob(toHex(digest.digest()), size, file, extension);
+    }
+
+    public static File commit(Context appContext, MediaDao dao, PendingBlob pending) throws IOException {
+        MediaBlob existing = dao.getMediaBlob(pending.digest);
+        if (existing != null) {
+            File existingFile = new File(existing.blobPath);
+            if (existingFile.exists()) {
+                if (!pending.tempFile.delete()) {
+                    Log.w(TAG, "Failed to delete duplicate ingest file: " + pending.tempFile.getName());
+                }
+                Log.i(TAG, "Deduplicated blob " + pending.digest + " (" + pending.size + " bytes), refs=" + existing.refCount);
+                return existingFile;
+            }
+            Log.w(TAG, "Blob row " + pending.digest + " points at a missing file, restoring it.");
+            moveInto(pending.tempFile, existingFile);
+            return existingFile;
+        }
+
+        String fileName = pending.digest + (pending.extension != null ? "." + pending.extension : "");
+        File blobFile = new File(getBlobDir(appContext), fileName);
+        moveInto(pending.tempFile, blobFile);
+        dao.insertMediaBlob(new MediaBlob(pending.digest, blobFile.getAbsolutePath(), pending.size));
+        Log.i(TAG, "Stored new blob " + pending.digest + " (" + pending.size + " bytes)");
+        return blobFile;
+    }
+
+    public static void discard(PendingBlob pending) {
+        if (pending.tempFile.exists() && !pending.tempFile.delete()) {
+            Log.w(TAG, "Failed to delete pending blob file: " + pending.tempFile.getName());
+        }
+    }
+
+    public static int collectGarbage(Context context) {
+        AppDatabase db = AppDatabase.getInstance(context);
+        MediaDao dao = db.mediaDao();
+        List<MediaBlob> unreferenced = dao.getUnreferencedMediaBlobs();
+        int collected = 0;
+        for (MediaBlob blob : unreferenced) {
+            File tombstone;
+            try {
+                tombstone = db.runInTransaction(() -> {
+                    if (dao.deleteMediaBlobIfUnreferenced(blob.blobDigest) == 0) {
+                        return null;
+                    }
+                    File blobFile = new File(blob.blobPath);
+                    File buried = new File(blobFile.getParentFile(),
+                            blobFile.getName() + "." + System.nanoTime() + TOMBSTONE_SUFFIX);
+                    if (blobFile.exists() && !blobFile.renameTo(buried)) {
+                        throw new IllegalStateException("Failed to move aside " + blobFile.getAbsolutePath());
+                    }
+                    return buried;
+                });
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Keeping blob " + blob.blobDigest + ": " + e.getMessage());
+                continue;
+            }
+            if (tombstone == null) {
+                continue;
+            }
+            if (tombstone.exists() && !tombstone.delete()) {
+                Log.w(TAG, "Failed to delete collected blob file: " + tombstone.getAbsolutePath());
+            }
+            collected++;
+        }
+        int leftovers = deleteTombstones(context);
+        if (leftovers > 0) {
+            Log.d(TAG, "Deleted " + leftovers + " blob files left behind by an interrupted collection.");
+        }
+        if (collected > 0) {
+            Log.i(TAG, "Garbage-collected " + collected + " unreferenced blobs.");
+        }
+        return collected;
+    }
+
+    private static int deleteTombstones(Context context) {
+        File[] leftovers;
+        try {
+            leftovers = getBlobDir(context).listFiles((dir, name) -> name.endsWith(TOMBSTONE_SUFFIX));
+        } catch (IOException e) {
+            return 0;
+        }
+        int deleted = 0;
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                if (leftover.delete()) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    public static void logStorageSavings(Context context) {
+        MediaDao dao = AppDatabase.getInstance(context).mediaDao();
+        Log.i(TAG, "Blob store: " + dao.getMediaBlobCount() + " blobs, " + dao.getStoredBlobBytes()
+                + " bytes on disk, " + dao.getDeduplicatedBlobBytes() + " bytes saved by deduplication.");
+    }
+
+    private static void moveInto(File source, File destination) throws IOException {
+        if (!source.renameTo(destination)) {
+            throw new IOException("Failed to move " + source.getName() + " to " + destination.getAbsolutePath());
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.database.StandaloneDatabaseProvider;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.DefaultDataSource;
+import androidx.media3.datasource.DefaultHttpDataSource;
+import androidx.media3.datasource.TransferListener;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.NoOpCacheEvictor;
+import androidx.media3.datasource.cache.SimpleCache;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+@UnstableApi
+public final class MediaCache {
+
+    private static final String TAG = "MediaCache";
+    private static final String CACHE_DIR_NAME = "media_cache";
+    private static final String DOWNLOAD_DIR_NAME = "media_downloads";
+    private static final long MAX_CACHE_BYTES = 256L * 1024 * 1024;
+
+    private static volatile SimpleCache INSTANCE;
+    private static volatile SimpleCache downloadCache;
+    private static volatile PinnableCacheEvictor evictor;
+    private static volatile StandaloneDatabaseProvider databaseProvider;
+
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
+    private static final AtomicLong cachedBytesRead = new AtomicLong();
+    private static final AtomicLong networkBytesRead = new AtomicLong();
+
+    private MediaCache() {
+    }
+
+    public static SimpleCache getCache(final Context context) {
+        if (INSTANCE == null) {
+            synchronized (MediaCache.class) {
+                if (INSTANCE == null) {
+                    Context appContext = context.getApplicationContext();
+                    File cacheDir = new File(appContext.getCacheDir(), CACHE_DIR_NAME);
+                    evictor = new PinnableCacheEvictor(MAX_CACHE_BYTES);
+                    INSTANCE = new SimpleCache(cacheDir, evictor, getDatabaseProvider(appContext));
+                    Log.d(TAG, "SimpleCache created at " + cacheDir.getAbsolutePath() + ", max bytes: " + MAX_CACHE_BYTES);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public static void pin(final Context context, String key) {
+        getCache(context);
+        evictor.pin(key);
+    }
+
+    public static void unpin(final Context context, String key) {
+        getCache(context);
+        evictor.unpin(key);
+    }
+
+    public static SimpleCache getDownloadCache(final Context context) {
+        if (downloadCache == null) {
+            synchronized (MediaCache.class) {
+                if (downloadCache == null) {
+                    Context appContext = context.getApplicationContext();
+                    File downloadDir = new File(appContext.getFilesDir(), DOWNLOAD_DIR_NAME);
+                    downloadCache = new SimpleCache(downloadDir, new NoOpCacheEvictor(), getDatabaseProvider(appContext));
+                    Log.d(TAG, "Download cache created at " + downloadDir.getAbsolutePath());
+                }
+            }
+        }
+        return downloadCache;
+    }
+
+    public static StandaloneDatabaseProvider getDatabaseProvider(final Context context) {
+        if (databaseProvider == null) {
+            synchronized (MediaCache.class) {
+                if (databaseProvider == null) {
+                    databaseProvider = new StandaloneDatabaseProvider(context.getApplicationContext());
+                }
+            }
+        }
+        return databaseProvider;
+    }
+
+    public static DefaultHttpDataSource.Factory getHttpDataSourceFactory() {
+        return new DefaultHttpDataSource.Factory()
+                .setAllowCrossProtocolRedirects(true)
+                .setTransferListener(networkTransferListener);
+    }
+
+    public static CacheDataSource.Factory getCacheDataSourceFactory(final Context context) {
+        return new CacheDataSource.Factory()
+                .setCache(getCache(context))
+                .setUpstreamDataSourceFactory(getHttpDataSourceFactory())
+                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR)
+                .setEventListener(cacheEventListener);
+    }
+
+    public static CacheDataSource.Factory getPrefetchDataSourceFactory(final Context context) {
+        return new CacheDataSource.Factory()
+                .setCache(getCache(context))
+                .setUpstreamDataSourceFactory(new DefaultHttpDataSource.Factory().setAllowCrossProtocolRedirects(true))
+                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+    }
+
+    public static DataSource.Factory getDataSourceFactory(final Context context) {
+        CacheDataSource.Factory downloadedDataSourceFactory = new CacheDataSource.Factory()
+                .setCache(getDownloadCache(context))
+                .setUpstreamDataSourceFactory(getCacheDataSourceFactory(context))
+                .setCacheWriteDataSinkFactory(null)
+                .setEventListener(cacheEventListener);
+        return new DefaultDataSource.Factory(context.getApplicationContext(), downloadedDataSourceFactory);
+    }
+
+    public static long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public static long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public static long getCachedBytesRead() {
+        return cachedBytesRead.get();
+    }
+
+    public static long getNetworkBytesRead() {
+        return networkBytesRead.get();
+    }
+
+    public static void logStats() {
+        Log.d(TAG, "Cache stats: hits=" + cacheHits.get() + ", misses=" + cacheMisses.get()
+                + ", cachedBytes=" + cachedBytesRead.get() + ", networkBytes=" + networkBytesRead.get());
+    }
+
+    private static final CacheDataSource.EventListener cacheEventListener = new CacheDataSource.EventListener() {
+        @Override
+        public void onCachedBytesRead(long cacheSizeBytes, long bytesRead) {
+            if (bytesRead > 0) {
+                cacheHits.incrementAndGet();
+                cachedBytesRead.addAndGet(bytesRead);
+            }
+        }
+
+        @Override
+        public void onCacheIgnored(int reason) {
+            Log.d(TAG, "Cache ignored, reason: " + reason);
+        }
+    };
+
+    private static final TransferListener networkTransferListener = new TransferListener() {
+        @Override
+        public void onTransferInitializing(@NonNull DataSource source, @NonNull DataSpec dataSpec, boolean isNetwork) {
+        }
+
+        @Override
+        public void onTransferStart(@NonNull DataSource source, @NonNull DataSpec dataSpec, boolean isNetwork) {
+            if (isNetwork) {
+                cacheMisses.incrementAndGet();
+                Log.v(TAG, "Network request: " + dataSpec.uri + " @" + dataSpec.position);
+            }
+        }
+
+        @Override
+        public void onBytesTransferred(@NonNull DataSource source, @NonNull DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+            if (isNetwork) {
+                networkBytesRead.addAndGet(bytesTransferred);
+            }
+        }
+
+        @Override
+        public void onTransferEnd(@NonNull DataSource source, @NonNull DataSpec dataSpec, boolean isNetwork) {
+        }
+    };
+}
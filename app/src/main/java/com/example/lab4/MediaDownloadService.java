@@ -0,0 +1,45 @@
+package com.example.lab4;
+
+import android.app.Notification;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.offline.Download;
+import androidx.media3.exoplayer.offline.DownloadManager;
+import androidx.media3.exoplayer.offline.DownloadService;
+import androidx.media3.exoplayer.scheduler.PlatformScheduler;
+import androidx.media3.exoplayer.scheduler.Scheduler;
+
+import java.util.List;
+
+@UnstableApi
+public class MediaDownloadService extends DownloadService {
+
+    private static final int NOTIFICATION_ID = 1235;
+    private static final int JOB_ID = 1;
+
+    public MediaDownloadService() {
+        super(NOTIFICATION_ID, DEFAULT_FOREGROUND_NOTIFICATION_UPDATE_INTERVAL, StreamDownloader.NOTIFICATION_CHANNEL_ID,
+                R.string.download_channel_name, R.string.download_channel_description);
+    }
+
+    @NonNull
+    @Override
+    protected DownloadManager getDownloadManager() {
+        return StreamDownloader.getInstance(this).getDownloadManager();
+    }
+
+    @Nullable
+    @Override
+    protected Scheduler getScheduler() {
+        return new PlatformScheduler(this, JOB_ID);
+    }
+
+    @NonNull
+    @Override
+    protected Notification getForegroundNotification(@NonNull List<Download> downloads, int notMetRequirements) {
+        return StreamDownloader.getInstance(this).getNotificationHelper().buildProgressNotification(this,
+                R.drawable.ic_download, null, null, downloads, notMetRequirements);
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+public class MediaIngestor {
+
+    private static final String TAG = "MediaIngestor";
+    private static final long NOT_APPLICABLE = -1;
+    private static final int CHANNEL_BUFFER_SIZE = 1024 * 1024;
+
+    public enum Mode { LINK, CHANNEL_TRANSFER, BUFFERED_COPY }
+
+    public interface Strategy {
+        Mode getMode();
+
+        long ingest(Context context, Uri source, File destination, @Nullable MessageDigest digest) throws IOException;
+    }
+
+    public static class Result {
+        public final Mode mode;
+        public final long bytes;
+        public final long elapsedMs;
+
+        Result(Mode mode, long bytes, long elapsedMs) {
+            this.mode = mode;
+            this.bytes = bytes;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public double getThroughputMbPerSecond() {
+            return bytes / (1024.0 * 1024.0) / (Math.max(elapsedMs, 1) / 1000.0);
+        }
+    }
+
+    private final List<Strategy> strategies;
+
+    public MediaIngestor(List<Strategy> strategies) {
+        this.strategies = strategies;
+    }
+
+    public static MediaIngestor createDefault() {
+        return new MediaIngestor(Arrays.asList(
+                new LinkStrategy(),
+                new ChannelTransferStrategy(),
+                new BufferedCopyStrategy()));
+    }
+
+    public Result ingest(Context context, Uri source, File destination) throws IOException {
+        return ingest(context, source, destination, null);
+    }
+
+    public Result ingest(Context context, Uri source, File destination, @Nullable MessageDigest digest) throws IOException {
+        IOException lastError = null;
+        for (Strategy strategy : strategies) {
+            long startMs = System.currentTimeMillis();
+            if (digest != null) {
+                digest.reset();
+            }
+            try {
+                long bytes = strategy.ingest(context, source, destination, digest);
+                if (bytes == NOT_APPLICABLE) {
+                    continue;
+                }
+                Result result = new Result(strategy.getMode(), bytes, System.currentTimeMillis() - startMs);
+                Log.i(TAG, String.format(Locale.US, "Ingested %d bytes via %s in %d ms (%.1f MB/s)",
+                        result.bytes, result.mode, result.elapsedMs, result.getThroughputMbPerSecond()));
+                return result;
+            } catch (IOException | SecurityException e) {
+                Log.w(TAG, "Ingestion via " + strategy.getMode() + " failed for " + source + ", trying next mode", e);
+                lastError = e instanceof IOException ? (IOException) e : new IOException(e);
+                if (destination.exists() && !destination.delete()) {
+                    Log.w(TAG, "Failed to delete partial file: " + destination.getName());
+                }
+            }
+        }
+        throw lastError != null ? lastError : new IOException("No ingestion strategy could handle " + source);
+    }
+
+    private static void digestFile(File file, @Nullable MessageDigest digest) throws IOException {
+        if (digest == null) {
+            return;
+        }
+        try (FileInputStream inputStream = new FileInputStream(file);
+             FileChannel channel = inputStream.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+    }
+
+    public static class LinkStrategy implements Strategy {
+        @Override
+        public Mode getMode() {
+            return Mode.LINK;
+        }
+
+        @Override
+        public long ingest(Context context, Uri source, File destination, @Nullable MessageDigest digest) throws IOException {
+            if (!"file".equals(source.getScheme()) || source.getPath() == null) {
+                return NOT_APPLICABLE;
+            }
+            File sourceFile = new File(source.getPath());
+            if (!sourceFile.isFile()) {
+                return NOT_APPLICABLE;
+            }
+            long length = sourceFile.length();
+            if (isAppOwned(context, sourceFile)) {
+                digestFile(sourceFile, digest);
+                if (sourceFile.renameTo(destination)) {
+                    return length;
+                }
+                if (digest != null) {
+                    digest.reset();
+                }
+            }
+            try {
+                Os.link(sourceFile.getAbsolutePath(), destination.getAbsolutePath());
+                digestFile(destination, digest);
+                return length;
+            } catch (ErrnoException e) {
+                Log.v(TAG, "Hard link not possible (" + e.getMessage() + "), source is on another volume or not linkable");
+                return NOT_APPLICABLE;
+            }
+        }
+
+        private static boolean isAppOwned(Context context, File file) {
+            String path = file.getAbsolutePath();
+            return path.startsWith(context.getFilesDir().getAbsolutePath())
+                    || path.startsWith(context.getCacheDir().getAbsolutePath());
+        }
+    }
+
+    public static class ChannelTransferStrategy implements Strategy {
+        @Override
+        public Mode getMode() {
+            return Mode.CHANNEL_TRANSFER;
+        }
+
+        @Override
+        public long ingest(Context context, Uri source, File destination, @Nullable MessageDigest digest) throws IOException {
+            try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(source, "r")) {
+                if (pfd == null || pfd.getStatSize() < 0) {
+                    return NOT_APPLICABLE;
+                }
+                try (FileInputStream inputStream = new FileInputStream(pfd.getFileDescriptor());
+                     FileOutputStream outputStream = new FileOutputStream(destination);
+                     FileChannel inChannel = inputStream.getChannel();
+                     FileChannel outChannel = outputStream.getChannel()) {
+                    long size = inChannel.size();
+                    long position = 0;
+                    while (position < size) {
+                        long transferred = inChannel.transferTo(position, size - position, outChannel);
+                        if (transferred <= 0) {
+                            throw new IOException("transferTo stalled at " + position + " of " + size);
+                        }
+                        position += transferred;
+                    }
+                    digestFile(destination, digest);
+                    return position;
+                }
+            }
+        }
+    }
+
+    public static class BufferedCopyStrategy implements Strategy {
+        private static final int BUFFER_SIZE = 1024 * 1024;
+
+        @Override
+        public Mode getMode() {
+            return Mode.BUFFERED_COPY;
+        }
+
+        @Override
+        public long ingest(Context context, Uri source, File destination, @Nullable MessageDigest digest) throws IOException {
+            try (InputStream inputStream = context.getContentResolver().openInputStream(source);
+                 OutputStream outputStream = new FileOutputStream(destination)) {
+                if (inputStream == null) {
+                    throw new IOException("Unable to open input stream for source URI: " + source);
+                }
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytesRead;
+                long totalBytesCopied = 0;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytesRead);
+                    if (digest != null) {
+                        digest.update(buffer, 0, bytesRead);
+                    }
+                    totalBytesCopied += bytesRead;
+                }
+                outputStream.flush();
+                return totalBytesCopied;
+            }
+        }
+    }
+}
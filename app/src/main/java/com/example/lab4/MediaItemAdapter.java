@@ -1,18 +1,24 @@
 package com.example.lab4;
 
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.lab4.db.MediaItem;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 public class MediaItemAdapter extends ListAdapter<MediaItem, MediaItemAdapter.MediaItemViewHolder> {
@@ -25,6 +31,15 @@ public class MediaItemAdapter extends ListAdapter<MediaItem, MediaItemAdapter.Me
     public interface OnMediaItemDeleteListener {
         void onMediaItemDelete(MediaItem mediaItem);
     }
+    public interface OnMediaItemMoveListener {
+        void onMediaItemMoved(MediaItem mediaItem, @Nullable MediaItem after, @Nullable MediaItem before);
+    }
+
+    private boolean dragInProgress;
+    private boolean moveCommitPending;
+    @Nullable private MediaItem draggedItem;
+    @Nullable private List<MediaItem> reorderedList;
+    @Nullable private List<MediaItem> deferredList;
     public MediaItemAdapter(@NonNull DiffUtil.ItemCallback<MediaItem> diffCallback,
                             OnMediaItemClickListener clickListener,
                             OnMediaItemDeleteListener deleteListener) {
@@ -47,15 +62,114 @@ public class MediaItemAdapter extends ListAdapter<MediaItem, MediaItemAdapter.Me
         holder.bind(current, clickListener, deleteListener);
     }
 
+    @Override
+    public void submitList(@Nullable List<MediaItem> list) {
+        if (dragInProgress) {
+            deferredList = list;
+            return;
+        }
+        super.submitList(list);
+    }
+
+    public ItemTouchHelper createDragHelper(OnMediaItemMoveListener moveListener) {
+        return new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(ItemTouchHelper.UP | ItemTouchHelper.DOWN, 0) {
+            @Override
+            public boolean onMove(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder,
+                                  @NonNull RecyclerView.ViewHolder target) {
+                int from = viewHolder.getBindingAdapterPosition();
+                int to = target.getBindingAdapterPosition();
+                if (moveCommitPending || from == RecyclerView.NO_POSITION || to == RecyclerView.NO_POSITION) {
+                    return false;
+                }
+                List<MediaItem> reordered = new ArrayList<>(getCurrentList());
+                MediaItem moved = reordered.remove(from);
+                reordered.add(to, moved);
+                draggedItem = moved;
+                reorderedList = reordered;
+                moveCommitPending = true;
+                MediaItemAdapter.super.submitList(reordered, () -> moveCommitPending = false);
+                return true;
+            }
+
+            @Override
+            public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {
+            }
+
+            @Override
+            public void onSelectedChanged(@Nullable RecyclerView.ViewHolder viewHolder, int actionState) {
+                super.onSelectedChanged(viewHolder, actionState);
+                if (actionState == ItemTouchHelper.ACTION_STATE_DRAG) {
+                    dragInProgress = true;
+                }
+            }
+
+            @Override
+            public void clearView(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder) {
+                super.clearView(recyclerView, viewHolder);
+                dragInProgress = false;
+                List<MediaItem> pendingList = deferredList;
+                deferredList = null;
+                if (draggedItem == null || reorderedList == null) {
+                    if (pendingList != null) {
+                        submitList(pendingList);
+                    }
+                    return;
+                }
+                int index = reorderedList.indexOf(draggedItem);
+                if (index >= 0) {
+                    MediaItem after = index > 0 ? reorderedList.get(index - 1) : null;
+                    MediaItem before = index < reorderedList.size() - 1 ? reorderedList.get(index + 1) : null;
+                    moveListener.onMediaItemMoved(draggedItem, after, before);
+                }
+                draggedItem = null;
+                reorderedList = null;
+            }
+        });
+    }
+
     static class MediaItemViewHolder extends RecyclerView.ViewHolder {
+        private static final int ARTWORK_SIZE_DP = 48;
+
         private final TextView mediaTitleTextView;
         private final ImageButton deleteButton;
+        private final ImageView artworkImageView;
+        private final int artworkSizePx;
 
         MediaItemViewHolder(View itemView) {
             super(itemView);
             mediaTitleTextView = itemView.findViewById(R.id.tvItemMediaTitle);
             deleteButton = itemView.findViewById(R.id.btnDeleteMediaItem);
+            artworkImageView = itemView.findViewById(R.id.ivItemMediaArtwork);
+            artworkSizePx = Math.round(ARTWORK_SIZE_DP * itemView.getResources().getDisplayMetrics().density);
         }
+
+        private void bindArtwork(MediaItem mediaItem) {
+            if (mediaItem.mediaUri == null) {
+                artworkImageView.setTag(null);
+                showArtworkPlaceholder();
+                return;
+            }
+            Uri uri = Uri.parse(mediaItem.mediaUri);
+            long key = ArtworkCache.keyFor(mediaItem.mediaUri, artworkSizePx);
+            artworkImageView.setTag(key);
+            ArtworkCache artworkCache = ArtworkCache.getInstance(itemView.getContext());
+            Bitmap cached = artworkCache.peek(uri, artworkSizePx);
+            if (cached != null) {
+                artworkImageView.setImageBitmap(cached);
+                return;
+            }
+            showArtworkPlaceholder();
+            artworkCache.load(uri, artworkSizePx, bitmap -> {
+                if (bitmap != null && Long.valueOf(key).equals(artworkImageView.getTag())) {
+                    artworkImageView.setImageBitmap(bitmap);
+                }
+            });
+        }
+
+        private void showArtworkPlaceholder() {
+            artworkImageView.setImageResource(android.R.drawable.ic_media_play);
+        }
+
         public void bind(final MediaItem mediaItem,
                          final OnMediaItemClickListener clickListener,
                          final OnMediaItemDeleteListener deleteListener) {
@@ -88,20 +202,22 @@ public class MediaItemAdapter extends ListAdapter<MediaItem, MediaItemAdapter.Me
                 displayTitle = itemView.getContext().getString(R.string.unknown_media_title);
             }
             mediaTitleTextView.setText(displayTitle);
+            bindArtwork(mediaItem);
             itemView.setOnClickListener(v -> {
                 if (clickListener != null) {
                     clickListener.onMediaItemClick(mediaItem);
                 } else {
-                    Log.w("MediaItemViewHolder", "ClickListener is null for item: " + mediaItem.mediaId);
+                    Log.w("MediaItemViewHolder", "ClickListener is null for item: " + mediaItem.entryId);
                 }
             });
 
+            deleteButton.setVisibility(deleteListener != null ? View.VISIBLE : View.GONE);
             deleteButton.setOnClickListener(v -> {
                 if (deleteListener != null) {
                     deleteListener.onMediaItemDelete(mediaItem);
-                    Log.d("MediaItemViewHolder", "Delete button clicked for item ID: " + mediaItem.mediaId);
+                    Log.d("MediaItemViewHolder", "Delete button clicked for item ID: " + mediaItem.entryId);
                 } else {
-                    Log.w("MediaItemViewHolder", "DeleteListener is null for item: " + mediaItem.mediaId);
+                    Log.w("MediaItemViewHolder", "DeleteListener is null for item: " + mediaItem.entryId);
                 }
             });
         }
@@ -109,7 +225,7 @@ public class MediaItemAdapter extends ListAdapter<MediaItem, MediaItemAdapter.Me
     public static class MediaItemDiff extends DiffUtil.ItemCallback<MediaItem> {
         @Override
         public boolean areItemsTheSame(@NonNull MediaItem oldItem, @NonNull MediaItem newItem) {
-            return oldItem.mediaId == newItem.mediaId;
+            return oldItem.entryId == newItem.entryId;
         }
         @Override
         public boolean areContentsTheSame(@NonNull MediaItem oldItem, @NonNull MediaItem newItem) {
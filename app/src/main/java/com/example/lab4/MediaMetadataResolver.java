@@ -0,0 +1,211 @@
+package com.example.lab4;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.DbScheduler;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.MediaMetadataEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class MediaMetadataResolver {
+
+    private static final String TAG = "MediaMetadataResolver";
+    private static final int MEMORY_CACHE_ENTRIES = 2000;
+    private static final int DB_BATCH_SIZE = 500;
+
+    public interface Callback {
+        void onResolved(Map<String, MediaMetadataEntry> results);
+    }
+
+    private static volatile MediaMetadataResolver INSTANCE;
+
+    private final Context appContext;
+    private final MediaDao mediaDao;
+    private final LruCache<String, MediaMetadataEntry> memoryCache = new LruCache<>(MEMORY_CACHE_ENTRIES);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private MediaMetadataResolver(Context context) {
+        this(context, AppDatabase.getInstance(context.getApplicationContext()));
+    }
+
+    MediaMetadataResolver(Context context, AppDatabase db) {
+        this.appContext = context.getApplicationContext();
+        this.mediaDao = db.mediaDao();
+    }
+
+    public static MediaMetadataResolver getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (MediaMetadataResolver.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new MediaMetadataResolver(context);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    @Nullable
+    public MediaMetadataEntry peek(@Nullable Uri uri) {
+        return uri != null ? memoryCache.get(uri.toString()) : null;
+    }
+
+    @NonNull
+    public String getDisplayNameOrFallback(@Nullable Uri uri) {
+        if (uri == null) return appContext.getString(R.string.unknown_media_title);
+        MediaMetadataEntry cached = memoryCache.get(uri.toString());
+        if (cached != null && cached.displayName != null && !cached.displayName.isEmpty()) {
+            return cached.displayName;
+        }
+        String fromPath = displayNameFromPath(uri);
+        return fromPath != null ? fromPath : appContext.getString(R.string.unknown_media_title);
+    }
+
+    public void resolveAsync(List<Uri> uris, Callback callback) {
+        DbScheduler.read(() -> {
+            Map<String, MediaMetadataEntry> results = resolveAllSync(uris);
+            mainHandler.post(() -> callback.onResolved(results));
+        });
+    }
+
+    @NonNull
+    public String resolveDisplayNameSync(@Nullable Uri uri) {
+        if (uri == null) return appContext.getString(R.string.unknown_media_title);
+        MediaMetadataEntry entry = resolveAllSync(Collections.singletonList(uri)).get(uri.toString());
+        return (entry != null && entry.displayName != null && !entry.displayName.isEmpty())
+                ? entry.displayName
+                : appContext.getString(R.string.unknown_media_title);
+    }
+
+    public Map<String, MediaMetadataEntry> resolveAllSync(List<Uri> uris) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Log.w(TAG, "resolveAllSync called on the main thread for " + uris.size() + " URIs");
+        }
+        Map<String, MediaMetadataEntry> results = new HashMap<>();
+        Set<String> misses = new LinkedHashSet<>();
+        for (Uri uri : uris) {
+            if (uri == null) continue;
+            String key = uri.toString();
+            MediaMetadataEntry cached = memoryCache.get(key);
+            if (cached != null) {
+                results.put(key, cached);
+            } else {
+                misses.add(key);
+            }
+        }
+        if (misses.isEmpty()) {
+            return results;
+        }
+
+        List<String> missList = new ArrayList<>(misses);
+        for (int start = 0; start < missList.size(); start += DB_BATCH_SIZE) {
+            List<String> batch = missList.subList(start, Math.min(start + DB_BATCH_SIZE, missList.size()));
+            for (MediaMetadataEntry entry : mediaDao.getMediaMetadata(batch)) {
+                memoryCache.put(entry.mediaUri, entry);
+                results.put(entry.mediaUri, entry);
+                misses.remove(entry.mediaUri);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            List<MediaMetadataEntry> resolved = new ArrayList<>(misses.size());
+            for (String key : misses) {
+                MediaMetadataEntry entry = queryProvider(Uri.parse(key));
+                memoryCache.put(key, entry);
+                results.put(key, entry);
+                resolved.add(entry);
+            }
+            DbScheduler.write(DbScheduler.Priority.BACKGROUND, () -> mediaDao.insertMediaMetadata(resolved));
+            Log.d(TAG, "Resolved " + resolved.size() + " URIs from provider, " + (results.size() - resolved.size()) + " from cache");
+        }
+        return results;
+    }
+
+    public void storeSync(List<MediaMetadataEntry> entries) {
+        for (MediaMetadataEntry entry : entries) {
+            memoryCache.put(entry.mediaUri, entry);
+        }
+        mediaDao.insertMediaMetadata(entries);
+    }
+
+    public void updateDuration(Uri uri, long durationMs) {
+        if (uri == null || durationMs <= 0) return;
+        String key = uri.toString();
+        MediaMetadataEntry cached = memoryCache.get(key);
+        if (cached != null && cached.durationMs == durationMs) return;
+        DbScheduler.write(DbScheduler.Priority.BACKGROUND, () -> {
+            MediaMetadataEntry entry = resolveAllSync(Collections.singletonList(uri)).get(key);
+            if (entry == null) return;
+            entry.durationMs = durationMs;
+            mediaDao.insertMediaMetadata(Collections.singletonList(entry));
+        });
+    }
+
+    private MediaMetadataEntry queryProvider(Uri uri) {
+        MediaMetadataEntry entry = new MediaMetadataEntry(uri.toString());
+        if (ContentResolver.SCHEME_CONTENT.equalsIgnoreCase(uri.getScheme())) {
+            ContentResolver resolver = appContext.getContentResolver();
+            try (Cursor cursor = resolver.query(uri, new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, null, null, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                    int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                    if (nameIndex != -1) entry.displayName = cursor.getString(nameIndex);
+                    if (sizeIndex != -1 && !cursor.isNull(sizeIndex)) entry.sizeBytes = cursor.getLong(sizeIndex);
+                } else {
+                    Log.w(TAG, "ContentResolver query returned null or empty cursor for URI: " + uri);
+                }
+            } catch (SecurityException se) {
+                Log.w(TAG, "Permission Denial getting metadata for content URI: " + uri);
+            } catch (Exception e) {
+                Log.w(TAG, "Error getting metadata from ContentResolver for URI: " + uri, e);
+            }
+            try {
+                entry.mimeType = resolver.getType(uri);
+            } catch (Exception e) {
+                Log.w(TAG, "Error getting MIME type for URI: " + uri, e);
+            }
+        }
+        if (entry.displayName == null || entry.displayName.isEmpty()) {
+            entry.displayName = displayNameFromPath(uri);
+        }
+        return entry;
+    }
+
+    @Nullable
+    static String displayNameFromPath(Uri uri) {
+        String result = uri.getPath();
+        if (result == null) return null;
+        int cut = result.lastIndexOf('/');
+        if (cut != -1) {
+            result = result.substring(cut + 1);
+        }
+        try {
+            result = java.net.URLDecoder.decode(result, "UTF-8");
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to URL decode path segment: " + result);
+        }
+        int queryParamIndex = result.indexOf('?');
+        if (queryParamIndex > 0) {
+            result = result.substring(0, queryParamIndex);
+        }
+        return result.isEmpty() ? null : result;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.lab4;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.lifecycle.LiveData;
+import androidx.paging.LoadState;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.view.MenuItem;
+import android.widget.EditText;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.DbScheduler;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.MediaItem;
+import com.example.lab4.db.MediaSearchQuery;
+
+import kotlin.Unit;
+
+public class MediaSearchActivity extends AppCompatActivity {
+
+    private static final String TAG = "MediaSearchActivity";
+    private static final long SEARCH_DEBOUNCE_MS = 250;
+    private static final int PAGE_SIZE = 50;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable runPendingSearch = this::runSearch;
+    private MediaDao mediaDao;
+    private PagedMediaItemAdapter adapter;
+    private LiveData<PagingData<MediaItem>> currentResults;
+    private String pendingQuery = "";
+    private String activeQuery;
+    private long searchStartedAtMs;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_media_search);
+        Toolbar toolbar = findViewById(R.id.toolbar_search);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle(R.string.search_media_activity_title);
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setDisplayShowHomeEnabled(true);
+            try {
+                getSupportActionBar().setHomeAsUpIndicator(R.drawable.ic_arrow_back);
+            } catch (Exception e) {
+                Log.e(TAG, "Error setting custom navigation icon", e);
+            }
+        }
+        mediaDao = AppDatabase.getInstance(this).mediaDao();
+
+        RecyclerView rvSearchResults = findViewById(R.id.rvSearchResults);
+        adapter = new PagedMediaItemAdapter(new MediaItemAdapter.MediaItemDiff(), this::playSearchResult, null);
+        adapter.addLoadStateListener(loadStates -> {
+            if (activeQuery != null && loadStates.getRefresh() instanceof LoadState.NotLoading) {
+                Log.d(TAG, "Search '" + activeQuery + "' returned " + adapter.getItemCount() + " rows in "
+                        + (SystemClock.elapsedRealtime() - searchStartedAtMs) + " ms");
+                activeQuery = null;
+            }
+            return Unit.INSTANCE;
+        });
+        rvSearchResults.setAdapter(adapter);
+        rvSearchResults.setLayoutManager(new LinearLayoutManager(this));
+
+        EditText etSearchQuery = findViewById(R.id.etSearchQuery);
+        etSearchQuery.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                pendingQuery = s.toString();
+                mainHandler.removeCallbacks(runPendingSearch);
+                mainHandler.postDelayed(runPendingSearch, SEARCH_DEBOUNCE_MS);
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        mainHandler.removeCallbacks(runPendingSearch);
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void runSearch() {
+        String query = pendingQuery;
+        if (currentResults != null) {
+            currentResults.removeObservers(this);
+            currentResults = null;
+        }
+        String match = MediaSearchQuery.toMatchExpression(query);
+        if (match == null) {
+            activeQuery = null;
+            adapter.submitData(getLifecycle(), PagingData.empty());
+            return;
+        }
+        activeQuery = query;
+        searchStartedAtMs = SystemClock.elapsedRealtime();
+        Pager<Integer, MediaItem> pager = new Pager<>(
+                new PagingConfig(PAGE_SIZE, PAGE_SIZE / 2, false),
+                () -> mediaDao.searchMedia(query));
+        currentResults = PagingLiveData.getLiveData(pager);
+        currentResults.observe(this, pagingData -> adapter.submitData(getLifecycle(), pagingData));
+
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            compareWithLikeScan(query, match);
+        }
+    }
+
+    private void compareWithLikeScan(String query, String match) {
+        DbScheduler.read(DbScheduler.Priority.BACKGROUND, () -> {
+            long ftsStartNs = System.nanoTime();
+            int ftsRows = mediaDao.countTitleMatches(match);
+            long ftsMicros = (System.nanoTime() - ftsStartNs) / 1000;
+            long likeStartNs = System.nanoTime();
+            int likeRows = mediaDao.countTitleLike(MediaSearchQuery.toLikeContains(query));
+            long likeMicros = (System.nanoTime() - likeStartNs) / 1000;
+            Log.d(TAG, "Title search '" + query + "': FTS " + ftsRows + " rows in " + ftsMicros + " us, LIKE scan "
+                    + likeRows + " rows in " + likeMicros + " us");
+        });
+    }
+
+    private void playSearchResult(MediaItem mediaItem) {
+        Uri mediaUri = Uri.parse(mediaItem.mediaUri);
+        Intent intent = new Intent(this, PlayerActivity.class);
+        intent.putExtra(PlayerActivity.EXTRA_MEDIA_URI, mediaUri);
+        String title = mediaItem.mediaTitle != null && !mediaItem.mediaTitle.isEmpty()
+                ? mediaItem.mediaTitle
+                : MediaMetadataResolver.getInstance(this).getDisplayNameOrFallback(mediaUri);
+        intent.putExtra(PlayerActivity.EXTRA_MEDIA_TITLE, title);
+        startActivity(intent);
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.DbScheduler;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.MediaMetadataEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MetadataExtractionWorker {
+
+    private static final String TAG = "MetadataExtraction";
+    private static final int BATCH_SIZE = 16;
+    private static final int MAX_PARALLEL_EXTRACTIONS = 2;
+    private static final int ARTWORK_MAX_DIMENSION = 512;
+    private static final int MAX_EMBEDDED_PICTURE_BYTES = 8 * 1024 * 1024;
+    private static final String ARTWORK_DIR_NAME = "artwork";
+    private static final String ARTWORK_NAME_DIGEST = "SHA-256";
+
+    private static volatile MetadataExtractionWorker INSTANCE;
+
+    private final Context appContext;
+    private final MediaDao mediaDao;
+    private final MediaMetadataResolver metadataResolver;
+    private final ExecutorService coordinatorExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService extractionExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_EXTRACTIONS);
+    private final AtomicBoolean passRunning = new AtomicBoolean(false);
+    private final AtomicBoolean passRequested = new AtomicBoolean(false);
+
+    private MetadataExtractionWorker(Context context) {
+        this.appContext = context.getApplicationContext();
+        this.mediaDao = AppDatabase.getInstance(appContext).mediaDao();
+        this.metadataResolver = MediaMetadataResolver.getInstance(appContext);
+    }
+
+    MetadataExtractionWorker(Context context, AppDatabase db) {
+        this.appContext = context.getApplicationContext();
+        this.mediaDao = db.mediaDao();
+        this.metadataResolver = new MediaMetadataResolver(appContext, db);
+    }
+
+    public static MetadataExtractionWorker getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (MetadataExtractionWorker.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new MetadataExtractionWorker(context);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public void requestPass() {
+        passRequested.set(true);
+        if (passRunning.compareAndSet(false, true)) {
+            coordinatorExecutor.execute(this::runPasses);
+        }
+    }
+
+    private void runPasses() {
+        try {
+            while (passRequested.getAndSet(false)) {
+                runPass();
+            }
+        } finally {
+            passRunning.set(false);
+        }
+        if (passRequested.get() && passRunning.compareAndSet(false, true)) {
+            coordinatorExecutor.execute(this::runPasses);
+        }
+    }
+
+    void release() {
+        coordinatorExecutor.shutdownNow();
+        extractionExecutor.shutdownNow();
+    }
+
+    int runPass() {
+        long startMs = SystemClock.elapsedRealtime();
+        int processed = 0;
+        List<String> previousBatch = null;
+        while (true) {
+            List<String> pending = mediaDao.getUrisPendingMetadataExtraction(BATCH_SIZE);
+            if (pending.isEmpty()) {
+                break;
+            }
+            if (pending.equals(previousBatch)) {
+                Log.e(TAG, "Stored metadata for " + pending.size() + " items but they are still pending, stopping pass");
+                break;
+            }
+            previousBatch = pending;
+            List<Uri> uris = new ArrayList<>(pending.size());
+            for (String uriString : pending) {
+                uris.add(Uri.parse(uriString));
+            }
+            Map<String, MediaMetadataEntry> entries = metadataResolver.resolveAllSync(uris);
+
+            List<Callable<MediaMetadataEntry>> tasks = new ArrayList<>(uris.size());
+            for (Uri uri : uris) {
+                MediaMetadataEntry entry = entries.get(uri.toString());
+                MediaMetadataEntry target = entry != null ? entry : new MediaMetadataEntry(uri.toString());
+                tasks.add(() -> extract(uri, target));
+            }
+
+            List<MediaMetadataEntry> extracted = new ArrayList<>(tasks.size());
+            try {
+                for (Future<MediaMetadataEntry> future : extractionExecutor.invokeAll(tasks)) {
+                    extracted.add(future.get());
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Extraction batch interrupted", e);
+                return processed;
+            }
+            if (!storeAndWait(extracted)) {
+                return processed;
+            }
+            processed += extracted.size();
+        }
+        if (processed > 0) {
+            long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - startMs);
+            Log.i(TAG, "Extracted metadata for " + processed + " items in " + elapsedMs + " ms ("
+                    + (processed * 1000L / elapsedMs) + " items/s)");
+        }
+        return processed;
+    }
+
+    private boolean storeAndWait(List<MediaMetadataEntry> entries) {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        DbScheduler.write(DbScheduler.Priority.BACKGROUND, () -> {
+            try {
+                metadataResolver.storeSync(entries);
+            } catch (RuntimeException e) {
+                failure.set(e);
+            } finally {
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (failure.get() != null) {
+            Log.e(TAG, "Failed to store metadata for " + entries.size() + " items, stopping pass", failure.get());
+            return false;
+        }
+        return true;
+    }
+
+    private MediaMetadataEntry extract(Uri uri, MediaMetadataEntry entry) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(appContext, uri);
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            if (duration != null) {
+                try {
+                    entry.durationMs = Long.parseLong(duration);
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Unparseable duration '" + duration + "' for " + uri);
+                }
+            }
+            entry.artist = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST);
+            entry.album = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM);
+            if (entry.mimeType == null) {
+                entry.mimeType = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_MIMETYPE);
+            }
+            String artworkPath = saveArtwork(uri, retriever.getEmbeddedPicture());
+            if (artworkPath != null) {
+                entry.artworkPath = artworkPath;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not extract metadata from " + uri, e);
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                Log.w(TAG, "Error releasing MediaMetadataRetriever", e);
+            }
+        }
+        entry.metadataExtracted = true;
+        return entry;
+    }
+
+    @Nullable
+    private String saveArtwork(Uri uri, @Nullable byte[] picture) {
+        if (picture == null || picture.length == 0) {
+            return null;
+        }
+        if (picture.length > MAX_EMBEDDED_PICTURE_BYTES) {
+            Log.w(TAG, "Embedded picture too large (" + picture.length + " bytes), skipping for " + uri);
+            return null;
+        }
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(picture, 0, picture.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calculateInSampleSize(bounds.outWidth, bounds.outHeight, ARTWORK_MAX_DIMENSION);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(picture, 0, picture.length, options);
+        if (bitmap == null) {
+            return null;
+        }
+        try {
+            File artworkDir = new File(appContext.getFilesDir(), ARTWORK_DIR_NAME);
+            if (!artworkDir.exists() && !artworkDir.mkdirs()) {
+                Log.e(TAG, "Failed to create artwork directory: " + artworkDir.getAbsolutePath());
+                return null;
+            }
+            File artworkFile = new File(artworkDir, artworkFileName(uri));
+            try (FileOutputStream outputStream = new FileOutputStream(artworkFile)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 85, outputStream);
+            }
+            return artworkFile.getAbsolutePath();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write artwork thumbnail for " + uri, e);
+            return null;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    static String artworkFileName(Uri uri) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(ARTWORK_NAME_DIGEST);
+            return MediaBlobStore.toHex(digest.digest(uri.toString().getBytes(StandardCharsets.UTF_8))) + ".jpg";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static int calculateInSampleSize(int width, int height, int maxDimension) {
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= maxDimension || height / (inSampleSize * 2) >= maxDimension) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+}
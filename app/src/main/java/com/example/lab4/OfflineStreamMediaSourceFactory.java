@@ -0,0 +1,44 @@
+package com.example.lab4;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.drm.DrmSessionManagerProvider;
+import androidx.media3.exoplayer.source.MediaSource;
+import androidx.media3.exoplayer.upstream.LoadErrorHandlingPolicy;
+
+@UnstableApi
+public final class OfflineStreamMediaSourceFactory implements MediaSource.Factory {
+
+    private final MediaSource.Factory delegate;
+
+    public OfflineStreamMediaSourceFactory(MediaSource.Factory delegate) {
+        this.delegate = delegate;
+    }
+
+    @NonNull
+    @Override
+    public MediaSource.Factory setDrmSessionManagerProvider(@NonNull DrmSessionManagerProvider drmSessionManagerProvider) {
+        delegate.setDrmSessionManagerProvider(drmSessionManagerProvider);
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public MediaSource.Factory setLoadErrorHandlingPolicy(@NonNull LoadErrorHandlingPolicy loadErrorHandlingPolicy) {
+        delegate.setLoadErrorHandlingPolicy(loadErrorHandlingPolicy);
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public int[] getSupportedTypes() {
+        return delegate.getSupportedTypes();
+    }
+
+    @NonNull
+    @Override
+    public MediaSource createMediaSource(@NonNull MediaItem mediaItem) {
+        return delegate.createMediaSource(DownloadedStreams.withDownloadedStreams(mediaItem));
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.lab4;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import androidx.annotation.NonNull;
+import androidx.paging.PagingDataAdapter;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.example.lab4.db.MediaItem;
+
+public class PagedMediaItemAdapter extends PagingDataAdapter<MediaItem, MediaItemAdapter.MediaItemViewHolder> {
+
+    private final MediaItemAdapter.OnMediaItemClickListener clickListener;
+    private final MediaItemAdapter.OnMediaItemDeleteListener deleteListener;
+
+    public PagedMediaItemAdapter(@NonNull DiffUtil.ItemCallback<MediaItem> diffCallback,
+                                 MediaItemAdapter.OnMediaItemClickListener clickListener,
+                                 MediaItemAdapter.OnMediaItemDeleteListener deleteListener) {
+        super(diffCallback);
+        this.clickListener = clickListener;
+        this.deleteListener = deleteListener;
+    }
+
+    @NonNull
+    @Override
+    public MediaItemAdapter.MediaItemViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_media, parent, false);
+        return new MediaItemAdapter.MediaItemViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull MediaItemAdapter.MediaItemViewHolder holder, int position) {
+        MediaItem current = getItem(position);
+        if (current != null) {
+            holder.bind(current, clickListener, deleteListener);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.lab4;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheEvictor;
+import androidx.media3.datasource.cache.CacheSpan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+@UnstableApi
+public final class PinnableCacheEvictor implements CacheEvictor {
+
+    private static final String TAG = "PinnableCacheEvictor";
+
+    private final long maxBytes;
+    private final TreeSet<CacheSpan> leastRecentlyUsed = new TreeSet<>(PinnableCacheEvictor::compare);
+    private final Map<String, Integer> pinnedKeys = new ConcurrentHashMap<>();
+    private long currentSize;
+
+    public PinnableCacheEvictor(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void pin(String key) {
+        pinnedKeys.merge(key, 1, Integer::sum);
+    }
+
+    public void unpin(String key) {
+        pinnedKeys.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    public boolean isPinned(String key) {
+        return pinnedKeys.containsKey(key);
+    }
+
+    @Override
+    public boolean requiresCacheSpanTouches() {
+        return true;
+    }
+
+    @Override
+    public void onCacheInitialized() {
+    }
+
+    @Override
+    public void onStartFile(@NonNull Cache cache, @NonNull String key, long position, long length) {
+        if (length != C.LENGTH_UNSET) {
+            evictCache(cache, length);
+        }
+    }
+
+    @Override
+    public void onSpanAdded(@NonNull Cache cache, @NonNull CacheSpan span) {
+        leastRecentlyUsed.add(span);
+        currentSize += span.length;
+        evictCache(cache, 0);
+    }
+
+    @Override
+    public void onSpanRemoved(@NonNull Cache cache, @NonNull CacheSpan span) {
+        leastRecentlyUsed.remove(span);
+        currentSize -= span.length;
+    }
+
+    @Override
+    public void onSpanTouched(@NonNull Cache cache, @NonNull CacheSpan oldSpan, @NonNull CacheSpan newSpan) {
+        onSpanRemoved(cache, oldSpan);
+        onSpanAdded(cache, newSpan);
+    }
+
+    private void evictCache(Cache cache, long requiredSpace) {
+        long excess = currentSize + requiredSpace - maxBytes;
+        if (excess <= 0) return;
+        List<CacheSpan> victims = new ArrayList<>();
+        long skippedPinnedBytes = 0;
+        for (CacheSpan span : leastRecentlyUsed) {
+            if (excess <= 0) break;
+            if (pinnedKeys.containsKey(span.key)) {
+                skippedPinnedBytes += span.length;
+                continue;
+            }
+            victims.add(span);
+            excess -= span.length;
+        }
+        for (CacheSpan span : victims) {
+            cache.removeSpan(span);
+        }
+        if (excess > 0 && skippedPinnedBytes > 0) {
+            Log.d(TAG, "Cache over budget by " + excess + " bytes; " + skippedPinnedBytes + " pinned bytes kept");
+        }
+    }
+
+    private static int compare(CacheSpan lhs, CacheSpan rhs) {
+        long lastTouchTimestampDelta = lhs.lastTouchTimestamp - rhs.lastTouchTimestamp;
+        if (lastTouchTimestampDelta == 0) {
+            return lhs.compareTo(rhs);
+        }
+        return lhs.lastTouchTimestamp < rhs.lastTouchTimestamp ? -1 : 1;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.lab4;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.C;
+import androidx.media3.common.Player;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.analytics.AnalyticsListener;
+import androidx.media3.exoplayer.source.LoadEventInfo;
+import androidx.media3.exoplayer.source.MediaLoadData;
+import androidx.media3.exoplayer.upstream.DefaultAllocator;
+
+import java.util.Locale;
+
+@UnstableApi
+public class PlaybackGapMonitor implements AnalyticsListener {
+
+    private static final String TAG = "PlaybackGapMonitor";
+    private static final long TRANSITION_GRACE_MS = 500;
+
+    private final String label;
+    private final DefaultAllocator allocator;
+
+    private boolean transitionPending;
+    private boolean transitionStalled;
+    private long transitionRealtimeMs = C.TIME_UNSET;
+    private long transitionWallClockMs = C.TIME_UNSET;
+
+    private int autoTransitions;
+    private int audibleGaps;
+    private int audioUnderruns;
+    private int rebuffers;
+    private int lastState = Player.STATE_IDLE;
+    private long seekRealtimeMs = C.TIME_UNSET;
+    private long totalGapMs;
+    private long maxGapMs;
+    private long peakAllocatedBytes;
+
+    public PlaybackGapMonitor(String label, DefaultAllocator allocator) {
+        this.label = label;
+        this.allocator = allocator;
+    }
+
+    @Override
+    public void onPositionDiscontinuity(@NonNull EventTime eventTime, @NonNull Player.PositionInfo oldPosition,
+                                        @NonNull Player.PositionInfo newPosition, int reason) {
+        if (reason != Player.DISCONTINUITY_REASON_AUTO_TRANSITION) {
+            transitionPending = false;
+            if (reason == Player.DISCONTINUITY_REASON_SEEK) {
+                seekRealtimeMs = eventTime.realtimeMs;
+            }
+            return;
+        }
+        if (transitionPending) {
+            recordGap(0);
+        }
+        autoTransitions++;
+        transitionPending = true;
+        transitionStalled = false;
+        transitionRealtimeMs = eventTime.realtimeMs;
+        transitionWallClockMs = System.currentTimeMillis();
+        sampleAllocator();
+    }
+
+    @Override
+    public void onPlaybackStateChanged(@NonNull EventTime eventTime, int state) {
+        if (state == Player.STATE_BUFFERING && isWithinGrace(eventTime.realtimeMs)) {
+            transitionStalled = true;
+        } else if (state == Player.STATE_BUFFERING && lastState == Player.STATE_READY
+                && (seekRealtimeMs == C.TIME_UNSET || eventTime.realtimeMs - seekRealtimeMs > TRANSITION_GRACE_MS)) {
+            rebuffers++;
+            Log.d(TAG, label + ": rebuffering at " + eventTime.eventPlaybackPositionMs + " ms");
+        }
+        lastState = state;
+    }
+
+    @Override
+    public void onAudioPositionAdvancing(@NonNull EventTime eventTime, long playoutStartSystemTimeMs) {
+        if (transitionPending && (transitionStalled || isWithinGrace(eventTime.realtimeMs))) {
+            recordGap(Math.max(0, playoutStartSystemTimeMs - transitionWallClockMs));
+        }
+    }
+
+    @Override
+    public void onRenderedFirstFrame(@NonNull EventTime eventTime, @NonNull Object output, long renderTimeMs) {
+        if (transitionPending && (transitionStalled || isWithinGrace(eventTime.realtimeMs))) {
+            recordGap(Math.max(0, renderTimeMs - transitionRealtimeMs));
+        }
+    }
+
+    @Override
+    public void onAudioUnderrun(@NonNull EventTime eventTime, int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+        audioUnderruns++;
+    }
+
+    @Override
+    public void onLoadCompleted(@NonNull EventTime eventTime, @NonNull LoadEventInfo loadEventInfo, @NonNull MediaLoadData mediaLoadData) {
+        sampleAllocator();
+    }
+
+    @Override
+    public void onPlayerReleased(@NonNull EventTime eventTime) {
+        if (transitionPending) {
+            recordGap(0);
+        }
+        logStats();
+    }
+
+    public int getRebuffers() {
+        return rebuffers;
+    }
+
+    public void logStats() {
+        Log.i(TAG, String.format(Locale.US,
+                "%s: %d auto transitions, %d audible gaps, avg gap %.1f ms, max gap %d ms, %d audio underruns, "
+                        + "%d rebuffers, buffer %d KB now / %d KB peak",
+                label, autoTransitions, audibleGaps,
+                autoTransitions == 0 ? 0.0 : (double) totalGapMs / autoTransitions, maxGapMs, audioUnderruns, rebuffers,
+                allocator.getTotalBytesAllocated() / 1024, peakAllocatedBytes / 1024));
+    }
+
+    private boolean isWithinGrace(long realtimeMs) {
+        return transitionPending && realtimeMs - transitionRealtimeMs <= TRANSITION_GRACE_MS;
+    }
+
+    private void recordGap(long gapMs) {
+        transitionPending = false;
+        totalGapMs += gapMs;
+        maxGapMs = Math.max(maxGapMs, gapMs);
+        if (gapMs > 0) {
+            audibleGaps++;
+            Log.d(TAG, label + ": " + gapMs + " ms gap between tracks" + (transitionStalled ? " (rebuffered)" : ""));
+        }
+    }
+
+    private void sampleAllocator() {
+        peakAllocatedBytes = Math.max(peakAllocatedBytes, allocator.getTotalBytesAllocated());
+    }
+}
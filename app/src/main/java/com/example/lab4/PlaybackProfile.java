@@ -0,0 +1,106 @@
+package com.example.lab4;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
+import androidx.media3.exoplayer.DefaultLoadControl;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.source.DefaultMediaSourceFactory;
+import androidx.media3.exoplayer.upstream.DefaultAllocator;
+
+import com.example.lab4.db.MediaMetadataEntry;
+
+import java.util.Collections;
+
+@UnstableApi
+public enum PlaybackProfile {
+    GAPLESS_MUSIC(30_000, 120_000, 1_000, 2_000, 8 * 1024 * 1024, 10_000, false, 20_000, C.AUDIO_CONTENT_TYPE_MUSIC),
+    VIDEO_STREAMING(15_000, 50_000, 2_500, 5_000, C.LENGTH_UNSET, 30_000, true, 5_000, C.AUDIO_CONTENT_TYPE_MOVIE);
+
+    private static final String TAG = "PlaybackProfile";
+
+    public final int minBufferMs;
+    public final int maxBufferMs;
+    public final int bufferForPlaybackMs;
+    public final int bufferForPlaybackAfterRebufferMs;
+    public final int targetBufferBytes;
+    public final int backBufferMs;
+    public final boolean retainBackBufferFromKeyframe;
+    public final long preloadNextMs;
+    public final @C.AudioContentType int audioContentType;
+
+    PlaybackProfile(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs,
+                    int targetBufferBytes, int backBufferMs, boolean retainBackBufferFromKeyframe, long preloadNextMs,
+                    @C.AudioContentType int audioContentType) {
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = maxBufferMs;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
+        this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.targetBufferBytes = targetBufferBytes;
+        this.backBufferMs = backBufferMs;
+        this.retainBackBufferFromKeyframe = retainBackBufferFromKeyframe;
+        this.preloadNextMs = preloadNextMs;
+        this.audioContentType = audioContentType;
+    }
+
+    public static PlaybackProfile forMediaItem(Context context, @Nullable MediaItem mediaItem) {
+        MediaItem.LocalConfiguration localConfiguration = mediaItem != null ? mediaItem.localConfiguration : null;
+        if (localConfiguration == null) {
+            return GAPLESS_MUSIC;
+        }
+        if (Util.inferContentTypeForUriAndMimeType(localConfiguration.uri, localConfiguration.mimeType)
+                != C.CONTENT_TYPE_OTHER) {
+            return VIDEO_STREAMING;
+        }
+        String mimeType = localConfiguration.mimeType;
+        if (mimeType == null && ContentResolver.SCHEME_CONTENT.equals(localConfiguration.uri.getScheme())) {
+            MediaMetadataEntry entry = MediaMetadataResolver.getInstance(context)
+                    .resolveAllSync(Collections.singletonList(localConfiguration.uri))
+                    .get(localConfiguration.uri.toString());
+            mimeType = entry != null ? entry.mimeType : null;
+        }
+        if (mimeType == null) {
+            String extension = MimeTypeMap.getFileExtensionFromUrl(localConfiguration.uri.toString());
+            mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        }
+        return MimeTypes.isVideo(mimeType) ? VIDEO_STREAMING : GAPLESS_MUSIC;
+    }
+
+    public DefaultLoadControl createLoadControl(DefaultAllocator allocator) {
+        return new DefaultLoadControl.Builder()
+                .setAllocator(allocator)
+                .setBufferDurationsMs(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs)
+                .setTargetBufferBytes(targetBufferBytes)
+                .setPrioritizeTimeOverSizeThresholds(targetBufferBytes == C.LENGTH_UNSET)
+                .setBackBuffer(backBufferMs, retainBackBufferFromKeyframe)
+                .build();
+    }
+
+    public ExoPlayer buildPlayer(Context context) {
+        DefaultAllocator allocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+        AdaptiveStreamingPolicy streamingPolicy = new AdaptiveStreamingPolicy(context);
+        DownloadedStreams.load(context);
+        ExoPlayer player = new ExoPlayer.Builder(context)
+                .setMediaSourceFactory(new OfflineStreamMediaSourceFactory(
+                        new DefaultMediaSourceFactory(MediaCache.getDataSourceFactory(context))))
+                .setLoadControl(createLoadControl(allocator))
+                .setTrackSelector(streamingPolicy.getTrackSelector())
+                .setBandwidthMeter(streamingPolicy.getBandwidthMeter())
+                .build();
+        player.setPreloadConfiguration(new ExoPlayer.PreloadConfiguration(C.msToUs(preloadNextMs)));
+        player.setPauseAtEndOfMediaItems(false);
+        player.addAnalyticsListener(streamingPolicy);
+        player.addAnalyticsListener(new PlaybackGapMonitor(name(), allocator));
+        Log.d(TAG, "Built player with " + this + ": buffer " + minBufferMs + "-" + maxBufferMs + " ms, back buffer "
+                + backBufferMs + " ms, preload next " + preloadNextMs + " ms");
+        return player;
+    }
+}
@@ -10,12 +10,13 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
-import androidx.lifecycle.LifecycleOwner;
 import androidx.media3.common.AudioAttributes;
 import androidx.media3.common.C;
 import androidx.media3.common.MediaItem;
@@ -27,7 +28,11 @@ import androidx.media3.session.MediaSessionService;
 import androidx.media3.ui.PlayerNotificationManager;
 
 import com.example.lab4.db.AppDatabase;
-import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.DbScheduler;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -41,8 +46,14 @@ public class PlaybackService extends MediaSessionService {
 
     private MediaSession mediaSession;
     private ExoPlayer player;
-    private MediaDao mediaDao;
+    private PlaybackProfile playbackProfile;
     private PlayerNotificationManager playerNotificationManager;
+    private PlaylistPrefetcher playlistPrefetcher;
+    private ArtworkCache artworkCache;
+    private PlaybackStateStore playbackStateStore;
+    private PlaylistWindowLoader playlistWindowLoader;
+    private boolean coldStartAudioLogged = false;
+    private long restoredQueueAtMs = C.TIME_UNSET;
 
     public static final String ACTION_PLAY_PLAYLIST = "com.example.lab4.ACTION_PLAY_PLAYLIST";
     public static final String EXTRA_PLAYLIST_ID = "com.example.lab4.EXTRA_PLAYLIST_ID";
@@ -54,39 +65,29 @@ public class PlaybackService extends MediaSessionService {
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "onCreate");
-        mediaDao = AppDatabase.getInstance(this).mediaDao();
+        artworkCache = ArtworkCache.getInstance(this);
         initializePlayerAndSession();
         createNotificationChannel();
         initializeNotificationManager();
+        restorePersistedQueue();
+    }
+
+    private void restorePersistedQueue() {
+        playbackStateStore.restoreInto(player, itemCount -> {
+            if (itemCount > 0) {
+                restoredQueueAtMs = SystemClock.elapsedRealtime();
+                Log.i(TAG, "Restored queue of " + itemCount + " items "
+                        + (restoredQueueAtMs - Process.getStartElapsedRealtime()) + " ms after process start.");
+            }
+        });
     }
 
     private void initializePlayerAndSession() {
+        if (playlistPrefetcher == null) {
+            playlistPrefetcher = new PlaylistPrefetcher(this);
+        }
         if (player == null) {
-            player = new ExoPlayer.Builder(this).build();
-            AudioAttributes audioAttributes = new AudioAttributes.Builder()
-                    .setContentType(C.AUDIO_CONTENT_TYPE_MUSIC)
-                    .setUsage(C.USAGE_MEDIA)
-                    .build();
-            player.setAudioAttributes(audioAttributes, true);
-
-            player.addListener(new Player.Listener() {
-                @Override
-                public void onPlaybackStateChanged(int playbackState) {
-                    Log.d(TAG, "Player state changed: " + playbackState);
-                }
-                @Override
-                public void onMediaItemTransition(@Nullable MediaItem mediaItem, int reason) {
-                    Log.d(TAG, "Media item transition, reason: " + reason);
-                }
-                @Override
-                public void onIsPlayingChanged(boolean isPlaying) {
-                    Log.d(TAG, "IsPlaying changed: " + isPlaying);
-                }
-                @Override
-                public void onPlayerError(@NonNull androidx.media3.common.PlaybackException error) {
-                    Log.e(TAG, "Player Error: " + error.getMessage(), error);
-                }
-            });
+            createPlayer(PlaybackProfile.GAPLESS_MUSIC);
         }
 
         if (mediaSession == null) {
@@ -96,11 +97,142 @@ public class PlaybackService extends MediaSessionService {
 
             mediaSession = new MediaSession.Builder(this, player)
                     .setSessionActivity(pendingIntent)
+                    .setCallback(new MediaSession.Callback() {
+                        @NonNull
+                        @Override
+                        public ListenableFuture<List<MediaItem>> onAddMediaItems(@NonNull MediaSession mediaSession,
+                                                                                 @NonNull MediaSession.ControllerInfo controller,
+                                                                                 @NonNull List<MediaItem> mediaItems) {
+                            return Futures.immediateFuture(resolvePlayableItems(mediaItems));
+                        }
+
+                        @NonNull
+                        @Override
+                        public ListenableFuture<MediaSession.MediaItemsWithStartPosition> onSetMediaItems(
+                                @NonNull MediaSession mediaSession, @NonNull MediaSession.ControllerInfo controller,
+                                @NonNull List<MediaItem> mediaItems, int startIndex, long startPositionMs) {
+                            if (PlaylistWindowLoader.isRequest(mediaItems)) {
+                                return loadPlaylistWindow(mediaItems.get(0), startPositionMs);
+                            }
+                            playlistWindowLoader.reset();
+                            List<MediaItem> resolved = resolvePlayableItems(mediaItems);
+                            MediaSession.MediaItemsWithStartPosition result =
+                                    new MediaSession.MediaItemsWithStartPosition(resolved, startIndex, startPositionMs);
+                            if (resolved.isEmpty()) {
+                                return Futures.immediateFuture(result);
+                            }
+                            MediaItem startItem = resolved.get(Math.max(0, Math.min(startIndex, resolved.size() - 1)));
+                            return Futures.transform(resolveProfile(startItem), profile -> {
+                                switchProfile(profile);
+                                return result;
+                            }, ContextCompat.getMainExecutor(PlaybackService.this));
+                        }
+                    })
                     .build();
             Log.d(TAG, "MediaSession created.");
         }
     }
 
+    private ListenableFuture<MediaSession.MediaItemsWithStartPosition> loadPlaylistWindow(MediaItem request,
+                                                                                         long startPositionMs) {
+        PlaylistWindowLoader loader = playlistWindowLoader;
+        return Futures.transformAsync(loader.load(request, startPositionMs), result ->
+                Futures.transformAsync(resolveProfile(result.mediaItems.get(result.startIndex)), wanted -> {
+                    if (wanted == playbackProfile || loader != playlistWindowLoader) {
+                        return Futures.immediateFuture(result);
+                    }
+                    switchProfile(wanted);
+                    return playlistWindowLoader.load(request, startPositionMs);
+                }, ContextCompat.getMainExecutor(this)), MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<PlaybackProfile> resolveProfile(MediaItem startItem) {
+        return Futures.submit(() -> PlaybackProfile.forMediaItem(this, startItem), DbScheduler.readExecutor());
+    }
+
+    private void switchProfile(PlaybackProfile profile) {
+        if (profile == playbackProfile || player == null) return;
+        ExoPlayer previousPlayer = player;
+        playbackStateStore.detach();
+        playlistWindowLoader.release();
+        createPlayer(profile);
+        player.setShuffleModeEnabled(previousPlayer.getShuffleModeEnabled());
+        player.setRepeatMode(previousPlayer.getRepeatMode());
+        if (mediaSession != null) {
+            mediaSession.setPlayer(player);
+        }
+        if (playerNotificationManager != null) {
+            playerNotificationManager.setPlayer(player);
+        }
+        previousPlayer.release();
+        Log.i(TAG, "Switched playback profile to " + profile);
+    }
+
+    private void createPlayer(PlaybackProfile profile) {
+        playbackProfile = profile;
+        player = profile.buildPlayer(this);
+        playlistWindowLoader = new PlaylistWindowLoader(AppDatabase.getInstance(this), player);
+        playbackStateStore = new PlaybackStateStore(AppDatabase.getInstance(this), playlistWindowLoader);
+        playbackStateStore.attach(player);
+        AudioAttributes audioAttributes = new AudioAttributes.Builder()
+                .setContentType(profile.audioContentType)
+                .setUsage(C.USAGE_MEDIA)
+                .build();
+        player.setAudioAttributes(audioAttributes, true);
+
+        player.addListener(new Player.Listener() {
+            @Override
+            public void onPlaybackStateChanged(int playbackState) {
+                Log.d(TAG, "Player state changed: " + playbackState);
+                if (playbackState == Player.STATE_READY && player != null && player.getPlayWhenReady()) {
+                    playlistPrefetcher.markFirstFrame();
+                }
+            }
+            @Override
+            public void onRenderedFirstFrame() {
+                playlistPrefetcher.markFirstFrame();
+            }
+            @Override
+            public void onMediaItemTransition(@Nullable MediaItem mediaItem, int reason) {
+                Log.d(TAG, "Media item transition, reason: " + reason);
+                playlistPrefetcher.markTransitionStart(mediaItem);
+                if (player != null) {
+                    if (player.getPlaybackState() == Player.STATE_READY) {
+                        playlistPrefetcher.markFirstFrame();
+                    }
+                    playlistPrefetcher.onMediaItemTransition(player);
+                }
+            }
+            @Override
+            public void onIsPlayingChanged(boolean isPlaying) {
+                Log.d(TAG, "IsPlaying changed: " + isPlaying);
+                if (isPlaying && !coldStartAudioLogged) {
+                    coldStartAudioLogged = true;
+                    long nowMs = SystemClock.elapsedRealtime();
+                    Log.i(TAG, "Cold start to audio: " + (nowMs - Process.getStartElapsedRealtime()) + " ms after process start"
+                            + (restoredQueueAtMs != C.TIME_UNSET ? ", " + (nowMs - restoredQueueAtMs) + " ms after queue restore" : ""));
+                }
+            }
+            @Override
+            public void onPlayerError(@NonNull androidx.media3.common.PlaybackException error) {
+                Log.e(TAG, "Player Error: " + error.getMessage(), error);
+            }
+        });
+    }
+
+    private static List<MediaItem> resolvePlayableItems(List<MediaItem> requestedItems) {
+        List<MediaItem> resolved = new ArrayList<>(requestedItems.size());
+        for (MediaItem item : requestedItems) {
+            if (item.localConfiguration != null) {
+                resolved.add(item);
+                continue;
+            }
+            Uri uri = item.requestMetadata.mediaUri != null ? item.requestMetadata.mediaUri : Uri.parse(item.mediaId);
+            resolved.add(item.buildUpon().setUri(uri).build());
+        }
+        return resolved;
+    }
+
     private void initializeNotificationManager() {
         PlayerNotificationManager.Builder builder =
                 new PlayerNotificationManager.Builder(this, NOTIFICATION_ID, NOTIFICATION_CHANNEL_ID)
@@ -134,6 +266,21 @@ public class PlaybackService extends MediaSessionService {
             @Nullable
             @Override
             public Bitmap getCurrentLargeIcon(@NonNull Player player, @NonNull PlayerNotificationManager.BitmapCallback callback) {
+                MediaItem currentItem = player.getCurrentMediaItem();
+                if (currentItem == null || currentItem.localConfiguration == null) {
+                    return null;
+                }
+                Uri artworkUri = currentItem.localConfiguration.uri;
+                int largeIconSizePx = getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+                Bitmap cached = artworkCache.peek(artworkUri, largeIconSizePx);
+                if (cached != null) {
+                    return cached;
+                }
+                artworkCache.load(artworkUri, largeIconSizePx, bitmap -> {
+                    if (bitmap != null) {
+                        callback.onBitmap(bitmap);
+                    }
+                });
                 return null;
             }
         });
@@ -190,92 +337,23 @@ public class PlaybackService extends MediaSessionService {
     }
 
     private void loadPlaylistAndPlay(long playlistId) {
-        AppDatabase.databaseWriteExecutor.execute(() -> {
-            final List<com.example.lab4.db.MediaItem>[] dbMediaItemsHolder = new List[1];
-            mainHandler.post(() -> {
-                mediaDao.getMediaItemsForPlaylist(playlistId).observe((LifecycleOwner) this, items -> {
-                    dbMediaItemsHolder[0] = items;
-                    AppDatabase.databaseWriteExecutor.execute(() -> processLoadedItems(dbMediaItemsHolder[0], playlistId));
-                });
-            });
-        });
-    }
-
-    private void processLoadedItems(List<com.example.lab4.db.MediaItem> dbMediaItems, long playlistId) {
-        if (dbMediaItems == null || dbMediaItems.isEmpty()) {
-            Log.w(TAG, "No media items found for playlist ID: " + playlistId + " after observing.");
-            mainHandler.post(this::stopSelf);
-            return;
-        }
-
-        Log.d(TAG, "Processing " + dbMediaItems.size() + " items for playlist ID: " + playlistId);
-
-        List<MediaItem> exoMediaItems = new ArrayList<>();
-        for (com.example.lab4.db.MediaItem dbItem : dbMediaItems) {
-            try {
-                if (dbItem.mediaUri == null || dbItem.mediaUri.isEmpty()) {
-                    Log.w(TAG, "Skipping item with null or empty URI for mediaId: " + dbItem.mediaId);
-                    continue;
-                }
-                Uri uri = Uri.parse(dbItem.mediaUri);
-                String title = (dbItem.mediaTitle != null && !dbItem.mediaTitle.isEmpty())
-                        ? dbItem.mediaTitle
-                        : extractFileNameFromUri(uri);
-
-                exoMediaItems.add(
-                        new MediaItem.Builder()
-                                .setUri(uri)
-                                .setMediaId(String.valueOf(dbItem.mediaId))
-                                .setMediaMetadata(new androidx.media3.common.MediaMetadata.Builder()
-                                        .setTitle(title)
-                                        .build())
-                                .build()
-                );
-            } catch (Exception e) {
-                Log.e(TAG, "Error creating ExoPlayer MediaItem from DB URI: " + dbItem.mediaUri, e);
+        if (player == null) initializePlayerAndSession();
+        Futures.addCallback(loadPlaylistWindow(PlaylistWindowLoader.createRequest(playlistId, -1), 0),
+                new FutureCallback<MediaSession.MediaItemsWithStartPosition>() {
+            @Override
+            public void onSuccess(MediaSession.MediaItemsWithStartPosition result) {
+                player.setMediaItems(result.mediaItems, result.startIndex, result.startPositionMs);
+                player.prepare();
+                player.play();
+                Log.d(TAG, "Playing playlist ID " + playlistId + " from a " + result.mediaItems.size() + "-item window.");
             }
-        }
 
-        if (!exoMediaItems.isEmpty()) {
-            mainHandler.post(() -> {
-                if (player == null) initializePlayerAndSession();
-                if (player != null) {
-                    Log.d(TAG, "Setting " + exoMediaItems.size() + " items to player.");
-                    player.setMediaItems(exoMediaItems, true);
-                    player.prepare();
-                    player.play();
-                } else {
-                    Log.e(TAG, "Player is null, cannot start playback");
-                }
-            });
-        } else {
-            Log.w(TAG, "No valid ExoPlayer MediaItems created for playlist ID: " + playlistId);
-            mainHandler.post(this::stopSelf);
-        }
-    }
-
-    private String extractFileNameFromUri(Uri uri) {
-        if (uri == null) return getString(R.string.unknown_media_title);
-        String result = null;
-        if ("content".equals(uri.getScheme())) {
-            try (android.database.Cursor cursor = getContentResolver().query(uri, new String[]{android.provider.OpenableColumns.DISPLAY_NAME}, null, null, null)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int nameIndex = cursor.getColumnIndex(android.provider.OpenableColumns.DISPLAY_NAME);
-                    if (nameIndex != -1) {
-                        result = cursor.getString(nameIndex);
-                    }
-                }
-            } catch (Exception e) {
-                Log.w(TAG, "Could not get display name from content URI: " + uri, e);
-            }
-        }
-        if (result == null) {
-            result = uri.getLastPathSegment();
-            if (result != null && result.contains("/")) {
-                result = result.substring(result.lastIndexOf('/') + 1);
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.w(TAG, "No media items found for playlist ID: " + playlistId, t);
+                stopSelf();
             }
-        }
-        return result != null ? result : getString(R.string.unknown_media_title);
+        }, ContextCompat.getMainExecutor(this));
     }
 
     private void createNotificationChannel() {
@@ -327,10 +405,25 @@ public class PlaybackService extends MediaSessionService {
             playerNotificationManager = null;
             Log.d(TAG, "PlayerNotificationManager released.");
         }
+        if (playbackStateStore != null) {
+            playbackStateStore.detach();
+            playbackStateStore = null;
+        }
+        if (playlistWindowLoader != null) {
+            playlistWindowLoader.release();
+            playlistWindowLoader = null;
+        }
         if (player != null) {
             player.release();
             player = null;
             Log.d(TAG, "ExoPlayer released.");
+            MediaCache.logStats();
+            artworkCache.logStats();
+            DbScheduler.logStats();
+        }
+        if (playlistPrefetcher != null) {
+            playlistPrefetcher.release();
+            playlistPrefetcher = null;
         }
         Log.d(TAG, "Service resources released.");
     }
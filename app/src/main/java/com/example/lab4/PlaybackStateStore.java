@@ -0,0 +1,358 @@
+package com.example.lab4;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.MediaMetadata;
+import androidx.media3.common.Player;
+import androidx.media3.common.Timeline;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.session.MediaSession;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.DbScheduler;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.NowPlayingItem;
+import com.example.lab4.db.NowPlayingSnapshot;
+import com.example.lab4.db.NowPlayingState;
+import com.example.lab4.db.ResumePosition;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+@UnstableApi
+public class PlaybackStateStore implements Player.Listener {
+
+    private static final String TAG = "PlaybackStateStore";
+    private static final long POSITION_SAVE_INTERVAL_MS = 5_000;
+    private static final long QUEUE_SAVE_DELAY_MS = 1_000;
+    private static final long MIN_RESUME_POSITION_MS = 5_000;
+    private static final long RESUME_END_MARGIN_MS = 10_000;
+    private static final long RESUME_RETENTION_MS = TimeUnit.DAYS.toMillis(90);
+
+    public interface RestoreCallback {
+        void onRestored(int itemCount);
+    }
+
+    private final AppDatabase db;
+    private final MediaDao mediaDao;
+    private final PlaylistWindowLoader windowLoader;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable positionTick = this::onPositionTick;
+    private final Runnable queueSave = this::captureQueue;
+
+    private final AtomicReference<NowPlayingState> pendingState = new AtomicReference<>();
+    private final AtomicReference<List<NowPlayingItem>> pendingQueue = new AtomicReference<>();
+    private final Map<String, ResumePosition> pendingResumePositions = new LinkedHashMap<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private final AtomicLong snapshotsRequested = new AtomicLong();
+    private final AtomicLong transactionsWritten = new AtomicLong();
+
+    @Nullable
+    private Player player;
+    @Nullable
+    private String currentUri;
+    private long lastKnownPositionMs;
+    private long lastKnownDurationMs = C.TIME_UNSET;
+    private boolean skipNextQueueSave;
+    private boolean queueSavePending;
+
+    public PlaybackStateStore(AppDatabase db, PlaylistWindowLoader windowLoader) {
+        this.db = db;
+        this.mediaDao = db.mediaDao();
+        this.windowLoader = windowLoader;
+    }
+
+    public void attach(@NonNull Player player) {
+        this.player = player;
+        player.addListener(this);
+        currentUri = uriStringOf(player.getCurrentMediaItem());
+        if (player.isPlaying()) {
+            mainHandler.postDelayed(positionTick, POSITION_SAVE_INTERVAL_MS);
+        }
+    }
+
+    public void detach() {
+        if (player == null) return;
+        mainHandler.removeCallbacks(positionTick);
+        if (queueSavePending) {
+            mainHandler.removeCallbacks(queueSave);
+            captureQueue();
+        }
+        captureState();
+        player.removeListener(this);
+        player = null;
+        Log.d(TAG, "Detached: " + snapshotsRequested.get() + " snapshots coalesced into "
+                + transactionsWritten.get() + " DB transactions.");
+    }
+
+    public void restoreInto(@NonNull Player target, @NonNull RestoreCallback callback) {
+        long startMs = SystemClock.elapsedRealtime();
+        DbScheduler.read(DbScheduler.Priority.USER_VISIBLE, () -> {
+            NowPlayingSnapshot snapshot = mediaDao.getNowPlayingSnapshot();
+            if (snapshot != null && snapshot.state.playlistId >= 0
+                    && mediaDao.getPlaylistLength(snapshot.state.playlistId) > 0) {
+                mainHandler.post(() -> restorePlaylist(target, snapshot, startMs, callback));
+                pruneResumePositions();
+                return;
+            }
+            if (snapshot == null || snapshot.queue.isEmpty()) {
+                mainHandler.post(() -> callback.onRestored(0));
+                return;
+            }
+            List<MediaItem> items = new ArrayList<>(snapshot.queue.size());
+            for (NowPlayingItem entry : snapshot.queue) {
+                Uri uri = Uri.parse(entry.mediaUri);
+                items.add(DownloadedStreams.resolve(new MediaItem.Builder()
+                        .setUri(uri)
+                        .setMediaId(entry.mediaId)
+                        .setRequestMetadata(new MediaItem.RequestMetadata.Builder().setMediaUri(uri).build())
+                        .setMediaMetadata(new MediaMetadata.Builder().setTitle(entry.mediaTitle).build())
+                        .build()));
+            }
+            long loadedMs = SystemClock.elapsedRealtime() - startMs;
+            mainHandler.post(() -> {
+                if (target.getMediaItemCount() > 0) {
+                    Log.d(TAG, "Player already has a queue, skipping restore of " + items.size() + " items.");
+                    callback.onRestored(0);
+                    return;
+                }
+                int index = Math.max(0, Math.min(snapshot.state.currentIndex, items.size() - 1));
+                skipNextQueueSave = true;
+                target.setMediaItems(items, index, snapshot.state.positionMs);
+                target.setShuffleModeEnabled(snapshot.state.shuffleEnabled);
+                target.setRepeatMode(snapshot.state.repeatMode);
+                target.prepare();
+                Log.i(TAG, "Restored " + items.size() + " queued items (loaded in " + loadedMs + " ms, prepared after "
+                        + (SystemClock.elapsedRealtime() - startMs) + " ms) at index " + index + ", " + snapshot.state.positionMs + " ms");
+                callback.onRestored(items.size());
+            });
+            pruneResumePositions();
+        });
+    }
+
+    private void restorePlaylist(@NonNull Player target, NowPlayingSnapshot snapshot, long startMs,
+                                 @NonNull RestoreCallback callback) {
+        if (target.getMediaItemCount() > 0) {
+            Log.d(TAG, "Player already has a queue, skipping restore of playlist " + snapshot.state.playlistId + ".");
+            callback.onRestored(0);
+            return;
+        }
+        target.setShuffleModeEnabled(snapshot.state.shuffleEnabled);
+        target.setRepeatMode(snapshot.state.repeatMode);
+        Futures.addCallback(windowLoader.load(PlaylistWindowLoader.createRequest(snapshot.state.playlistId,
+                        snapshot.state.currentEntryId), snapshot.state.positionMs),
+                new FutureCallback<MediaSession.MediaItemsWithStartPosition>() {
+                    @Override
+                    public void onSuccess(MediaSession.MediaItemsWithStartPosition result) {
+                        if (target.getMediaItemCount() > 0) {
+                            callback.onRestored(0);
+                            return;
+                        }
+                        skipNextQueueSave = true;
+                        target.setMediaItems(result.mediaItems, result.startIndex, result.startPositionMs);
+                        target.prepare();
+                        Log.i(TAG, "Restored playlist " + snapshot.state.playlistId + " at entry "
+                                + snapshot.state.currentEntryId + ", " + result.startPositionMs + " ms (prepared after "
+                                + (SystemClock.elapsedRealtime() - startMs) + " ms)");
+                        callback.onRestored(result.mediaItems.size());
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Throwable t) {
+                        Log.w(TAG, "Could not restore playlist " + snapshot.state.playlistId, t);
+                        callback.onRestored(0);
+                    }
+                }, MoreExecutors.directExecutor());
+    }
+
+    private void pruneResumePositions() {
+        int pruned = mediaDao.deleteResumePositionsOlderThan(System.currentTimeMillis() - RESUME_RETENTION_MS);
+        if (pruned > 0) {
+            Log.d(TAG, "Pruned " + pruned + " stale resume positions.");
+        }
+    }
+
+    @Override
+    public void onIsPlayingChanged(boolean isPlaying) {
+        mainHandler.removeCallbacks(positionTick);
+        if (isPlaying) {
+            mainHandler.postDelayed(positionTick, POSITION_SAVE_INTERVAL_MS);
+        } else {
+            captureState();
+        }
+    }
+
+    @Override
+    public void onTimelineChanged(@NonNull Timeline timeline, int reason) {
+        if (reason != Player.TIMELINE_CHANGE_REASON_PLAYLIST_CHANGED) return;
+        if (skipNextQueueSave) {
+            skipNextQueueSave = false;
+            return;
+        }
+        mainHandler.removeCallbacks(queueSave);
+        mainHandler.postDelayed(queueSave, QUEUE_SAVE_DELAY_MS);
+        queueSavePending = true;
+    }
+
+    @Override
+    public void onMediaItemTransition(@Nullable MediaItem mediaItem, int reason) {
+        if (currentUri != null) {
+            long positionMs = reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO ? 0 : lastKnownPositionMs;
+            stageResumePosition(currentUri, positionMs, lastKnownDurationMs);
+        }
+        currentUri = uriStringOf(mediaItem);
+        lastKnownPositionMs = 0;
+        lastKnownDurationMs = C.TIME_UNSET;
+        captureState();
+        if (reason == Player.MEDIA_ITEM_TRANSITION_REASON_PLAYLIST_CHANGED && currentUri != null) {
+            resumeCurrentItem(currentUri);
+        }
+    }
+
+    @Override
+    public void onShuffleModeEnabledChanged(boolean shuffleModeEnabled) {
+        captureState();
+    }
+
+    @Override
+    public void onRepeatModeChanged(int repeatMode) {
+        captureState();
+    }
+
+    private void onPositionTick() {
+        captureState();
+        if (player != null && player.isPlaying()) {
+            mainHandler.postDelayed(positionTick, POSITION_SAVE_INTERVAL_MS);
+        }
+    }
+
+    private void captureState() {
+        if (player == null || player.getMediaItemCount() == 0) return;
+        NowPlayingState state = new NowPlayingState();
+        state.currentIndex = player.getCurrentMediaItemIndex();
+        state.positionMs = Math.max(0, player.getCurrentPosition());
+        state.shuffleEnabled = player.getShuffleModeEnabled();
+        state.repeatMode = player.getRepeatMode();
+        state.playlistId = windowLoader.getPlaylistId();
+        state.currentEntryId = state.playlistId >= 0
+                ? PlaylistWindowLoader.entryIdOf(player.getCurrentMediaItem())
+                : -1;
+        state.updatedAt = System.currentTimeMillis();
+        pendingState.set(state);
+        lastKnownPositionMs = state.positionMs;
+        lastKnownDurationMs = player.getDuration();
+        if (currentUri != null) {
+            stageResumePosition(currentUri, lastKnownPositionMs, lastKnownDurationMs);
+        }
+        scheduleWrite();
+    }
+
+    private void captureQueue() {
+        queueSavePending = false;
+        if (player == null) return;
+        int count = player.getMediaItemCount();
+        List<NowPlayingItem> queue = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            MediaItem item = player.getMediaItemAt(i);
+            Uri uri = uriOf(item);
+            if (uri == null) continue;
+            CharSequence title = item.mediaMetadata.title;
+            queue.add(new NowPlayingItem(queue.size(), item.mediaId, uri.toString(), title != null ? title.toString() : null));
+        }
+        pendingQueue.set(queue);
+        captureState();
+    }
+
+    private void stageResumePosition(String mediaUri, long positionMs, long durationMs) {
+        boolean resumable = positionMs >= MIN_RESUME_POSITION_MS
+                && (durationMs == C.TIME_UNSET || positionMs < durationMs - RESUME_END_MARGIN_MS);
+        ResumePosition position = new ResumePosition(mediaUri, resumable ? positionMs : 0,
+                durationMs == C.TIME_UNSET ? 0 : durationMs, System.currentTimeMillis());
+        synchronized (pendingResumePositions) {
+            pendingResumePositions.put(mediaUri, position);
+        }
+    }
+
+    private void scheduleWrite() {
+        snapshotsRequested.incrementAndGet();
+        if (writeScheduled.compareAndSet(false, true)) {
+            DbScheduler.write(DbScheduler.Priority.BACKGROUND, this::writePending);
+        }
+    }
+
+    private void writePending() {
+        writeScheduled.set(false);
+        List<NowPlayingItem> queue = pendingQueue.getAndSet(null);
+        NowPlayingState state = pendingState.getAndSet(null);
+        List<ResumePosition> positions;
+        synchronized (pendingResumePositions) {
+            positions = new ArrayList<>(pendingResumePositions.values());
+            pendingResumePositions.clear();
+        }
+        if (queue == null && state == null && positions.isEmpty()) return;
+        try {
+            db.runInTransaction(() -> {
+                if (queue != null) {
+                    mediaDao.replaceNowPlayingQueue(queue);
+                }
+                if (state != null) {
+                    mediaDao.upsertNowPlayingState(state);
+                }
+                if (!positions.isEmpty()) {
+                    mediaDao.upsertResumePositions(positions);
+                }
+            });
+            transactionsWritten.incrementAndGet();
+            if (queue != null) {
+                Log.d(TAG, "Persisted queue of " + queue.size() + " items.");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to persist playback state", e);
+        }
+    }
+
+    private void resumeCurrentItem(String mediaUri) {
+        if (player == null || player.getCurrentPosition() > 1_000) return;
+        DbScheduler.read(DbScheduler.Priority.USER_VISIBLE, () -> {
+            ResumePosition saved = mediaDao.getResumePosition(mediaUri);
+            if (saved == null || saved.positionMs < MIN_RESUME_POSITION_MS) return;
+            mainHandler.post(() -> {
+                if (player == null || !mediaUri.equals(currentUri) || player.getCurrentPosition() > 2_000) return;
+                player.seekTo(saved.positionMs);
+                Log.d(TAG, "Resumed " + mediaUri + " at " + saved.positionMs + " ms");
+            });
+        });
+    }
+
+    @Nullable
+    private static String uriStringOf(@Nullable MediaItem mediaItem) {
+        Uri uri = uriOf(mediaItem);
+        return uri != null ? uri.toString() : null;
+    }
+
+    @Nullable
+    static Uri uriOf(@Nullable MediaItem mediaItem) {
+        if (mediaItem == null) return null;
+        if (mediaItem.localConfiguration != null) {
+            return mediaItem.localConfiguration.uri;
+        }
+        return mediaItem.requestMetadata.mediaUri;
+    }
+}
@@ -5,23 +5,25 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.content.ContextCompat;
+import androidx.media3.common.C;
 import androidx.media3.common.MediaItem;
 import androidx.media3.common.Player;
 import androidx.media3.common.PlaybackException;
-import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.offline.DownloadRequest;
+import androidx.media3.session.MediaController;
+import androidx.media3.session.SessionToken;
 import androidx.media3.ui.PlayerView;
 
-import android.app.DownloadManager;
-import android.content.Context;
+import android.content.ComponentName;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Environment;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.Looper;
-import android.provider.OpenableColumns;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.MenuItem;
 import android.view.View;
@@ -32,17 +34,30 @@ import android.widget.LinearLayout;
 import android.widget.Toast;
 
 import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.DbScheduler;
 import com.example.lab4.db.MediaDao;
 import com.example.lab4.db.Playlist;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 public class PlayerActivity extends AppCompatActivity {
 
     private static final String TAG = "PlayerActivity";
     private PlayerView playerView;
-    private ExoPlayer player;
+    private MediaController player;
+    private ListenableFuture<MediaController> controllerFuture;
+    private boolean queueHandedOff = false;
+    private long connectStartedAtMs;
+    private long resumeStartedAtMs = C.TIME_UNSET;
+    private long playlistId = -1;
+    private long startEntryId = -1;
+    private long tapElapsedMs = C.TIME_UNSET;
     private ArrayList<Uri> mediaUriList;
     private ArrayList<String> mediaTitleList;
     private int currentWindowIndex = 0;
@@ -55,13 +70,15 @@ public class PlayerActivity extends AppCompatActivity {
     private boolean isHttpUri = false;
     private boolean canBeAdded = false;
 
-    public static final String EXTRA_MEDIA_URI_LIST = "com.example.lab4.EXTRA_MEDIA_URI_LIST";
-    public static final String EXTRA_MEDIA_TITLE_LIST = "com.example.lab4.EXTRA_MEDIA_TITLE_LIST";
-    public static final String EXTRA_START_INDEX = "com.example.lab4.EXTRA_START_INDEX";
+    public static final String EXTRA_PLAYLIST_ID = "com.example.lab4.EXTRA_PLAYLIST_ID";
+    public static final String EXTRA_START_ENTRY_ID = "com.example.lab4.EXTRA_START_ENTRY_ID";
+    public static final String EXTRA_TAP_ELAPSED_MS = "com.example.lab4.EXTRA_TAP_ELAPSED_MS";
     public static final String EXTRA_MEDIA_URI = "com.example.lab4.EXTRA_MEDIA_URI";
     public static final String EXTRA_MEDIA_TITLE = "com.example.lab4.EXTRA_MEDIA_TITLE";
+    private static final int MAX_SAVED_QUEUE_ITEMS = 200;
 
     private MediaDao mediaDao;
+    private MediaMetadataResolver metadataResolver;
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private LinearLayout actionButtonsLayout;
     private ImageButton btnDownloadMedia;
@@ -86,10 +103,11 @@ public class PlayerActivity extends AppCompatActivity {
         }
 
         mediaDao = AppDatabase.getInstance(this).mediaDao();
+        metadataResolver = MediaMetadataResolver.getInstance(this);
 
         handleIntentAndSavedState(getIntent(), savedInstanceState);
 
-        if (currentMediaUri == null) {
+        if (currentMediaUri == null && playlistId < 0) {
             Log.e(TAG, "Current media URI is null after processing intent/saved state.");
             finishWithError();
             return;
@@ -109,6 +127,9 @@ public class PlayerActivity extends AppCompatActivity {
             playWhenReady = savedInstanceState.getBoolean("playWhenReady", true);
             currentWindowIndex = savedInstanceState.getInt("currentWindowIndex", 0);
             shuffleModeEnabled = savedInstanceState.getBoolean("shuffleModeEnabled", false);
+            queueHandedOff = savedInstanceState.getBoolean("queueHandedOff", false);
+            playlistId = savedInstanceState.getLong("playlistId", -1);
+            startEntryId = savedInstanceState.getLong("startEntryId", -1);
             ArrayList<String> uriStrings = savedInstanceState.getStringArrayList("mediaUriList");
             mediaTitleList = savedInstanceState.getStringArrayList("mediaTitleList");
             if (uriStrings != null) {
@@ -117,14 +138,12 @@ public class PlayerActivity extends AppCompatActivity {
             }
             Log.d(TAG, "Restoring state: Position=" + playbackPosition + ", PlayWhenReady=" + playWhenReady + ", Index=" + currentWindowIndex + ", Shuffle=" + shuffleModeEnabled);
         } else if (intent != null) {
-            if (intent.hasExtra(EXTRA_MEDIA_URI_LIST)) {
-                List<String> uriStrings = intent.getStringArrayListExtra(EXTRA_MEDIA_URI_LIST);
-                mediaTitleList = intent.getStringArrayListExtra(EXTRA_MEDIA_TITLE_LIST);
-                currentWindowIndex = intent.getIntExtra(EXTRA_START_INDEX, 0);
-                if (uriStrings != null && !uriStrings.isEmpty()) {
-                    mediaUriList = new ArrayList<>();
-                    for (String s : uriStrings) mediaUriList.add(Uri.parse(s));
-                }
+            if (intent.hasExtra(EXTRA_PLAYLIST_ID)) {
+                playlistId = intent.getLongExtra(EXTRA_PLAYLIST_ID, -1);
+                startEntryId = intent.getLongExtra(EXTRA_START_ENTRY_ID, -1);
+                tapElapsedMs = intent.getLongExtra(EXTRA_TAP_ELAPSED_MS, C.TIME_UNSET);
+                Log.d(TAG, "Opening playlist " + playlistId + " at entry " + startEntryId);
+                return;
             } else if (intent.hasExtra(EXTRA_MEDIA_URI)) {
                 Uri singleUri = intent.getParcelableExtra(EXTRA_MEDIA_URI);
                 String singleTitle = intent.getStringExtra(EXTRA_MEDIA_TITLE);
@@ -175,44 +194,100 @@ public class PlayerActivity extends AppCompatActivity {
     }
 
     private void initializePlayer() {
-        if (player == null && mediaUriList != null && !mediaUriList.isEmpty()) {
+        boolean hasQueue = playlistId >= 0 || (mediaUriList != null && !mediaUriList.isEmpty());
+        if (controllerFuture != null || !hasQueue) {
+            if (!hasQueue) {
+                Log.e(TAG, "Cannot initialize player, media list is null or empty.");
+            }
+            return;
+        }
+        connectStartedAtMs = SystemClock.elapsedRealtime();
+        SessionToken sessionToken = new SessionToken(this, new ComponentName(this, PlaybackService.class));
+        ListenableFuture<MediaController> future = new MediaController.Builder(this, sessionToken).buildAsync();
+        controllerFuture = future;
+        future.addListener(() -> {
+            if (controllerFuture != future) return;
             try {
-                Log.d(TAG, "Initializing player with " + mediaUriList.size() + " items.");
-                player = new ExoPlayer.Builder(this).build();
-                player.addListener(playerListener);
-                playerView.setPlayer(player);
-
-                List<MediaItem> exoMediaItems = new ArrayList<>();
-                for (int i = 0; i < mediaUriList.size(); i++) {
-                    Uri uri = mediaUriList.get(i);
-                    String title = (mediaTitleList != null && i < mediaTitleList.size()) ? mediaTitleList.get(i) : getFileName(uri);
-                    Bundle extras = new Bundle();
-                    extras.putString("title", title);
-
-                    exoMediaItems.add(
-                            new MediaItem.Builder()
-                                    .setUri(uri)
-                                    .setMediaId(uri.toString())
-                                    .setTag(extras)
-                                    .setMediaMetadata(new androidx.media3.common.MediaMetadata.Builder()
-                                            .setTitle(title)
-                                            .build())
-                                    .build()
-                    );
-                }
-
-                player.setMediaItems(exoMediaItems, currentWindowIndex, playbackPosition);
-                player.setPlayWhenReady(playWhenReady);
-                player.setShuffleModeEnabled(shuffleModeEnabled);
-                player.prepare();
-                Log.d(TAG, "Player prepared, starting at index " + currentWindowIndex + ", position " + playbackPosition);
-
-            } catch (Exception e) {
-                Log.e(TAG, "Error initializing player", e);
+                onControllerConnected(future.get());
+            } catch (ExecutionException | InterruptedException e) {
+                Log.e(TAG, "Error connecting to playback service", e);
                 Toast.makeText(this, "Error initializing player: " + e.getMessage(), Toast.LENGTH_LONG).show();
             }
-        } else if (mediaUriList == null || mediaUriList.isEmpty()) {
-            Log.e(TAG, "Cannot initialize player, media list is null or empty.");
+        }, ContextCompat.getMainExecutor(this));
+    }
+
+    private void onControllerConnected(MediaController controller) {
+        player = controller;
+        player.addListener(playerListener);
+        playerView.setPlayer(player);
+        long connectedMs = SystemClock.elapsedRealtime() - connectStartedAtMs;
+
+        if (queueHandedOff && player.getMediaItemCount() > 0) {
+            boolean wasReady = player.getPlaybackState() == Player.STATE_READY;
+            resumeStartedAtMs = wasReady ? C.TIME_UNSET : connectStartedAtMs;
+            Log.i(TAG, "Reattached to service player in " + connectedMs + " ms at index " + player.getCurrentMediaItemIndex()
+                    + ", state " + player.getPlaybackState() + (wasReady ? " (no re-prepare needed)" : "") + ", " + describeMemory());
+            if (playWhenReady) {
+                player.play();
+            }
+            refreshFromCurrentItem();
+            return;
+        }
+
+        if (playlistId >= 0) {
+            Log.d(TAG, "Handing playlist " + playlistId + " from entry " + startEntryId + " to the service player (connected in "
+                    + connectedMs + " ms).");
+            resumeStartedAtMs = connectStartedAtMs;
+            player.setMediaItem(PlaylistWindowLoader.createRequest(playlistId, startEntryId), playbackPosition);
+            player.setPlayWhenReady(playWhenReady);
+            player.setShuffleModeEnabled(shuffleModeEnabled);
+            player.prepare();
+            queueHandedOff = true;
+            return;
+        }
+
+        Log.d(TAG, "Handing " + mediaUriList.size() + " items to the service player (connected in " + connectedMs + " ms).");
+        List<MediaItem> exoMediaItems = new ArrayList<>();
+        for (int i = 0; i < mediaUriList.size(); i++) {
+            Uri uri = mediaUriList.get(i);
+            String title = (mediaTitleList != null && i < mediaTitleList.size()) ? mediaTitleList.get(i) : getFileName(uri);
+            exoMediaItems.add(
+                    new MediaItem.Builder()
+                            .setUri(uri)
+                            .setMediaId(uri.toString())
+                            .setRequestMetadata(new MediaItem.RequestMetadata.Builder().setMediaUri(uri).build())
+                            .setMediaMetadata(new androidx.media3.common.MediaMetadata.Builder()
+                                    .setTitle(title)
+                                    .build())
+                            .build()
+            );
+        }
+
+        resumeStartedAtMs = connectStartedAtMs;
+        player.setMediaItems(exoMediaItems, currentWindowIndex, playbackPosition);
+        player.setPlayWhenReady(playWhenReady);
+        player.setShuffleModeEnabled(shuffleModeEnabled);
+        player.prepare();
+        queueHandedOff = true;
+        Log.d(TAG, "Player prepared, starting at index " + currentWindowIndex + ", position " + playbackPosition + ", " + describeMemory());
+        metadataResolver.resolveAsync(mediaUriList, results -> refreshCurrentTitle());
+    }
+
+    private static String describeMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return "java heap " + (runtime.totalMemory() - runtime.freeMemory()) / 1024 + " KB, native heap "
+                + Debug.getNativeHeapAllocatedSize() / 1024 + " KB";
+    }
+
+    private void refreshCurrentTitle() {
+        if (currentMediaUri == null) return;
+        boolean isFallbackTitle = currentMediaTitle == null || currentMediaTitle.isEmpty()
+                || currentMediaTitle.equals(getString(R.string.unknown_media_title))
+                || currentMediaTitle.equals(MediaMetadataResolver.displayNameFromPath(currentMediaUri));
+        if (!isFallbackTitle) return;
+        currentMediaTitle = getFileName(currentMediaUri);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle(currentMediaTitle);
         }
     }
 
@@ -223,10 +298,13 @@ public class PlayerActivity extends AppCompatActivity {
             currentWindowIndex = player.getCurrentMediaItemIndex();
             shuffleModeEnabled = player.getShuffleModeEnabled();
             player.removeListener(playerListener);
-            player.release();
             player = null;
             playerView.setPlayer(null);
-            Log.d(TAG, "Player released. Saved state: Position=" + playbackPosition + ", PlayWhenReady=" + playWhenReady + ", Index=" + currentWindowIndex + ", Shuffle=" + shuffleModeEnabled);
+            Log.d(TAG, "Detached from service player. Saved state: Position=" + playbackPosition + ", PlayWhenReady=" + playWhenReady + ", Index=" + currentWindowIndex + ", Shuffle=" + shuffleModeEnabled);
+        }
+        if (controllerFuture != null) {
+            MediaController.releaseFuture(controllerFuture);
+            controllerFuture = null;
         }
     }
 
@@ -241,41 +319,29 @@ public class PlayerActivity extends AppCompatActivity {
         public void onPlaybackStateChanged(int playbackState) {
             String stateString;
             switch (playbackState) { /* ... */ }
+            if (playbackState == Player.STATE_READY && player != null) {
+                metadataResolver.updateDuration(currentMediaUri, player.getDuration());
+                if (resumeStartedAtMs != C.TIME_UNSET) {
+                    Log.i(TAG, "Ready " + (SystemClock.elapsedRealtime() - resumeStartedAtMs) + " ms after attaching to the service player.");
+                    resumeStartedAtMs = C.TIME_UNSET;
+                }
+            }
         }
 
         @Override
         public void onMediaItemTransition(@Nullable MediaItem mediaItem, int reason) {
-            if (player == null) return;
-            currentWindowIndex = player.getCurrentMediaItemIndex();
-
-            if (mediaItem != null) {
-                currentMediaUri = mediaItem.localConfiguration != null ? mediaItem.localConfiguration.uri : null;
-                if (mediaItem.localConfiguration != null && mediaItem.localConfiguration.tag instanceof Bundle) {
-                    currentMediaTitle = ((Bundle) mediaItem.localConfiguration.tag).getString("title", getFileName(currentMediaUri));
-                } else if (mediaItem.mediaMetadata.title != null) {
-                    currentMediaTitle = mediaItem.mediaMetadata.title.toString();
-                } else {
-                    currentMediaTitle = getFileName(currentMediaUri);
-                }
+            onCurrentItemChanged(mediaItem);
+        }
 
-                Log.d(TAG, "Transition to index: " + currentWindowIndex + ", Title: " + currentMediaTitle);
+        @Override
+        public void onRenderedFirstFrame() {
+            logTapToFirstFrame("first frame");
+        }
 
-                if (getSupportActionBar() != null) {
-                    getSupportActionBar().setTitle(currentMediaTitle);
-                }
-                if (currentMediaUri != null) {
-                    String scheme = currentMediaUri.getScheme();
-                    isHttpUri = scheme != null && (scheme.equals("http") || scheme.equals("https"));
-                    canBeAdded = scheme != null && (scheme.equals("content") || scheme.equals("file") || isHttpUri);
-                    setupActionButtons();
-                }
-            } else {
-                currentMediaUri = null;
-                currentMediaTitle = getString(R.string.unknown_media_title);
-                if (getSupportActionBar() != null) getSupportActionBar().setTitle(currentMediaTitle);
-                isHttpUri = false;
-                canBeAdded = false;
-                setupActionButtons();
+        @Override
+        public void onIsPlayingChanged(boolean isPlaying) {
+            if (isPlaying) {
+                logTapToFirstFrame("audio");
             }
         }
 
@@ -286,13 +352,78 @@ public class PlayerActivity extends AppCompatActivity {
             Toast.makeText(PlayerActivity.this, "Shuffle " + (shuffleModeEnabled ? "ON" : "OFF"), Toast.LENGTH_SHORT).show();
         }
     };
+
+    private void logTapToFirstFrame(String event) {
+        if (tapElapsedMs == C.TIME_UNSET) return;
+        Log.i(TAG, "Tap to " + event + ": " + (SystemClock.elapsedRealtime() - tapElapsedMs) + " ms (playlist " + playlistId
+                + ", " + (player != null ? player.getMediaItemCount() : 0) + " items in the loaded window)");
+        tapElapsedMs = C.TIME_UNSET;
+    }
+
+    private void refreshFromCurrentItem() {
+        if (player != null) {
+            onCurrentItemChanged(player.getCurrentMediaItem());
+        }
+    }
+
+    @Nullable
+    private static Uri uriOf(MediaItem mediaItem) {
+        if (mediaItem.localConfiguration != null) {
+            return mediaItem.localConfiguration.uri;
+        }
+        if (mediaItem.requestMetadata.mediaUri != null) {
+            return mediaItem.requestMetadata.mediaUri;
+        }
+        return mediaItem.mediaId.isEmpty() ? null : Uri.parse(mediaItem.mediaId);
+    }
+
+    private void onCurrentItemChanged(@Nullable MediaItem mediaItem) {
+        if (player == null) return;
+        currentWindowIndex = player.getCurrentMediaItemIndex();
+
+        if (mediaItem != null) {
+            if (playlistId >= 0) {
+                try {
+                    startEntryId = Long.parseLong(mediaItem.mediaId);
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Current item is not a playlist entry: " + mediaItem.mediaId);
+                }
+            }
+            currentMediaUri = uriOf(mediaItem);
+            if (mediaItem.mediaMetadata.title != null) {
+                currentMediaTitle = mediaItem.mediaMetadata.title.toString();
+            } else {
+                currentMediaTitle = getFileName(currentMediaUri);
+            }
+
+            Log.d(TAG, "Transition to index: " + currentWindowIndex + ", Title: " + currentMediaTitle);
+
+            if (getSupportActionBar() != null) {
+                getSupportActionBar().setTitle(currentMediaTitle);
+            }
+            if (currentMediaUri != null) {
+                String scheme = currentMediaUri.getScheme();
+                isHttpUri = scheme != null && (scheme.equals("http") || scheme.equals("https"));
+                canBeAdded = scheme != null && (scheme.equals("content") || scheme.equals("file") || isHttpUri);
+                setupActionButtons();
+            }
+        } else {
+            currentMediaUri = null;
+            currentMediaTitle = getString(R.string.unknown_media_title);
+            if (getSupportActionBar() != null) getSupportActionBar().setTitle(currentMediaTitle);
+            isHttpUri = false;
+            canBeAdded = false;
+            setupActionButtons();
+        }
+    }
+
     private void setupActionButtons() {
         if (btnDownloadMedia != null) {
             btnDownloadMedia.setVisibility(isHttpUri ? View.VISIBLE : View.GONE);
             btnDownloadMedia.setOnClickListener(v -> {
                 if (currentMediaUri != null && isHttpUri) {
                     Log.d(TAG, "Download button clicked for: " + currentMediaUri);
-                    startDownloadAndAddToDownloads(currentMediaUri);
+                    startDownload(currentMediaUri);
                 }
             });
         }
@@ -349,7 +480,7 @@ public class PlayerActivity extends AppCompatActivity {
             return;
         }
 
-        AppDatabase.databaseWriteExecutor.execute(() -> {
+        DbScheduler.read(() -> {
             final List<Playlist> playlists = mediaDao.getAllPlaylistsSync();
             mainHandler.post(() -> {
                 if (playlists == null || playlists.isEmpty()) {
@@ -381,69 +512,61 @@ public class PlayerActivity extends AppCompatActivity {
         com.example.lab4.db.MediaItem newItem =
                 new com.example.lab4.db.MediaItem(currentMediaUri.toString(), finalTitle, playlistId);
 
-        AppDatabase.databaseWriteExecutor.execute(() -> {
+        DbScheduler.write(DbScheduler.Priority.USER_VISIBLE, () -> {
             mediaDao.insertMediaItem(newItem);
             Log.d(TAG, "Added URI '" + finalTitle + "' to playlist ID: " + playlistId);
+            MetadataExtractionWorker.getInstance(PlayerActivity.this).requestPass();
             mainHandler.post(() -> Toast.makeText(PlayerActivity.this, getString(R.string.added_to_playlist_toast, finalTitle), Toast.LENGTH_SHORT).show());
         });
     }
 
-    private void startDownloadAndAddToDownloads(Uri uriToDownload) {
+    private void startDownload(Uri uriToDownload) {
         if (uriToDownload == null) return;
-        AppDatabase.databaseWriteExecutor.execute(() -> {
-            Playlist downloadsPl = mediaDao.getPlaylistByName("Downloads");
-            long downloadsId;
-            if (downloadsPl == null) {
-                downloadsId = mediaDao.insertPlaylist(new Playlist("Downloads"));
-            } else {
-                downloadsId = downloadsPl.playlistId;
-            }
-            if (downloadsId > 0) {
-                startDownloadInternal(uriToDownload, downloadsId);
-            } else {
-                mainHandler.post(() -> Toast.makeText(PlayerActivity.this, "Failed to create/find Downloads playlist", Toast.LENGTH_SHORT).show());
+        DbScheduler.io(() -> {
+            String fileName = metadataResolver.resolveDisplayNameSync(uriToDownload);
+            if (StreamDownloader.isAdaptiveStream(uriToDownload)) {
+                Futures.addCallback(StreamDownloader.getInstance(PlayerActivity.this).download(uriToDownload, null, fileName),
+                        new FutureCallback<DownloadRequest>() {
+                            @Override
+                            public void onSuccess(DownloadRequest request) {
+                                Log.d(TAG, "Queued stream download of " + request.streamKeys.size() + " streams for " + uriToDownload);
+                                mainHandler.post(() -> Toast.makeText(PlayerActivity.this, getString(R.string.download_started_toast, fileName), Toast.LENGTH_SHORT).show());
+                            }
+
+                            @Override
+                            public void onFailure(@NonNull Throwable t) {
+                                Log.e(TAG, "Error starting stream download", t);
+                                mainHandler.post(() -> Toast.makeText(PlayerActivity.this, R.string.error_starting_download_toast, Toast.LENGTH_SHORT).show());
+                            }
+                        }, MoreExecutors.directExecutor());
+                return;
             }
+            Futures.addCallback(SegmentedDownloader.getInstance(PlayerActivity.this).enqueue(uriToDownload.toString(), null, fileName),
+                    new FutureCallback<Long>() {
+                        @Override
+                        public void onSuccess(Long downloadId) {
+                            Log.d(TAG, "Queued download ID: " + downloadId + " for " + uriToDownload);
+                            mainHandler.post(() -> Toast.makeText(PlayerActivity.this, getString(R.string.download_started_toast, fileName), Toast.LENGTH_SHORT).show());
+                        }
+
+                        @Override
+                        public void onFailure(@NonNull Throwable t) {
+                            Log.e(TAG, "Error starting download", t);
+                            mainHandler.post(() -> Toast.makeText(PlayerActivity.this, R.string.error_starting_download_toast, Toast.LENGTH_SHORT).show());
+                        }
+                    }, MoreExecutors.directExecutor());
         });
     }
 
-    private void startDownloadInternal(Uri uriToDownload, long targetPlaylistId) {
-        DownloadManager downloadManager = (DownloadManager) getSystemService(Context.DOWNLOAD_SERVICE);
-        if (downloadManager == null) {
-            mainHandler.post(() -> Toast.makeText(PlayerActivity.this, R.string.download_manager_unavailable_toast, Toast.LENGTH_SHORT).show());
-            return;
-        }
-        String fileName = getFileName(uriToDownload);
-        String description = "PlaylistID:" + targetPlaylistId + ";" + getString(R.string.download_notification_description);
-
-        DownloadManager.Request request = new DownloadManager.Request(uriToDownload);
-        request.setTitle(fileName);
-        request.setDescription(description);
-        request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
-        request.setDestinationInExternalPublicDir(Environment.DIRECTORY_DOWNLOADS, "Lab4Media/" + fileName);
-        request.allowScanningByMediaScanner();
-        try {
-            long downloadId = downloadManager.enqueue(request);
-            mainHandler.post(() -> Toast.makeText(PlayerActivity.this, getString(R.string.download_started_toast, fileName), Toast.LENGTH_SHORT).show());
-            Log.d(TAG, "Enqueued download ID: " + downloadId + " targeted for playlist ID: " + targetPlaylistId);
-        } catch (Exception e) {
-            Log.e(TAG, "Error starting download", e);
-            mainHandler.post(() -> Toast.makeText(PlayerActivity.this, R.string.error_starting_download_toast, Toast.LENGTH_SHORT).show());
-        }
-    }
     @Override
     protected void onStart() {
         super.onStart();
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            initializePlayer();
-        }
+        initializePlayer();
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N && player == null) {
-            initializePlayer();
-        }
         if (playerView != null) {
             hideSystemUi();
         }
@@ -455,26 +578,20 @@ public class PlayerActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-            releasePlayer();
-        } else {
-            if (player != null) {
-                playbackPosition = player.getCurrentPosition();
-                playWhenReady = player.getPlayWhenReady();
-                currentWindowIndex = player.getCurrentMediaItemIndex();
-                shuffleModeEnabled = player.getShuffleModeEnabled();
-                player.pause();
-                Log.d(TAG, "onPause: Saving state before potential stop. Pos=" + playbackPosition);
-            }
+        if (player != null && !isChangingConfigurations()) {
+            playbackPosition = player.getCurrentPosition();
+            playWhenReady = player.getPlayWhenReady();
+            currentWindowIndex = player.getCurrentMediaItemIndex();
+            shuffleModeEnabled = player.getShuffleModeEnabled();
+            player.pause();
+            Log.d(TAG, "onPause: Pausing the service player. Pos=" + playbackPosition);
         }
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            releasePlayer();
-        }
+        releasePlayer();
     }
 
     @Override
@@ -484,11 +601,27 @@ public class PlayerActivity extends AppCompatActivity {
         outState.putBoolean("playWhenReady", playWhenReady);
         outState.putInt("currentWindowIndex", currentWindowIndex);
         outState.putBoolean("shuffleModeEnabled", shuffleModeEnabled);
-        if (mediaUriList != null) {
-            ArrayList<String> uriStrings = new ArrayList<>();
-            for (Uri u : mediaUriList) uriStrings.add(u.toString());
+        outState.putBoolean("queueHandedOff", queueHandedOff);
+        outState.putLong("playlistId", playlistId);
+        outState.putLong("startEntryId", startEntryId);
+        if (mediaUriList != null && !mediaUriList.isEmpty()) {
+            int index = Math.max(0, Math.min(currentWindowIndex, mediaUriList.size() - 1));
+            int start = Math.max(0, Math.min(index - MAX_SAVED_QUEUE_ITEMS / 4, mediaUriList.size() - MAX_SAVED_QUEUE_ITEMS));
+            int end = Math.min(mediaUriList.size(), start + MAX_SAVED_QUEUE_ITEMS);
+            ArrayList<String> uriStrings = new ArrayList<>(end - start);
+            ArrayList<String> titles = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                Uri uri = mediaUriList.get(i);
+                uriStrings.add(uri.toString());
+                titles.add(mediaTitleList != null && i < mediaTitleList.size() ? mediaTitleList.get(i) : MediaMetadataResolver.displayNameFromPath(uri));
+            }
             outState.putStringArrayList("mediaUriList", uriStrings);
-            outState.putStringArrayList("mediaTitleList", mediaTitleList);
+            outState.putStringArrayList("mediaTitleList", titles);
+            outState.putInt("currentWindowIndex", index - start);
+            if (end - start < mediaUriList.size()) {
+                Log.d(TAG, "Saved a " + (end - start) + "-item window of the " + mediaUriList.size()
+                        + "-item queue; the service keeps the full queue persisted.");
+            }
         }
         Log.d(TAG, "Saving state: Pos=" + playbackPosition + ", PlayWhenReady=" + playWhenReady + ", Index=" + currentWindowIndex + ", Shuffle=" + shuffleModeEnabled);
     }
@@ -512,38 +645,6 @@ public class PlayerActivity extends AppCompatActivity {
     }
 
     private String getFileName(Uri uri) {
-        if (uri == null) return getString(R.string.unknown_media_title);
-        String result = null;
-        String scheme = uri.getScheme();
-
-        if ("content".equals(scheme)) {
-            Cursor cursor = null;
-            try {
-                cursor = getContentResolver().query(uri, new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null);
-                if (cursor != null && cursor.moveToFirst()) {
-                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                    if (nameIndex != -1) {
-                        result = cursor.getString(nameIndex);
-                    }
-                }
-            } catch (SecurityException se) {
-                Log.w(TAG, "Permission Denial getting filename for content URI (likely DownloadManager URI after restart): " + uri);
-            } catch (Exception e) {
-                Log.e(TAG, "Error getting filename from ContentResolver for URI: "+ uri, e);
-            } finally {
-                if (cursor != null) cursor.close();
-            }
-        }
-
-        if (result == null) {
-            result = uri.getPath();
-            if (result != null) {
-                int cut = result.lastIndexOf('/');
-                if (cut != -1) result = result.substring(cut + 1);
-                try { result = java.net.URLDecoder.decode(result, "UTF-8"); } catch (Exception e) { /* ignore */ }
-                int queryParamIndex = result.indexOf('?'); if (queryParamIndex > 0) result = result.substring(0, queryParamIndex);
-            }
-        }
-        return (result != null && !result.isEmpty()) ? result : getString(R.string.unknown_media_title);
+        return metadataResolver.getDisplayNameOrFallback(uri);
     }
 }
\ No newline at end of file
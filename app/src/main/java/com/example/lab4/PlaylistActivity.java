@@ -10,12 +10,14 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.text.InputType;
 import android.util.Log;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
 import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.DbScheduler;
 import com.example.lab4.db.MediaDao;
 import com.example.lab4.db.Playlist;
 
@@ -30,6 +32,7 @@ public class PlaylistActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_playlist);
+        MetadataExtractionWorker.getInstance(this).requestPass();
         Toolbar toolbar = findViewById(R.id.toolbar_playlist);
         setSupportActionBar(toolbar);
         if (getSupportActionBar() != null) {
@@ -58,12 +61,22 @@ public class PlaylistActivity extends AppCompatActivity {
         btnAddPlaylist.setOnClickListener(v -> showCreatePlaylistDialog());
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.playlist_menu, menu);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
             finish();
             return true;
         }
+        if (item.getItemId() == R.id.action_search_media) {
+            startActivity(new Intent(this, MediaSearchActivity.class));
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
@@ -89,10 +102,11 @@ public class PlaylistActivity extends AppCompatActivity {
                 .setTitle("Delete Playlist")
                 .setMessage("Are you sure you want to delete '" + playlist.getPlaylistName() + "' and all its media?")
                 .setPositiveButton(R.string.delete_button, (dialog, which) -> {
-                    AppDatabase.databaseWriteExecutor.execute(() -> {
+                    DbScheduler.write(DbScheduler.Priority.USER_VISIBLE, () -> {
                         try {
                             mediaDao.deletePlaylist(playlist);
                             Log.i(TAG, "Deleted playlist ID: " + playlist.playlistId);
+                            MediaBlobStore.collectGarbage(getApplicationContext());
                         } catch (Exception e) {
                             Log.e(TAG, "Error deleting playlist ID: " + playlist.playlistId, e);
                             runOnUiThread(()-> Toast.makeText(PlaylistActivity.this, "Error deleting playlist", Toast.LENGTH_SHORT).show());
@@ -117,7 +131,7 @@ public class PlaylistActivity extends AppCompatActivity {
             String playlistName = input.getText().toString().trim();
             if (!playlistName.isEmpty()) {
                 Playlist newPlaylist = new Playlist(playlistName);
-                AppDatabase.databaseWriteExecutor.execute(() -> {
+                DbScheduler.write(DbScheduler.Priority.USER_VISIBLE, () -> {
                     Playlist existing = mediaDao.getPlaylistByName(playlistName);
                     if (existing == null) {
                         mediaDao.insertPlaylist(newPlaylist);
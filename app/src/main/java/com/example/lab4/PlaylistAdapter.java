@@ -1,5 +1,6 @@
 package com.example.lab4;
 
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,8 +12,9 @@ import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.lab4.db.Playlist;
+import com.example.lab4.db.PlaylistSummary;
 
-public class PlaylistAdapter extends ListAdapter<Playlist, PlaylistAdapter.PlaylistViewHolder> {
+public class PlaylistAdapter extends ListAdapter<PlaylistSummary, PlaylistAdapter.PlaylistViewHolder> {
 
     private final OnPlaylistClickListener clickListener;
     private final OnPlaylistDeleteListener deleteListener;
@@ -24,7 +26,7 @@ public class PlaylistAdapter extends ListAdapter<Playlist, PlaylistAdapter.Playl
         void onPlaylistDelete(Playlist playlist);
     }
 
-    public PlaylistAdapter(@NonNull DiffUtil.ItemCallback<Playlist> diffCallback,
+    public PlaylistAdapter(@NonNull DiffUtil.ItemCallback<PlaylistSummary> diffCallback,
                            OnPlaylistClickListener clickListener,
                            OnPlaylistDeleteListener deleteListener) {
         super(diffCallback);
@@ -42,24 +44,33 @@ public class PlaylistAdapter extends ListAdapter<Playlist, PlaylistAdapter.Playl
 
     @Override
     public void onBindViewHolder(@NonNull PlaylistViewHolder holder, int position) {
-        Playlist current = getItem(position);
+        PlaylistSummary current = getItem(position);
         holder.bind(current, clickListener, deleteListener);
     }
 
     static class PlaylistViewHolder extends RecyclerView.ViewHolder {
         private final TextView playlistNameTextView;
+        private final TextView playlistStatsTextView;
         private final ImageButton deleteButton;
 
         PlaylistViewHolder(View itemView) {
             super(itemView);
             playlistNameTextView = itemView.findViewById(R.id.tvItemPlaylistName);
+            playlistStatsTextView = itemView.findViewById(R.id.tvItemPlaylistStats);
             deleteButton = itemView.findViewById(R.id.btnDeletePlaylist);
         }
 
-        public void bind(final Playlist playlist,
+        public void bind(final PlaylistSummary summary,
                          final OnPlaylistClickListener clickListener,
                          final OnPlaylistDeleteListener deleteListener) {
+            final Playlist playlist = summary.playlist;
             playlistNameTextView.setText(playlist.getPlaylistName());
+            String itemCount = itemView.getResources().getQuantityString(R.plurals.playlist_item_count,
+                    (int) Math.min(summary.itemCount, Integer.MAX_VALUE), summary.itemCount);
+            playlistStatsTextView.setText(summary.totalDurationMs > 0
+                    ? itemView.getContext().getString(R.string.playlist_stats_with_duration, itemCount,
+                            DateUtils.formatElapsedTime(summary.totalDurationMs / 1000))
+                    : itemCount);
             itemView.setOnClickListener(v -> clickListener.onPlaylistClick(playlist));
             deleteButton.setOnClickListener(v -> {
                 if (deleteListener != null) {
@@ -69,15 +80,17 @@ public class PlaylistAdapter extends ListAdapter<Playlist, PlaylistAdapter.Playl
         }
     }
 
-    public static class PlaylistDiff extends DiffUtil.ItemCallback<Playlist> {
+    public static class PlaylistDiff extends DiffUtil.ItemCallback<PlaylistSummary> {
         @Override
-        public boolean areItemsTheSame(@NonNull Playlist oldItem, @NonNull Playlist newItem) {
-            return oldItem.getPlaylistId() == newItem.getPlaylistId();
+        public boolean areItemsTheSame(@NonNull PlaylistSummary oldItem, @NonNull PlaylistSummary newItem) {
+            return oldItem.playlist.getPlaylistId() == newItem.playlist.getPlaylistId();
         }
 
         @Override
-        public boolean areContentsTheSame(@NonNull Playlist oldItem, @NonNull Playlist newItem) {
-            return oldItem.getPlaylistName().equals(newItem.getPlaylistName());
+        public boolean areContentsTheSame(@NonNull PlaylistSummary oldItem, @NonNull PlaylistSummary newItem) {
+            return oldItem.playlist.getPlaylistName().equals(newItem.playlist.getPlaylistName())
+                    && oldItem.itemCount == newItem.itemCount
+                    && oldItem.totalDurationMs == newItem.totalDurationMs;
         }
     }
 }
\ No newline at end of file
@@ -7,23 +7,34 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
 import androidx.lifecycle.LiveData;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingLiveData;
+import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.OpenableColumns;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Button;
 import android.widget.Toast;
 import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.DbScheduler;
 import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.MediaItemPagingSource;
+import com.example.lab4.db.MediaMetadataEntry;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class PlaylistDetailActivity extends AppCompatActivity {
 
@@ -31,13 +42,17 @@ public class PlaylistDetailActivity extends AppCompatActivity {
     public static final String EXTRA_PLAYLIST_NAME = "com.example.lab4.EXTRA_PLAYLIST_NAME";
     private static final String TAG = "PlaylistDetailActivity";
     private RecyclerView rvMediaItems;
-    private MediaItemAdapter adapter;
+    private static final int PAGE_SIZE = 50;
+    private PagedMediaItemAdapter adapter;
+    private final ScrollJankTracker scrollJankTracker = new ScrollJankTracker(TAG);
+    private MediaItemAdapter reorderAdapter;
+    private ItemTouchHelper reorderTouchHelper;
+    private LiveData<List<com.example.lab4.db.MediaItem>> reorderItems;
     private MediaDao mediaDao;
     private long currentPlaylistId = -1;
     private String currentPlaylistName = "Playlist";
-    private LiveData<List<com.example.lab4.db.MediaItem>> mediaItemsLiveData;
-    private List<com.example.lab4.db.MediaItem> currentMediaItemList;
     private ActivityResultLauncher<String[]> openDocumentLauncher;
+    private ActivityResultLauncher<String[]> importCopiesLauncher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -72,86 +87,134 @@ public class PlaylistDetailActivity extends AppCompatActivity {
         setupRecyclerView();
         initializeOpenDocumentLauncher();
 
-        mediaItemsLiveData = mediaDao.getMediaItemsForPlaylist(currentPlaylistId);
-        mediaItemsLiveData.observe(this, mediaItems -> {
-            Log.d(TAG, "LiveData observer received update for playlist " + currentPlaylistId + ". Item count: " + (mediaItems != null ? mediaItems.size() : "null"));
-            currentMediaItemList = mediaItems;
-            if (adapter != null) {
-                adapter.submitList(mediaItems);
-            }
-        });
+        AppDatabase db = AppDatabase.getInstance(this);
+        Pager<Long, com.example.lab4.db.MediaItem> pager = new Pager<>(
+                new PagingConfig(PAGE_SIZE, PAGE_SIZE / 2, false),
+                () -> new MediaItemPagingSource(db, currentPlaylistId));
+        PagingLiveData.cachedIn(PagingLiveData.getLiveData(pager), getLifecycle())
+                .observe(this, pagingData -> {
+                    Log.d(TAG, "Paging data received for playlist " + currentPlaylistId);
+                    if (adapter != null) {
+                        adapter.submitData(getLifecycle(), pagingData);
+                    }
+                });
         btnAddLocalFile.setOnClickListener(v -> selectLocalFile());
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.playlist_detail_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem reorderItem = menu.findItem(R.id.action_reorder);
+        if (reorderItem != null) {
+            reorderItem.setTitle(reorderItems != null ? R.string.reorder_done_menu_item : R.string.reorder_menu_item);
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
             finish();
             return true;
         }
+        if (item.getItemId() == R.id.action_import_copies) {
+            selectFilesToCopy();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_reorder) {
+            if (reorderItems == null) {
+                enterReorderMode();
+            } else {
+                exitReorderMode();
+            }
+            invalidateOptionsMenu();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
-    private void setupRecyclerView() {
-        MediaItemAdapter.OnMediaItemClickListener clickListener = clickedDbMediaItem -> {
-            if (currentMediaItemList == null || currentMediaItemList.isEmpty()) {
-                Toast.makeText(this, "Playlist is empty or not loaded yet", Toast.LENGTH_SHORT).show();
-                return;
-            }
 
-            int startIndex = -1;
-            ArrayList<String> uriList = new ArrayList<>();
-            ArrayList<String> titleList = new ArrayList<>();
-            for (int i = 0; i < currentMediaItemList.size(); i++) {
-                com.example.lab4.db.MediaItem item = currentMediaItemList.get(i);
-                Uri parsedUri = null;
-                boolean isValid = false;
-                if (item.mediaUri != null && !item.mediaUri.isEmpty()) {
-                    try {
-                        parsedUri = Uri.parse(item.mediaUri);
-                        isValid = true;
-                    } catch (Exception e) {
-                        Log.w(TAG, "Invalid URI format in DB, skipping item ID " + item.mediaId + ": " + item.mediaUri);
-                    }
-                }
+    private void enterReorderMode() {
+        if (reorderAdapter == null) {
+            reorderAdapter = new MediaItemAdapter(new MediaItemAdapter.MediaItemDiff(), null, null);
+            reorderTouchHelper = reorderAdapter.createDragHelper(this::persistMove);
+        }
+        rvMediaItems.setAdapter(reorderAdapter);
+        reorderTouchHelper.attachToRecyclerView(rvMediaItems);
+        reorderItems = mediaDao.getMediaItemsForPlaylist(currentPlaylistId);
+        reorderItems.observe(this, items -> reorderAdapter.submitList(items));
+    }
 
-                if (isValid) {
-                    uriList.add(item.mediaUri);
-                    titleList.add((item.mediaTitle != null && !item.mediaTitle.isEmpty()) ? item.mediaTitle : getFileNameFromUri(parsedUri));
-                    if (item.mediaId == clickedDbMediaItem.mediaId) {
-                        startIndex = uriList.size() - 1;
-                    }
-                } else if (item.mediaId == clickedDbMediaItem.mediaId) {
-                    startIndex = -2;
+    private void exitReorderMode() {
+        if (reorderItems != null) {
+            reorderItems.removeObservers(this);
+            reorderItems = null;
+        }
+        reorderTouchHelper.attachToRecyclerView(null);
+        rvMediaItems.setAdapter(adapter);
+    }
+
+    private void persistMove(com.example.lab4.db.MediaItem moved, com.example.lab4.db.MediaItem after, com.example.lab4.db.MediaItem before) {
+        long afterId = after != null ? after.entryId : -1;
+        long beforeId = before != null ? before.entryId : -1;
+        DbScheduler.write(DbScheduler.Priority.USER_VISIBLE, () -> {
+            try {
+                if (mediaDao.moveMediaItem(moved.entryId, afterId, beforeId)) {
+                    DbScheduler.write(DbScheduler.Priority.BACKGROUND, () -> {
+                        int rewritten = mediaDao.rebalancePositions(currentPlaylistId);
+                        Log.i(TAG, "Rebalanced " + rewritten + " positions in playlist ID: " + currentPlaylistId);
+                    });
                 }
+            } catch (Exception e) {
+                Log.e(TAG, "Error moving playlist entry ID: " + moved.entryId, e);
+                runOnUiThread(() -> Toast.makeText(PlaylistDetailActivity.this, "Error reordering item", Toast.LENGTH_SHORT).show());
             }
-            if (uriList.isEmpty()) {
-                Toast.makeText(this, "No valid items found to play in this playlist", Toast.LENGTH_SHORT).show(); return;
-            }
-            if (startIndex < 0) {
-                Log.w(TAG, "Clicked item was invalid or not found in the valid list, starting playlist from beginning.");
-                startIndex = 0;
-            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (rvMediaItems != null) {
+            scrollJankTracker.attach(this, rvMediaItems);
+        }
+    }
 
+    @Override
+    protected void onPause() {
+        if (rvMediaItems != null) {
+            scrollJankTracker.detach(this, rvMediaItems);
+        }
+        super.onPause();
+    }
+
+    private void setupRecyclerView() {
+        MediaItemAdapter.OnMediaItemClickListener clickListener = clickedDbMediaItem -> {
             Intent intent = new Intent(this, PlayerActivity.class);
-            intent.putStringArrayListExtra(PlayerActivity.EXTRA_MEDIA_URI_LIST, uriList);
-            intent.putStringArrayListExtra(PlayerActivity.EXTRA_MEDIA_TITLE_LIST, titleList);
-            intent.putExtra(PlayerActivity.EXTRA_START_INDEX, startIndex);
+            intent.putExtra(PlayerActivity.EXTRA_PLAYLIST_ID, currentPlaylistId);
+            intent.putExtra(PlayerActivity.EXTRA_START_ENTRY_ID, clickedDbMediaItem.entryId);
+            intent.putExtra(PlayerActivity.EXTRA_TAP_ELAPSED_MS, SystemClock.elapsedRealtime());
             startActivity(intent);
         };
 
         MediaItemAdapter.OnMediaItemDeleteListener deleteListener = mediaItemToDelete -> {
             if (mediaItemToDelete == null) return;
-            Log.d(TAG, "Delete listener triggered for item ID: " + mediaItemToDelete.mediaId);
+            Log.d(TAG, "Delete listener triggered for item ID: " + mediaItemToDelete.entryId);
             new AlertDialog.Builder(this)
                     .setTitle("Delete Item")
                     .setMessage("Remove '" + (mediaItemToDelete.mediaTitle != null && !mediaItemToDelete.mediaTitle.isEmpty() ? mediaItemToDelete.mediaTitle : mediaItemToDelete.mediaUri) + "'?")
                     .setPositiveButton(R.string.delete_button, (dialog, which) -> {
-                        AppDatabase.databaseWriteExecutor.execute(() -> {
+                        DbScheduler.write(DbScheduler.Priority.USER_VISIBLE, () -> {
                             try {
                                 mediaDao.deleteMediaItem(mediaItemToDelete);
-                                Log.i(TAG, "Successfully deleted media item ID: " + mediaItemToDelete.mediaId + " from playlist ID: " + currentPlaylistId);
+                                Log.i(TAG, "Successfully deleted media item ID: " + mediaItemToDelete.entryId + " from playlist ID: " + currentPlaylistId);
+                                MediaBlobStore.collectGarbage(getApplicationContext());
                             } catch (Exception e) {
-                                Log.e(TAG, "Error deleting media item from DB. ID: " + mediaItemToDelete.mediaId, e);
+                                Log.e(TAG, "Error deleting media item from DB. ID: " + mediaItemToDelete.entryId, e);
                                 runOnUiThread(()-> Toast.makeText(PlaylistDetailActivity.this, "Error deleting item", Toast.LENGTH_SHORT).show());
                             }
                         });
@@ -159,29 +222,46 @@ public class PlaylistDetailActivity extends AppCompatActivity {
                     .setNegativeButton(R.string.cancel_button, null)
                     .show();
         };
-        adapter = new MediaItemAdapter(new MediaItemAdapter.MediaItemDiff(), clickListener, deleteListener);
+        adapter = new PagedMediaItemAdapter(new MediaItemAdapter.MediaItemDiff(), clickListener, deleteListener);
         rvMediaItems.setAdapter(adapter);
         rvMediaItems.setLayoutManager(new LinearLayoutManager(this));
     }
     private void initializeOpenDocumentLauncher() {
         openDocumentLauncher = registerForActivityResult(
-                new ActivityResultContracts.OpenDocument(),
-                uri -> {
-                    if (uri != null) {
-                        Log.d(TAG, "SAF file selected: " + uri);
+                new ActivityResultContracts.OpenMultipleDocuments(),
+                uris -> {
+                    if (uris == null || uris.isEmpty()) {
+                        Toast.makeText(this, R.string.no_file_selected, Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    Log.d(TAG, "SAF files selected: " + uris.size());
+                    List<Uri> grantedUris = new ArrayList<>();
+                    for (Uri uri : uris) {
                         try {
                             final int takeFlags = Intent.FLAG_GRANT_READ_URI_PERMISSION;
                             getContentResolver().takePersistableUriPermission(uri, takeFlags);
-                            Log.i(TAG, "Persistable read permission granted for URI: " + uri);
-                            addUrlToPlaylistDb(uri, getFileNameFromUri(uri));
-
+                            grantedUris.add(uri);
                         } catch (SecurityException e) {
                             Log.e(TAG, "Failed to take persistable URI permission for: " + uri, e);
-                            Toast.makeText(this, "Failed to get permanent access permission", Toast.LENGTH_LONG).show();
                         }
-                    } else {
+                    }
+                    if (grantedUris.size() < uris.size()) {
+                        Toast.makeText(this, "Failed to get permanent access permission", Toast.LENGTH_LONG).show();
+                    }
+                    if (!grantedUris.isEmpty()) {
+                        Log.i(TAG, "Persistable read permission granted for " + grantedUris.size() + " URIs");
+                        addUrisToPlaylistDb(grantedUris);
+                    }
+                });
+        importCopiesLauncher = registerForActivityResult(
+                new ActivityResultContracts.OpenMultipleDocuments(),
+                uris -> {
+                    if (uris == null || uris.isEmpty()) {
                         Toast.makeText(this, R.string.no_file_selected, Toast.LENGTH_SHORT).show();
+                        return;
                     }
+                    Log.d(TAG, "SAF files selected for copying: " + uris.size());
+                    copyUrisIntoLibrary(uris);
                 });
     }
     private void selectLocalFile() {
@@ -196,71 +276,99 @@ public class PlaylistDetailActivity extends AppCompatActivity {
             Toast.makeText(this, "Cannot open file picker", Toast.LENGTH_SHORT).show();
         }
     }
-    private void addUrlToPlaylistDb(Uri mediaUri, String title) {
-        if (mediaUri == null || currentPlaylistId == -1) {
-            Log.e(TAG,"Cannot add item to DB: invalid URI or Playlist ID.");
-            return;
+    private void selectFilesToCopy() {
+        try {
+            importCopiesLauncher.launch(new String[]{"audio/*", "video/*"});
+        } catch (Exception e) {
+            Log.e(TAG, "Error launching document picker", e);
+            Toast.makeText(this, "Cannot open file picker", Toast.LENGTH_SHORT).show();
         }
-        String uriString = mediaUri.toString();
-        String finalTitle = (title != null && !title.isEmpty()) ? title : getString(R.string.unknown_media_title);
-        com.example.lab4.db.MediaItem newItem = new com.example.lab4.db.MediaItem(uriString, finalTitle, currentPlaylistId);
-        AppDatabase.databaseWriteExecutor.execute(() -> {
-            try {
-                mediaDao.insertMediaItem(newItem);
-                Log.i(TAG,"Added URI to DB: " + uriString + " (Title: " + finalTitle + ") for playlist ID: " + currentPlaylistId);
-            } catch (Exception e) {
-                Log.e(TAG, "Error inserting media item into DB", e);
-                runOnUiThread(()-> Toast.makeText(PlaylistDetailActivity.this, "Error adding item to database", Toast.LENGTH_SHORT).show());
-            }
-        });
     }
-    private String getFileNameFromUri(Uri uri) {
-        if (uri == null) return getString(R.string.unknown_media_title);
-        String result = null;
-        String scheme = uri.getScheme();
 
-        if ("content".equalsIgnoreCase(scheme)) {
-            Cursor cursor = null;
-            try {
-                cursor = getContentResolver().query(uri, new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null);
-                if (cursor != null && cursor.moveToFirst()) {
-                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                    if (nameIndex != -1) {
-                        result = cursor.getString(nameIndex);
-                    } else {
-                        Log.w(TAG, "DISPLAY_NAME column not found for content URI: " + uri);
-                    }
-                } else {
-                    if(cursor == null) Log.w(TAG, "ContentResolver query returned null cursor for URI: " + uri);
-                    else Log.w(TAG, "ContentResolver query returned empty cursor for URI: " + uri);
-                }
-            } catch (Exception e) {
-                Log.w(TAG, "Error getting filename from ContentResolver for URI: "+ uri, e);
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
-            }
+    private void copyUrisIntoLibrary(List<Uri> sourceUris) {
+        if (currentPlaylistId == -1) {
+            Log.e(TAG, "Cannot copy files: invalid Playlist ID.");
+            return;
         }
-        if (result == null) {
-            result = uri.getPath();
-            if (result != null) {
-                int cut = result.lastIndexOf('/');
-                if (cut != -1) {
-                    result = result.substring(cut + 1);
-                }
+        Context appContext = getApplicationContext();
+        long playlistId = currentPlaylistId;
+        String unknownTitle = getString(R.string.unknown_media_title);
+        DbScheduler.io(DbScheduler.Priority.NORMAL, () -> {
+            Map<String, MediaMetadataEntry> metadata = MediaMetadataResolver.getInstance(appContext).resolveAllSync(sourceUris);
+            int failed = 0;
+            for (Uri sourceUri : sourceUris) {
+                MediaBlobStore.PendingBlob pending;
                 try {
-                    result = java.net.URLDecoder.decode(result, "UTF-8");
-                } catch (Exception e) {
-                    Log.w(TAG, "Failed to URL decode path segment: " + result);
-                }
-                int queryParamIndex = result.indexOf('?');
-                if (queryParamIndex > 0) {
-                    result = result.substring(0, queryParamIndex);
+                    pending = MediaBlobStore.ingest(appContext, sourceUri,
+                            SegmentedDownloader.getExtensionFromMimeType(appContext.getContentResolver().getType(sourceUri)));
+                } catch (IOException | SecurityException e) {
+                    Log.e(TAG, "Failed to copy " + sourceUri + " into the library", e);
+                    failed++;
+                    continue;
                 }
+                MediaMetadataEntry entry = metadata.get(sourceUri.toString());
+                String title = entry != null && entry.displayName != null && !entry.displayName.isEmpty()
+                        ? entry.displayName : unknownTitle;
+                DbScheduler.write(() -> storeCopy(appContext, pending, title, playlistId));
+            }
+            if (failed > 0) {
+                int failedCount = failed;
+                runOnUiThread(() -> Toast.makeText(appContext,
+                        getString(R.string.import_copies_failed_toast, failedCount), Toast.LENGTH_LONG).show());
             }
+            DbScheduler.write(() -> {
+                MediaBlobStore.logStorageSavings(appContext);
+                MetadataExtractionWorker.getInstance(appContext).requestPass();
+            });
+        });
+    }
+
+    private void storeCopy(Context appContext, MediaBlobStore.PendingBlob pending, String title, long playlistId) {
+        AppDatabase db = AppDatabase.getInstance(appContext);
+        try {
+            db.runInTransaction(() -> {
+                File blobFile = MediaBlobStore.commit(appContext, mediaDao, pending);
+                com.example.lab4.db.MediaItem item = new com.example.lab4.db.MediaItem(
+                        Uri.fromFile(blobFile).toString(), title, playlistId);
+                item.blobDigest = pending.digest;
+                mediaDao.insertMediaItem(item);
+                return null;
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to store copied file " + pending.digest, e);
+            MediaBlobStore.discard(pending);
         }
+    }
+
+    private void addUrisToPlaylistDb(List<Uri> mediaUris) {
+        if (mediaUris == null || mediaUris.isEmpty() || currentPlaylistId == -1) {
+            Log.e(TAG,"Cannot add items to DB: no URIs or invalid Playlist ID.");
+            return;
+        }
+        DbScheduler.io(DbScheduler.Priority.NORMAL, () -> {
+            Map<String, MediaMetadataEntry> metadata = MediaMetadataResolver.getInstance(this).resolveAllSync(mediaUris);
+            List<com.example.lab4.db.MediaItem> newItems = new ArrayList<>(mediaUris.size());
+            for (Uri mediaUri : mediaUris) {
+                MediaMetadataEntry entry = metadata.get(mediaUri.toString());
+                String title = entry != null ? entry.displayName : null;
+                String finalTitle = (title != null && !title.isEmpty()) ? title : getString(R.string.unknown_media_title);
+                newItems.add(new com.example.lab4.db.MediaItem(mediaUri.toString(), finalTitle, currentPlaylistId));
+            }
+            DbScheduler.write(() -> importItems(newItems));
+        });
+    }
 
-        return (result != null && !result.isEmpty()) ? result : getString(R.string.unknown_media_title);
+    private void importItems(List<com.example.lab4.db.MediaItem> newItems) {
+        try {
+            long startNs = System.nanoTime();
+            int inserted = mediaDao.importMediaItems(currentPlaylistId, newItems);
+            long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+            Log.i(TAG,"Imported " + inserted + " items into playlist ID: " + currentPlaylistId
+                    + " in " + (elapsedNs / 1_000_000) + " ms (" + (inserted * 1_000_000_000L / elapsedNs) + " inserts/s)");
+            MetadataExtractionWorker.getInstance(this).requestPass();
+        } catch (Exception e) {
+            Log.e(TAG, "Error inserting media items into DB", e);
+            runOnUiThread(()-> Toast.makeText(PlaylistDetailActivity.this, "Error adding item to database", Toast.LENGTH_SHORT).show());
+        }
     }
 }
\ No newline at end of file
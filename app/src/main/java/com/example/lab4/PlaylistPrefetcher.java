@@ -0,0 +1,245 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.Player;
+import androidx.media3.common.Timeline;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.CacheWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@UnstableApi
+public class PlaylistPrefetcher {
+
+    private static final String TAG = "PlaylistPrefetcher";
+    private static final int PREFETCH_AHEAD_COUNT = 2;
+    private static final long PREFETCH_BYTES_PER_ITEM = 2L * 1024 * 1024;
+    private static final long MAX_IN_FLIGHT_BYTES = 4L * 1024 * 1024;
+    private static final int MAX_CONCURRENT_PREFETCHES = 2;
+    private static final int MAX_REMEMBERED_PREFETCHES = 32;
+
+    private final Cache cache;
+    private final CacheDataSource.Factory cacheDataSourceFactory;
+    private final ThreadPoolExecutor prefetchExecutor;
+    private final Map<String, PrefetchTask> activeTasks = new HashMap<>();
+    private final Set<String> completedPrefetches = Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_REMEMBERED_PREFETCHES;
+                }
+            });
+    private long inFlightBytes = 0;
+
+    private long transitionStartMs = C.TIME_UNSET;
+    private boolean transitionWasPrefetched = false;
+    private long prefetchedTransitions = 0;
+    private long prefetchedTotalMs = 0;
+    private long coldTransitions = 0;
+    private long coldTotalMs = 0;
+
+    public PlaylistPrefetcher(Context context) {
+        this.cache = MediaCache.getCache(context);
+        this.cacheDataSourceFactory = MediaCache.getPrefetchDataSourceFactory(context);
+        this.prefetchExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_PREFETCHES, MAX_CONCURRENT_PREFETCHES,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        this.prefetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public synchronized void onMediaItemTransition(Player player) {
+        List<String> upcoming = findUpcomingRemoteUris(player);
+
+        Iterator<Map.Entry<String, PrefetchTask>> iterator = activeTasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PrefetchTask> entry = iterator.next();
+            if (!upcoming.contains(entry.getKey())) {
+                Log.d(TAG, "Cancelling skipped prefetch: " + entry.getKey());
+                entry.getValue().cancel();
+                inFlightBytes -= entry.getValue().budgetBytes;
+                iterator.remove();
+            }
+        }
+
+        for (String uriString : upcoming) {
+            if (activeTasks.containsKey(uriString) || completedPrefetches.contains(uriString)) {
+                continue;
+            }
+            if (inFlightBytes + PREFETCH_BYTES_PER_ITEM > MAX_IN_FLIGHT_BYTES) {
+                Log.v(TAG, "Prefetch byte budget exhausted, deferring: " + uriString);
+                break;
+            }
+            if (cache.isCached(uriString, 0, PREFETCH_BYTES_PER_ITEM)) {
+                completedPrefetches.add(uriString);
+                continue;
+            }
+            PrefetchTask task = new PrefetchTask(uriString, PREFETCH_BYTES_PER_ITEM);
+            activeTasks.put(uriString, task);
+            inFlightBytes += task.budgetBytes;
+            task.future = prefetchExecutor.submit(task);
+            Log.d(TAG, "Prefetch scheduled: " + uriString);
+        }
+    }
+
+    private List<String> findUpcomingRemoteUris(Player player) {
+        List<String> result = new ArrayList<>();
+        Timeline timeline = player.getCurrentTimeline();
+        if (timeline.isEmpty()) {
+            return result;
+        }
+        int index = player.getCurrentMediaItemIndex();
+        int steps = 0;
+        while (result.size() < PREFETCH_AHEAD_COUNT && steps < timeline.getWindowCount()) {
+            index = timeline.getNextWindowIndex(index, Player.REPEAT_MODE_OFF, player.getShuffleModeEnabled());
+            if (index == C.INDEX_UNSET) {
+                break;
+            }
+            steps++;
+            MediaItem item = player.getMediaItemAt(index);
+            if (item.localConfiguration != null && isRemote(item.localConfiguration.uri)) {
+                result.add(item.localConfiguration.uri.toString());
+            }
+        }
+        return result;
+    }
+
+    private static boolean isRemote(Uri uri) {
+        String scheme = uri.getScheme();
+        return scheme != null && (scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"));
+    }
+
+    private synchronized void onPrefetchFinished(PrefetchTask task, boolean completed) {
+        if (activeTasks.get(task.uriString) == task) {
+            activeTasks.remove(task.uriString);
+            inFlightBytes -= task.budgetBytes;
+        }
+        if (completed) {
+            completedPrefetches.add(task.uriString);
+        }
+    }
+
+    public synchronized void markTransitionStart(@Nullable MediaItem mediaItem) {
+        transitionStartMs = SystemClock.elapsedRealtime();
+        String uriString = (mediaItem != null && mediaItem.localConfiguration != null)
+                ? mediaItem.localConfiguration.uri.toString()
+                : null;
+        transitionWasPrefetched = uriString != null && completedPrefetches.contains(uriString);
+    }
+
+    public synchronized void markFirstFrame() {
+        if (transitionStartMs == C.TIME_UNSET) {
+            return;
+        }
+        long elapsedMs = SystemClock.elapsedRealtime() - transitionStartMs;
+        transitionStartMs = C.TIME_UNSET;
+        if (transitionWasPrefetched) {
+            prefetchedTransitions++;
+            prefetchedTotalMs += elapsedMs;
+        } else {
+            coldTransitions++;
+            coldTotalMs += elapsedMs;
+        }
+        Log.d(TAG, "Time to first frame: " + elapsedMs + " ms (prefetched=" + transitionWasPrefetched
+                + "). Avg prefetched=" + average(prefetchedTotalMs, prefetchedTransitions)
+                + " ms over " + prefetchedTransitions + ", avg cold=" + average(coldTotalMs, coldTransitions)
+                + " ms over " + coldTransitions);
+    }
+
+    public synchronized long getPrefetchedTransitions() {
+        return prefetchedTransitions;
+    }
+
+    public synchronized long getColdTransitions() {
+        return coldTransitions;
+    }
+
+    synchronized boolean isPrefetched(String uriString) {
+        return completedPrefetches.contains(uriString);
+    }
+
+    private static long average(long total, long count) {
+        return count == 0 ? 0 : total / count;
+    }
+
+    public synchronized void release() {
+        for (PrefetchTask task : activeTasks.values()) {
+            task.cancel();
+        }
+        activeTasks.clear();
+        inFlightBytes = 0;
+        prefetchExecutor.shutdownNow();
+        Log.d(TAG, "Prefetcher released.");
+    }
+
+    private class PrefetchTask implements Runnable {
+        final String uriString;
+        final long budgetBytes;
+        volatile CacheWriter cacheWriter;
+        volatile boolean cancelled = false;
+        Future<?> future;
+
+        PrefetchTask(String uriString, long budgetBytes) {
+            this.uriString = uriString;
+            this.budgetBytes = budgetBytes;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                onPrefetchFinished(this, false);
+                return;
+            }
+            DataSpec dataSpec = new DataSpec.Builder()
+                    .setUri(Uri.parse(uriString))
+                    .setPosition(0)
+                    .setLength(budgetBytes)
+                    .build();
+            cacheWriter = new CacheWriter(cacheDataSourceFactory.createDataSource(), dataSpec, null, null);
+            boolean completed = false;
+            try {
+                cacheWriter.cache();
+                completed = true;
+                Log.d(TAG, "Prefetched first " + budgetBytes + " bytes of " + uriString);
+            } catch (InterruptedIOException e) {
+                Log.d(TAG, "Prefetch cancelled: " + uriString);
+            } catch (IOException e) {
+                Log.w(TAG, "Prefetch failed for " + uriString, e);
+            } finally {
+                onPrefetchFinished(this, completed);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            CacheWriter writer = cacheWriter;
+            if (writer != null) {
+                writer.cancel();
+            }
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.lab4;
+
+public final class PlaylistWindow {
+
+    private static final int FEISTEL_ROUNDS = 4;
+
+    private final int length;
+    private final int behind;
+    private final int ahead;
+    private final int halfBits;
+    private final int halfMask;
+    private final long seed;
+    private final long[] roundKeys = new long[FEISTEL_ROUNDS];
+
+    private boolean shuffled;
+    private boolean wrap;
+    private int windowStart;
+    private int windowSize;
+
+    public PlaylistWindow(int length, int behind, int ahead, long seed) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Playlist window needs at least one item");
+        }
+        this.length = length;
+        this.behind = behind;
+        this.ahead = ahead;
+        int bits = Math.max(2, 32 - Integer.numberOfLeadingZeros(length - 1));
+        halfBits = (bits + 1) / 2;
+        halfMask = (1 << halfBits) - 1;
+        this.seed = seed;
+        long state = seed;
+        for (int i = 0; i < FEISTEL_ROUNDS; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            roundKeys[i] = mix(state);
+        }
+    }
+
+    public PlaylistWindow withLength(int newLength) {
+        PlaylistWindow resized = new PlaylistWindow(newLength, behind, ahead, seed);
+        resized.shuffled = shuffled;
+        resized.wrap = wrap;
+        return resized;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int capacity() {
+        return behind + ahead + 1;
+    }
+
+    public boolean isShuffled() {
+        return shuffled;
+    }
+
+    public void setShuffled(boolean shuffled) {
+        this.shuffled = shuffled;
+    }
+
+    public void setWrap(boolean wrap) {
+        this.wrap = wrap;
+    }
+
+    public int firstStep() {
+        return windowStart;
+    }
+
+    public int size() {
+        return windowSize;
+    }
+
+    public int ordinalAt(int step) {
+        int index = Math.floorMod(step, length);
+        return shuffled ? permute(index) : index;
+    }
+
+    public int stepOfOrdinal(int ordinal) {
+        return shuffled ? unpermute(ordinal) : ordinal;
+    }
+
+    public int ordinalAtIndex(int index) {
+        return ordinalAt(windowStart + index);
+    }
+
+    public void resetAt(int step) {
+        resetAround(step, behind, ahead);
+    }
+
+    public void resetAround(int step, int behindCount, int aheadCount) {
+        int start = Math.max(lowerLimit(), step - behindCount);
+        int end = Math.min(upperLimit(), step + aheadCount + 1);
+        windowStart = start;
+        windowSize = end - start;
+    }
+
+    public void collapseTo(int step) {
+        windowStart = step;
+        windowSize = 1;
+    }
+
+    public boolean isWithinLimits() {
+        return windowStart >= lowerLimit() && windowStart + windowSize <= upperLimit();
+    }
+
+    public int missingBehind(int currentIndex) {
+        if (currentIndex >= behind / 2) return 0;
+        return Math.max(0, Math.min(windowStart - lowerLimit(), behind - currentIndex));
+    }
+
+    public int missingAhead(int currentIndex) {
+        int remaining = windowSize - 1 - currentIndex;
+        if (remaining >= ahead / 2) return 0;
+        int end = windowStart + windowSize;
+        return Math.max(0, Math.min(upperLimit() - end, ahead - remaining));
+    }
+
+    public int excessBehind(int currentIndex) {
+        int excess = currentIndex - behind;
+        return excess > behind / 2 ? excess : 0;
+    }
+
+    public int excessAhead(int currentIndex) {
+        int excess = windowSize - 1 - currentIndex - ahead;
+        return excess > ahead / 2 ? excess : 0;
+    }
+
+    public void prepended(int count) {
+        windowStart -= count;
+        windowSize += count;
+    }
+
+    public void appended(int count) {
+        windowSize += count;
+    }
+
+    public void trimmedBehind(int count) {
+        windowStart += count;
+        windowSize -= count;
+    }
+
+    public void trimmedAhead(int count) {
+        windowSize -= count;
+    }
+
+    private boolean wraps() {
+        return wrap && length > capacity();
+    }
+
+    private int lowerLimit() {
+        return wraps() ? Integer.MIN_VALUE / 2 : 0;
+    }
+
+    private int upperLimit() {
+        return wraps() ? Integer.MAX_VALUE / 2 : length;
+    }
+
+    private int permute(int index) {
+        int value = index;
+        do {
+            value = feistel(value);
+        } while (value >= length);
+        return value;
+    }
+
+    private int unpermute(int ordinal) {
+        int value = ordinal;
+        do {
+            value = feistelInverse(value);
+        } while (value >= length);
+        return value;
+    }
+
+    private int feistel(int value) {
+        int left = value >>> halfBits;
+        int right = value & halfMask;
+        for (int round = 0; round < FEISTEL_ROUNDS; round++) {
+            int next = left ^ roundFunction(right, round);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    private int feistelInverse(int value) {
+        int left = value >>> halfBits;
+        int right = value & halfMask;
+        for (int round = FEISTEL_ROUNDS - 1; round >= 0; round--) {
+            int previous = right ^ roundFunction(left, round);
+            right = left;
+            left = previous;
+        }
+        return (left << halfBits) | right;
+    }
+
+    private int roundFunction(int half, int round) {
+        return (int) mix(half ^ roundKeys[round]) & halfMask;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,421 @@
+package com.example.lab4;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.MediaMetadata;
+import androidx.media3.common.Player;
+import androidx.media3.common.Timeline;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.source.ShuffleOrder;
+import androidx.media3.session.MediaSession;
+import androidx.room.InvalidationTracker;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.DbScheduler;
+import com.example.lab4.db.MediaDao;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@UnstableApi
+public class PlaylistWindowLoader implements Player.Listener {
+
+    private static final String TAG = "PlaylistWindowLoader";
+    private static final String REQUEST_PREFIX = "playlist/";
+    static final int WINDOW_BEHIND = 8;
+    static final int WINDOW_AHEAD = 24;
+    private static final int NO_ORDINAL = -1;
+
+    private final AppDatabase db;
+    private final MediaDao mediaDao;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExoPlayer player;
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+    private final InvalidationTracker.Observer entriesObserver = new InvalidationTracker.Observer("playlist_entries") {
+        @Override
+        public void onInvalidated(@NonNull Set<String> tables) {
+            if (refreshScheduled.compareAndSet(false, true)) {
+                mainHandler.post(PlaylistWindowLoader.this::refreshWindow);
+            }
+        }
+    };
+
+    @Nullable
+    private PlaylistWindow window;
+    private long playlistId = -1;
+    private long generation;
+    private boolean extending;
+    private boolean awaitingHandoff;
+    private boolean refreshing;
+    private boolean released;
+
+    public PlaylistWindowLoader(AppDatabase db, ExoPlayer player) {
+        this.db = db;
+        this.mediaDao = db.mediaDao();
+        this.player = player;
+        player.addListener(this);
+        db.getInvalidationTracker().addObserver(entriesObserver);
+    }
+
+    public void release() {
+        if (released) return;
+        released = true;
+        reset();
+        player.removeListener(this);
+        db.getInvalidationTracker().removeObserver(entriesObserver);
+    }
+
+    public long getPlaylistId() {
+        return window != null && !awaitingHandoff ? playlistId : -1;
+    }
+
+    static long entryIdOf(@Nullable MediaItem mediaItem) {
+        if (mediaItem == null) return -1;
+        try {
+            return Long.parseLong(mediaItem.mediaId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static MediaItem createRequest(long playlistId, long startEntryId) {
+        return new MediaItem.Builder()
+                .setMediaId(REQUEST_PREFIX + playlistId + "/" + startEntryId)
+                .build();
+    }
+
+    public static boolean isRequest(List<MediaItem> mediaItems) {
+        return mediaItems.size() == 1 && mediaItems.get(0).mediaId.startsWith(REQUEST_PREFIX);
+    }
+
+    static MediaItem toPlayerItem(com.example.lab4.db.MediaItem dbItem) {
+        return toPlayerItem(dbItem, NO_ORDINAL, 0);
+    }
+
+    private static MediaItem toPlayerItem(com.example.lab4.db.MediaItem dbItem, int ordinal, int length) {
+        Uri uri = Uri.parse(dbItem.mediaUri);
+        String title = dbItem.mediaTitle != null && !dbItem.mediaTitle.isEmpty()
+                ? dbItem.mediaTitle
+                : MediaMetadataResolver.displayNameFromPath(uri);
+        MediaMetadata.Builder metadata = new MediaMetadata.Builder().setTitle(title);
+        if (ordinal != NO_ORDINAL) {
+            metadata.setTrackNumber(ordinal + 1).setTotalTrackCount(length);
+        }
+        return DownloadedStreams.resolve(new MediaItem.Builder()
+                .setUri(uri)
+                .setMediaId(String.valueOf(dbItem.entryId))
+                .setRequestMetadata(new MediaItem.RequestMetadata.Builder().setMediaUri(uri).build())
+                .setMediaMetadata(metadata.build())
+                .build());
+    }
+
+    public ListenableFuture<MediaSession.MediaItemsWithStartPosition> load(@NonNull MediaItem request, long startPositionMs) {
+        SettableFuture<MediaSession.MediaItemsWithStartPosition> future = SettableFuture.create();
+        String[] parts = request.mediaId.substring(REQUEST_PREFIX.length()).split("/");
+        long requestedPlaylistId;
+        long startEntryId;
+        try {
+            requestedPlaylistId = Long.parseLong(parts[0]);
+            startEntryId = parts.length > 1 ? Long.parseLong(parts[1]) : -1;
+        } catch (NumberFormatException e) {
+            future.setException(e);
+            return future;
+        }
+        long requestGeneration = ++generation;
+        boolean shuffled = player.getShuffleModeEnabled();
+        boolean repeatAll = player.getRepeatMode() == Player.REPEAT_MODE_ALL;
+        long startMs = SystemClock.elapsedRealtime();
+        DbScheduler.read(DbScheduler.Priority.USER_VISIBLE, () -> {
+            int length = mediaDao.getPlaylistLength(requestedPlaylistId);
+            if (length == 0) {
+                future.setException(new IllegalStateException("Playlist " + requestedPlaylistId + " has no items"));
+                return;
+            }
+            com.example.lab4.db.MediaItem anchor = startEntryId > 0 ? mediaDao.getMediaItemById(startEntryId) : null;
+            int ordinal = anchor != null && anchor.playlistCreatorId == requestedPlaylistId
+                    ? anchor.ordinal
+                    : 0;
+            PlaylistWindow loadedWindow = new PlaylistWindow(length, WINDOW_BEHIND, WINDOW_AHEAD, System.nanoTime());
+            loadedWindow.setShuffled(shuffled);
+            loadedWindow.setWrap(repeatAll);
+            int step = loadedWindow.stepOfOrdinal(Math.min(ordinal, length - 1));
+            loadedWindow.resetAt(step);
+            List<MediaItem> items = materialize(requestedPlaylistId, loadedWindow, loadedWindow.firstStep(), loadedWindow.size());
+            int startIndex = step - loadedWindow.firstStep();
+            if (items.size() <= startIndex) {
+                future.setException(new IllegalStateException("Playlist " + requestedPlaylistId + " changed while loading"));
+                return;
+            }
+            loadedWindow.trimmedAhead(loadedWindow.size() - items.size());
+            long loadedMs = SystemClock.elapsedRealtime() - startMs;
+            mainHandler.post(() -> {
+                if (requestGeneration != generation) {
+                    future.cancel(false);
+                    return;
+                }
+                playlistId = requestedPlaylistId;
+                window = loadedWindow;
+                extending = false;
+                awaitingHandoff = true;
+                player.setShuffleOrder(new ShuffleOrder.UnshuffledShuffleOrder(player.getMediaItemCount()));
+                Log.d(TAG, "Loaded " + items.size() + " of " + length + " entries of playlist " + requestedPlaylistId
+                        + " around ordinal " + ordinal + " in " + loadedMs + " ms" + (shuffled ? " (shuffled)" : ""));
+                future.set(new MediaSession.MediaItemsWithStartPosition(items, startIndex, startPositionMs));
+            });
+        });
+        return future;
+    }
+
+    public void reset() {
+        generation++;
+        extending = false;
+        awaitingHandoff = false;
+        if (window != null) {
+            window = null;
+            playlistId = -1;
+            player.setShuffleOrder(new ShuffleOrder.DefaultShuffleOrder(player.getMediaItemCount()));
+        }
+    }
+
+    @Override
+    public void onTimelineChanged(@NonNull Timeline timeline, int reason) {
+        PlaylistWindow current = window;
+        if (current == null || reason != Player.TIMELINE_CHANGE_REASON_PLAYLIST_CHANGED) return;
+        boolean matches = player.getMediaItemCount() == current.size();
+        if (awaitingHandoff) {
+            if (matches) {
+                awaitingHandoff = false;
+                mainHandler.post(this::maintainWindow);
+            }
+        } else if (!matches) {
+            Log.d(TAG, "Queue of playlist " + playlistId + " was edited outside the window, releasing it.");
+            reset();
+        }
+    }
+
+    @Override
+    public void onMediaItemTransition(@Nullable MediaItem mediaItem, int reason) {
+        if (window != null) {
+            mainHandler.post(this::maintainWindow);
+        }
+    }
+
+    @Override
+    public void onShuffleModeEnabledChanged(boolean shuffleModeEnabled) {
+        PlaylistWindow current = window;
+        if (current == null || awaitingHandoff || current.isShuffled() == shuffleModeEnabled) return;
+        int ordinal = current.ordinalAtIndex(player.getCurrentMediaItemIndex());
+        current.setShuffled(shuffleModeEnabled);
+        collapseAround(current, current.stepOfOrdinal(ordinal));
+    }
+
+    @Override
+    public void onRepeatModeChanged(int repeatMode) {
+        PlaylistWindow current = window;
+        if (current == null || awaitingHandoff) return;
+        current.setWrap(repeatMode == Player.REPEAT_MODE_ALL);
+        if (!current.isWithinLimits()) {
+            int ordinal = current.ordinalAtIndex(player.getCurrentMediaItemIndex());
+            collapseAround(current, current.stepOfOrdinal(ordinal));
+        } else {
+            maintainWindow();
+        }
+    }
+
+    private void collapseAround(PlaylistWindow current, int step) {
+        generation++;
+        extending = false;
+        int index = player.getCurrentMediaItemIndex();
+        player.removeMediaItems(index + 1, player.getMediaItemCount());
+        player.removeMediaItems(0, index);
+        current.collapseTo(step);
+        maintainWindow();
+    }
+
+    private void maintainWindow() {
+        PlaylistWindow current = window;
+        if (current == null || extending || awaitingHandoff || player.getMediaItemCount() != current.size()) return;
+        int index = player.getCurrentMediaItemIndex();
+        int trimBehind = current.excessBehind(index);
+        if (trimBehind > 0) {
+            player.removeMediaItems(0, trimBehind);
+            current.trimmedBehind(trimBehind);
+            index -= trimBehind;
+        }
+        int trimAhead = current.excessAhead(index);
+        if (trimAhead > 0) {
+            player.removeMediaItems(current.size() - trimAhead, current.size());
+            current.trimmedAhead(trimAhead);
+        }
+        int ahead = current.missingAhead(index);
+        int behind = current.missingBehind(index);
+        if (ahead == 0 && behind == 0) return;
+
+        extending = true;
+        long windowPlaylistId = playlistId;
+        long windowGeneration = generation;
+        int aheadStep = current.firstStep() + current.size();
+        int behindStep = current.firstStep() - behind;
+        DbScheduler.read(DbScheduler.Priority.USER_VISIBLE, () -> {
+            List<MediaItem> after = ahead > 0 ? materialize(windowPlaylistId, current, aheadStep, ahead) : Collections.emptyList();
+            List<MediaItem> before = behind > 0 ? materialize(windowPlaylistId, current, behindStep, behind) : Collections.emptyList();
+            mainHandler.post(() -> {
+                if (windowGeneration != generation || window != current) return;
+                extending = false;
+                if (!after.isEmpty()) {
+                    player.addMediaItems(after);
+                    current.appended(after.size());
+                }
+                if (!before.isEmpty() && before.size() == behind) {
+                    player.addMediaItems(0, before);
+                    current.prepended(before.size());
+                }
+                Log.d(TAG, "Window of playlist " + windowPlaylistId + " now holds " + current.size() + " of "
+                        + current.length() + " entries (+" + after.size() + " ahead, +" + before.size() + " behind)");
+                if (after.size() == ahead && (before.isEmpty() || before.size() == behind)) {
+                    maintainWindow();
+                }
+            });
+        });
+    }
+
+    private void refreshWindow() {
+        refreshScheduled.set(false);
+        PlaylistWindow current = window;
+        MediaItem currentItem = player.getCurrentMediaItem();
+        if (current == null || awaitingHandoff || currentItem == null) return;
+        if (refreshing) {
+            refreshScheduled.set(true);
+            return;
+        }
+        long currentEntryId = entryIdOf(currentItem);
+        if (currentEntryId < 0) return;
+        refreshing = true;
+        int index = player.getCurrentMediaItemIndex();
+        int behindCount = Math.max(index, WINDOW_BEHIND);
+        int aheadCount = Math.max(current.size() - 1 - index, WINDOW_AHEAD);
+        int previousOrdinal = current.ordinalAtIndex(index);
+        long windowPlaylistId = playlistId;
+        long windowGeneration = generation;
+        DbScheduler.read(DbScheduler.Priority.USER_VISIBLE, () -> {
+            int length = mediaDao.getPlaylistLength(windowPlaylistId);
+            PlaylistWindow refreshed = null;
+            List<MediaItem> items = Collections.emptyList();
+            int startIndex = 0;
+            if (length > 0) {
+                com.example.lab4.db.MediaItem anchor = mediaDao.getMediaItemById(currentEntryId);
+                int ordinal = anchor != null && anchor.playlistCreatorId == windowPlaylistId
+                        ? anchor.ordinal
+                        : Math.min(previousOrdinal, length - 1);
+                refreshed = current.withLength(length);
+                int step = refreshed.stepOfOrdinal(ordinal);
+                refreshed.resetAround(step, behindCount, aheadCount);
+                items = materialize(windowPlaylistId, refreshed, refreshed.firstStep(), refreshed.size());
+                startIndex = step - refreshed.firstStep();
+                refreshed.trimmedAhead(refreshed.size() - items.size());
+            }
+            PlaylistWindow target = refreshed;
+            List<MediaItem> targetItems = items;
+            int targetIndex = startIndex;
+            mainHandler.post(() -> {
+                refreshing = false;
+                if (windowGeneration != generation || window != current) {
+                    if (window != null) refreshWindow();
+                    return;
+                }
+                if (target == null || targetItems.size() <= targetIndex) {
+                    Log.d(TAG, "Playlist " + windowPlaylistId + " no longer has entries around the current item.");
+                    reset();
+                    return;
+                }
+                applyDiff(targetItems);
+                extending = false;
+                window = target;
+                if (player.getMediaItemCount() != target.size()) {
+                    Log.w(TAG, "Window of playlist " + windowPlaylistId + " drifted after refresh, releasing it.");
+                    reset();
+                    return;
+                }
+                maintainWindow();
+                if (refreshScheduled.compareAndSet(true, false)) {
+                    refreshWindow();
+                }
+            });
+        });
+    }
+
+    private void applyDiff(List<MediaItem> targetItems) {
+        Set<String> targetIds = new HashSet<>(targetItems.size() * 2);
+        for (MediaItem item : targetItems) {
+            targetIds.add(item.mediaId);
+        }
+        int removed = 0;
+        for (int i = player.getMediaItemCount() - 1; i >= 0; i--) {
+            if (!targetIds.contains(player.getMediaItemAt(i).mediaId)) {
+                player.removeMediaItem(i);
+                removed++;
+            }
+        }
+        int added = 0;
+        int moved = 0;
+        for (int i = 0; i < targetItems.size(); i++) {
+            String id = targetItems.get(i).mediaId;
+            if (i < player.getMediaItemCount() && player.getMediaItemAt(i).mediaId.equals(id)) continue;
+            int existing = indexOf(id, i + 1);
+            if (existing >= 0) {
+                player.moveMediaItem(existing, i);
+                moved++;
+            } else {
+                player.addMediaItem(i, targetItems.get(i));
+                added++;
+            }
+        }
+        if (player.getMediaItemCount() > targetItems.size()) {
+            player.removeMediaItems(targetItems.size(), player.getMediaItemCount());
+        }
+        if (removed + added + moved > 0) {
+            Log.d(TAG, "Applied playlist change to the live queue: +" + added + " -" + removed + " moved " + moved);
+        }
+    }
+
+    private int indexOf(String mediaId, int from) {
+        for (int i = from; i < player.getMediaItemCount(); i++) {
+            if (player.getMediaItemAt(i).mediaId.equals(mediaId)) return i;
+        }
+        return -1;
+    }
+
+    private List<MediaItem> materialize(long windowPlaylistId, PlaylistWindow source, int firstStep, int count) {
+        List<MediaItem> items = new ArrayList<>(count);
+        int end = firstStep + count;
+        int step = firstStep;
+        while (step < end) {
+            int ordinal = source.ordinalAt(step);
+            int run = 1;
+            while (step + run < end && source.ordinalAt(step + run) == ordinal + run) {
+                run++;
+            }
+            List<com.example.lab4.db.MediaItem> rows = mediaDao.getMediaItemsAtOrdinal(windowPlaylistId, ordinal, run);
+            for (int i = 0; i < rows.size(); i++) {
+                items.add(toPlayerItem(rows.get(i), ordinal + i, source.length()));
+            }
+            if (rows.size() < run) break;
+            step += run;
+        }
+        return items;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.lab4;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.Locale;
+
+public class ScrollJankTracker extends RecyclerView.OnScrollListener implements Window.OnFrameMetricsAvailableListener {
+
+    private static final String TAG = "ScrollJankTracker";
+    private static final long JANK_THRESHOLD_NS = 16_666_667L;
+
+    private final String label;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean scrolling;
+    private int scrollFrames;
+    private int jankyFrames;
+    private long worstFrameNs;
+
+    public ScrollJankTracker(String label) {
+        this.label = label;
+    }
+
+    public void attach(Activity activity, RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(this);
+        activity.getWindow().addOnFrameMetricsAvailableListener(this, mainHandler);
+    }
+
+    public void detach(Activity activity, RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(this);
+        try {
+            activity.getWindow().removeOnFrameMetricsAvailableListener(this);
+        } catch (IllegalArgumentException e) {
+            Log.v(TAG, "Frame metrics listener was not attached");
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState != RecyclerView.SCROLL_STATE_IDLE && !scrolling) {
+            scrolling = true;
+            scrollFrames = 0;
+            jankyFrames = 0;
+            worstFrameNs = 0;
+        } else if (newState == RecyclerView.SCROLL_STATE_IDLE && scrolling) {
+            scrolling = false;
+            if (scrollFrames > 0) {
+                Log.i(TAG, String.format(Locale.US, "%s scroll: %d frames, %d janky (%.1f%%), worst %.1f ms",
+                        label, scrollFrames, jankyFrames,
+                        jankyFrames * 100.0 / scrollFrames, worstFrameNs / 1_000_000.0));
+                ArtworkCache.getInstance(recyclerView.getContext()).logStats();
+            }
+        }
+    }
+
+    @Override
+    public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+        if (!scrolling) return;
+        long totalNs = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        scrollFrames++;
+        if (totalNs > JANK_THRESHOLD_NS) {
+            jankyFrames++;
+        }
+        worstFrameNs = Math.max(worstFrameNs, totalNs);
+    }
+}
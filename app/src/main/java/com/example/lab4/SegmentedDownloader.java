@@ -0,0 +1,854 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.ContentMetadata;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.DbScheduler;
+import com.example.lab4.db.Download;
+import com.example.lab4.db.DownloadSegment;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.Playlist;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+@UnstableApi
+public class SegmentedDownloader {
+
+    private static final String TAG = "SegmentedDownloader";
+    static final int DEFAULT_MAX_CONNECTIONS = 6;
+    static final int MAX_SEGMENTS_PER_DOWNLOAD = 4;
+    static final long MIN_SEGMENT_BYTES = 1024 * 1024;
+    static final int MAX_SEGMENT_ATTEMPTS = 5;
+    private static final long CHECKPOINT_BYTES = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    static final int MAX_JOB_ATTEMPTS = 8;
+    static final long DEFAULT_RETRY_BASE_DELAY_MS = 2_000;
+    private static final long MAX_RETRY_DELAY_MS = 30 * 60 * 1000;
+    private static final int MAX_TITLE_LENGTH = 200;
+    private static final String DEFAULT_DOWNLOADS_PLAYLIST_NAME = "Downloads";
+
+    public interface Listener {
+        void onDownloadFinished(long downloadId, boolean success);
+    }
+
+    private static volatile SegmentedDownloader INSTANCE;
+
+    private final Context appContext;
+    private final AppDatabase db;
+    private final MediaDao mediaDao;
+    private final ScheduledExecutorService coordinatorExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService connectionExecutor;
+    private final long retryBaseDelayMs;
+    private final Random retryJitter = new Random();
+    private final Set<Long> startedDownloads = ConcurrentHashMap.newKeySet();
+    private final Map<Long, ActiveDownload> activeDownloads = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> idleCallbacks = new CopyOnWriteArrayList<>();
+    private final Map<Long, Long> pendingProgress = new ConcurrentHashMap<>();
+    private final AtomicBoolean progressFlushQueued = new AtomicBoolean();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final boolean scheduleJobs;
+    private volatile boolean shutDown;
+
+    SegmentedDownloader(Context context, AppDatabase db, int maxConnections) {
+        this(context, db, maxConnections, DEFAULT_RETRY_BASE_DELAY_MS);
+    }
+
+    SegmentedDownloader(Context context, AppDatabase db, int maxConnections, long retryBaseDelayMs) {
+        this(context, db, maxConnections, retryBaseDelayMs, false);
+    }
+
+    private SegmentedDownloader(Context context, AppDatabase db, int maxConnections, long retryBaseDelayMs,
+                                boolean scheduleJobs) {
+        this.appContext = context.getApplicationContext();
+        this.db = db;
+        this.mediaDao = db.mediaDao();
+        this.connectionExecutor = Executors.newFixedThreadPool(maxConnections);
+        this.retryBaseDelayMs = retryBaseDelayMs;
+        this.scheduleJobs = scheduleJobs;
+    }
+
+    public static SegmentedDownloader getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (SegmentedDownloader.class) {
+                if (INSTANCE == null) {
+                    Context appContext = context.getApplicationContext();
+                    INSTANCE = new SegmentedDownloader(appContext, AppDatabase.getInstance(appContext),
+                            DEFAULT_MAX_CONNECTIONS, DEFAULT_RETRY_BASE_DELAY_MS, true);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public ListenableFuture<Long> enqueue(String sourceUrl, @Nullable Long playlistId, @Nullable String title) {
+        return enqueue(sourceUrl, playlistId, title, null);
+    }
+
+    public ListenableFuture<Long> enqueue(String sourceUrl, @Nullable Long playlistId, @Nullable String title,
+                                         @Nullable String expectedSha256) {
+        SettableFuture<Long> result = SettableFuture.create();
+        coordinatorExecutor.execute(() -> {
+            try {
+                Download download = new Download(sourceUrl, playlistId, title);
+                download.expectedSha256 = expectedSha256;
+                download.createdAt = System.currentTimeMillis();
+                download.updatedAt = download.createdAt;
+                download.downloadId = awaitWrite(() -> mediaDao.insertDownload(download));
+                Log.i(TAG, "Queued download " + download.downloadId + " for " + sourceUrl
+                        + (playlistId != null ? " into playlist " + playlistId : ""));
+                result.set(download.downloadId);
+                scheduleAttempt(download);
+                scheduleWakeUp();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to queue download for " + sourceUrl, e);
+                result.setException(e);
+            }
+        });
+        return result;
+    }
+
+    public void resumePending() {
+        coordinatorExecutor.execute(() -> {
+            List<Download> unfinished = mediaDao.getUnfinishedDownloads();
+            if (!unfinished.isEmpty()) {
+                Log.i(TAG, "Resuming " + unfinished.size() + " unfinished downloads");
+            }
+            for (Download download : unfinished) {
+                scheduleAttempt(download);
+            }
+            checkIdle();
+        });
+    }
+
+    void runWhenIdle(Runnable callback) {
+        coordinatorExecutor.execute(() -> {
+            idleCallbacks.add(callback);
+            checkIdle();
+        });
+    }
+
+    void scheduleWakeUp() {
+        if (!scheduleJobs) return;
+        coordinatorExecutor.execute(() -> {
+            Long nextAttemptAt = mediaDao.getNextDownloadAttemptAt();
+            if (nextAttemptAt == null) {
+                DownloadJobService.cancel(appContext);
+                return;
+            }
+            long delayMs = Math.max(0, nextAttemptAt - System.currentTimeMillis());
+            Log.d(TAG, "Next download attempt due in " + delayMs + " ms");
+            DownloadJobService.schedule(appContext, delayMs);
+        });
+    }
+
+    private void checkIdle() {
+        if (idleCallbacks.isEmpty() || shutDown || !activeDownloads.isEmpty()
+                || mediaDao.countDueDownloads(System.currentTimeMillis()) > 0) {
+            return;
+        }
+        for (Runnable callback : idleCallbacks) {
+            idleCallbacks.remove(callback);
+            callback.run();
+        }
+    }
+
+    void shutdownNow() {
+        shutDown = true;
+        connectionExecutor.shutdownNow();
+        coordinatorExecutor.shutdownNow();
+        for (ActiveDownload active : activeDownloads.values()) {
+            active.closeQuietly();
+        }
+        activeDownloads.clear();
+    }
+
+    private void scheduleAttempt(Download download) {
+        if (shutDown || !startedDownloads.add(download.downloadId)) return;
+        long delayMs = Math.max(0, download.nextAttemptAt - System.currentTimeMillis());
+        coordinatorExecutor.schedule(() -> connectionExecutor.execute(() -> start(download)),
+                delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void start(Download download) {
+        if (shutDown) return;
+        RandomAccessFile file = null;
+        try {
+            File partFile = download.filePath != null
+                    ? new File(download.filePath)
+                    : new File(MediaBlobStore.getBlobDir(appContext), "download_" + download.downloadId + ".part");
+            download.filePath = partFile.getAbsolutePath();
+            file = new RandomAccessFile(partFile, "rw");
+            List<DownloadSegment> segments = mediaDao.getDownloadSegments(download.downloadId);
+            if (segments.isEmpty()) {
+                segments = planSegments(download, file);
+            }
+            if (download.totalBytes > 0 && file.length() != download.totalBytes) {
+                file.setLength(download.totalBytes);
+            }
+            download.state = Download.STATE_RUNNING;
+            download.updatedAt = System.currentTimeMillis();
+            awaitWrite(() -> mediaDao.updateDownload(download));
+
+            ActiveDownload active = new ActiveDownload(download, file);
+            activeDownloads.put(download.downloadId, active);
+            List<DownloadSegment> pending = new ArrayList<>();
+            for (DownloadSegment segment : segments) {
+                active.resumedBytes += segment.bytesWritten;
+                if (!segment.isComplete()) {
+                    pending.add(segment);
+                }
+            }
+            active.remainingSegments.set(pending.size());
+            Log.d(TAG, "Starting download " + download.downloadId + ": " + pending.size() + " of "
+                    + segments.size() + " segments pending, " + download.totalBytes + " bytes total");
+            if (pending.isEmpty()) {
+                coordinatorExecutor.execute(() -> finish(active));
+                return;
+            }
+            for (DownloadSegment segment : pending) {
+                connectionExecutor.execute(() -> runSegment(active, segment));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not start download " + download.downloadId, e);
+            if (file != null && !activeDownloads.containsKey(download.downloadId)) {
+                try {
+                    file.close();
+                } catch (IOException closeError) {
+                    Log.w(TAG, "Failed to close partial download " + download.downloadId, closeError);
+                }
+            }
+            coordinatorExecutor.execute(() -> retryOrFail(download, e.toString(), isRetryable(e),
+                    e instanceof RemoteChangedException));
+        }
+    }
+
+    private List<DownloadSegment> planSegments(Download download, RandomAccessFile file) throws IOException {
+        HttpURLConnection connection = openConnection(download.sourceUrl);
+        boolean rangesSupported = false;
+        try {
+            connection.setRequestProperty("Range", "bytes=0-0");
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                ContentRange range = ContentRange.parse(connection.getHeaderField("Content-Range"));
+                if (range != null && range.total > 0) {
+                    download.totalBytes = range.total;
+                    rangesSupported = true;
+                }
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                download.totalBytes = connection.getContentLengthLong();
+            } else {
+                throw new HttpStatusException(code, "HTTP " + code + " probing " + download.sourceUrl);
+            }
+            download.mimeType = stripParameters(connection.getContentType());
+            download.etag = connection.getHeaderField("ETag");
+            download.lastModified = connection.getHeaderField("Last-Modified");
+        } finally {
+            connection.disconnect();
+        }
+
+        List<DownloadSegment> segments = new ArrayList<>();
+        if (download.totalBytes <= 0) {
+            segments.add(new DownloadSegment(download.downloadId, 0, DownloadSegment.OPEN_ENDED));
+        } else {
+            file.setLength(download.totalBytes);
+            for (long[] range : reuseCachedBytes(download, file.getChannel(), rangesSupported)) {
+                splitRange(segments, download.downloadId, range[0], range[1], rangesSupported);
+            }
+        }
+        awaitWrite(() -> db.runInTransaction(() -> {
+            List<Long> ids = mediaDao.insertDownloadSegments(segments);
+            for (int i = 0; i < segments.size(); i++) {
+                segments.get(i).segmentId = ids.get(i);
+            }
+            return mediaDao.updateDownload(download);
+        }));
+        Log.d(TAG, "Download " + download.downloadId + " split into " + segments.size() + " segments (ranges "
+                + (rangesSupported ? "supported" : "unsupported") + ", " + download.mimeType + ", "
+                + download.reusedBytes + " bytes reused from the playback cache)");
+        return segments;
+    }
+
+    private static void splitRange(List<DownloadSegment> segments, long downloadId, long first, long last,
+                                   boolean rangesSupported) {
+        long length = last - first + 1;
+        int count = rangesSupported
+                ? (int) Math.max(1, Math.min(MAX_SEGMENTS_PER_DOWNLOAD, length / MIN_SEGMENT_BYTES))
+                : 1;
+        long segmentSize = length / count;
+        for (int i = 0; i < count; i++) {
+            long start = first + i * segmentSize;
+            long end = i == count - 1 ? last : start + segmentSize - 1;
+            segments.add(new DownloadSegment(downloadId, start, end));
+        }
+    }
+
+    private List<long[]> reuseCachedBytes(Download download, FileChannel channel, boolean rangesSupported)
+            throws IOException {
+        List<long[]> missing = new ArrayList<>();
+        long total = download.totalBytes;
+        String key = download.sourceUrl;
+        Cache cache = MediaCache.getCache(appContext);
+        long cachedContentLength = ContentMetadata.getContentLength(cache.getContentMetadata(key));
+        if (cachedContentLength != total) {
+            if (cachedContentLength != C.LENGTH_UNSET) {
+                Log.d(TAG, "Cached copy of " + key + " is " + cachedContentLength + " bytes, remote is " + total
+                        + "; not reusing it");
+            }
+            missing.add(new long[]{0, total - 1});
+            return missing;
+        }
+        MediaCache.pin(appContext, key);
+        try {
+            if (!rangesSupported && cache.getCachedBytes(key, 0, total) < total) {
+                missing.add(new long[]{0, total - 1});
+                return missing;
+            }
+            CacheDataSource cacheOnly = new CacheDataSource(cache, null);
+            long position = 0;
+            while (position < total) {
+                long run = cache.getCachedLength(key, position, total - position);
+                if (run > 0) {
+                    long copied = copyFromCache(cacheOnly, key, position, run, channel);
+                    download.reusedBytes += copied;
+                    if (copied < run) {
+                        addMissingRange(missing, position + copied, position + run - 1);
+                    }
+                    position += run;
+                } else {
+                    long hole = run < 0 ? -run : total - position;
+                    addMissingRange(missing, position, position + hole - 1);
+                    position += hole;
+                }
+            }
+            channel.force(false);
+        } finally {
+            MediaCache.unpin(appContext, key);
+        }
+        return missing;
+    }
+
+    private static void addMissingRange(List<long[]> missing, long first, long last) {
+        if (!missing.isEmpty() && missing.get(missing.size() - 1)[1] + 1 == first) {
+            missing.get(missing.size() - 1)[1] = last;
+        } else {
+            missing.add(new long[]{first, last});
+        }
+    }
+
+    private static long copyFromCache(CacheDataSource source, String key, long position, long length,
+                                      FileChannel channel) throws IOException {
+        DataSpec dataSpec = new DataSpec.Builder()
+                .setUri(Uri.parse(key))
+                .setKey(key)
+                .setPosition(position)
+                .setLength(length)
+                .build();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long copied = 0;
+        try {
+            source.open(dataSpec);
+            int read;
+            while (copied < length
+                    && (read = source.read(buffer, 0, (int) Math.min(buffer.length, length - copied))) != C.RESULT_END_OF_INPUT) {
+                wrapped.clear().limit(read);
+                long target = position + copied;
+                while (wrapped.hasRemaining()) {
+                    target += channel.write(wrapped, target);
+                }
+                copied += read;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cache read of " + key + " stopped at " + (position + copied) + ": " + e.getMessage());
+        } finally {
+            source.close();
+        }
+        return copied;
+    }
+
+    private void runSegment(ActiveDownload active, DownloadSegment segment) {
+        int attempts = 0;
+        while (!shutDown && !active.abandoned) {
+            try {
+                fetchSegment(active, segment);
+                break;
+            } catch (IOException e) {
+                if (shutDown) return;
+                if (active.abandoned) {
+                    queueProgress(segment);
+                    break;
+                }
+                attempts++;
+                segment.attempts++;
+                active.retries.incrementAndGet();
+                long segmentId = segment.segmentId;
+                long bytesWritten = segment.bytesWritten;
+                DbScheduler.write(DbScheduler.Priority.BACKGROUND, () -> {
+                    try {
+                        mediaDao.recordSegmentRetry(segmentId, bytesWritten);
+                    } catch (RuntimeException recordError) {
+                        Log.w(TAG, "Failed to record retry of segment " + segmentId, recordError);
+                    }
+                });
+                boolean fatal = !isRetryable(e) || e instanceof RemoteChangedException;
+                if (attempts >= MAX_SEGMENT_ATTEMPTS || fatal) {
+                    Log.w(TAG, "Segment " + segment.startOffset + "-" + segment.endOffset + " of download "
+                            + segment.downloadId + " stopped after " + attempts + " attempts at offset "
+                            + segment.nextOffset(), e);
+                    active.failure.compareAndSet(null, e);
+                    if (fatal) {
+                        active.abandoned = true;
+                    }
+                    break;
+                }
+                Log.w(TAG, "Retrying segment " + segment.startOffset + "-" + segment.endOffset + " of download "
+                        + segment.downloadId + " from offset " + segment.nextOffset() + ": " + e.getMessage());
+                SystemClock.sleep(retryBaseDelayMs / 4 * attempts);
+            }
+        }
+        if (shutDown) return;
+        if (active.remainingSegments.decrementAndGet() == 0) {
+            coordinatorExecutor.execute(() -> finish(active));
+        }
+    }
+
+    private void fetchSegment(ActiveDownload active, DownloadSegment segment) throws IOException {
+        Download download = active.download;
+        long offset = segment.nextOffset();
+        boolean ranged = offset > 0 || segment.endOffset != DownloadSegment.OPEN_ENDED
+                && (segment.startOffset > 0 || segment.endOffset < download.totalBytes - 1);
+        String validator = ifRangeValidator(download);
+        HttpURLConnection connection = openConnection(download.sourceUrl);
+        try {
+            if (ranged) {
+                String end = segment.endOffset == DownloadSegment.OPEN_ENDED ? "" : String.valueOf(segment.endOffset);
+                connection.setRequestProperty("Range", "bytes=" + offset + "-" + end);
+                if (validator != null) {
+                    connection.setRequestProperty("If-Range", validator);
+                }
+            }
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_OK && segment.startOffset == 0
+                    && (segment.endOffset == DownloadSegment.OPEN_ENDED || segment.endOffset == download.totalBytes - 1)) {
+                offset = 0;
+                segment.bytesWritten = 0;
+            } else if (code == HttpURLConnection.HTTP_OK && ranged) {
+                throw new RemoteChangedException(validator != null
+                        ? "Remote file no longer matches " + validator
+                        : "Server stopped honouring Range requests");
+            } else if (code == HttpURLConnection.HTTP_PARTIAL && ranged) {
+                String etag = connection.getHeaderField("ETag");
+                if (download.etag != null && etag != null && !download.etag.equals(etag)) {
+                    throw new RemoteChangedException("ETag changed from " + download.etag + " to " + etag);
+                }
+                ContentRange range = ContentRange.parse(connection.getHeaderField("Content-Range"));
+                if (range == null || range.start != offset
+                        || segment.endOffset != DownloadSegment.OPEN_ENDED && range.end != segment.endOffset
+                        || download.totalBytes > 0 && range.total != download.totalBytes) {
+                    throw new IOException("Unexpected Content-Range " + connection.getHeaderField("Content-Range")
+                            + " for bytes " + offset + "-" + segment.endOffset);
+                }
+            } else {
+                throw new HttpStatusException(code, "HTTP " + code + " for bytes " + offset + "-" + segment.endOffset);
+            }
+
+            long expected = segment.endOffset == DownloadSegment.OPEN_ENDED ? -1 : segment.endOffset - offset + 1;
+            long received = 0;
+            long lastCheckpoint = segment.bytesWritten;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            try (InputStream in = connection.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (shutDown || active.abandoned) {
+                        throw new IOException("Download " + download.downloadId + " stopped");
+                    }
+                    if (expected >= 0 && received + read > expected) {
+                        throw new IOException("Server sent more than the " + expected + " bytes requested");
+                    }
+                    wrapped.clear().limit(read);
+                    long position = offset + received;
+                    while (wrapped.hasRemaining()) {
+                        position += active.channel.write(wrapped, position);
+                    }
+                    received += read;
+                    segment.bytesWritten += read;
+                    active.sessionBytes.addAndGet(read);
+                    if (segment.bytesWritten - lastCheckpoint >= CHECKPOINT_BYTES) {
+                        active.channel.force(false);
+                        queueProgress(segment);
+                        lastCheckpoint = segment.bytesWritten;
+                    }
+                }
+            }
+            if (expected >= 0 && received < expected) {
+                throw new EOFException("Segment truncated after " + received + " of " + expected + " bytes");
+            }
+            if (segment.endOffset == DownloadSegment.OPEN_ENDED) {
+                segment.endOffset = segment.startOffset + segment.bytesWritten - 1;
+            }
+            active.channel.force(false);
+            queueProgress(segment);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void finish(ActiveDownload active) {
+        Download download = active.download;
+        activeDownloads.remove(download.downloadId);
+        startedDownloads.remove(download.downloadId);
+        File partFile = new File(download.filePath);
+        long elapsedMs = SystemClock.elapsedRealtime() - active.startedAtMs;
+        if (active.failed()) {
+            active.closeQuietly();
+            IOException failure = active.failure.get();
+            retryOrFail(download, failure.toString(), isRetryable(failure), failure instanceof RemoteChangedException);
+            return;
+        }
+        MediaBlobStore.PendingBlob pendingBlob = null;
+        try {
+            active.channel.force(true);
+            active.closeQuietly();
+            pendingBlob = MediaBlobStore.adopt(partFile, getExtensionFromMimeType(download.mimeType));
+            if (download.totalBytes > 0 && pendingBlob.size != download.totalBytes) {
+                throw new IOException("Downloaded " + pendingBlob.size + " bytes, expected " + download.totalBytes);
+            }
+            if (download.expectedSha256 != null && !download.expectedSha256.equalsIgnoreCase(pendingBlob.digest)) {
+                throw new IOException("Checksum mismatch: expected " + download.expectedSha256 + ", got " + pendingBlob.digest);
+            }
+            MediaBlobStore.PendingBlob blob = pendingBlob;
+            awaitWrite(() -> db.runInTransaction(() -> {
+                File blobFile = MediaBlobStore.commit(appContext, mediaDao, blob);
+                long playlistId = resolveTargetPlaylist(download.playlistId);
+                com.example.lab4.db.MediaItem item = new com.example.lab4.db.MediaItem(
+                        Uri.fromFile(blobFile).toString(), titleFor(download), playlistId);
+                item.blobDigest = blob.digest;
+                mediaDao.insertMediaItem(item);
+                mediaDao.deleteDownloadSegments(download.downloadId);
+                download.filePath = blobFile.getAbsolutePath();
+                download.totalBytes = blob.size;
+                download.state = Download.STATE_COMPLETED;
+                download.updatedAt = System.currentTimeMillis();
+                mediaDao.updateDownload(download);
+                return null;
+            }));
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to store download " + download.downloadId, e);
+            if (pendingBlob != null) {
+                MediaBlobStore.discard(pendingBlob);
+            }
+            retryOrFail(download, e.toString(), true, true);
+            return;
+        }
+        long sessionBytes = active.sessionBytes.get();
+        Log.i(TAG, "Download " + download.downloadId + " complete: " + download.totalBytes + " bytes ("
+                + download.reusedBytes + " reused from cache, " + active.resumedBytes + " resumed, "
+                + sessionBytes + " fetched) in " + elapsedMs + " ms, "
+                + (elapsedMs > 0 ? sessionBytes * 1000 / elapsedMs / 1024 : 0) + " KiB/s, "
+                + active.retries.get() + " segment retries, " + download.attempts + " failed attempts before");
+        if (download.reusedBytes > 0) {
+            Log.i(TAG, "Promoted " + download.sourceUrl + " from the playback cache: saved " + download.reusedBytes
+                    + " of " + download.totalBytes + " bytes (" + download.reusedBytes * 100 / download.totalBytes
+                    + "%); " + mediaDao.getReusedDownloadBytes() + " bytes saved across all downloads");
+        }
+        MetadataExtractionWorker.getInstance(appContext).requestPass();
+        notifyFinished(download, true);
+        checkIdle();
+    }
+
+    private void retryOrFail(Download download, String error, boolean retryable, boolean discardProgress) {
+        startedDownloads.remove(download.downloadId);
+        download.attempts++;
+        download.lastError = error;
+        download.updatedAt = System.currentTimeMillis();
+        boolean exhausted = download.attempts >= MAX_JOB_ATTEMPTS;
+        if (discardProgress || !retryable || exhausted) {
+            discardProgress(download);
+        }
+        if (!retryable || exhausted) {
+            download.state = Download.STATE_FAILED;
+            awaitWrite(() -> mediaDao.updateDownload(download));
+            Log.e(TAG, "Download " + download.downloadId + " failed after " + download.attempts + " attempts: " + error);
+            notifyFinished(download, false);
+            checkIdle();
+            return;
+        }
+        long delayMs = retryDelayMs(download.attempts);
+        download.state = Download.STATE_QUEUED;
+        download.nextAttemptAt = download.updatedAt + delayMs;
+        awaitWrite(() -> mediaDao.updateDownload(download));
+        Log.w(TAG, "Download " + download.downloadId + " attempt " + download.attempts + " failed (" + error
+                + "), retrying in " + delayMs + " ms " + (discardProgress ? "from scratch" : "from saved offsets"));
+        scheduleAttempt(download);
+        scheduleWakeUp();
+        checkIdle();
+    }
+
+    private void discardProgress(Download download) {
+        awaitWrite(() -> mediaDao.deleteDownloadSegments(download.downloadId));
+        if (download.filePath != null) {
+            File partFile = new File(download.filePath);
+            if (partFile.exists() && !partFile.delete()) {
+                Log.w(TAG, "Failed to delete partial download " + partFile.getName());
+            }
+        }
+        download.filePath = null;
+        download.totalBytes = Download.LENGTH_UNKNOWN;
+        download.etag = null;
+        download.lastModified = null;
+        download.reusedBytes = 0;
+    }
+
+    private void queueProgress(DownloadSegment segment) {
+        pendingProgress.put(segment.segmentId, segment.bytesWritten);
+        if (progressFlushQueued.compareAndSet(false, true)) {
+            DbScheduler.write(DbScheduler.Priority.BACKGROUND, this::flushProgress);
+        }
+    }
+
+    private void flushProgress() {
+        progressFlushQueued.set(false);
+        Map<Long, Long> batch = new HashMap<>(pendingProgress);
+        try {
+            db.runInTransaction(() -> {
+                for (Map.Entry<Long, Long> entry : batch.entrySet()) {
+                    mediaDao.updateSegmentProgress(entry.getKey(), entry.getValue());
+                }
+            });
+            for (Map.Entry<Long, Long> entry : batch.entrySet()) {
+                pendingProgress.remove(entry.getKey(), entry.getValue());
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to checkpoint " + batch.size() + " segments", e);
+        }
+    }
+
+    private <T> T awaitWrite(Callable<T> write) {
+        SettableFuture<T> result = SettableFuture.create();
+        DbScheduler.write(DbScheduler.Priority.BACKGROUND, () -> {
+            try {
+                result.set(write.call());
+            } catch (Throwable t) {
+                result.setException(t);
+            }
+        });
+        return Futures.getUnchecked(result);
+    }
+
+    private long retryDelayMs(int attempts) {
+        long delayMs = Math.min(MAX_RETRY_DELAY_MS, retryBaseDelayMs << Math.min(attempts - 1, 20));
+        return delayMs / 2 + (long) (retryJitter.nextDouble() * (delayMs / 2));
+    }
+
+    private static boolean isRetryable(IOException e) {
+        return !(e instanceof HttpStatusException) || ((HttpStatusException) e).isRetryable();
+    }
+
+    @Nullable
+    private static String ifRangeValidator(Download download) {
+        if (download.etag != null && !download.etag.startsWith("W/")) {
+            return download.etag;
+        }
+        return download.lastModified;
+    }
+
+    private long resolveTargetPlaylist(@Nullable Long playlistId) {
+        if (playlistId != null && mediaDao.getPlaylistById(playlistId) != null) {
+            return playlistId;
+        }
+        Playlist downloads = mediaDao.getPlaylistByName(DEFAULT_DOWNLOADS_PLAYLIST_NAME);
+        if (downloads != null) {
+            return downloads.playlistId;
+        }
+        Log.i(TAG, "Creating default '" + DEFAULT_DOWNLOADS_PLAYLIST_NAME + "' playlist");
+        return mediaDao.insertPlaylist(new Playlist(DEFAULT_DOWNLOADS_PLAYLIST_NAME));
+    }
+
+    private void notifyFinished(Download download, boolean success) {
+        for (Listener listener : listeners) {
+            listener.onDownloadFinished(download.downloadId, success);
+        }
+        String message = appContext.getString(success ? R.string.download_complete_title : R.string.download_failed_title)
+                + ": " + titleFor(download);
+        mainHandler.post(() -> Toast.makeText(appContext, message, Toast.LENGTH_SHORT).show());
+    }
+
+    private static String titleFor(Download download) {
+        String title = download.title;
+        if (title == null || title.isEmpty()) {
+            title = "Downloaded File " + download.downloadId;
+        }
+        return title.length() > MAX_TITLE_LENGTH ? title.substring(0, MAX_TITLE_LENGTH) : title;
+    }
+
+    private static HttpURLConnection openConnection(String sourceUrl) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(sourceUrl).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    @Nullable
+    private static String stripParameters(@Nullable String contentType) {
+        if (contentType == null) return null;
+        int separator = contentType.indexOf(';');
+        return (separator >= 0 ? contentType.substring(0, separator) : contentType).trim();
+    }
+
+    @Nullable
+    static String getExtensionFromMimeType(@Nullable String mimeType) {
+        if (mimeType == null) return null;
+        if (mimeType.equalsIgnoreCase("audio/mpeg")) return "mp3";
+        if (mimeType.equalsIgnoreCase("audio/aac")) return "aac";
+        if (mimeType.equalsIgnoreCase("audio/ogg")) return "ogg";
+        if (mimeType.equalsIgnoreCase("audio/wav")) return "wav";
+        if (mimeType.equalsIgnoreCase("audio/mp4")) return "m4a";
+        if (mimeType.startsWith("audio/")) return "audio";
+        if (mimeType.equalsIgnoreCase("video/mp4")) return "mp4";
+        if (mimeType.equalsIgnoreCase("video/3gpp")) return "3gp";
+        if (mimeType.equalsIgnoreCase("video/webm")) return "webm";
+        if (mimeType.equalsIgnoreCase("video/x-matroska")) return "mkv";
+        if (mimeType.startsWith("video/")) return "video";
+        if (mimeType.equalsIgnoreCase("image/jpeg")) return "jpg";
+        if (mimeType.equalsIgnoreCase("image/png")) return "png";
+        if (mimeType.startsWith("image/")) return "img";
+        if (mimeType.equalsIgnoreCase("application/octet-stream")) return "bin";
+
+        Log.w(TAG, "Unknown MIME type, cannot determine extension: " + mimeType);
+        return null;
+    }
+
+    private static final class ActiveDownload {
+        final Download download;
+        final RandomAccessFile file;
+        final FileChannel channel;
+        final AtomicInteger remainingSegments = new AtomicInteger();
+        final AtomicInteger retries = new AtomicInteger();
+        final AtomicLong sessionBytes = new AtomicLong();
+        final long startedAtMs = SystemClock.elapsedRealtime();
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        long resumedBytes;
+        volatile boolean abandoned;
+
+        ActiveDownload(Download download, RandomAccessFile file) {
+            this.download = download;
+            this.file = file;
+            this.channel = file.getChannel();
+        }
+
+        boolean failed() {
+            return failure.get() != null;
+        }
+
+        void closeQuietly() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close partial download " + download.downloadId, e);
+            }
+        }
+    }
+
+    private static final class HttpStatusException extends IOException {
+        final int code;
+
+        HttpStatusException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+
+        boolean isRetryable() {
+            return code >= 500 || code == 408 || code == 429;
+        }
+    }
+
+    private static final class RemoteChangedException extends IOException {
+        RemoteChangedException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class ContentRange {
+        final long start;
+        final long end;
+        final long total;
+
+        private ContentRange(long start, long end, long total) {
+            this.start = start;
+            this.end = end;
+            this.total = total;
+        }
+
+        @Nullable
+        static ContentRange parse(@Nullable String header) {
+            if (header == null || !header.startsWith("bytes ")) return null;
+            try {
+                int dash = header.indexOf('-', 6);
+                int slash = header.indexOf('/', dash);
+                if (dash < 0 || slash < 0) return null;
+                long start = Long.parseLong(header.substring(6, dash).trim());
+                long end = Long.parseLong(header.substring(dash + 1, slash).trim());
+                String totalPart = header.substring(slash + 1).trim();
+                long total = "*".equals(totalPart) ? Download.LENGTH_UNKNOWN : Long.parseLong(totalPart);
+                return new ContentRange(start, end, total);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.lab4;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
+import androidx.media3.exoplayer.DefaultRenderersFactory;
+import androidx.media3.exoplayer.offline.Download;
+import androidx.media3.exoplayer.offline.DownloadHelper;
+import androidx.media3.exoplayer.offline.DownloadManager;
+import androidx.media3.exoplayer.offline.DownloadNotificationHelper;
+import androidx.media3.exoplayer.offline.DownloadRequest;
+import androidx.media3.exoplayer.offline.DownloadService;
+import androidx.media3.exoplayer.scheduler.Requirements;
+import androidx.media3.exoplayer.trackselection.DefaultTrackSelector;
+
+import com.example.lab4.db.AppDatabase;
+import com.example.lab4.db.DbScheduler;
+import com.example.lab4.db.MediaDao;
+import com.example.lab4.db.Playlist;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@UnstableApi
+public final class StreamDownloader implements DownloadManager.Listener {
+
+    private static final String TAG = "StreamDownloader";
+    static final int MAX_PARALLEL_DOWNLOADS = 2;
+    static final int SEGMENT_THREADS = 6;
+    static final String NOTIFICATION_CHANNEL_ID = "lab4_download_channel";
+    private static final int MAX_TITLE_LENGTH = 200;
+    private static final String DEFAULT_DOWNLOADS_PLAYLIST_NAME = "Downloads";
+
+    public interface Listener {
+        void onDownloadFinished(String downloadId, boolean success);
+    }
+
+    private static volatile StreamDownloader INSTANCE;
+
+    private final Context appContext;
+    private final MediaDao mediaDao;
+    private final ExecutorService segmentExecutor = Executors.newFixedThreadPool(SEGMENT_THREADS);
+    private final DownloadManager downloadManager;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private DownloadNotificationHelper notificationHelper;
+
+    StreamDownloader(Context context, AppDatabase db) {
+        this.appContext = context.getApplicationContext();
+        this.mediaDao = db.mediaDao();
+        DownloadedStreams.load(appContext);
+        downloadManager = new DownloadManager(appContext, MediaCache.getDatabaseProvider(appContext),
+                MediaCache.getDownloadCache(appContext), MediaCache.getHttpDataSourceFactory(), segmentExecutor);
+        downloadManager.setMaxParallelDownloads(MAX_PARALLEL_DOWNLOADS);
+        downloadManager.setRequirements(new Requirements(Requirements.NETWORK));
+        downloadManager.addListener(this);
+    }
+
+    public static StreamDownloader getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (StreamDownloader.class) {
+                if (INSTANCE == null) {
+                    Context appContext = context.getApplicationContext();
+                    INSTANCE = new StreamDownloader(appContext, AppDatabase.getInstance(appContext));
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public static boolean isAdaptiveStream(Uri uri) {
+        @C.ContentType int contentType = Util.inferContentType(uri);
+        return contentType == C.CONTENT_TYPE_HLS || contentType == C.CONTENT_TYPE_DASH;
+    }
+
+    public DownloadManager getDownloadManager() {
+        return downloadManager;
+    }
+
+    public synchronized DownloadNotificationHelper getNotificationHelper() {
+        if (notificationHelper == null) {
+            notificationHelper = new DownloadNotificationHelper(appContext, NOTIFICATION_CHANNEL_ID);
+        }
+        return notificationHelper;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public ListenableFuture<DownloadRequest> download(Uri manifestUri, @Nullable Long playlistId, @Nullable String title) {
+        ListenableFuture<DownloadRequest> request = prepareRequest(manifestUri, playlistId, title);
+        request.addListener(() -> {
+            try {
+                DownloadService.sendAddDownload(appContext, MediaDownloadService.class, request.get(), false);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not queue stream download for " + manifestUri, e);
+            }
+        }, mainHandler::post);
+        return request;
+    }
+
+    ListenableFuture<DownloadRequest> prepareRequest(Uri manifestUri, @Nullable Long playlistId, @Nullable String title) {
+        SettableFuture<DownloadRequest> result = SettableFuture.create();
+        mainHandler.post(() -> {
+            DefaultTrackSelector.Parameters parameters = AdaptiveStreamingPolicy.capToScreen(appContext,
+                    DownloadHelper.getDefaultTrackSelectorParameters(appContext).buildUpon(), Integer.MAX_VALUE)
+                    .build();
+            DownloadHelper helper = DownloadHelper.forMediaItem(MediaItem.fromUri(manifestUri), parameters,
+                    new DefaultRenderersFactory(appContext), MediaCache.getCacheDataSourceFactory(appContext));
+            helper.prepare(new DownloadHelper.Callback() {
+                @Override
+                public void onPrepared(@NonNull DownloadHelper preparedHelper) {
+                    try {
+                        DownloadRequest request = preparedHelper.getDownloadRequest(manifestUri.toString(),
+                                encodeTarget(playlistId, title));
+                        Log.i(TAG, "Prepared download of " + manifestUri + " with " + request.streamKeys.size()
+                                + " selected streams" + (playlistId != null ? " into playlist " + playlistId : ""));
+                        result.set(request);
+                    } catch (Exception e) {
+                        result.setException(e);
+                    } finally {
+                        preparedHelper.release();
+                    }
+                }
+
+                @Override
+                public void onPrepareError(@NonNull DownloadHelper failedHelper, @NonNull IOException e) {
+                    Log.e(TAG, "Could not prepare download of " + manifestUri, e);
+                    failedHelper.release();
+                    result.setException(e);
+                }
+            });
+        });
+        return result;
+    }
+
+    void release() {
+        downloadManager.removeListener(this);
+        downloadManager.release();
+        segmentExecutor.shutdownNow();
+    }
+
+    @Override
+    public void onDownloadChanged(@NonNull DownloadManager manager, @NonNull Download download,
+                                  @Nullable Exception finalException) {
+        String downloadId = download.request.id;
+        switch (download.state) {
+            case Download.STATE_QUEUED:
+            case Download.STATE_DOWNLOADING:
+            case Download.STATE_RESTARTING:
+                DownloadedStreams.onRemoved(downloadId);
+                break;
+            case Download.STATE_COMPLETED:
+                DownloadedStreams.onCompleted(download.request);
+                Log.i(TAG, "Stream download " + downloadId + " complete: " + download.getBytesDownloaded() + " bytes in "
+                        + (download.updateTimeMs - download.startTimeMs) + " ms");
+                DbScheduler.write(() -> addToPlaylist(download));
+                break;
+            case Download.STATE_FAILED:
+                DownloadedStreams.onRemoved(downloadId);
+                Log.e(TAG, "Stream download " + downloadId + " failed", finalException);
+                notifyFinished(download, false);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onDownloadRemoved(@NonNull DownloadManager manager, @NonNull Download download) {
+        DownloadedStreams.onRemoved(download.request.id);
+    }
+
+    private void addToPlaylist(Download download) {
+        DownloadTarget target = decodeTarget(download.request.data);
+        try {
+            long playlistId = resolveTargetPlaylist(target.playlistId);
+            String title = target.title != null && !target.title.isEmpty()
+                    ? target.title
+                    : MediaMetadataResolver.displayNameFromPath(download.request.uri);
+            if (title.length() > MAX_TITLE_LENGTH) {
+                title = title.substring(0, MAX_TITLE_LENGTH);
+            }
+            mediaDao.insertMediaItem(new com.example.lab4.db.MediaItem(download.request.uri.toString(), title, playlistId));
+            notifyFinished(download, true);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to add stream download " + download.request.id + " to a playlist", e);
+            notifyFinished(download, false);
+        }
+    }
+
+    private long resolveTargetPlaylist(@Nullable Long playlistId) {
+        if (playlistId != null && mediaDao.getPlaylistById(playlistId) != null) {
+            return playlistId;
+        }
+        Playlist downloads = mediaDao.getPlaylistByName(DEFAULT_DOWNLOADS_PLAYLIST_NAME);
+        if (downloads != null) {
+            return downloads.playlistId;
+        }
+        Log.i(TAG, "Creating default '" + DEFAULT_DOWNLOADS_PLAYLIST_NAME + "' playlist");
+        return mediaDao.insertPlaylist(new Playlist(DEFAULT_DOWNLOADS_PLAYLIST_NAME));
+    }
+
+    private void notifyFinished(Download download, boolean success) {
+        for (Listener listener : listeners) {
+            listener.onDownloadFinished(download.request.id, success);
+        }
+        DownloadTarget target = decodeTarget(download.request.data);
+        String message = appContext.getString(success ? R.string.download_complete_title : R.string.download_failed_title)
+                + ": " + (target.title != null ? target.title : download.request.uri.getLastPathSegment());
+        mainHandler.post(() -> Toast.makeText(appContext, message, Toast.LENGTH_SHORT).show());
+    }
+
+    private static byte[] encodeTarget(@Nullable Long playlistId, @Nullable String title) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBoolean(playlistId != null);
+            out.writeLong(playlistId != null ? playlistId : 0);
+            out.writeBoolean(title != null);
+            out.writeUTF(title != null ? title : "");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DownloadTarget decodeTarget(byte[] data) {
+        if (data == null || data.length == 0) {
+            return new DownloadTarget(null, null);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            boolean hasPlaylist = in.readBoolean();
+            long playlistId = in.readLong();
+            boolean hasTitle = in.readBoolean();
+            String title = in.readUTF();
+            return new DownloadTarget(hasPlaylist ? playlistId : null, hasTitle ? title : null);
+        } catch (IOException e) {
+            Log.w(TAG, "Unreadable download target, using defaults", e);
+            return new DownloadTarget(null, null);
+        }
+    }
+
+    private static final class DownloadTarget {
+        @Nullable final Long playlistId;
+        @Nullable final String title;
+
+        DownloadTarget(@Nullable Long playlistId, @Nullable String title) {
+            this.playlistId = playlistId;
+            this.title = title;
+        }
+    }
+}
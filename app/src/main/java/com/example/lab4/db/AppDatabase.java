@@ -1,25 +1,388 @@
 package com.example.lab4.db;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-@Database(entities = {Playlist.class, MediaItem.class}, version = 1, exportSchema = false)
+@Database(entities = {Playlist.class, Media.class, PlaylistEntry.class, MediaBlob.class, MediaMetadataEntry.class,
+        MediaFts.class, PlaylistFts.class, PlaylistStats.class, NowPlayingItem.class, NowPlayingState.class, ResumePosition.class,
+        Download.class, DownloadSegment.class},
+        views = {MediaItem.class}, version = 15, exportSchema = false)
 public abstract class AppDatabase extends RoomDatabase {
 
     public abstract MediaDao mediaDao();
     private static volatile AppDatabase INSTANCE;
-    private static final int NUMBER_OF_THREADS = 4;
-    public static final ExecutorService databaseWriteExecutor =
-            Executors.newFixedThreadPool(NUMBER_OF_THREADS);
     private static final AtomicBoolean mIsDatabaseInitialized = new AtomicBoolean(false);
+
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `media_items` ADD COLUMN `blob_digest` TEXT");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_media_items_blob_digest` ON `media_items` (`blob_digest`)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `media_blobs` (`blob_digest` TEXT NOT NULL, `blob_path` TEXT NOT NULL, "
+                    + "`blob_size` INTEGER NOT NULL, `ref_count` INTEGER NOT NULL, PRIMARY KEY(`blob_digest`))");
+        }
+    };
+
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `media_metadata` (`media_uri` TEXT NOT NULL, `display_name` TEXT, "
+                    + "`size_bytes` INTEGER NOT NULL, `mime_type` TEXT, `duration_ms` INTEGER NOT NULL, PRIMARY KEY(`media_uri`))");
+        }
+    };
+
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `media_metadata` ADD COLUMN `artist` TEXT");
+            db.execSQL("ALTER TABLE `media_metadata` ADD COLUMN `album` TEXT");
+            db.execSQL("ALTER TABLE `media_metadata` ADD COLUMN `artwork_path` TEXT");
+            db.execSQL("ALTER TABLE `media_metadata` ADD COLUMN `metadata_extracted` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            createContentSyncedFtsTable(db, "media_items_fts", "media_items", "media_title");
+            createContentSyncedFtsTable(db, "playlists_fts", "playlists", "playlist_name");
+        }
+    };
+
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_media_items_media_uri` ON `media_items` (`media_uri`)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `playlist_stats` (`playlist_id` INTEGER NOT NULL, `item_count` INTEGER NOT NULL, "
+                    + "`total_duration_ms` INTEGER NOT NULL, PRIMARY KEY(`playlist_id`), "
+                    + "FOREIGN KEY(`playlist_id`) REFERENCES `playlists`(`playlist_id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("INSERT OR REPLACE INTO `playlist_stats` (`playlist_id`, `item_count`, `total_duration_ms`) "
+                    + "SELECT p.`playlist_id`, "
+                    + "(SELECT COUNT(*) FROM `media_items` mi WHERE mi.`playlist_creator_id` = p.`playlist_id`), "
+                    + "(SELECT IFNULL(SUM(MAX(IFNULL(mm.`duration_ms`, 0), 0)), 0) FROM `media_items` mi "
+                    + "LEFT JOIN `media_metadata` mm ON mm.`media_uri` = mi.`media_uri` WHERE mi.`playlist_creator_id` = p.`playlist_id`) "
+                    + "FROM `playlists` p");
+        }
+    };
+
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `media_items` ADD COLUMN `position` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE `media_items` SET `position` = `media_id` * " + MediaItemOrdering.POSITION_GAP);
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_media_items_playlist_creator_id_position` "
+                    + "ON `media_items` (`playlist_creator_id`, `position`)");
+        }
+    };
+
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            long rowsBefore = queryLong(db, "SELECT COUNT(*) FROM `media_items`");
+            long stringBytesBefore = queryLong(db, "SELECT IFNULL(SUM(LENGTH(`media_uri`) + IFNULL(LENGTH(`media_title`), 0)), 0) FROM `media_items`");
+            int normalized = normalizeMediaItemUris(db);
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS `media` (`media_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`media_uri` TEXT NOT NULL, `media_title` TEXT, `blob_digest` TEXT)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_media_media_uri` ON `media` (`media_uri`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_media_blob_digest` ON `media` (`blob_digest`)");
+            db.execSQL("INSERT INTO `media` (`media_id`, `media_uri`, `media_title`, `blob_digest`) "
+                    + "SELECT MIN(mi.`media_id`), mi.`media_uri`, "
+                    + "(SELECT t.`media_title` FROM `media_items` t WHERE t.`media_uri` = mi.`media_uri` "
+                    + "AND t.`media_title` IS NOT NULL ORDER BY t.`media_id` LIMIT 1), "
+                    + "MAX(mi.`blob_digest`) FROM `media_items` mi GROUP BY mi.`media_uri`");
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS `playlist_entries` (`entry_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`playlist_id` INTEGER NOT NULL, `media_id` INTEGER NOT NULL, `position` INTEGER NOT NULL, "
+                    + "FOREIGN KEY(`playlist_id`) REFERENCES `playlists`(`playlist_id`) ON UPDATE NO ACTION ON DELETE CASCADE , "
+                    + "FOREIGN KEY(`media_id`) REFERENCES `media`(`media_id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_playlist_entries_playlist_id_position` ON `playlist_entries` (`playlist_id`, `position`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_playlist_entries_media_id` ON `playlist_entries` (`media_id`)");
+            db.execSQL("INSERT INTO `playlist_entries` (`entry_id`, `playlist_id`, `media_id`, `position`) "
+                    + "SELECT mi.`media_id`, mi.`playlist_creator_id`, m.`media_id`, mi.`position` FROM `media_items` mi "
+                    + "INNER JOIN `media` m ON m.`media_uri` = mi.`media_uri`");
+
+            long mediaRows = queryLong(db, "SELECT COUNT(*) FROM `media`");
+            long entryRows = queryLong(db, "SELECT COUNT(*) FROM `playlist_entries`");
+            long stringBytesAfter = queryLong(db, "SELECT IFNULL(SUM(LENGTH(`media_uri`) + IFNULL(LENGTH(`media_title`), 0)), 0) FROM `media`");
+            Log.i("AppDatabase", "Split media_items: " + rowsBefore + " rows -> " + mediaRows + " media + " + entryRows
+                    + " playlist entries; URI/title text " + stringBytesBefore + " -> " + stringBytesAfter + " bytes ("
+                    + (rowsBefore - mediaRows) + " duplicate media rows removed, " + normalized + " URIs normalized).");
+
+            db.execSQL("DROP TABLE IF EXISTS `media_items_fts`");
+            db.execSQL("DROP TABLE IF EXISTS `media_items`");
+            db.execSQL("DROP TRIGGER IF EXISTS `playlist_stats_metadata_before_insert`");
+            db.execSQL("DROP TRIGGER IF EXISTS `playlist_stats_metadata_after_insert`");
+            db.execSQL("DROP TRIGGER IF EXISTS `playlist_stats_metadata_update`");
+
+            db.execSQL("CREATE VIEW `playlist_media` AS SELECT playlist_entries.entry_id, playlist_entries.playlist_id, "
+                    + "playlist_entries.position, media.media_id, media.media_uri, media.media_title, media.blob_digest "
+                    + "FROM playlist_entries INNER JOIN media ON media.media_id = playlist_entries.media_id");
+            createContentSyncedFtsTable(db, "media_fts", "media", "media_title");
+
+            createBlobRefCountTriggers(db);
+            db.execSQL("UPDATE `media_blobs` SET `ref_count` = "
+                    + "(SELECT COUNT(*) FROM `media` WHERE `media`.`blob_digest` = `media_blobs`.`blob_digest`)");
+
+            createMediaOrphanTrigger(db);
+            createPlaylistStatsTriggers(db);
+            db.execSQL("DELETE FROM `playlist_stats`");
+            db.execSQL("INSERT INTO `playlist_stats` (`playlist_id`, `item_count`, `total_duration_ms`) "
+                    + "SELECT p.`playlist_id`, "
+                    + "(SELECT COUNT(*) FROM `playlist_entries` e WHERE e.`playlist_id` = p.`playlist_id`), "
+                    + "(SELECT IFNULL(SUM(MAX(IFNULL(mm.`duration_ms`, 0), 0)), 0) FROM `playlist_entries` e "
+                    + "INNER JOIN `media` m ON m.`media_id` = e.`media_id` "
+                    + "LEFT JOIN `media_metadata` mm ON mm.`media_uri` = m.`media_uri` WHERE e.`playlist_id` = p.`playlist_id`) "
+                    + "FROM `playlists` p");
+        }
+    };
+
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `now_playing_queue` (`queue_index` INTEGER NOT NULL, `media_id` TEXT NOT NULL, "
+                    + "`media_uri` TEXT NOT NULL, `media_title` TEXT, PRIMARY KEY(`queue_index`))");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `now_playing_state` (`state_id` INTEGER NOT NULL, `current_index` INTEGER NOT NULL, "
+                    + "`position_ms` INTEGER NOT NULL, `shuffle_enabled` INTEGER NOT NULL, `repeat_mode` INTEGER NOT NULL, "
+                    + "`updated_at` INTEGER NOT NULL, PRIMARY KEY(`state_id`))");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `resume_positions` (`media_uri` TEXT NOT NULL, `position_ms` INTEGER NOT NULL, "
+                    + "`duration_ms` INTEGER NOT NULL, `updated_at` INTEGER NOT NULL, PRIMARY KEY(`media_uri`))");
+        }
+    };
+
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `downloads` (`download_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`source_url` TEXT NOT NULL, `playlist_id` INTEGER, `title` TEXT, `mime_type` TEXT, "
+                    + "`total_bytes` INTEGER NOT NULL, `file_path` TEXT, `state` INTEGER NOT NULL, "
+                    + "`created_at` INTEGER NOT NULL, `updated_at` INTEGER NOT NULL, "
+                    + "FOREIGN KEY(`playlist_id`) REFERENCES `playlists`(`playlist_id`) ON UPDATE NO ACTION ON DELETE SET NULL )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_downloads_playlist_id` ON `downloads` (`playlist_id`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_downloads_state` ON `downloads` (`state`)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `download_segments` (`segment_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`download_id` INTEGER NOT NULL, `start_offset` INTEGER NOT NULL, `end_offset` INTEGER NOT NULL, "
+                    + "`bytes_written` INTEGER NOT NULL, `attempts` INTEGER NOT NULL, "
+                    + "FOREIGN KEY(`download_id`) REFERENCES `downloads`(`download_id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_download_segments_download_id` ON `download_segments` (`download_id`)");
+        }
+    };
+
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `etag` TEXT");
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `last_modified` TEXT");
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `expected_sha256` TEXT");
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `attempts` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `next_attempt_at` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `last_error` TEXT");
+        }
+    };
+
+    static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `downloads` ADD COLUMN `reused_bytes` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_12_13 = new Migration(12, 13) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `playlist_entries` ADD COLUMN `ordinal` INTEGER NOT NULL DEFAULT 0");
+            int numbered = numberPlaylistEntries(db);
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_playlist_entries_playlist_id_ordinal` "
+                    + "ON `playlist_entries` (`playlist_id`, `ordinal`)");
+            db.execSQL("DROP VIEW IF EXISTS `playlist_media`");
+            db.execSQL("CREATE VIEW `playlist_media` AS " + MediaItem.VIEW_QUERY);
+            Log.i("AppDatabase", "Numbered " + numbered + " playlist entries by ordinal.");
+        }
+    };
+
+    static final Migration MIGRATION_13_14 = new Migration(13, 14) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `now_playing_state` ADD COLUMN `playlist_id` INTEGER NOT NULL DEFAULT -1");
+            db.execSQL("ALTER TABLE `now_playing_state` ADD COLUMN `current_entry_id` INTEGER NOT NULL DEFAULT -1");
+        }
+    };
+
+    static final Migration MIGRATION_14_15 = new Migration(14, 15) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            createMediaMetadataOrphanTrigger(db);
+            long before = queryLong(db, "SELECT COUNT(*) FROM `media_metadata`");
+            db.execSQL("DELETE FROM `media_metadata` WHERE `media_uri` NOT IN (SELECT `media_uri` FROM `media`)");
+            long after = queryLong(db, "SELECT COUNT(*) FROM `media_metadata`");
+            Log.i("AppDatabase", "Removed " + (before - after) + " media_metadata rows left behind by deleted media.");
+        }
+    };
+
+    static final Migration[] ALL_MIGRATIONS = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5,
+            MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11,
+            MIGRATION_11_12, MIGRATION_12_13, MIGRATION_13_14, MIGRATION_14_15};
+
+    static final RoomDatabase.Callback CREATE_CALLBACK = new RoomDatabase.Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+            createBlobRefCountTriggers(db);
+            createMediaOrphanTrigger(db);
+            createMediaMetadataOrphanTrigger(db);
+            createPlaylistStatsTriggers(db);
+        }
+    };
+
+    private static long queryLong(SupportSQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    private static int normalizeMediaItemUris(SupportSQLiteDatabase db) {
+        SupportSQLiteStatement update = db.compileStatement("UPDATE `media_items` SET `media_uri` = ? WHERE `media_id` = ?");
+        int normalized = 0;
+        try (Cursor cursor = db.query("SELECT `media_id`, `media_uri` FROM `media_items`")) {
+            while (cursor.moveToNext()) {
+                String mediaUri = cursor.getString(1);
+                String normalizedUri = MediaUris.normalize(mediaUri);
+                if (normalizedUri.equals(mediaUri)) {
+                    continue;
+                }
+                update.bindString(1, normalizedUri);
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+                normalized++;
+            }
+        }
+        return normalized;
+    }
+
+    private static int numberPlaylistEntries(SupportSQLiteDatabase db) {
+        SupportSQLiteStatement update = db.compileStatement("UPDATE `playlist_entries` SET `ordinal` = ? WHERE `entry_id` = ?");
+        int numbered = 0;
+        try (Cursor cursor = db.query("SELECT `entry_id`, `playlist_id` FROM `playlist_entries` "
+                + "ORDER BY `playlist_id`, `position`, `entry_id`")) {
+            long playlistId = -1;
+            int ordinal = 0;
+            while (cursor.moveToNext()) {
+                if (cursor.getLong(1) != playlistId) {
+                    playlistId = cursor.getLong(1);
+                    ordinal = 0;
+                }
+                update.bindLong(1, ordinal++);
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+                numbered++;
+            }
+        }
+        return numbered;
+    }
+
+    private static void createBlobRefCountTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `media_blobs_ref_insert` AFTER INSERT ON `media` "
+                + "WHEN NEW.`blob_digest` IS NOT NULL BEGIN "
+                + "UPDATE `media_blobs` SET `ref_count` = `ref_count` + 1 WHERE `blob_digest` = NEW.`blob_digest`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `media_blobs_ref_delete` AFTER DELETE ON `media` "
+                + "WHEN OLD.`blob_digest` IS NOT NULL BEGIN "
+                + "UPDATE `media_blobs` SET `ref_count` = `ref_count` - 1 WHERE `blob_digest` = OLD.`blob_digest`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `media_blobs_ref_update` AFTER UPDATE OF `blob_digest` ON `media` "
+                + "WHEN OLD.`blob_digest` IS NOT NEW.`blob_digest` BEGIN "
+                + "UPDATE `media_blobs` SET `ref_count` = `ref_count` - 1 WHERE `blob_digest` = OLD.`blob_digest`; "
+                + "UPDATE `media_blobs` SET `ref_count` = `ref_count` + 1 WHERE `blob_digest` = NEW.`blob_digest`; END");
+    }
+
+    private static void createMediaOrphanTrigger(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `media_orphan_delete` AFTER DELETE ON `playlist_entries` "
+                + "WHEN NOT EXISTS (SELECT 1 FROM `playlist_entries` WHERE `media_id` = OLD.`media_id`) BEGIN "
+                + "DELETE FROM `media` WHERE `media_id` = OLD.`media_id`; END");
+    }
+
+    private static void createMediaMetadataOrphanTrigger(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `media_metadata_orphan_delete` AFTER DELETE ON `media` BEGIN "
+                + "DELETE FROM `media_metadata` WHERE `media_uri` = OLD.`media_uri`; END");
+    }
+
+    private static String mediaUriOf(String mediaIdExpression) {
+        return "(SELECT `media_uri` FROM `media` WHERE `media_id` = " + mediaIdExpression + ")";
+    }
+
+    private static String knownDurationOf(String mediaUriExpression) {
+        return "IFNULL((SELECT MAX(`duration_ms`, 0) FROM `media_metadata` WHERE `media_uri` = " + mediaUriExpression + "), 0)";
+    }
+
+    private static String playlistsContaining(String mediaUriExpression) {
+        return "`playlist_id` IN (SELECT e.`playlist_id` FROM `playlist_entries` e INNER JOIN `media` m ON m.`media_id` = e.`media_id` "
+                + "WHERE m.`media_uri` = " + mediaUriExpression + ")";
+    }
+
+    private static String copiesInPlaylist(String mediaUriExpression) {
+        return "(SELECT COUNT(*) FROM `playlist_entries` e INNER JOIN `media` m ON m.`media_id` = e.`media_id` "
+                + "WHERE m.`media_uri` = " + mediaUriExpression + " AND e.`playlist_id` = `playlist_stats`.`playlist_id`)";
+    }
+
+    private static void createPlaylistStatsTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `playlist_stats_playlist_insert` AFTER INSERT ON `playlists` BEGIN "
+                + "INSERT OR IGNORE INTO `playlist_stats` (`playlist_id`, `item_count`, `total_duration_ms`) VALUES (NEW.`playlist_id`, 0, 0); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `playlist_stats_entry_insert` AFTER INSERT ON `playlist_entries` BEGIN "
+                + "INSERT OR IGNORE INTO `playlist_stats` (`playlist_id`, `item_count`, `total_duration_ms`) VALUES (NEW.`playlist_id`, 0, 0); "
+                + "UPDATE `playlist_stats` SET `item_count` = `item_count` + 1, "
+                + "`total_duration_ms` = `total_duration_ms` + " + knownDurationOf(mediaUriOf("NEW.`media_id`"))
+                + " WHERE `playlist_id` = NEW.`playlist_id`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `playlist_stats_entry_delete` BEFORE DELETE ON `playlist_entries` BEGIN "
+                + "UPDATE `playlist_stats` SET `item_count` = `item_count` - 1, "
+                + "`total_duration_ms` = `total_duration_ms` - " + knownDurationOf(mediaUriOf("OLD.`media_id`"))
+                + " WHERE `playlist_id` = OLD.`playlist_id`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `playlist_stats_entry_update` AFTER UPDATE OF `playlist_id`, `media_id` ON `playlist_entries` "
+                + "WHEN OLD.`playlist_id` != NEW.`playlist_id` OR OLD.`media_id` != NEW.`media_id` BEGIN "
+                + "UPDATE `playlist_stats` SET `item_count` = `item_count` - 1, "
+                + "`total_duration_ms` = `total_duration_ms` - " + knownDurationOf(mediaUriOf("OLD.`media_id`"))
+                + " WHERE `playlist_id` = OLD.`playlist_id`; "
+                + "INSERT OR IGNORE INTO `playlist_stats` (`playlist_id`, `item_count`, `total_duration_ms`) VALUES (NEW.`playlist_id`, 0, 0); "
+                + "UPDATE `playlist_stats` SET `item_count` = `item_count` + 1, "
+                + "`total_duration_ms` = `total_duration_ms` + " + knownDurationOf(mediaUriOf("NEW.`media_id`"))
+                + " WHERE `playlist_id` = NEW.`playlist_id`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `playlist_stats_metadata_before_insert` BEFORE INSERT ON `media_metadata` BEGIN "
+                + "UPDATE `playlist_stats` SET `total_duration_ms` = `total_duration_ms` - "
+                + knownDurationOf("NEW.`media_uri`") + " * " + copiesInPlaylist("NEW.`media_uri`")
+                + " WHERE " + playlistsContaining("NEW.`media_uri`") + "; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `playlist_stats_metadata_after_insert` AFTER INSERT ON `media_metadata` BEGIN "
+                + "UPDATE `playlist_stats` SET `total_duration_ms` = `total_duration_ms` + "
+                + "MAX(NEW.`duration_ms`, 0) * " + copiesInPlaylist("NEW.`media_uri`")
+                + " WHERE " + playlistsContaining("NEW.`media_uri`") + "; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `playlist_stats_metadata_update` AFTER UPDATE OF `duration_ms` ON `media_metadata` "
+                + "WHEN OLD.`media_uri` = NEW.`media_uri` BEGIN "
+                + "UPDATE `playlist_stats` SET `total_duration_ms` = `total_duration_ms` + "
+                + "(MAX(NEW.`duration_ms`, 0) - MAX(OLD.`duration_ms`, 0)) * " + copiesInPlaylist("NEW.`media_uri`")
+                + " WHERE " + playlistsContaining("NEW.`media_uri`") + "; END");
+    }
+
+    private static void createContentSyncedFtsTable(SupportSQLiteDatabase db, String ftsTable, String contentTable, String column) {
+        db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `" + ftsTable + "` USING FTS4(`" + column + "` TEXT, "
+                + "tokenize=unicode61, content=`" + contentTable + "`)");
+        String triggerPrefix = "room_fts_content_sync_" + ftsTable;
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + triggerPrefix + "_BEFORE_UPDATE BEFORE UPDATE ON `" + contentTable + "` "
+                + "BEGIN DELETE FROM `" + ftsTable + "` WHERE `docid`=OLD.`rowid`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + triggerPrefix + "_BEFORE_DELETE BEFORE DELETE ON `" + contentTable + "` "
+                + "BEGIN DELETE FROM `" + ftsTable + "` WHERE `docid`=OLD.`rowid`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + triggerPrefix + "_AFTER_UPDATE AFTER UPDATE ON `" + contentTable + "` "
+                + "BEGIN INSERT INTO `" + ftsTable + "`(`docid`, `" + column + "`) VALUES (NEW.`rowid`, NEW.`" + column + "`); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + triggerPrefix + "_AFTER_INSERT AFTER INSERT ON `" + contentTable + "` "
+                + "BEGIN INSERT INTO `" + ftsTable + "`(`docid`, `" + column + "`) VALUES (NEW.`rowid`, NEW.`" + column + "`); END");
+        db.execSQL("INSERT INTO `" + ftsTable + "`(`" + ftsTable + "`) VALUES ('rebuild')");
+    }
+
     public static AppDatabase getInstance(final Context context) {
         if (INSTANCE == null) {
             synchronized (AppDatabase.class) {
@@ -28,6 +391,11 @@ public abstract class AppDatabase extends RoomDatabase {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                                     AppDatabase.class,
                                     "lab4_media_database")
+                            .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                            .setQueryExecutor(DbScheduler.readExecutor())
+                            .setTransactionExecutor(DbScheduler.writeExecutor())
+                            .addMigrations(ALL_MIGRATIONS)
+                            .addCallback(CREATE_CALLBACK)
                             .build();
                     initializeDefaultPlaylistsIfNeeded(context);
                 }
@@ -38,7 +406,7 @@ public abstract class AppDatabase extends RoomDatabase {
     private static void initializeDefaultPlaylistsIfNeeded(final Context context) {
         if (mIsDatabaseInitialized.compareAndSet(false, true)) {
             Log.d("AppDatabase", "Initializing default playlists check...");
-            databaseWriteExecutor.execute(() -> {
+            DbScheduler.write(() -> {
                 AppDatabase db = getInstance(context.getApplicationContext());
                 MediaDao dao = db.mediaDao();
                 try {
@@ -0,0 +1,149 @@
+package com.example.lab4.db;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class DbScheduler {
+
+    private static final String TAG = "DbScheduler";
+    private static final int READER_THREADS = 3;
+    private static final int IO_THREADS = 2;
+
+    public enum Priority { USER_VISIBLE, NORMAL, BACKGROUND }
+
+    private static final Lane WRITE_LANE = new Lane("db-write", 1);
+    private static final Lane READ_LANE = new Lane("db-read", READER_THREADS);
+    private static final Lane IO_LANE = new Lane("db-io", IO_THREADS);
+
+    private DbScheduler() {
+    }
+
+    public static void write(Runnable task) {
+        WRITE_LANE.submit(Priority.NORMAL, task);
+    }
+
+    public static void write(Priority priority, Runnable task) {
+        WRITE_LANE.submit(priority, task);
+    }
+
+    public static void read(Runnable task) {
+        READ_LANE.submit(Priority.USER_VISIBLE, task);
+    }
+
+    public static void read(Priority priority, Runnable task) {
+        READ_LANE.submit(priority, task);
+    }
+
+    public static void io(Runnable task) {
+        IO_LANE.submit(Priority.BACKGROUND, task);
+    }
+
+    public static void io(Priority priority, Runnable task) {
+        IO_LANE.submit(priority, task);
+    }
+
+    public static Executor readExecutor() {
+        return task -> READ_LANE.submit(Priority.USER_VISIBLE, task);
+    }
+
+    public static Executor writeExecutor() {
+        return task -> WRITE_LANE.submit(Priority.NORMAL, task);
+    }
+
+    public static void logStats() {
+        WRITE_LANE.logStats();
+        READ_LANE.logStats();
+        IO_LANE.logStats();
+    }
+
+    private static final class Lane {
+        private final String name;
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong sequence = new AtomicLong();
+        private final AtomicLong completedTasks = new AtomicLong();
+        private final AtomicLong totalWaitMs = new AtomicLong();
+        private final AtomicLong maxWaitMs = new AtomicLong();
+
+        Lane(String name, int threads) {
+            this.name = name;
+            this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<>(), new LaneThreadFactory(name));
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        void submit(Priority priority, Runnable task) {
+            executor.execute(new PrioritizedTask(this, priority, sequence.getAndIncrement(), task));
+        }
+
+        void recordWait(long waitMs) {
+            completedTasks.incrementAndGet();
+            totalWaitMs.addAndGet(waitMs);
+            long currentMax;
+            do {
+                currentMax = maxWaitMs.get();
+            } while (waitMs > currentMax && !maxWaitMs.compareAndSet(currentMax, waitMs));
+        }
+
+        int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        void logStats() {
+            long completed = completedTasks.get();
+            Log.d(TAG, name + ": queueDepth=" + getQueueDepth() + ", active=" + executor.getActiveCount()
+                    + ", completed=" + completed + ", avgWaitMs=" + (completed == 0 ? 0 : totalWaitMs.get() / completed)
+                    + ", maxWaitMs=" + maxWaitMs.get());
+        }
+    }
+
+    private static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Lane lane;
+        private final Priority priority;
+        private final long sequence;
+        private final Runnable task;
+        private final long enqueuedAtMs = SystemClock.elapsedRealtime();
+
+        PrioritizedTask(Lane lane, Priority priority, long sequence, Runnable task) {
+            this.lane = lane;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            lane.recordWait(SystemClock.elapsedRealtime() - enqueuedAtMs);
+            task.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull PrioritizedTask other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static final class LaneThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        LaneThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            return new Thread(runnable, name + "-" + count.incrementAndGet());
+        }
+    }
+}
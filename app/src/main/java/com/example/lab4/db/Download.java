@@ -0,0 +1,85 @@
+package com.example.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "downloads",
+        foreignKeys = @ForeignKey(entity = Playlist.class,
+                parentColumns = "playlist_id",
+                childColumns = "playlist_id",
+                onDelete = ForeignKey.SET_NULL),
+        indices = {@Index("playlist_id"), @Index("state")})
+public class Download {
+
+    public static final int STATE_QUEUED = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_COMPLETED = 2;
+    public static final int STATE_FAILED = 3;
+
+    public static final long LENGTH_UNKNOWN = -1;
+
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "download_id")
+    public long downloadId;
+
+    @NonNull
+    @ColumnInfo(name = "source_url")
+    public String sourceUrl;
+
+    @Nullable
+    @ColumnInfo(name = "playlist_id")
+    public Long playlistId;
+
+    @ColumnInfo(name = "title")
+    public String title;
+
+    @ColumnInfo(name = "mime_type")
+    public String mimeType;
+
+    @ColumnInfo(name = "total_bytes")
+    public long totalBytes = LENGTH_UNKNOWN;
+
+    @ColumnInfo(name = "file_path")
+    public String filePath;
+
+    @ColumnInfo(name = "state")
+    public int state = STATE_QUEUED;
+
+    @ColumnInfo(name = "etag")
+    public String etag;
+
+    @ColumnInfo(name = "last_modified")
+    public String lastModified;
+
+    @ColumnInfo(name = "expected_sha256")
+    public String expectedSha256;
+
+    @ColumnInfo(name = "attempts", defaultValue = "0")
+    public int attempts;
+
+    @ColumnInfo(name = "next_attempt_at", defaultValue = "0")
+    public long nextAttemptAt;
+
+    @ColumnInfo(name = "last_error")
+    public String lastError;
+
+    @ColumnInfo(name = "reused_bytes", defaultValue = "0")
+    public long reusedBytes;
+
+    @ColumnInfo(name = "created_at")
+    public long createdAt;
+
+    @ColumnInfo(name = "updated_at")
+    public long updatedAt;
+
+    public Download(@NonNull String sourceUrl, @Nullable Long playlistId, String title) {
+        this.sourceUrl = sourceUrl;
+        this.playlistId = playlistId;
+        this.title = title;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.lab4.db;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "download_segments",
+        foreignKeys = @ForeignKey(entity = Download.class,
+                parentColumns = "download_id",
+                childColumns = "download_id",
+                onDelete = ForeignKey.CASCADE),
+        indices = {@Index("download_id")})
+public class DownloadSegment {
+
+    public static final long OPEN_ENDED = -1;
+
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "segment_id")
+    public long segmentId;
+
+    @ColumnInfo(name = "download_id")
+    public long downloadId;
+
+    @ColumnInfo(name = "start_offset")
+    public long startOffset;
+
+    @ColumnInfo(name = "end_offset")
+    public long endOffset;
+
+    @ColumnInfo(name = "bytes_written")
+    public long bytesWritten;
+
+    @ColumnInfo(name = "attempts")
+    public int attempts;
+
+    public DownloadSegment(long downloadId, long startOffset, long endOffset) {
+        this.downloadId = downloadId;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+
+    public boolean isComplete() {
+        return endOffset != OPEN_ENDED && startOffset + bytesWritten > endOffset;
+    }
+
+    public long nextOffset() {
+        return startOffset + bytesWritten;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "media",
+        indices = {@Index(value = "media_uri", unique = true), @Index("blob_digest")})
+public class Media {
+
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "media_id")
+    public long mediaId;
+
+    @NonNull
+    @ColumnInfo(name = "media_uri")
+    public String mediaUri;
+
+    @ColumnInfo(name = "media_title")
+    public String mediaTitle;
+
+    @Nullable
+    @ColumnInfo(name = "blob_digest")
+    public String blobDigest;
+
+    public Media(@NonNull String mediaUri, String mediaTitle, @Nullable String blobDigest) {
+        this.mediaUri = mediaUri;
+        this.mediaTitle = mediaTitle;
+        this.blobDigest = blobDigest;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "media_blobs")
+public class MediaBlob {
+
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "blob_digest")
+    public String blobDigest;
+
+    @NonNull
+    @ColumnInfo(name = "blob_path")
+    public String blobPath;
+
+    @ColumnInfo(name = "blob_size")
+    public long blobSize;
+
+    @ColumnInfo(name = "ref_count")
+    public int refCount;
+
+    public MediaBlob(@NonNull String blobDigest, @NonNull String blobPath, long blobSize) {
+        this.blobDigest = blobDigest;
+        this.blobPath = blobPath;
+        this.blobSize = blobSize;
+    }
+}
@@ -1,12 +1,16 @@
 package com.example.lab4.db;
 
 import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
+import androidx.room.Update;
 
+import java.util.ArrayList;
 import java.util.List;
 
 @Dao
@@ -15,8 +19,14 @@ public interface MediaDao {
     @Insert(onConflict = OnConflictStrategy.IGNORE)
     long insertPlaylist(Playlist playlist);
 
-    @Query("SELECT * FROM playlists ORDER BY playlist_name ASC")
-    LiveData<List<Playlist>> getAllPlaylists();
+    @Query("SELECT playlists.*, IFNULL(playlist_stats.item_count, 0) AS item_count, "
+            + "IFNULL(playlist_stats.total_duration_ms, 0) AS total_duration_ms FROM playlists "
+            + "LEFT JOIN playlist_stats ON playlist_stats.playlist_id = playlists.playlist_id "
+            + "ORDER BY playlist_name ASC")
+    LiveData<List<PlaylistSummary>> getAllPlaylists();
+
+    @Query("SELECT * FROM playlist_stats WHERE playlist_id = :playlistId")
+    PlaylistStats getPlaylistStats(long playlistId);
 
     @Query("SELECT * FROM playlists ORDER BY playlist_name ASC")
     List<Playlist> getAllPlaylistsSync();
@@ -30,12 +40,296 @@ public interface MediaDao {
     @Delete
     void deletePlaylist(Playlist playlist);
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertMediaItem(MediaItem mediaItem);
+    @Query("SELECT media_id FROM media WHERE media_uri = :mediaUri")
+    Long getMediaIdByUri(String mediaUri);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertMediaRow(Media media);
+
+    @Query("UPDATE media SET media_title = IFNULL(media_title, :mediaTitle), blob_digest = IFNULL(blob_digest, :blobDigest) "
+            + "WHERE media_id = :mediaId")
+    void fillMissingMediaFields(long mediaId, String mediaTitle, String blobDigest);
+
+    @Transaction
+    default long upsertMedia(MediaItem mediaItem) {
+        String mediaUri = MediaUris.normalize(mediaItem.mediaUri);
+        Long existingId = getMediaIdByUri(mediaUri);
+        if (existingId != null) {
+            fillMissingMediaFields(existingId, mediaItem.mediaTitle, mediaItem.blobDigest);
+            return existingId;
+        }
+        return insertMediaRow(new Media(mediaUri, mediaItem.mediaTitle, mediaItem.blobDigest));
+    }
+
+    @Insert
+    long insertPlaylistEntry(PlaylistEntry entry);
+
+    @Insert
+    List<Long> insertPlaylistEntries(List<PlaylistEntry> entries);
+
+    @Query("SELECT IFNULL(MAX(position), 0) FROM playlist_entries WHERE playlist_id = :playlistId")
+    long getMaxPosition(long playlistId);
+
+    @Transaction
+    default void insertMediaItem(MediaItem mediaItem) {
+        mediaItem.mediaId = upsertMedia(mediaItem);
+        mediaItem.position = getMaxPosition(mediaItem.playlistCreatorId) + MediaItemOrdering.POSITION_GAP;
+        mediaItem.ordinal = getPlaylistLength(mediaItem.playlistCreatorId);
+        mediaItem.entryId = insertPlaylistEntry(new PlaylistEntry(mediaItem.playlistCreatorId, mediaItem.mediaId,
+                mediaItem.position, mediaItem.ordinal));
+    }
+
+    @Transaction
+    default int importMediaItems(long playlistId, List<MediaItem> mediaItems) {
+        if (getPlaylistById(playlistId) == null) {
+            return 0;
+        }
+        long position = getMaxPosition(playlistId);
+        int ordinal = getPlaylistLength(playlistId);
+        List<PlaylistEntry> entries = new ArrayList<>(mediaItems.size());
+        for (MediaItem item : mediaItems) {
+            item.playlistCreatorId = playlistId;
+            item.mediaId = upsertMedia(item);
+            position += MediaItemOrdering.POSITION_GAP;
+            item.position = position;
+            item.ordinal = ordinal++;
+            entries.add(new PlaylistEntry(playlistId, item.mediaId, position, item.ordinal));
+        }
+        insertPlaylistEntries(entries);
+        return mediaItems.size();
+    }
+
+    @Query("SELECT * FROM playlist_media WHERE entry_id = :entryId")
+    MediaItem getMediaItemById(long entryId);
+
+    @Query("UPDATE playlist_entries SET position = :position WHERE entry_id = :entryId")
+    int updateMediaItemPosition(long entryId, long position);
+
+    @Query("UPDATE playlist_entries SET ordinal = :ordinal WHERE entry_id = :entryId")
+    int updateMediaItemOrdinal(long entryId, int ordinal);
+
+    @Query("UPDATE playlist_entries SET ordinal = ordinal + :delta "
+            + "WHERE playlist_id = :playlistId AND ordinal >= :fromOrdinal AND ordinal <= :toOrdinal")
+    int shiftOrdinals(long playlistId, int fromOrdinal, int toOrdinal, int delta);
+
+    @Query("SELECT ordinal FROM playlist_entries WHERE playlist_id = :playlistId AND position < :position "
+            + "AND entry_id != :entryId ORDER BY position DESC LIMIT 1")
+    Integer getOrdinalBeforePosition(long playlistId, long position, long entryId);
+
+    @Query("SELECT entry_id FROM playlist_entries WHERE playlist_id = :playlistId ORDER BY position ASC, entry_id ASC")
+    List<Long> getOrderedEntryIds(long playlistId);
+
+    @Transaction
+    default boolean moveMediaItem(long entryId, long afterEntryId, long beforeEntryId) {
+        MediaItem item = getMediaItemById(entryId);
+        if (item == null) {
+            return false;
+        }
+        MediaItem after = afterEntryId > 0 ? getMediaItemById(afterEntryId) : null;
+        MediaItem before = beforeEntryId > 0 ? getMediaItemById(beforeEntryId) : null;
+        Long lower = after != null ? after.position : null;
+        Long upper = before != null ? before.position : null;
+        long position = MediaItemOrdering.between(lower, upper);
+        if (position == MediaItemOrdering.NO_ROOM) {
+            rebalancePositions(item.playlistCreatorId);
+            lower = after != null ? getMediaItemById(afterEntryId).position : null;
+            upper = before != null ? getMediaItemById(beforeEntryId).position : null;
+            position = MediaItemOrdering.between(lower, upper);
+        }
+        updateMediaItemPosition(entryId, position);
+        Integer previous = getOrdinalBeforePosition(item.playlistCreatorId, position, entryId);
+        int ordinal = previous == null ? 0 : previous < item.ordinal ? previous + 1 : previous;
+        if (ordinal < item.ordinal) {
+            shiftOrdinals(item.playlistCreatorId, ordinal, item.ordinal - 1, 1);
+        } else if (ordinal > item.ordinal) {
+            shiftOrdinals(item.playlistCreatorId, item.ordinal + 1, ordinal, -1);
+        }
+        updateMediaItemOrdinal(entryId, ordinal);
+        return MediaItemOrdering.isTight(lower, position, upper);
+    }
 
-    @Query("SELECT * FROM media_items WHERE playlist_creator_id = :playlistId ORDER BY media_id ASC")
+    @Transaction
+    default int rebalancePositions(long playlistId) {
+        List<Long> orderedIds = getOrderedEntryIds(playlistId);
+        for (int i = 0; i < orderedIds.size(); i++) {
+            updateMediaItemPosition(orderedIds.get(i), (i + 1) * MediaItemOrdering.POSITION_GAP);
+        }
+        return orderedIds.size();
+    }
+
+    @Query("SELECT * FROM playlist_media WHERE playlist_id = :playlistId ORDER BY position ASC")
     LiveData<List<MediaItem>> getMediaItemsForPlaylist(long playlistId);
 
-    @Delete
-    void deleteMediaItem(MediaItem mediaItem);
-}
\ No newline at end of file
+    @Query("SELECT * FROM playlist_media WHERE playlist_id = :playlistId ORDER BY position ASC")
+    List<MediaItem> getMediaItemsForPlaylistSync(long playlistId);
+
+    @Transaction
+    @Query("SELECT * FROM playlists WHERE playlist_id = :playlistId")
+    PlaylistWithMedia getPlaylistWithMedia(long playlistId);
+
+    @Query("SELECT * FROM playlist_media WHERE playlist_id = :playlistId AND position > :afterPosition ORDER BY position ASC LIMIT :limit")
+    List<MediaItem> getMediaItemsPageAfter(long playlistId, long afterPosition, int limit);
+
+    @Query("SELECT * FROM playlist_media WHERE playlist_id = :playlistId AND position < :beforePosition ORDER BY position DESC LIMIT :limit")
+    List<MediaItem> getMediaItemsPageBefore(long playlistId, long beforePosition, int limit);
+
+    @Query("SELECT * FROM playlist_media WHERE playlist_id = :playlistId AND ordinal >= :ordinal "
+            + "ORDER BY ordinal ASC LIMIT :limit")
+    List<MediaItem> getMediaItemsAtOrdinal(long playlistId, int ordinal, int limit);
+
+    @Query("SELECT IFNULL(MAX(ordinal) + 1, 0) FROM playlist_entries WHERE playlist_id = :playlistId")
+    int getPlaylistLength(long playlistId);
+
+    @Query("DELETE FROM playlist_entries WHERE entry_id = :entryId")
+    int deletePlaylistEntryRow(long entryId);
+
+    @Transaction
+    default int deletePlaylistEntry(long entryId) {
+        MediaItem item = getMediaItemById(entryId);
+        if (item == null) {
+            return 0;
+        }
+        int deleted = deletePlaylistEntryRow(entryId);
+        shiftOrdinals(item.playlistCreatorId, item.ordinal + 1, Integer.MAX_VALUE, -1);
+        return deleted;
+    }
+
+    default void deleteMediaItem(MediaItem mediaItem) {
+        deletePlaylistEntry(mediaItem.entryId);
+    }
+
+    @Query("SELECT COUNT(*) FROM media")
+    int getMediaCount();
+
+    @Query("SELECT COUNT(*) FROM playlist_entries")
+    int getPlaylistEntryCount();
+
+    @Query("DELETE FROM now_playing_queue")
+    void clearNowPlayingQueue();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertNowPlayingItems(List<NowPlayingItem> items);
+
+    @Transaction
+    default void replaceNowPlayingQueue(List<NowPlayingItem> items) {
+        clearNowPlayingQueue();
+        insertNowPlayingItems(items);
+    }
+
+    @Query("SELECT * FROM now_playing_queue ORDER BY queue_index ASC")
+    List<NowPlayingItem> getNowPlayingQueue();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertNowPlayingState(NowPlayingState state);
+
+    @Query("SELECT * FROM now_playing_state WHERE state_id = 0")
+    NowPlayingState getNowPlayingState();
+
+    @Transaction
+    default NowPlayingSnapshot getNowPlayingSnapshot() {
+        NowPlayingState state = getNowPlayingState();
+        return state == null ? null : new NowPlayingSnapshot(state, getNowPlayingQueue());
+    }
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertResumePositions(List<ResumePosition> positions);
+
+    @Query("SELECT * FROM resume_positions WHERE media_uri = :mediaUri")
+    ResumePosition getResumePosition(String mediaUri);
+
+    @Query("DELETE FROM resume_positions WHERE updated_at < :cutoff")
+    int deleteResumePositionsOlderThan(long cutoff);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertMediaBlob(MediaBlob mediaBlob);
+
+    @Query("SELECT * FROM media_blobs WHERE blob_digest = :digest LIMIT 1")
+    MediaBlob getMediaBlob(String digest);
+
+    @Query("SELECT * FROM media_blobs WHERE ref_count <= 0")
+    List<MediaBlob> getUnreferencedMediaBlobs();
+
+    @Query("DELETE FROM media_blobs WHERE blob_digest = :digest AND ref_count <= 0")
+    int deleteMediaBlobIfUnreferenced(String digest);
+
+    @Query("SELECT COUNT(*) FROM media_blobs")
+    int getMediaBlobCount();
+
+    @Query("SELECT COALESCE(SUM(blob_size), 0) FROM media_blobs")
+    long getStoredBlobBytes();
+
+    @Query("SELECT COALESCE(SUM(blob_size * (ref_count - 1)), 0) FROM media_blobs WHERE ref_count > 1")
+    long getDeduplicatedBlobBytes();
+
+    @Query("SELECT * FROM media_metadata WHERE media_uri IN (:mediaUris)")
+    List<MediaMetadataEntry> getMediaMetadata(List<String> mediaUris);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertMediaMetadata(List<MediaMetadataEntry> entries);
+
+    @Query("SELECT media.media_uri FROM media "
+            + "LEFT JOIN media_metadata ON media_metadata.media_uri = media.media_uri "
+            + "WHERE (media_metadata.media_uri IS NULL OR media_metadata.metadata_extracted = 0) "
+            + "AND media.media_uri NOT LIKE 'http%' AND media.media_uri NOT LIKE 'rtsp%' "
+            + "LIMIT :limit")
+    List<String> getUrisPendingMetadataExtraction(int limit);
+
+    @Query("SELECT * FROM playlist_media "
+            + "WHERE media_id IN (SELECT docid FROM media_fts WHERE media_fts MATCH :match) "
+            + "OR playlist_id IN (SELECT docid FROM playlists_fts WHERE playlists_fts MATCH :match) "
+            + "GROUP BY media_id "
+            + "ORDER BY media_id NOT IN (SELECT docid FROM media_fts WHERE media_fts MATCH :match), "
+            + "media_title NOT LIKE :titlePrefix ESCAPE '\\', length(media_title), media_id")
+    PagingSource<Integer, MediaItem> searchMediaMatching(String match, String titlePrefix);
+
+    default PagingSource<Integer, MediaItem> searchMedia(String query) {
+        String match = MediaSearchQuery.toMatchExpression(query);
+        return searchMediaMatching(match != null ? match : "\"\"", MediaSearchQuery.toLikePrefix(query));
+    }
+
+    @Query("SELECT COUNT(*) FROM media_fts WHERE media_fts MATCH :match")
+    int countTitleMatches(String match);
+
+    @Query("SELECT COUNT(*) FROM media WHERE media_title LIKE :pattern ESCAPE '\\'")
+    int countTitleLike(String pattern);
+
+    @Insert
+    long insertDownload(Download download);
+
+    @Update
+    int updateDownload(Download download);
+
+    @Query("SELECT * FROM downloads WHERE download_id = :downloadId")
+    Download getDownload(long downloadId);
+
+    @Query("SELECT * FROM downloads WHERE state IN (" + Download.STATE_QUEUED + ", " + Download.STATE_RUNNING + ") ORDER BY next_attempt_at, created_at")
+    List<Download> getUnfinishedDownloads();
+
+    @Query("SELECT COUNT(*) FROM downloads WHERE state = " + Download.STATE_RUNNING
+            + " OR (state = " + Download.STATE_QUEUED + " AND next_attempt_at <= :now)")
+    int countDueDownloads(long now);
+
+    @Query("SELECT MIN(next_attempt_at) FROM downloads WHERE state IN (" + Download.STATE_QUEUED + ", " + Download.STATE_RUNNING + ")")
+    Long getNextDownloadAttemptAt();
+
+    @Query("UPDATE downloads SET state = :state, updated_at = :updatedAt WHERE download_id = :downloadId")
+    int updateDownloadState(long downloadId, int state, long updatedAt);
+
+    @Query("SELECT IFNULL(SUM(reused_bytes), 0) FROM downloads WHERE state = " + Download.STATE_COMPLETED)
+    long getReusedDownloadBytes();
+
+    @Insert
+    List<Long> insertDownloadSegments(List<DownloadSegment> segments);
+
+    @Query("SELECT * FROM download_segments WHERE download_id = :downloadId ORDER BY start_offset")
+    List<DownloadSegment> getDownloadSegments(long downloadId);
+
+    @Query("UPDATE download_segments SET bytes_written = :bytesWritten WHERE segment_id = :segmentId")
+    int updateSegmentProgress(long segmentId, long bytesWritten);
+
+    @Query("UPDATE download_segments SET bytes_written = :bytesWritten, attempts = attempts + 1 WHERE segment_id = :segmentId")
+    int recordSegmentRetry(long segmentId, long bytesWritten);
+
+    @Query("DELETE FROM download_segments WHERE download_id = :downloadId")
+    int deleteDownloadSegments(long downloadId);
+}
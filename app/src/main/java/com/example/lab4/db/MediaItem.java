@@ -1,21 +1,20 @@
 package com.example.lab4.db;
 
 import androidx.room.ColumnInfo;
-import androidx.room.Entity;
-import androidx.room.ForeignKey;
-import androidx.room.Index;
-import androidx.room.PrimaryKey;
+import androidx.room.DatabaseView;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
-@Entity(tableName = "media_items",
-        foreignKeys = @ForeignKey(entity = Playlist.class,
-                parentColumns = "playlist_id",
-                childColumns = "playlist_creator_id",
-                onDelete = ForeignKey.CASCADE),
-        indices = {@Index("playlist_creator_id")})
+@DatabaseView(viewName = "playlist_media", value = MediaItem.VIEW_QUERY)
 public class MediaItem {
 
-    @PrimaryKey(autoGenerate = true)
+    static final String VIEW_QUERY = "SELECT playlist_entries.entry_id, playlist_entries.playlist_id, "
+            + "playlist_entries.position, playlist_entries.ordinal, media.media_id, media.media_uri, media.media_title, media.blob_digest "
+            + "FROM playlist_entries INNER JOIN media ON media.media_id = playlist_entries.media_id";
+
+    @ColumnInfo(name = "entry_id")
+    public long entryId;
+
     @ColumnInfo(name = "media_id")
     public long mediaId;
 
@@ -26,12 +25,22 @@ public class MediaItem {
     @ColumnInfo(name = "media_title")
     public String mediaTitle;
 
-    @ColumnInfo(name = "playlist_creator_id")
+    @ColumnInfo(name = "playlist_id")
     public long playlistCreatorId;
 
+    @Nullable
+    @ColumnInfo(name = "blob_digest")
+    public String blobDigest;
+
+    @ColumnInfo(name = "position")
+    public long position;
+
+    @ColumnInfo(name = "ordinal")
+    public int ordinal;
+
     public MediaItem(@NonNull String mediaUri, String mediaTitle, long playlistCreatorId) {
         this.mediaUri = mediaUri;
         this.mediaTitle = mediaTitle;
         this.playlistCreatorId = playlistCreatorId;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,34 @@
+package com.example.lab4.db;
+
+import androidx.annotation.Nullable;
+
+public final class MediaItemOrdering {
+
+    public static final long POSITION_GAP = 1L << 20;
+    public static final long NO_ROOM = Long.MIN_VALUE;
+    static final long REBALANCE_THRESHOLD = 4;
+
+    private MediaItemOrdering() {
+    }
+
+    public static long between(@Nullable Long lower, @Nullable Long upper) {
+        if (lower == null && upper == null) {
+            return POSITION_GAP;
+        }
+        if (lower == null) {
+            return upper - POSITION_GAP;
+        }
+        if (upper == null) {
+            return lower + POSITION_GAP;
+        }
+        if (upper - lower < 2) {
+            return NO_ROOM;
+        }
+        return lower + (upper - lower) / 2;
+    }
+
+    static boolean isTight(@Nullable Long lower, long position, @Nullable Long upper) {
+        return (lower != null && position - lower < REBALANCE_THRESHOLD)
+                || (upper != null && upper - position < REBALANCE_THRESHOLD);
+    }
+}
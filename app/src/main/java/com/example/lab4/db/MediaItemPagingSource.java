@@ -0,0 +1,99 @@
+package com.example.lab4.db;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.paging.ListenableFuturePagingSource;
+import androidx.paging.PagingState;
+import androidx.room.InvalidationTracker;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import kotlin.Unit;
+
+public class MediaItemPagingSource extends ListenableFuturePagingSource<Long, MediaItem> {
+
+    private static final String TAG = "MediaItemPagingSource";
+
+    private final MediaDao mediaDao;
+    private final long playlistId;
+    private final Executor queryExecutor;
+    private final InvalidationTracker invalidationTracker;
+    private final InvalidationTracker.Observer invalidationObserver;
+    private final AtomicBoolean observerRegistered = new AtomicBoolean(false);
+
+    public MediaItemPagingSource(AppDatabase db, long playlistId) {
+        this.mediaDao = db.mediaDao();
+        this.playlistId = playlistId;
+        this.queryExecutor = db.getQueryExecutor();
+        this.invalidationTracker = db.getInvalidationTracker();
+        this.invalidationObserver = new InvalidationTracker.Observer("playlist_entries", "media") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidate();
+            }
+        };
+        registerInvalidatedCallback(() -> {
+            if (observerRegistered.get()) {
+                invalidationTracker.removeObserver(invalidationObserver);
+            }
+            return Unit.INSTANCE;
+        });
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<LoadResult<Long, MediaItem>> loadFuture(@NonNull LoadParams<Long> params) {
+        ListenableFutureTask<LoadResult<Long, MediaItem>> task = ListenableFutureTask.create(() -> {
+            try {
+                return loadPage(params);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading page for playlist ID: " + playlistId, e);
+                return new LoadResult.Error<>(e);
+            }
+        });
+        queryExecutor.execute(task);
+        return task;
+    }
+
+    private LoadResult<Long, MediaItem> loadPage(LoadParams<Long> params) {
+        if (observerRegistered.compareAndSet(false, true)) {
+            invalidationTracker.addObserver(invalidationObserver);
+        }
+        Long key = params.getKey();
+        int loadSize = params.getLoadSize();
+
+        if (params instanceof LoadParams.Prepend) {
+            List<MediaItem> items = new ArrayList<>(mediaDao.getMediaItemsPageBefore(playlistId, key, loadSize));
+            Collections.reverse(items);
+            Long prevKey = items.size() < loadSize ? null : items.get(0).position;
+            return new LoadResult.Page<>(items, prevKey, key);
+        }
+
+        long afterPosition = key != null ? key : Long.MIN_VALUE;
+        List<MediaItem> items = mediaDao.getMediaItemsPageAfter(playlistId, afterPosition, loadSize);
+        Long prevKey = (key == null || items.isEmpty()) ? null : items.get(0).position;
+        Long nextKey = items.size() < loadSize ? null : items.get(items.size() - 1).position;
+        return new LoadResult.Page<>(items, prevKey, nextKey);
+    }
+
+    @Nullable
+    @Override
+    public Long getRefreshKey(@NonNull PagingState<Long, MediaItem> state) {
+        Integer anchorPosition = state.getAnchorPosition();
+        if (anchorPosition == null) {
+            return null;
+        }
+        MediaItem anchorItem = state.closestItemToPosition(anchorPosition);
+        return anchorItem != null ? anchorItem.position - 1 : null;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "media_metadata")
+public class MediaMetadataEntry {
+
+    public static final long UNKNOWN = -1;
+
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "media_uri")
+    public String mediaUri;
+
+    @Nullable
+    @ColumnInfo(name = "display_name")
+    public String displayName;
+
+    @ColumnInfo(name = "size_bytes")
+    public long sizeBytes = UNKNOWN;
+
+    @Nullable
+    @ColumnInfo(name = "mime_type")
+    public String mimeType;
+
+    @ColumnInfo(name = "duration_ms")
+    public long durationMs = UNKNOWN;
+
+    @Nullable
+    @ColumnInfo(name = "artist")
+    public String artist;
+
+    @Nullable
+    @ColumnInfo(name = "album")
+    public String album;
+
+    @Nullable
+    @ColumnInfo(name = "artwork_path")
+    public String artworkPath;
+
+    @ColumnInfo(name = "metadata_extracted", defaultValue = "0")
+    public boolean metadataExtracted;
+
+    public MediaMetadataEntry(@NonNull String mediaUri) {
+        this.mediaUri = mediaUri;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.lab4.db;
+
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+public final class MediaSearchQuery {
+
+    private static final int MAX_TERMS = 8;
+
+    private MediaSearchQuery() {
+    }
+
+    @Nullable
+    public static String toMatchExpression(@Nullable String query) {
+        if (query == null) return null;
+        StringBuilder match = new StringBuilder();
+        int terms = 0;
+        for (String token : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty()) continue;
+            if (match.length() > 0) match.append(' ');
+            match.append(token).append('*');
+            if (++terms == MAX_TERMS) break;
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    public static String toLikePrefix(String query) {
+        return escapeLike(query.trim()) + "%";
+    }
+
+    public static String toLikeContains(String query) {
+        return "%" + escapeLike(query.trim()) + "%";
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
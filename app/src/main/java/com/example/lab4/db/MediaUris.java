@@ -0,0 +1,20 @@
+package com.example.lab4.db;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+public final class MediaUris {
+
+    private MediaUris() {
+    }
+
+    @NonNull
+    public static String normalize(@NonNull String mediaUri) {
+        String trimmed = mediaUri.trim();
+        if (trimmed.isEmpty()) {
+            return trimmed;
+        }
+        return Uri.parse(trimmed).normalizeScheme().toString();
+    }
+}
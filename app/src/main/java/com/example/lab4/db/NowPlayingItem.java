@@ -0,0 +1,32 @@
+package com.example.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "now_playing_queue")
+public class NowPlayingItem {
+
+    @PrimaryKey
+    @ColumnInfo(name = "queue_index")
+    public int queueIndex;
+
+    @NonNull
+    @ColumnInfo(name = "media_id")
+    public String mediaId;
+
+    @NonNull
+    @ColumnInfo(name = "media_uri")
+    public String mediaUri;
+
+    @ColumnInfo(name = "media_title")
+    public String mediaTitle;
+
+    public NowPlayingItem(int queueIndex, @NonNull String mediaId, @NonNull String mediaUri, String mediaTitle) {
+        this.queueIndex = queueIndex;
+        this.mediaId = mediaId;
+        this.mediaUri = mediaUri;
+        this.mediaTitle = mediaTitle;
+    }
+}
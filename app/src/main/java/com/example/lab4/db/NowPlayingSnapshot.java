@@ -0,0 +1,14 @@
+package com.example.lab4.db;
+
+import java.util.List;
+
+public class NowPlayingSnapshot {
+
+    public final NowPlayingState state;
+    public final List<NowPlayingItem> queue;
+
+    public NowPlayingSnapshot(NowPlayingState state, List<NowPlayingItem> queue) {
+        this.state = state;
+        this.queue = queue;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.lab4.db;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "now_playing_state")
+public class NowPlayingState {
+
+    public static final int SINGLETON_ID = 0;
+
+    @PrimaryKey
+    @ColumnInfo(name = "state_id")
+    public int stateId = SINGLETON_ID;
+
+    @ColumnInfo(name = "current_index")
+    public int currentIndex;
+
+    @ColumnInfo(name = "position_ms")
+    public long positionMs;
+
+    @ColumnInfo(name = "shuffle_enabled")
+    public boolean shuffleEnabled;
+
+    @ColumnInfo(name = "repeat_mode")
+    public int repeatMode;
+
+    @ColumnInfo(name = "playlist_id", defaultValue = "-1")
+    public long playlistId = -1;
+
+    @ColumnInfo(name = "current_entry_id", defaultValue = "-1")
+    public long currentEntryId = -1;
+
+    @ColumnInfo(name = "updated_at")
+    public long updatedAt;
+}
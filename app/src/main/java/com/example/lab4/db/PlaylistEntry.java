@@ -0,0 +1,44 @@
+package com.example.lab4.db;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "playlist_entries",
+        foreignKeys = {
+                @ForeignKey(entity = Playlist.class,
+                        parentColumns = "playlist_id",
+                        childColumns = "playlist_id",
+                        onDelete = ForeignKey.CASCADE),
+                @ForeignKey(entity = Media.class,
+                        parentColumns = "media_id",
+                        childColumns = "media_id",
+                        onDelete = ForeignKey.CASCADE)},
+        indices = {@Index(value = {"playlist_id", "position"}), @Index(value = {"playlist_id", "ordinal"}), @Index("media_id")})
+public class PlaylistEntry {
+
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "entry_id")
+    public long entryId;
+
+    @ColumnInfo(name = "playlist_id")
+    public long playlistId;
+
+    @ColumnInfo(name = "media_id")
+    public long mediaId;
+
+    @ColumnInfo(name = "position")
+    public long position;
+
+    @ColumnInfo(name = "ordinal", defaultValue = "0")
+    public int ordinal;
+
+    public PlaylistEntry(long playlistId, long mediaId, long position, int ordinal) {
+        this.playlistId = playlistId;
+        this.mediaId = mediaId;
+        this.position = position;
+        this.ordinal = ordinal;
+    }
+}
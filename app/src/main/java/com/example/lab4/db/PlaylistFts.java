@@ -0,0 +1,14 @@
+package com.example.lab4.db;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+
+@Fts4(contentEntity = Playlist.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "playlists_fts")
+public class PlaylistFts {
+
+    @ColumnInfo(name = "playlist_name")
+    public String playlistName;
+}
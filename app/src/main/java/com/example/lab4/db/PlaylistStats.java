@@ -0,0 +1,30 @@
+package com.example.lab4.db;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "playlist_stats",
+        foreignKeys = @ForeignKey(entity = Playlist.class,
+                parentColumns = "playlist_id",
+                childColumns = "playlist_id",
+                onDelete = ForeignKey.CASCADE))
+public class PlaylistStats {
+
+    @PrimaryKey
+    @ColumnInfo(name = "playlist_id")
+    public long playlistId;
+
+    @ColumnInfo(name = "item_count")
+    public long itemCount;
+
+    @ColumnInfo(name = "total_duration_ms")
+    public long totalDurationMs;
+
+    public PlaylistStats(long playlistId, long itemCount, long totalDurationMs) {
+        this.playlistId = playlistId;
+        this.itemCount = itemCount;
+        this.totalDurationMs = totalDurationMs;
+    }
+}
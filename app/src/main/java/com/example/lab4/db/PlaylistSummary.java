@@ -0,0 +1,24 @@
+package com.example.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Embedded;
+
+public class PlaylistSummary {
+
+    @NonNull
+    @Embedded
+    public Playlist playlist;
+
+    @ColumnInfo(name = "item_count")
+    public long itemCount;
+
+    @ColumnInfo(name = "total_duration_ms")
+    public long totalDurationMs;
+
+    public PlaylistSummary(@NonNull Playlist playlist, long itemCount, long totalDurationMs) {
+        this.playlist = playlist;
+        this.itemCount = itemCount;
+        this.totalDurationMs = totalDurationMs;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.lab4.db;
+
+import androidx.room.Embedded;
+import androidx.room.Relation;
+
+import java.util.List;
+
+public class PlaylistWithMedia {
+
+    @Embedded
+    public Playlist playlist;
+
+    @Relation(parentColumn = "playlist_id", entityColumn = "playlist_id")
+    public List<MediaItem> items;
+}
@@ -0,0 +1,31 @@
+package com.example.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "resume_positions")
+public class ResumePosition {
+
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "media_uri")
+    public String mediaUri;
+
+    @ColumnInfo(name = "position_ms")
+    public long positionMs;
+
+    @ColumnInfo(name = "duration_ms")
+    public long durationMs;
+
+    @ColumnInfo(name = "updated_at")
+    public long updatedAt;
+
+    public ResumePosition(@NonNull String mediaUri, long positionMs, long durationMs, long updatedAt) {
+        this.mediaUri = mediaUri;
+        this.positionMs = positionMs;
+        this.durationMs = durationMs;
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.lab4;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlaylistWindowTest {
+
+    private static final int BEHIND = 8;
+    private static final int AHEAD = 24;
+    private static final int TRANSITIONS = 500;
+    private static final int[] LENGTHS = {100, 1_000, 10_000, 100_000};
+
+    @Test
+    public void shuffleIsAPermutationOfTheFullPlaylist() {
+        for (int length : new int[]{1, 2, 3, 7, 100, 1_023, 1_024, 100_003}) {
+            PlaylistWindow window = new PlaylistWindow(length, BEHIND, AHEAD, 42);
+            window.setShuffled(true);
+            BitSet seen = new BitSet(length);
+            for (int step = 0; step < length; step++) {
+                int ordinal = window.ordinalAt(step);
+                assertTrue(ordinal >= 0 && ordinal < length);
+                assertFalse("ordinal " + ordinal + " repeated for length " + length, seen.get(ordinal));
+                seen.set(ordinal);
+                assertEquals(step, window.stepOfOrdinal(ordinal));
+            }
+        }
+    }
+
+    @Test
+    public void windowSizeAndPrepareCostDoNotGrowWithPlaylistLength() {
+        int expectedPrepared = -1;
+        int expectedPeak = -1;
+        for (int length : LENGTHS) {
+            for (boolean shuffled : new boolean[]{false, true}) {
+                PlaylistWindow window = new PlaylistWindow(length, BEHIND, AHEAD, length);
+                window.setShuffled(shuffled);
+                window.setWrap(true);
+
+                SimulatedQueue queue = new SimulatedQueue(window, length / 2);
+                int prepared = queue.materialized;
+
+                BitSet played = new BitSet(length);
+                int peak = queue.ordinals.size();
+                for (int i = 0; i < TRANSITIONS; i++) {
+                    queue.next();
+                    peak = Math.max(peak, queue.ordinals.size());
+                    if (length > TRANSITIONS) {
+                        int ordinal = queue.currentOrdinal();
+                        assertFalse("ordinal " + ordinal + " played twice", played.get(ordinal));
+                        played.set(ordinal);
+                    }
+                }
+                String label = "length=" + length + " shuffled=" + shuffled;
+
+                if (expectedPrepared < 0) {
+                    expectedPrepared = prepared;
+                    expectedPeak = peak;
+                }
+                assertEquals(label, expectedPrepared, prepared);
+                assertEquals(label, expectedPeak, peak);
+                assertTrue(label + ": peak window " + peak, peak <= window.capacity() + AHEAD);
+            }
+        }
+    }
+
+    @Test
+    public void seekAndShuffleToggleReachAnyOrdinal() {
+        int length = 100_000;
+        PlaylistWindow window = new PlaylistWindow(length, BEHIND, AHEAD, 7);
+        SimulatedQueue queue = new SimulatedQueue(window, 0);
+        for (int i = 0; i < 5; i++) {
+            queue.next();
+        }
+        assertEquals(5, queue.currentOrdinal());
+
+        queue.seekToOrdinal(length - 1);
+        assertEquals(length - 1, queue.currentOrdinal());
+        assertEquals(BEHIND + 1, queue.ordinals.size());
+
+        window.setShuffled(true);
+        queue.seekToOrdinal(queue.currentOrdinal());
+        assertEquals(length - 1, queue.currentOrdinal());
+        int first = queue.currentOrdinal();
+        queue.next();
+        assertTrue(queue.currentOrdinal() != first);
+
+        window.setShuffled(false);
+        int ordinal = queue.currentOrdinal();
+        queue.seekToOrdinal(ordinal);
+        queue.next();
+        assertEquals(ordinal + 1, queue.currentOrdinal());
+    }
+
+    private static final class SimulatedQueue {
+        private final PlaylistWindow window;
+        private final List<Integer> ordinals = new ArrayList<>();
+        private int index;
+        private int materialized;
+
+        SimulatedQueue(PlaylistWindow window, int startOrdinal) {
+            this.window = window;
+            int step = window.stepOfOrdinal(startOrdinal);
+            window.resetAt(step);
+            for (int i = 0; i < window.size(); i++) {
+                ordinals.add(window.ordinalAtIndex(i));
+            }
+            materialized = ordinals.size();
+            index = step - window.firstStep();
+        }
+
+        int currentOrdinal() {
+            return ordinals.get(index);
+        }
+
+        void next() {
+            if (index + 1 < ordinals.size()) {
+                index++;
+            }
+            maintain();
+        }
+
+        void seekToOrdinal(int ordinal) {
+            ordinals.clear();
+            ordinals.add(ordinal);
+            index = 0;
+            window.collapseTo(window.stepOfOrdinal(ordinal));
+            maintain();
+        }
+
+        private void maintain() {
+            int trimBehind = window.excessBehind(index);
+            if (trimBehind > 0) {
+                ordinals.subList(0, trimBehind).clear();
+                window.trimmedBehind(trimBehind);
+                index -= trimBehind;
+            }
+            int trimAhead = window.excessAhead(index);
+            if (trimAhead > 0) {
+                ordinals.subList(ordinals.size() - trimAhead, ordinals.size()).clear();
+                window.trimmedAhead(trimAhead);
+            }
+            int ahead = window.missingAhead(index);
+            int behind = window.missingBehind(index);
+            int aheadStep = window.firstStep() + window.size();
+            int behindStep = window.firstStep() - behind;
+            for (int i = 0; i < ahead; i++) {
+                ordinals.add(window.ordinalAt(aheadStep + i));
+            }
+            window.appended(ahead);
+            List<Integer> before = new ArrayList<>(behind);
+            for (int i = 0; i < behind; i++) {
+                before.add(window.ordinalAt(behindStep + i));
+            }
+            ordinals.addAll(0, before);
+            window.prepended(behind);
+            index += behind;
+            assertEquals(window.size(), ordinals.size());
+        }
+    }
+}
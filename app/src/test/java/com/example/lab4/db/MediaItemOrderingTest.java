@@ -0,0 +1,77 @@
+package com.example.lab4.db;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MediaItemOrderingTest {
+
+    private static final int ITEMS = 1_000;
+    private static final int MOVES = 1_000;
+
+    @Test
+    public void betweenPicksMidpointOrReportsNoRoom() {
+        assertEquals(MediaItemOrdering.POSITION_GAP, MediaItemOrdering.between(null, null));
+        assertEquals(10 + MediaItemOrdering.POSITION_GAP, MediaItemOrdering.between(10L, null));
+        assertEquals(10 - MediaItemOrdering.POSITION_GAP, MediaItemOrdering.between(null, 10L));
+        assertEquals(15, MediaItemOrdering.between(10L, 20L));
+        assertEquals(MediaItemOrdering.NO_ROOM, MediaItemOrdering.between(10L, 11L));
+    }
+
+    @Test
+    public void randomMovesWriteFarFewerRowsThanRenumbering() {
+        List<Long> positions = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            positions.add((i + 1) * MediaItemOrdering.POSITION_GAP);
+        }
+        Random random = new Random(42);
+        long gappedWrites = 0;
+        long shiftedRenumberWrites = 0;
+        int rebalances = 0;
+
+        for (int move = 0; move < MOVES; move++) {
+            int from = random.nextInt(ITEMS);
+            int to = random.nextInt(ITEMS);
+            positions.remove(from);
+            shiftedRenumberWrites += Math.abs(from - to) + 1;
+
+            Long lower = to > 0 ? positions.get(to - 1) : null;
+            Long upper = to < positions.size() ? positions.get(to) : null;
+            long position = MediaItemOrdering.between(lower, upper);
+            if (position == MediaItemOrdering.NO_ROOM) {
+                gappedWrites += rebalance(positions);
+                rebalances++;
+                lower = to > 0 ? positions.get(to - 1) : null;
+                upper = to < positions.size() ? positions.get(to) : null;
+                position = MediaItemOrdering.between(lower, upper);
+            }
+            positions.add(to, position);
+            gappedWrites++;
+            if (MediaItemOrdering.isTight(lower, position, upper)) {
+                gappedWrites += rebalance(positions);
+                rebalances++;
+            }
+        }
+
+        for (int i = 1; i < positions.size(); i++) {
+            assertTrue("positions must stay strictly increasing", positions.get(i) > positions.get(i - 1));
+        }
+        long fullRenumberWrites = (long) ITEMS * MOVES;
+        String writes = "gapped=" + gappedWrites + " (" + rebalances + " rebalances), shifted renumbering="
+                + shiftedRenumberWrites + ", full renumbering=" + fullRenumberWrites;
+        assertTrue(writes, gappedWrites * 10 < shiftedRenumberWrites);
+        assertTrue(writes, gappedWrites * 100 < fullRenumberWrites);
+    }
+
+    private static int rebalance(List<Long> positions) {
+        for (int i = 0; i < positions.size(); i++) {
+            positions.set(i, (i + 1) * MediaItemOrdering.POSITION_GAP);
+        }
+        return positions.size();
+    }
+}